@@ -1,22 +1,56 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Any number of aggregates can be computed in one pass, grouped by any
+ * number of columns; a single aggregate grouped by at most one column is
+ * computed with an {@link IntegerAggregator} or {@link StringAggregator},
+ * anything else with a {@link MultiAggregator}.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
-    private int afield;
-    private int gbfield;
-    private Aggregator.Op aop;
+    private int[] afields;
+    private int[] gbfields;// 空数组表示不分组
+    private Aggregator.Op[] aops;
     
     private Aggregator agg;
     private OpIterator it;
+    private int parallelism = 1;
+
+    /** Default number of groups held in memory. */
+    public static final int DEFAULT_MEMORY_BUDGET = 1000000;
+
+    private int memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /** Rows of groups that did not fit in memory, hashed with seed depth. */
+    private static class Partition {
+        final SpillFile rows;
+        final int depth;
+
+        Partition(SpillFile rows, int depth) {
+            this.rows = rows;
+            this.depth = depth;
+        }
+    }
+
+    /** A stream of input batches: the child, or a spilled partition. */
+    private interface BatchSource {
+        /** @return the next batch, or null at the end */
+        TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+    }
+
+    transient private ArrayDeque<Partition> partitions = null;
+    transient private int spilled = 0;
     
     /**
      * Constructor.
@@ -38,23 +72,117 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
 	// some code goes here
+    	this(child, new int[] {afield}, new Aggregator.Op[] {aop},
+    			gfield==Aggregator.NO_GROUPING?new int[0]:new int[] {gfield});
+    }
+
+    /**
+     * Constructor for several aggregates over composite groups. The output
+     * tuples hold the group-by fields, in the order given, followed by the
+     * value of each aggregate.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each of afields
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @throws IllegalArgumentException
+     *             if an operator is not supported on its column
+     */
+    public Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops,
+            int[] gfields) {
+    	if(afields.length==0 || afields.length!=aops.length)
+    		throw new IllegalArgumentException("need one operator per aggregate field");
     	this.child=child;
-    	this.afield=afield;
-    	this.gbfield=gfield;
-    	this.aop=aop;
-    	
+    	this.afields=afields.clone();
+    	this.aops=aops.clone();
+    	this.gbfields=gfields.clone();
+
+    	agg=newAggregator();
+    	it=agg.iterator();
+    }
+
+    /**
+     * Constructor for an aggregate computed by several threads; see
+     * {@link #setParallelism}.
+     *
+     * @param parallelism
+     *            The number of threads to aggregate with
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop,
+            int parallelism) {
+    	this(child, afield, gfield, aop);
+    	setParallelism(parallelism);
+    }
+
+    /**
+     * Set the number of threads used to aggregate. With more than one, open()
+     * hands the child's batches out to worker threads as they ask for them;
+     * each worker aggregates its batches into a thread-local partial
+     * aggregate, and the partials are merged with {@link Aggregator#merge}
+     * once the child is exhausted. If the child is a scan pipeline that
+     * {@link MorselQueue#split} can copy, each worker runs its own copy over
+     * morsels of the table, so scanning, filtering and projecting run in
+     * parallel too; otherwise reading the child stays serial.
+     */
+    public void setParallelism(int threads) {
+    	if(threads<1)
+    		throw new IllegalArgumentException("need at least one thread");
+    	this.parallelism=threads;
+    }
+
+    /**
+     * Set the number of groups open() keeps in memory. Once the aggregate
+     * holds that many groups, rows of groups already in memory are still
+     * aggregated there, but rows of new groups are hashed on the group-by
+     * fields into {@link HashEquiJoin#NUM_PARTITIONS} spill files. After the
+     * in-memory groups have been returned, each partition is aggregated on
+     * its own, and one that again has too many groups is split further with
+     * another hash function, up to {@link HashEquiJoin#MAX_DEPTH} times.
+     * <p>
+     * The budget only applies to serial aggregation.
+     */
+    public void setMemoryBudget(int groups) {
+    	if(groups<1)
+    		throw new IllegalArgumentException("need room for at least one group");
+    	this.memoryBudget=groups;
+    }
+
+    /** @return the number of partitions written to disk since open */
+    int getSpilledPartitions() {
+    	return spilled;
+    }
+
+    /**
+     * @return a new, empty aggregator for this aggregate
+     */
+    private Aggregator newAggregator() {
+    	TupleDesc td=child.getTupleDesc();
+    	if(afields.length>1 || gbfields.length>1) {// 多个聚合或多个分组列
+    		Type[] gbTypes=new Type[gbfields.length];
+    		for(int i=0;i<gbfields.length;i++)
+    			gbTypes[i]=td.getFieldType(gbfields[i]);
+    		Type[] aTypes=new Type[afields.length];
+    		for(int i=0;i<afields.length;i++)
+    			aTypes[i]=td.getFieldType(afields[i]);
+    		return new MultiAggregator(gbfields,gbTypes,afields,aTypes,aops);
+    	}
+    	int gbfield=groupField();
     	Type gbType;// 获取gbField的type，需考虑没有分组的情况
     	// no group
-    	if(gfield==Aggregator.NO_GROUPING)
+    	if(gbfield==Aggregator.NO_GROUPING)
     		gbType=null;
     	else
-    		gbType=child.getTupleDesc().getFieldType(gfield);
+    		gbType=td.getFieldType(gbfield);
     	// 根据aField字段构造aggregator
-    	if(child.getTupleDesc().getFieldType(afield)==Type.INT_TYPE)
-    		agg=new IntegerAggregator(gfield,gbType,afield,aop);
+    	if(td.getFieldType(afields[0])==Type.INT_TYPE)
+    		return new IntegerAggregator(gbfield,gbType,afields[0],aops[0]);
     	else
-    		agg=new StringAggregator(gfield,gbType,afield,aop);
-    	it=agg.iterator();
+    		return new StringAggregator(gbfield,gbType,afields[0],aops[0]);
     }
 
     /**
@@ -64,7 +192,7 @@ public class Aggregate extends Operator {
      * */
     public int groupField() {
 	// some code goes here
-    	return gbfield;
+    	return gbfields.length==0?Aggregator.NO_GROUPING:gbfields[0];
     }
 
     /**
@@ -74,18 +202,26 @@ public class Aggregate extends Operator {
      * */
     public String groupFieldName() {
 	// some code goes here
-    	if(gbfield!=-1)
-    		return child.getTupleDesc().getFieldName(gbfield);
+    	if(gbfields.length>0)
+    		return child.getTupleDesc().getFieldName(gbfields[0]);
     	else
     		return null;
     }
 
+    /**
+     * @return the indexes of all group-by fields in the <b>INPUT</b> tuples;
+     *         empty if there is no grouping
+     */
+    public int[] groupFields() {
+    	return gbfields.clone();
+    }
+
     /**
      * @return the aggregate field
      * */
     public int aggregateField() {
 	// some code goes here
-    	return afield;
+    	return afields[0];
     }
 
     /**
@@ -94,7 +230,14 @@ public class Aggregate extends Operator {
      * */
     public String aggregateFieldName() {
 	// some code goes here
-		return child.getTupleDesc().getFieldName(afield);
+		return child.getTupleDesc().getFieldName(afields[0]);
+    }
+
+    /**
+     * @return the indexes of all aggregate fields in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+    	return afields.clone();
     }
 
     /**
@@ -102,7 +245,14 @@ public class Aggregate extends Operator {
      * */
     public Aggregator.Op aggregateOp() {
 	// some code goes here
-    	return aop;
+    	return aops[0];
+    }
+
+    /**
+     * @return the operator of each of {@link #aggregateFields()}
+     */
+    public Aggregator.Op[] aggregateOps() {
+    	return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -112,14 +262,191 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	// some code goes here
+    	partitions=new ArrayDeque<Partition>();
+    	spilled=0;
     	child.open();
-    	// 将child的里的tuple全部放进aggregator
-    	while(child.hasNext())
-    		agg.mergeTupleIntoGroup(child.next());
-    	it.open();
+    	aggregateChild();
     	super.open();
     }
 
+    /**
+     * Aggregate the whole child into agg, spilling what does not fit, and
+     * open it over the in-memory groups.
+     */
+    private void aggregateChild() throws DbException, TransactionAbortedException {
+    	// 将child的里的tuple全部放进aggregator，按批读
+    	if(parallelism>1) {
+    		agg=newAggregator();
+    		aggregateInParallel();
+    	} else {
+    		agg=aggregate(new BatchSource() {
+    			public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    				return child.nextBatch();
+    			}
+    		}, 0);
+    	}
+    	it=agg.iterator();
+    	it.open();
+    }
+
+    /**
+     * Aggregate the batches of in into a new aggregator holding at most
+     * memoryBudget groups. Rows of the groups that do not fit are written to
+     * partitions hashed with seed depth, which are queued for later.
+     */
+    private Aggregator aggregate(BatchSource in, int depth) throws DbException,
+	    TransactionAbortedException {
+    	Aggregator a=newAggregator();
+    	boolean canSpill=gbfields.length>0 && depth<HashEquiJoin.MAX_DEPTH;
+    	SpillFile[] parts=null;
+    	TupleBatch batch;
+    	while((batch=in.nextBatch())!=null) {
+    		int n=batch.numRows();
+    		if(canSpill && (parts!=null || a.numGroups()+n>memoryBudget)) {
+    			// 内存快满了：已有的组继续在内存里聚合，还放得下的新组也留下，其余的行按hash写到分区里
+    			int room=memoryBudget-a.numGroups(), kept=0;
+    			HashSet<Object> admitted=new HashSet<Object>();
+    			int[] sel=new int[n];
+    			for(int r=0;r<n;r++) {
+    				Object gb=groupKey(batch, r);
+    				if(a.hasGroup(batch, r) || admitted.contains(gb)
+    						|| (admitted.size()<room && admitted.add(gb))) {
+    					sel[kept++]=r;
+    					continue;
+    				}
+    				if(parts==null) {
+    					parts=new SpillFile[HashEquiJoin.NUM_PARTITIONS];
+    					for(int i=0;i<parts.length;i++)
+    						parts[i]=new SpillFile(child.getTupleDesc());
+    				}
+    				parts[HashEquiJoin.partitionOf(gb.hashCode(), depth)].add(batch, r);
+    			}
+    			batch.retain(sel, kept);
+    		}
+    		a.mergeBatchIntoGroup(batch);
+    	}
+    	if(parts!=null) {
+    		for(SpillFile f:parts) {
+    			f.seal();
+    			if(f.size()==0) {
+    				f.delete();
+    				continue;
+    			}
+    			partitions.add(new Partition(f, depth));
+    			spilled++;
+    		}
+    	}
+    	return a;
+    }
+
+    /**
+     * @return the group-by value of row, or the list of its values when
+     *         grouping on several fields
+     */
+    private Object groupKey(TupleBatch batch, int row) {
+    	if(gbfields.length==1)
+    		return batch.getField(gbfields[0], row);
+    	Field[] key=new Field[gbfields.length];
+    	for(int i=0;i<key.length;i++)
+    		key[i]=batch.getField(gbfields[i], row);
+    	return Arrays.asList(key);
+    }
+
+    /**
+     * Aggregate the next spilled partition and point it at its groups.
+     *
+     * @return false if there are no more partitions
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+    	Partition p=partitions.poll();
+    	if(p==null)
+    		return false;
+    	final SpillFile.Reader reader=p.rows.reader();
+    	Aggregator a=aggregate(new BatchSource() {
+    		public TupleBatch nextBatch() throws DbException {
+    			return reader.nextBatch(TupleBatch.DEFAULT_SIZE);
+    		}
+    	}, p.depth+1);
+    	reader.close();
+    	p.rows.delete();
+    	it.close();
+    	it=a.iterator();
+    	it.open();
+    	return true;
+    }
+
+    private void deletePartitions() {
+    	if(partitions==null)// 还没open过
+    		return;
+    	for(Partition p:partitions)
+    		p.rows.delete();
+    	partitions.clear();
+    	spilled=0;
+    }
+
+    /**
+     * Drain the child with parallelism worker threads, each building a
+     * partial aggregate, and merge the partials into agg.
+     */
+    private void aggregateInParallel() throws DbException,
+	    TransactionAbortedException {
+    	final OpIterator[] pipelines=MorselQueue.split(child, parallelism);
+    	ExecutorService pool=Executors.newFixedThreadPool(parallelism);
+    	try {
+    		ArrayList<Future<Aggregator>> partials=new ArrayList<>();
+    		for(int i=0;i<parallelism;i++) {
+    			final int worker=i;
+    			partials.add(pool.submit(new Callable<Aggregator>() {
+    				public Aggregator call() throws Exception {
+    					Aggregator local=newAggregator();
+    					if(pipelines!=null) {// 每个worker跑自己的一份pipeline，不用抢child
+    						OpIterator mine=pipelines[worker];
+    						mine.open();
+    						try {
+    							TupleBatch batch;
+    							while((batch=mine.nextBatch())!=null)
+    								local.mergeBatchIntoGroup(batch);
+    						} finally {
+    							mine.close();
+    						}
+    						return local;
+    					}
+    					while(true) {
+    						TupleBatch batch;
+    						synchronized(Aggregate.this) {// child不是线程安全的，一次只让一个worker取
+    							batch=child.nextBatch();
+    						}
+    						if(batch==null)
+    							return local;
+    						local.mergeBatchIntoGroup(batch);
+    					}
+    				}
+    			}));
+    		}
+    		for(Future<Aggregator> f:partials)
+    			agg.merge(f.get());
+    	} catch(InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new DbException("interrupted while aggregating");
+    	} catch(ExecutionException e) {
+    		Throwable cause=e.getCause();
+    		if(cause instanceof DbException)
+    			throw (DbException)cause;
+    		if(cause instanceof TransactionAbortedException)
+    			throw (TransactionAbortedException)cause;
+    		if(cause instanceof RuntimeException)
+    			throw (RuntimeException)cause;
+    		throw new DbException("aggregation worker failed: "+cause);
+    	} finally {
+    		pool.shutdownNow();
+    		try {// 等剩下的worker停下，事务结束后不能再有人去读page
+    			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    		} catch(InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -129,17 +456,25 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
-    	// 用agg的iterator去返回tuple
-		if(it.hasNext())
-			return it.next();
-		else
-			return null;
+    	// 用agg的iterator去返回tuple，内存里的组返回完了再一个个聚合溢出的分区
+    	do {
+    		if(it.hasNext())
+    			return it.next();
+    	} while(nextPartition());
+    	return null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
     	child.rewind();
-    	it.rewind();
+    	if(spilled==0) {
+    		it.rewind();
+    		return;
+    	}
+    	// 分区已经读掉了，只能从头再聚合一遍
+    	it.close();
+    	deletePartitions();
+    	aggregateChild();
     }
 
     /**
@@ -155,15 +490,17 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	// some code goes here
-    	TupleDesc td;
-    	if(gbfield!=-1) {// be informative
-			new String();
-			td=new TupleDesc(new Type[] {it.getTupleDesc().getFieldType(0),it.getTupleDesc().getFieldType(1)}
-    		,new String[] {it.getTupleDesc().getFieldName(0),""}) ;
-		} else
-    		td=new TupleDesc(new Type[] {it.getTupleDesc().getFieldType(0)}
-    		,new String[] {""}) ;
-    		
+    	// SUM_COUNT的聚合结果有两列，按aggregator给出的列数来
+    	TupleDesc aggTd=it.getTupleDesc();
+    	Type[] types=new Type[aggTd.numFields()];
+    	String[] names=new String[aggTd.numFields()];
+    	for(int i=0;i<types.length;i++) {
+    		types[i]=aggTd.getFieldType(i);
+    		names[i]="";
+    	}
+    	for(int i=0;i<gbfields.length;i++)// be informative
+    		names[i]=aggTd.getFieldName(i);
+    	TupleDesc td=new TupleDesc(types,names);
 		return td;
     }
 
@@ -172,6 +509,7 @@ public class Aggregate extends Operator {
     	super.close();
     	child.close();
     	it.close();
+    	deletePartitions();
     }
 
     @Override
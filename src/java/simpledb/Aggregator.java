@@ -76,6 +76,42 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every row of a batch into the aggregate. Aggregators that can
+     * read the aggregate column directly should override this; by default
+     * each row is merged through {@link #mergeTupleIntoGroup}.
+     *
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    public default void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int i = 0; i < batch.numRows(); i++)
+            mergeTupleIntoGroup(batch.getTuple(i));
+    }
+
+    /**
+     * Merge the groups of another aggregator into this one. other must have
+     * been built with the same arguments over a different part of the input;
+     * afterwards this aggregator holds the aggregate of both parts. Used to
+     * combine the partial aggregates built by parallel workers.
+     *
+     * @param other an aggregator of the same class, fields and operator
+     * @throws IllegalArgumentException if other does not compute the same
+     *             aggregate
+     */
+    public void merge(Aggregator other);
+
+    /**
+     * @return the number of groups held by this aggregator
+     */
+    public int numGroups();
+
+    /**
+     * @param batch rows containing the group-by fields
+     * @param row a row of batch
+     * @return true if this aggregator already holds the group of that row
+     */
+    public boolean hasGroup(TupleBatch batch, int row);
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -52,7 +52,7 @@ public class BTreeChecker {
      * checks the integrity of the tree:
      * 1) parent pointers.
      * 2) sibling pointers.
-     * 3) range invariants.
+     * 3) range invariants, on the whole key of a tree keyed on several fields.
      * 4) record to page pointers.
      * 5) occupancy invariants. (if enabled)
      */
@@ -80,7 +80,7 @@ public class BTreeChecker {
 
         if (page.getId().pgcateg() == BTreePageId.LEAF) {
             BTreeLeafPage bpage = (BTreeLeafPage) page;
-            bpage.checkRep(bt.keyField(), lowerBound, upperBound, checkOccupancy, depth);
+            bpage.checkRep(bt.keyFields(), lowerBound, upperBound, checkOccupancy, depth);
             return new SubtreeSummary(bpage, depth);
         } else if (page.getId().pgcateg() == BTreePageId.INTERNAL) {
 
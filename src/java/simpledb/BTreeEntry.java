@@ -7,7 +7,8 @@ import java.io.Serializable;
  * by BTreeInternalPage as an abstraction to iterate through the entries stored inside. 
  * All of the entries or tuples in the left child page should be less than or equal to 
  * the key, and all of the entries or tuples in the right child page should be greater 
- * than or equal to the key.
+ * than or equal to the key. In a B+ tree keyed on several fields the key is a
+ * {@link CompositeField} of their values.
  * 一个entry保存一个key和两个child pageId
  * 内节点保有entry
  * 
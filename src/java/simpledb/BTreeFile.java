@@ -24,7 +24,7 @@ public class BTreeFile implements DbFile {
 	private final File f;
 	private final TupleDesc td;
 	private final int tableid ;
-	private int keyField;
+	private final int[] keyFields;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -35,9 +35,24 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, new int[] {key}, td);
+	}
+
+	/**
+	 * Constructs a B+ tree file keyed on several fields. Tuples are sorted on
+	 * the first field, then on the second and so on; the key of a tuple is the
+	 * {@link CompositeField} of these fields, and a CompositeField of the first
+	 * few of them, or the first field alone, searches on a prefix of the key.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param keys - the fields which index is keyed on, most significant first
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public BTreeFile(File f, int[] keys, TupleDesc td) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
-		this.keyField = key;
+		this.keyFields = keys.clone();
 		this.td = td;
 	}
 
@@ -114,11 +129,11 @@ public class BTreeFile implements DbFile {
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
 				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
+					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyFields);
 					return p;
 				}
 				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
+					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyFields);
 					return p;
 				}
 				else { // id.pgcateg() == BTreePageId.HEADER
@@ -170,10 +185,42 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Returns the index of the field that this B+ tree is keyed on
+	 * Returns the index of the field that this B+ tree is keyed on, the first
+	 * of them if it is keyed on several
 	 */
 	public int keyField() {
-		return keyField;
+		return keyFields[0];
+	}
+
+	/**
+	 * Returns the indexes of the fields that this B+ tree is keyed on, most
+	 * significant first
+	 */
+	public int[] keyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * Returns the key of t in this B+ tree: its key field, or the
+	 * {@link CompositeField} of its key fields
+	 */
+	public Field getKey(Tuple t) {
+		return BTreePage.getKey(t, keyFields);
+	}
+
+	/**
+	 * Estimate the number of pages read by a search from the root down to a
+	 * leaf, from the size of the file and the fanout of internal pages. Used
+	 * by the optimizer; does not read any pages.
+	 */
+	public int estimateHeight() {
+		int keySize = BTreePage.getKeySize(td, keyFields);
+		// same layout as BTreeInternalPage.getMaxEntries, plus one child pointer
+		int fanout = (BufferPool.getPageSize() * 8) / (keySize * 8 + BTreePage.INDEX_SIZE * 8 + 1) + 1;
+		int height = 1;
+		for (long pages = Math.max(numPages(), 1); pages > 1; pages = (pages + fanout - 1) / fanout)
+			height++;
+		return height;
 	}
 
 	/**
@@ -279,13 +326,13 @@ public class BTreeFile implements DbFile {
 			temp=it.next();
 			// recurse on the right-most child every time in order to find the right-most leaf page
 			if(f==null)
-				return findLeafPage(tid,dirtypages,temp.getRightChild(),perm,f);
+				return reverseFindLeafPage(tid,dirtypages,temp.getRightChild(),perm,f);
 			if(temp.getKey().compare(Op.LESS_THAN_OR_EQ,f))
 				// return the first (right) leaf page
-				return findLeafPage(tid,dirtypages,temp.getRightChild(),perm,f);
+				return reverseFindLeafPage(tid,dirtypages,temp.getRightChild(),perm,f);
 		}
 		// 找到了最后一个entry了，那只能是往左边走
-		return findLeafPage(tid,dirtypages,temp.getLeftChild(),perm,f);	
+		return reverseFindLeafPage(tid,dirtypages,temp.getLeftChild(),perm,f);	
 	}
 	
 	/**
@@ -313,7 +360,8 @@ public class BTreeFile implements DbFile {
 	 * as needed to accommodate a new entry. The new entry should have a key matching the key field
 	 * of the first tuple in the right-hand page (the key is "copied up"), and child pointers 
 	 * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
-	 * pointers as needed.  
+	 * pointers as needed.  A string key is cut to its shortest prefix that is still greater than
+	 * the keys of the left-hand page (suffix truncation), see {@link BTreeKeyCodec#separator}.
 	 * 往父节点传输entry，key是第一个右半节点的第一个tuple对应的field(copy up),需要更新叶节点的兄弟指针和父指针
 	 * 
 	 * 返回插入new tuple的page
@@ -341,9 +389,9 @@ public class BTreeFile implements DbFile {
 		// call getEmptyPage() to get the new page
 		BTreeLeafPage rightPage=(BTreeLeafPage)getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
 		// moving a subset of tuples/entries from a page to its right sibling
-		int numberOfTuples=page.getNumTuples();
+		// 移到两边空位相差不超过1，定长的页就是移走一半的tuple，压缩的页按字节均分
 		Iterator<Tuple> it=page.reverseIterator();
-		for(int i=0;i<numberOfTuples/2;i++) {
+		while(rightPage.getNumEmptySlots()>page.getNumEmptySlots()+1) {
 			Tuple temp=it.next();
 			page.deleteTuple(temp);// 从原页面删除该tuple
 			rightPage.insertTuple(temp);// 放到右兄弟去
@@ -354,10 +402,13 @@ public class BTreeFile implements DbFile {
 		// getParentWithEmtpySlots() will be useful here.  
 		
 		// interact with leaf and internal pages using .iterator() to iterate through the tuples/entries in each page!
-		Field midKey=rightPage.iterator().next().getField(keyField);
+		// 字符串键只取能分开两页的最短前缀
+		Field midKey=BTreeKeyCodec.separator(getKey(page.reverseIterator().next()),
+				getKey(rightPage.iterator().next()));
 		// 将key包装成一个向上传递的entry
 		BTreeEntry pushedUp=new BTreeEntry(midKey,page.getId(),rightPage.getId());
-		BTreeInternalPage parent=getParentWithEmptySlots(tid,dirtypages,page.getParentId(),field);
+		// 按midKey而不是field选父节点分裂后的一半，等于截短分隔键的field可能落在另一半
+		BTreeInternalPage parent=getParentWithEmptySlots(tid,dirtypages,page.getParentId(),midKey);
 		// 插入该entry
 		parent.insertEntry(pushedUp);
 		dirtypages.put(parent.getId(), parent);
@@ -424,9 +475,9 @@ public class BTreeFile implements DbFile {
 		
 		BTreeInternalPage rightPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
 		// moving half of the entries to the new page.  
-		int numberOfEntries=page.getNumEntries();
 		Iterator<BTreeEntry> it=page.reverseIterator();
-		for(int i=0;i<numberOfEntries/2;i++) {
+		// 更新键后过满的压缩页先移到放得下为止
+		while(rightPage.getNumEmptySlots()>page.getNumEmptySlots()+1 || page.isOverfull()) {
 			BTreeEntry temp=it.next();
 			// deletes only a key and a single child pointer
 			// 报错->tried to delete entry on invalid page or table
@@ -638,9 +689,9 @@ public class BTreeFile implements DbFile {
 		// find and lock the left-most leaf page corresponding to the key field,
 		// and split the leaf page if there are no more slots available
 		// 用findLeafPage找到合适的位置
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, getKey(t));
 		if(leafPage.getNumEmptySlots() == 0) {// 分裂
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			leafPage = splitLeafPage(tid, dirtypages, leafPage, getKey(t));	
 		}
 
 		// insert the tuple into the leaf page
@@ -741,6 +792,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {	
@@ -752,6 +804,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -759,7 +812,7 @@ public class BTreeFile implements DbFile {
 	/**
 	 * Steal tuples from a sibling and copy them to the given page so that both pages are at least
 	 * half full.  Update the parent's entry so that the key matches the key field of the first
-	 * tuple in the right-hand page.
+	 * tuple in the right-hand page, cut short as in {@link #splitLeafPage} for a string key.
 	 * 
 	 * @param page - the leaf page which is less than half full
 	 * @param sibling - the sibling which has tuples to spare
@@ -782,10 +835,9 @@ public class BTreeFile implements DbFile {
 			it=sibling.iterator();// 拿右兄弟第一个key
 		else
 			it=sibling.reverseIterator();// 拿左兄弟最后一个key
-		// 两边均分，需要拿出numberOfSteal个tuple
-		int numberOfSteal=(sibling.getNumTuples()+page.getNumTuples())/2-page.getNumTuples();
+		// 两边均分，借到两边空位相差不超过1
 		Tuple tupleToSteal=null;
-		for(int i=0;i<numberOfSteal;i++) {
+		while(page.getNumEmptySlots()>sibling.getNumEmptySlots()+1) {
 			tupleToSteal=it.next();
 			// 先删除再插入
 			sibling.deleteTuple(tupleToSteal);
@@ -794,11 +846,33 @@ public class BTreeFile implements DbFile {
 		
 		// Be sure to update the corresponding parent entry.
 		// split的时候都是把右节点第一个key放上去
-		if(isRightSibling)tupleToSteal=it.next();// 如果是右兄弟借需要再走一个拿右兄弟的第一个key
-		entry.setKey(tupleToSteal.getField(keyField));
+		BTreeLeafPage left=isRightSibling?page:sibling;
+		BTreeLeafPage right=isRightSibling?sibling:page;
+		entry.setKey(BTreeKeyCodec.separator(getKey(left.reverseIterator().next()),
+				getKey(right.iterator().next())));
 		parent.updateEntry(entry);
 	}
 
+	/**
+	 * Split a compressed internal page that updating the key of one of its
+	 * entries made overfull, as a longer key may take more room than the
+	 * page counted on.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the internal page whose entry was updated
+	 * @see BTreeInternalPage#isOverfull()
+	 * 
+	 * @throws DbException
+	 * @throws IOException
+	 * @throws TransactionAbortedException
+	 */
+	private void splitIfOverfull(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeInternalPage page)
+			throws DbException, IOException, TransactionAbortedException {
+		if(page.isOverfull())
+			splitInternalPage(tid, dirtypages, page, page.iterator().next().getKey());
+	}
+
 	/**
 	 * Handle the case when an internal page becomes less than half full due to deletions.
 	 * If one of its siblings has extra entries, redistribute those entries.
@@ -837,6 +911,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 		else if(rightSiblingId != null) {
@@ -848,6 +923,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				splitIfOverfull(tid, dirtypages, parent);
 			}
 		}
 	}
@@ -878,13 +954,12 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed.
 		
 		Iterator<BTreeEntry>it=leftSibling.reverseIterator();// 从左兄弟借
-		int numberOfSteal=(leftSibling.getNumEntries()-page.getNumEntries())/2;
 		// the original key in the parent is "pulled down" to the right-hand page
 		BTreeEntry entryInSibling=null;
 		// 以parent的key为桥，一个个放到右边的page中（准备放到parent，但只有最后一个才会真的放上去）
 		BTreeEntry midEntry=new BTreeEntry(parentEntry.getKey(),null,page.iterator().next().getLeftChild());
 
-		for(int i=0;i<numberOfSteal;i++) {
+		while(page.getNumEmptySlots()>leftSibling.getNumEmptySlots()+1) {
 			entryInSibling=it.next();// 左兄弟拿出一个entry
 			midEntry.setLeftChild(entryInSibling.getRightChild());// 设置对应的子指针
 			page.insertEntry(midEntry);// 从parent上面拿下来
@@ -933,13 +1008,12 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed.
 		
 		Iterator<BTreeEntry>it=rightSibling.iterator();// 从右兄弟借
-		int numberOfSteal=(rightSibling.getNumEntries()-page.getNumEntries())/2;
 		// the original key in the parent is "pulled down" to the right-hand page
 		BTreeEntry entryInSibling=null;
 		// 以parent的key为桥，一个个放到左边的page中
 		BTreeEntry midEntry=new BTreeEntry(parentEntry.getKey(),page.reverseIterator().next().getRightChild(),null);
 		
-		for(int i=0;i<numberOfSteal;i++) {
+		while(page.getNumEmptySlots()>rightSibling.getNumEmptySlots()+1) {
 			entryInSibling=it.next();// 右兄弟拿出一个entry
 			midEntry.setRightChild(entryInSibling.getLeftChild());// 设置对应的子指针
 			page.insertEntry(midEntry);// 从parent上面拿下来
@@ -1529,7 +1603,8 @@ class BTreeSearchReverseIterator extends AbstractDbFileIterator {
 			curp = f.reverseFindLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
 		}
 		else {
-			curp = f.reverseFindLeafPage(tid, root, Permissions.READ_ONLY, null);
+			// 有前缀时从前缀的最后一页开始
+			curp = f.reverseFindLeafPage(tid, root, Permissions.READ_ONLY, ipred.getPrefix());
 		}
 		it = curp.reverseIterator();
 	}
@@ -1547,8 +1622,12 @@ class BTreeSearchReverseIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
+				Field key = f.getKey(t);
+				boolean inPrefix = ipred.getPrefix() == null
+						|| key.compare(Op.EQUALS, ipred.getPrefix());
+				if (key.compare(ipred.getOp(), ipred.getField())) {
+					if (inPrefix)
+						return t;
 				}
 				else if(ipred.getOp() == Op.GREATER_THAN || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
 					// if the predicate was not satisfied and the operation is greater than, we have
@@ -1556,11 +1635,15 @@ class BTreeSearchReverseIterator extends AbstractDbFileIterator {
 					return null;
 				}
 				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.LESS_THAN, ipred.getField())) {
+						key.compare(Op.LESS_THAN, ipred.getField())) {
 					// if the tuple is now less than the field passed in and the operation
 					// is equals, we have reached the end
 					return null;
 				}
+				if (!inPrefix && key.compare(Op.LESS_THAN, ipred.getPrefix())) {
+					// if the tuple is now before the prefix, we have reached the end
+					return null;
+				}
 			}
 
 			BTreePageId nextp = curp.getLeftSiblingId();
@@ -1713,7 +1796,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			// 有前缀时从前缀的第一页开始
+			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getPrefix());
 		}
 		it = curp.iterator();
 	}
@@ -1731,8 +1815,12 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
-					return t;
+				Field key = f.getKey(t);
+				boolean inPrefix = ipred.getPrefix() == null
+						|| key.compare(Op.EQUALS, ipred.getPrefix());
+				if (key.compare(ipred.getOp(), ipred.getField())) {
+					if (inPrefix)
+						return t;
 				}
 				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
 					// if the predicate was not satisfied and the operation is less than, we have
@@ -1740,11 +1828,15 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 					return null;
 				}
 				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
+						key.compare(Op.GREATER_THAN, ipred.getField())) {
 					// if the tuple is now greater than the field passed in and the operation
 					// is equals, we have reached the end
 					return null;
 				}
+				if (!inPrefix && key.compare(Op.GREATER_THAN, ipred.getPrefix())) {
+					// if the tuple is now past the prefix, we have reached the end
+					return null;
+				}
 			}
 
 			BTreePageId nextp = curp.getRightSiblingId();
@@ -111,7 +111,7 @@ public class BTreeFileEncoder {
 	 * comparator to sort Tuples by key field
 	 */
 	public static class TupleComparator implements Comparator<Tuple> {
-		private int keyField;
+		private int[] keyFields;
 
 		/** 
 		 * Construct a TupleComparator
@@ -119,23 +119,34 @@ public class BTreeFileEncoder {
 		 * @param keyField - the index of the field the tuples are keyed on
 		 */
 		public TupleComparator(int keyField) {
-			this.keyField = keyField;
+			this(new int[] {keyField});
+		}
+
+		/** 
+		 * Construct a TupleComparator for tuples keyed on several fields
+		 * 
+		 * @param keyFields - the indexes of the fields the tuples are keyed on,
+		 * most significant first
+		 */
+		public TupleComparator(int[] keyFields) {
+			this.keyFields = keyFields;
 		}
 
 		/**
-		 * Compare two tuples based on their key field
+		 * Compare two tuples based on their key fields
 		 * 
 		 * @return -1 if t1 < t2, 1 if t1 > t2, 0 if t1 == t2
 		 */
 		public int compare(Tuple t1, Tuple t2) {
-			int cmp = 0;
-			if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
-				cmp = -1;
-			}
-			else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
-				cmp = 1;
+			for(int keyField : keyFields) {
+				if(t1.getField(keyField).compare(Op.LESS_THAN, t2.getField(keyField))) {
+					return -1;
+				}
+				else if(t1.getField(keyField).compare(Op.GREATER_THAN, t2.getField(keyField))) {
+					return 1;
+				}
 			}
-			return cmp;
+			return 0;
 		}
 	}
 
@@ -217,7 +228,50 @@ public class BTreeFileEncoder {
 
 		// add the tuples to B+ tree file
 		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
-		Type keyType = typeAr[keyField];
+		bulkLoad(bf, tuples, npagebytes, typeAr, keyField);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * Write tuples, which must be sorted on keyField, to the empty file of bf
+	 * as a B+ tree with packed leaf pages. Pages are written directly to
+	 * the file, without going through the BufferPool.
+	 * 
+	 * @param bf - the BTreeFile, whose file must be empty
+	 * @param tuples - the tuples, sorted on keyField
+	 * @param npagebytes - number of bytes per page
+	 * @param typeAr - array containing the types of the tuples
+	 * @param keyField - the field of the tuples the B+ tree is keyed on
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	public static void bulkLoad(BTreeFile bf, ArrayList<Tuple> tuples, int npagebytes,
+			Type[] typeAr, int keyField) throws IOException, DbException {
+		bulkLoad(bf, tuples, npagebytes, typeAr, new int[] {keyField});
+	}
+
+	/**
+	 * Write tuples, which must be sorted on keyFields (see
+	 * {@link TupleComparator}), to the empty file of bf, a B+ tree keyed on
+	 * these fields.
+	 * @see #bulkLoad(BTreeFile, ArrayList, int, Type[], int)
+	 * 
+	 * @param keyFields - the fields of the tuples the B+ tree is keyed on,
+	 * most significant first
+	 */
+	public static void bulkLoad(BTreeFile bf, ArrayList<Tuple> tuples, int npagebytes,
+			Type[] typeAr, int[] keyFields) throws IOException, DbException {
+		if (BTreeLeafPage.isCompressed(bf.getTupleDesc(), keyFields)
+				|| BTreeInternalPage.isCompressed(bf.getTupleDesc(), keyFields)) {
+			bulkLoadCompressed(bf, tuples, keyFields);
+			return;
+		}
+		int numFields = typeAr.length;
+		int keySize = 0;
+		for (int k : keyFields)
+			keySize += typeAr[k].getLen();
 		int tableid = bf.getId();
 
 		int nrecbytes = 0;
@@ -228,7 +282,7 @@ public class BTreeFileEncoder {
 		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+		int nentrybytes = keySize + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
@@ -256,17 +310,17 @@ public class BTreeFileEncoder {
 			}
 			else {
 				// write out a page of records
-				byte[] leafPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyField);
+				byte[] leafPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyFields);
 				BTreePageId leafPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
-				BTreeLeafPage leafPage = new BTreeLeafPage(leafPid, leafPageBytes, keyField);
+				BTreeLeafPage leafPage = new BTreeLeafPage(leafPid, leafPageBytes, keyFields);
 				leafPage.setLeftSiblingId(leftSiblingId);
 				bf.writePage(leafPage);
 				leftSiblingId = leafPid;
 
 				// update the parent by "copying up" the next key
-				BTreeEntry copyUpEntry = new BTreeEntry(page2.get(0).getField(keyField), leafPid, null);
+				BTreeEntry copyUpEntry = new BTreeEntry(bf.getKey(page2.get(0)), leafPid, null);
 				updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
-						keyType, tableid, keyField);
+						keySize, tableid, keyFields);
 
 				page1 = page2;
 				page2 = new ArrayList<Tuple>();
@@ -284,9 +338,9 @@ public class BTreeFileEncoder {
 		BTreePageId lastPid = null;
 		if(page2.size() == 0) {
 			// write out a page of records - this is the root page
-			byte[] lastPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyField);
+			byte[] lastPageBytes = convertToLeafPage(page1, npagebytes, numFields, typeAr, keyFields);
 			lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
-			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyField);
+			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyFields);
 			lastPage.setLeftSiblingId(leftSiblingId);
 			bf.writePage(lastPage);
 		}
@@ -300,26 +354,26 @@ public class BTreeFileEncoder {
 			lastPg.addAll(page2);
 
 			// write out the last two pages of records
-			byte[] secondToLastPageBytes = convertToLeafPage(secondToLastPg, npagebytes, numFields, typeAr, keyField);
+			byte[] secondToLastPageBytes = convertToLeafPage(secondToLastPg, npagebytes, numFields, typeAr, keyFields);
 			BTreePageId secondToLastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
-			BTreeLeafPage secondToLastPage = new BTreeLeafPage(secondToLastPid, secondToLastPageBytes, keyField);
+			BTreeLeafPage secondToLastPage = new BTreeLeafPage(secondToLastPid, secondToLastPageBytes, keyFields);
 			secondToLastPage.setLeftSiblingId(leftSiblingId);
 			bf.writePage(secondToLastPage);
 
-			byte[] lastPageBytes = convertToLeafPage(lastPg, npagebytes, numFields, typeAr, keyField);
+			byte[] lastPageBytes = convertToLeafPage(lastPg, npagebytes, numFields, typeAr, keyFields);
 			lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.LEAF);
-			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyField);
+			BTreeLeafPage lastPage = new BTreeLeafPage(lastPid, lastPageBytes, keyFields);
 			lastPage.setLeftSiblingId(secondToLastPid);
 			bf.writePage(lastPage);
 
 			// update the parent by "copying up" the next key
-			BTreeEntry copyUpEntry = new BTreeEntry(lastPg.get(0).getField(keyField), secondToLastPid, lastPid);
+			BTreeEntry copyUpEntry = new BTreeEntry(bf.getKey(lastPg.get(0)), secondToLastPid, lastPid);
 			updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
-					keyType, tableid, keyField);
+					keySize, tableid, keyFields);
 		}
 
 		// Write out the remaining internal pages
-		cleanUpEntries(entries, bf, nentries, npagebytes, keyType, tableid, keyField);
+		cleanUpEntries(entries, bf, nentries, npagebytes, keySize, tableid, keyFields);
 
 		// update the root pointer to point to the last page of the file
 		int root = bf.numPages();
@@ -330,9 +384,195 @@ public class BTreeFileEncoder {
 		// set all the parent and sibling pointers
 		setParents(bf, new BTreePageId(tableid, root, rootCategory), BTreeRootPtrPage.getId(tableid));
 		setRightSiblingPtrs(bf, lastPid, null);
+	}
 
-		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
-		return bf;
+	/**
+	 * Bulk load a B+ tree whose pages are stored in the compressed format
+	 * (see {@link BTreeKeyCodec}). A compressed page holds as many tuples or
+	 * entries as fit in its bytes rather than a fixed number, so leaf pages
+	 * are filled through the page objects themselves, and internal pages
+	 * take as many keys as fit, see {@link #groupEntries}. The keys copied up
+	 * from the leaves are cut short as in {@link BTreeFile#splitLeafPage}.
+	 * 
+	 * @param bf - the BTreeFile, whose file must be empty
+	 * @param tuples - the tuples, sorted on keyFields
+	 * @param keyFields - the fields of the tuples the B+ tree is keyed on,
+	 * most significant first
+	 * @throws IOException
+	 * @throws DbException
+	 */
+	private static void bulkLoadCompressed(BTreeFile bf, ArrayList<Tuple> tuples, int[] keyFields)
+			throws IOException, DbException {
+		int tableid = bf.getId();
+		TupleDesc td = bf.getTupleDesc();
+		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), 
+				BTreeRootPtrPage.createEmptyPageData()));
+
+		// write out the leaf pages. The last two are kept in memory, so that
+		// the last one can take tuples from the one before it if it is not full.
+		ArrayList<BTreePageId> children = new ArrayList<BTreePageId>();
+		ArrayList<Field> keys = new ArrayList<Field>(); // keys.get(i) separates children i and i+1
+		int pageNo = bf.numPages();
+		BTreeLeafPage prev = null;
+		BTreeLeafPage cur = new BTreeLeafPage(new BTreePageId(tableid, ++pageNo, BTreePageId.LEAF),
+				BTreePage.createEmptyPageData(), keyFields);
+		Field lastKey = null;
+		for(Tuple tup : tuples) {
+			if(cur.getNumEmptySlots() == 0) {
+				if(prev != null)
+					lastKey = writeLeafPage(bf, prev, lastKey, children, keys);
+				BTreeLeafPage next = new BTreeLeafPage(new BTreePageId(tableid, ++pageNo, BTreePageId.LEAF),
+						BTreePage.createEmptyPageData(), keyFields);
+				cur.setRightSiblingId(next.getId());
+				next.setLeftSiblingId(cur.getId());
+				prev = cur;
+				cur = next;
+			}
+			// 页面要求元组的TupleDesc和表的完全一致
+			Tuple t = new Tuple(td);
+			for(int i = 0; i < td.numFields(); i++)
+				t.setField(i, tup.getField(i));
+			cur.insertTuple(t);
+		}
+		if(prev != null) {
+			Iterator<Tuple> it = prev.reverseIterator();
+			while(cur.getNumEmptySlots() > prev.getNumEmptySlots() + 1) {
+				Tuple t = it.next();
+				prev.deleteTuple(t);
+				cur.insertTuple(t);
+			}
+			lastKey = writeLeafPage(bf, prev, lastKey, children, keys);
+		}
+		writeLeafPage(bf, cur, lastKey, children, keys);
+
+		// write out the internal pages level by level, up to the root
+		int maxEntries = new BTreeInternalPage(new BTreePageId(tableid, pageNo, BTreePageId.INTERNAL),
+				BTreePage.createEmptyPageData(), keyFields).getMaxEntries();
+		while(children.size() > 1) {
+			ArrayList<BTreePageId> parents = new ArrayList<BTreePageId>();
+			ArrayList<Field> parentKeys = new ArrayList<Field>();
+			for(int[] group : groupEntries(td, keyFields, keys, maxEntries)) {
+				BTreeInternalPage page = new BTreeInternalPage(new BTreePageId(tableid, ++pageNo, BTreePageId.INTERNAL),
+						BTreePage.createEmptyPageData(), keyFields);
+				for(int j = group[0]; j < group[1]; j++)
+					page.insertEntry(new BTreeEntry(keys.get(j), children.get(j), children.get(j + 1)));
+				bf.writePage(page);
+				// the key between two pages is pushed up
+				if(!parents.isEmpty())
+					parentKeys.add(keys.get(group[0] - 1));
+				parents.add(page.getId());
+			}
+			children = parents;
+			keys = parentKeys;
+		}
+
+		// update the root pointer and set all the parent pointers
+		BTreePageId root = children.get(0);
+		byte[] rootPtrBytes = convertToRootPtrPage(root.getPageNumber(), root.pgcateg(), 0);
+		bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), rootPtrBytes));
+		setParents(bf, root, BTreeRootPtrPage.getId(tableid));
+	}
+
+	/**
+	 * Write out a leaf page of a compressed B+ tree and add it to children,
+	 * with the key separating it from the page written before it.
+	 * 
+	 * @param bf - the BTreeFile
+	 * @param page - the leaf page to write
+	 * @param lastKey - the last key of the page written before it, or null
+	 * @param children - the pages written so far
+	 * @param keys - the keys separating the pages written so far
+	 * @return the last key of page
+	 * @throws IOException
+	 */
+	private static Field writeLeafPage(BTreeFile bf, BTreeLeafPage page, Field lastKey,
+			ArrayList<BTreePageId> children, ArrayList<Field> keys) throws IOException {
+		if(!children.isEmpty())
+			keys.add(BTreeKeyCodec.separator(lastKey, bf.getKey(page.iterator().next())));
+		children.add(page.getId());
+		bf.writePage(page);
+		Iterator<Tuple> it = page.reverseIterator();
+		return it.hasNext() ? bf.getKey(it.next()) : null;
+	}
+
+	/**
+	 * Divide the children of a level of a B+ tree among the internal pages of
+	 * the level above. Each page takes as many children as its keys fit in,
+	 * except the last two, which share theirs evenly so that the last one is
+	 * not left with a single child or less than half full. The key between
+	 * the children of two pages is pushed up.
+	 * 
+	 * @param td - the TupleDesc of the B+ tree
+	 * @param keyFields - the fields the B+ tree is keyed on
+	 * @param keys - the keys separating the children; there is one more child
+	 * @param maxEntries - the number of entries of the longest keys an internal page holds
+	 * @return for each page, its first child and its last child
+	 * @throws DbException if the last children cannot be shared
+	 */
+	private static ArrayList<int[]> groupEntries(TupleDesc td, int[] keyFields, ArrayList<Field> keys,
+			int maxEntries) throws DbException {
+		boolean compressed = BTreeInternalPage.isCompressed(td, keyFields);
+		int unit = BTreeInternalPage.getCompressedEntrySize(td, keyFields);
+		byte[][] encoded = new byte[keys.size()][];
+		for(int i = 0; i < encoded.length; i++)
+			encoded[i] = compressed ? BTreeKeyCodec.encode(keys.get(i)) : null;
+		int n = keys.size();
+
+		ArrayList<int[]> groups = new ArrayList<int[]>();
+		int first = 0;
+		while(first < n) {
+			int last = first + 1;
+			while(last < n && entrySlots(encoded, first, last + 1, compressed, unit) <= maxEntries)
+				last++;
+			groups.add(new int[] {first, last});
+			first = last + 1;
+		}
+
+		// 最后一个孩子单独剩下，或最后一页不到半满，就和前一页均分
+		boolean alone = first == n;
+		int lastGroup = groups.size() - 1;
+		if(alone || (lastGroup > 0 && entrySlots(encoded, groups.get(lastGroup)[0], n, compressed, unit) < maxEntries/2)) {
+			int from = alone ? lastGroup : lastGroup - 1;
+			int lo = groups.get(from)[0];
+			int best = -1;
+			int bestDiff = Integer.MAX_VALUE;
+			for(int s = lo + 1; s + 1 < n; s++) {
+				int left = entrySlots(encoded, lo, s, compressed, unit);
+				int right = entrySlots(encoded, s + 1, n, compressed, unit);
+				if(left <= maxEntries && right <= maxEntries && Math.abs(left - right) < bestDiff) {
+					best = s;
+					bestDiff = Math.abs(left - right);
+				}
+			}
+			if(best == -1) {
+				if(alone)
+					throw new DbException("cannot divide the last children among internal pages");
+			}
+			else {
+				while(groups.size() > from)
+					groups.remove(groups.size() - 1);
+				groups.add(new int[] {lo, best});
+				groups.add(new int[] {best + 1, n});
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * @return the number of entries of the longest keys the keys between
+	 * children first and last take on an internal page, or the number of
+	 * these keys for a page that is not compressed
+	 */
+	private static int entrySlots(byte[][] encoded, int first, int last, boolean compressed, int unit) {
+		if(!compressed)
+			return last - first;
+		int bytes = 0;
+		byte[] prev = null;
+		for(int j = first; j < last; j++) {
+			bytes += BTreePage.INDEX_SIZE + BTreeKeyCodec.getCodedSize(prev, encoded[j]);
+			prev = encoded[j];
+		}
+		return (bytes + unit - 1) / unit;
 	}
 
 	/**
@@ -395,14 +635,14 @@ public class BTreeFileEncoder {
 	 * @param bf - the BTreeFile
 	 * @param nentries - number of entries per page
 	 * @param npagebytes - number of bytes per page
-	 * @param keyType - the type of the key field
+	 * @param keySize - the number of bytes of a key
 	 * @param tableid - the table id of this BTreeFile
-	 * @param keyField - the index of the key field
+	 * @param keyFields - the indexes of the key fields
 	 * @throws IOException
 	 */
 	private static void cleanUpEntries(ArrayList<ArrayList<BTreeEntry>> entries,
-			BTreeFile bf, int nentries, int npagebytes, Type keyType, int tableid, 
-			int keyField) throws IOException {
+			BTreeFile bf, int nentries, int npagebytes, int keySize, int tableid, 
+			int[] keyFields) throws IOException {
 		// As with the leaf pages, there are two options:
 		// 1. We have less than or equal to a full page of entries. Because of the way the code
 		//    was written, we know this must be the root page
@@ -415,9 +655,9 @@ public class BTreeFileEncoder {
 			int size = entries.get(i).size();
 			if(size <= nentries) {
 				// write out a page of entries
-				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType, childPageCategory);
+				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keySize, childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
+				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyFields));
 			}
 			else {
 				// split the remaining entries in half
@@ -427,18 +667,18 @@ public class BTreeFileEncoder {
 				lastPg.addAll(entries.get(i).subList(size/2 + 1, size));
 
 				// write out the last two pages of entries
-				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyType, childPageCategory);
+				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keySize, childPageCategory);
 				BTreePageId secondToLastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(secondToLastPid, secondToLastPageBytes, keyField));
+				bf.writePage(new BTreeInternalPage(secondToLastPid, secondToLastPageBytes, keyFields));
 
-				byte[] lastPageBytes = convertToInternalPage(lastPg, npagebytes, keyType, childPageCategory);
+				byte[] lastPageBytes = convertToInternalPage(lastPg, npagebytes, keySize, childPageCategory);
 				BTreePageId lastPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(lastPid, lastPageBytes, keyField));
+				bf.writePage(new BTreeInternalPage(lastPid, lastPageBytes, keyFields));
 
 				// update the parent by "pushing up" the next key
 				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(i).get(size/2).getKey(), secondToLastPid, lastPid);
 				updateEntries(entries, bf, pushUpEntry, i+1, nentries, npagebytes, 
-						keyType, tableid, keyField);
+						keySize, tableid, keyFields);
 			}
 
 		}
@@ -453,14 +693,14 @@ public class BTreeFileEncoder {
 	 * @param level - the level of the new entry (0 is closest to the leaf pages)
 	 * @param nentries - number of entries per page
 	 * @param npagebytes - number of bytes per page
-	 * @param keyType - the type of the key field
+	 * @param keySize - the number of bytes of a key
 	 * @param tableid - the table id of this BTreeFile
-	 * @param keyField - the index of the key field
+	 * @param keyFields - the indexes of the key fields
 	 * @throws IOException
 	 */
 	private static void updateEntries(ArrayList<ArrayList<BTreeEntry>> entries, 
-			BTreeFile bf, BTreeEntry e, int level, int nentries, int npagebytes, Type keyType, 
-			int tableid, int keyField) throws IOException {
+			BTreeFile bf, BTreeEntry e, int level, int nentries, int npagebytes, int keySize, 
+			int tableid, int[] keyFields) throws IOException {
 		while(entries.size() <= level) {
 			entries.add(new ArrayList<BTreeEntry>());
 		}
@@ -475,14 +715,14 @@ public class BTreeFileEncoder {
 				// write out a page of entries
 				ArrayList<BTreeEntry> pageEntries = new ArrayList<BTreeEntry>();
 				pageEntries.addAll(entries.get(level).subList(0, nentries));
-				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType, childPageCategory);
+				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keySize, childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
+				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyFields));
 
 				// update the parent by "pushing up" the next key
 				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(level).get(nentries).getKey(), internalPid, null);
 				updateEntries(entries, bf, pushUpEntry, level + 1, nentries, npagebytes, 
-						keyType, tableid, keyField);
+						keySize, tableid, keyFields);
 				ArrayList<BTreeEntry> remainingEntries = new ArrayList<BTreeEntry>();
 				remainingEntries.addAll(entries.get(level).subList(nentries+1, size));
 				entries.get(level).clear();
@@ -506,6 +746,20 @@ public class BTreeFileEncoder {
 	public static byte[] convertToLeafPage(ArrayList<Tuple> tuples, int npagebytes,
 			int numFields, Type[] typeAr, int keyField)
 					throws IOException {
+		return convertToLeafPage(tuples, npagebytes, numFields, typeAr, new int[] {keyField});
+	}
+
+	/**
+	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage
+	 * of a B+ tree keyed on several fields
+	 * @see #convertToLeafPage(ArrayList, int, int, Type[], int)
+	 * 
+	 * @param keyFields - the fields of the tuples the B+ tree will be keyed on,
+	 * most significant first
+	 */
+	public static byte[] convertToLeafPage(ArrayList<Tuple> tuples, int npagebytes,
+			int numFields, Type[] typeAr, int[] keyFields)
+					throws IOException {
 		int nrecbytes = 0;
 		for (int i = 0; i < numFields ; i++) {
 			nrecbytes += typeAr[i].getLen();
@@ -554,7 +808,7 @@ public class BTreeFileEncoder {
 		if (i % 8 > 0)
 			dos.writeByte(headerbyte);
 
-		Collections.sort(tuples, new TupleComparator(keyField));
+		Collections.sort(tuples, new TupleComparator(keyFields));
 		for(int t = 0; t < recordcount; t++) {
 			TupleDesc td = tuples.get(t).getTupleDesc();
 			for(int j = 0; j < td.numFields(); j++) {
@@ -624,7 +878,21 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+		return convertToInternalPage(entries, npagebytes, keyType.getLen(), childPageCategory);
+	}
+
+	/**
+	 * Convert a set of entries to a byte array in the format of a
+	 * BTreeInternalPage whose keys take keySize bytes, such as the
+	 * {@link CompositeField} keys of a B+ tree keyed on several fields
+	 * @see #convertToInternalPage(ArrayList, int, Type, int)
+	 * 
+	 * @param keySize - the number of bytes of a key
+	 */
+	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+			int keySize, int childPageCategory)
+					throws IOException {
+		int nentrybytes = keySize + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
@@ -673,7 +941,7 @@ public class BTreeFileEncoder {
 		}
 
 		for(int e = entrycount; e < nentries; e++) {
-			for (int j=0; j<keyType.getLen(); j++) {
+			for (int j=0; j<keySize; j++) {
 				dos.writeByte(0);
 			}
 		}
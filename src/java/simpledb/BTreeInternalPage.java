@@ -18,6 +18,8 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field keys[];
 	private final int children[];
 	private final int numSlots;
+	private final boolean compressed;
+	private final byte encodedKeys[][]; // 压缩格式下每个key的编码
 	
 	private int childCategory; // either leaf or internal
 
@@ -28,6 +30,7 @@ public class BTreeInternalPage extends BTreePage {
 		Iterator<BTreeEntry> it  = this.iterator();
 		while (it.hasNext()) {
 			Field f = it.next().getKey();
+			assert(isKey(f));
 			assert(null == prev || prev.compare(Op.LESS_THAN_OR_EQ,f));
 			prev = f;
 		}
@@ -37,7 +40,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			assert (getNumEmptySlots() <= getMaxEntries() - getMaxEntries() / 2);
 		}
 	}
 	
@@ -68,8 +71,24 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
-		this.numSlots = getMaxEntries() + 1;
+		this(id, data, new int[] {key});
+	}
+
+	/**
+	 * Create a BTreeInternalPage of a B+ tree keyed on several fields, whose
+	 * keys are {@link CompositeField}s taking the sum of the sizes of the
+	 * fields.
+	 * @see #BTreeInternalPage(BTreePageId, byte[], int)
+	 * 
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on, most significant first
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
+		this.compressed = isCompressed(td, keyFields);
+		this.numSlots = compressed ? getEntrySlots(BTreeKeyCodec.LENGTH_SIZE + INDEX_SIZE) + 1
+				: getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -89,6 +108,15 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		encodedKeys = compressed ? new byte[numSlots][] : null;
+		if (compressed) {
+			readCompressedEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
+
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -100,7 +128,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -115,10 +142,21 @@ public class BTreeInternalPage extends BTreePage {
 
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * A compressed page holds at least this many entries of the longest keys,
+	 * and more of shorter ones: its free space is counted in entries of the
+	 * longest keys, see {@link #getNumEmptySlots()}.
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
-		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
+		if (compressed)
+			return getCompressedMaxEntries(td, keyFields);
+		return getEntrySlots(getKeySize(td, keyFields) + INDEX_SIZE);
+	}
+
+	/**
+	 * @return the number of entries of entrySize bytes (key + child pointer) a page can hold
+	 */
+	private static int getEntrySlots(int entrySize) {
+		int bitsPerEntryIncludingHeader = entrySize * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
 		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
@@ -126,12 +164,61 @@ public class BTreeInternalPage extends BTreePage {
 		return entriesPerPage;
 	}
 
+	/**
+	 * @return the largest number of bytes an entry takes on a compressed page
+	 * of a B+ tree on the fields keyFields of td, the unit its free space is
+	 * counted in
+	 */
+	static int getCompressedEntrySize(TupleDesc td, int[] keyFields) {
+		return BTreeKeyCodec.LENGTH_SIZE + BTreeKeyCodec.getMaxEncodedSize(td, keyFields) + INDEX_SIZE;
+	}
+
+	/**
+	 * @return the number of entries of the longest keys a compressed page of a
+	 * B+ tree on the fields keyFields of td holds. Room for two more keys is
+	 * kept aside, as {@link #updateEntry} may make a key and the one after it
+	 * take that much more.
+	 */
+	static int getCompressedMaxEntries(TupleDesc td, int[] keyFields) {
+		int slots = getEntrySlots(BTreeKeyCodec.LENGTH_SIZE + INDEX_SIZE) + 1;
+		int headerSize = (slots + 7) / 8;
+		int bytes = BufferPool.getPageSize() - (2 * INDEX_SIZE + 1 + headerSize)
+				- 2 * BTreeKeyCodec.getMaxEncodedSize(td, keyFields);
+		return bytes / getCompressedEntrySize(td, keyFields);
+	}
+
+	/**
+	 * @return true if the internal pages of a B+ tree on the fields keyFields
+	 * of td are stored in the compressed format: prefix compressed variable
+	 * length keys, used for string keys when the page size allows
+	 * @see BTreeKeyCodec
+	 */
+	static boolean isCompressed(TupleDesc td, int[] keyFields) {
+		return BTreeKeyCodec.hasStringKey(td, keyFields)
+				&& getCompressedMaxEntries(td, keyFields) >= BTreeKeyCodec.MIN_ENTRIES;
+	}
+
+	/**
+	 * @return true if this page is stored in the compressed format
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return the number of slots of this page, including slot 0 which holds
+	 * only a child pointer
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
 	 */
 	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+		int slotsPerPage = numSlots;
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
@@ -147,7 +234,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -163,6 +250,42 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Read the child pointers and front coded keys of the used slots of a
+	 * compressed page, in slot order.
+	 */
+	private void readCompressedEntries(DataInputStream dis) throws IOException {
+		byte[] prev = null;
+		for (int i=0; i<numSlots; i++) {
+			children[i] = -1;
+			if (!isSlotUsed(i))
+				continue;
+			children[i] = dis.readInt();
+			if (i > 0) {
+				prev = BTreeKeyCodec.read(dis, prev);
+				encodedKeys[i] = prev;
+				keys[i] = BTreeKeyCodec.toKey(BTreeKeyCodec.decode(prev, td, keyFields));
+			}
+		}
+	}
+
+	/**
+	 * Write the child pointers and front coded keys of the used slots of a
+	 * compressed page, in slot order.
+	 */
+	private void writeCompressedEntries(DataOutputStream dos) throws IOException {
+		byte[] prev = null;
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			dos.writeInt(children[i]);
+			if (i > 0) {
+				BTreeKeyCodec.write(dos, prev, encodedKeys[i]);
+				prev = encodedKeys[i];
+			}
+		}
+	}
+
 	/**
 	 * Read keys from the source file.
 	 */
@@ -170,7 +293,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {// 跳过这个slot
+			for (int i=0; i<getKeySize(td, keyFields); i++) {// 跳过这个slot
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -183,7 +306,7 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = parseKey(dis, td, keyFields);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -264,6 +387,17 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
+		if (compressed) {
+			try {
+				writeCompressedEntries(dos);
+				dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -271,7 +405,7 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<getKeySize(td, keyFields); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -318,7 +452,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				getKeySize(td, keyFields) * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -432,7 +566,7 @@ public class BTreeInternalPage extends BTreePage {
 			}	
 		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
-		keys[rid.getTupleNumber()] = e.getKey();
+		setKey(rid.getTupleNumber(), e.getKey());
 	}
 
 	/**
@@ -443,7 +577,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!isKey(e.getKey()))
 			throw new DbException("key field type mismatch, in insertEntry");
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
@@ -462,7 +596,7 @@ public class BTreeInternalPage extends BTreePage {
 		if(getNumEmptySlots() == getMaxEntries()) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
-			keys[1] = e.getKey();
+			setKey(1, e.getKey());
 			markSlotUsed(0, true);
 			markSlotUsed(1, true);
 			e.setRecordId(new RecordId(pid, 1));
@@ -542,11 +676,20 @@ public class BTreeInternalPage extends BTreePage {
 		// insert new entry into the correct spot in sorted order
 		markSlotUsed(goodSlot, true);
 		Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
-		keys[goodSlot] = e.getKey();
+		setKey(goodSlot, e.getKey());
 		children[goodSlot] = e.getRightChild().getPageNumber();
 		e.setRecordId(new RecordId(pid, goodSlot));
 	}
 
+	/**
+	 * Set the key of a slot, and its encoding on a compressed page
+	 */
+	private void setKey(int i, Field key) {
+		keys[i] = key;
+		if (compressed)
+			encodedKeys[i] = BTreeKeyCodec.encode(key);
+	}
+
 	/**
 	 * Move an entry from one slot to another slot, and update the corresponding
 	 * headers
@@ -555,6 +698,8 @@ public class BTreeInternalPage extends BTreePage {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
 			markSlotUsed(to, true);
 			keys[to] = keys[from];
+			if (compressed)
+				encodedKeys[to] = encodedKeys[from];
 			children[to] = children[from];
 			markSlotUsed(from, false);
 		}
@@ -564,11 +709,16 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		int cnt = 0;
+		for(int i=1; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. On a compressed page,
+	 * the number of entries of the longest keys that fit in its free space.
 	 */
 	public int getNumEmptySlots() {
 		int cnt = 0;
@@ -577,7 +727,38 @@ public class BTreeInternalPage extends BTreePage {
 		for(int i=1; i<numSlots; i++)
 			if(!isSlotUsed(i))
 				cnt++;
-		return cnt;
+		if (!compressed)
+			return cnt;
+		// 已用的字节向上取整成最长entry的个数
+		int unit = getCompressedEntrySize(td, keyFields);
+		int usedUnits = (getUsedBytes() + unit - 1) / unit;
+		return Math.max(0, Math.min(cnt, getMaxEntries() - usedUnits));
+	}
+
+	/**
+	 * @return true if the entries of this page take more room than
+	 * getMaxEntries() entries of the longest keys. Only a compressed page
+	 * whose keys {@link #updateEntry} made longer can be, and it should then
+	 * be split.
+	 */
+	public boolean isOverfull() {
+		return compressed && getUsedBytes() > getMaxEntries() * getCompressedEntrySize(td, keyFields);
+	}
+
+	/**
+	 * @return the number of bytes the entries of this compressed page take,
+	 * besides the child pointer of slot 0
+	 */
+	private int getUsedBytes() {
+		int used = 0;
+		byte[] prev = null;
+		for(int i=1; i<numSlots; i++) {
+			if(isSlotUsed(i)) {
+				used += INDEX_SIZE + BTreeKeyCodec.getCodedSize(prev, encodedKeys[i]);
+				prev = encodedKeys[i];
+			}
+		}
+		return used;
 	}
 
 	/**
@@ -743,7 +924,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
+		this.curEntry = p.getNumSlots() - 1;
 		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
 			--curEntry;
 		}
@@ -763,8 +944,13 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null)
+					continue;
+				// 左孩子在前面最近的已用槽里，中间可能有删除留下的空槽
+				while(curEntry > 0 && !p.isSlotUsed(curEntry))
+					--curEntry;
+				BTreePageId childId = p.getChildId(curEntry);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
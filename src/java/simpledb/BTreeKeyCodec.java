@@ -0,0 +1,213 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the keys of a B+ tree keyed on a STRING field for the compressed
+ * format of {@link BTreeInternalPage} and {@link BTreeLeafPage}. A key is
+ * encoded into bytes that compare, unsigned and byte by byte, in the order
+ * of the keys: an int as its 4 bytes big-endian with the sign bit flipped,
+ * a string as its bytes, with a 0 byte written as 0 0xFF, followed by 0 0.
+ * The keys of a page are sorted, so each shares a prefix of its encoding
+ * with the key before it; a page stores only the length of that prefix and
+ * the rest of the bytes (front coding).
+ * <p>
+ * As the encoding keeps the order of the keys, a key between two others
+ * shares at least as long a prefix with each of them as they share with
+ * each other: inserting a key never makes its neighbours take more bytes,
+ * and deleting one never makes the page take more.
+ */
+final class BTreeKeyCodec {
+
+	/** the bytes of the lengths of the shared prefix and of the rest, written before each key */
+	static final int LENGTH_SIZE = 4;
+
+	/**
+	 * the number of worst-case entries a compressed page must hold, so that
+	 * both halves of a split one still have room for the entry being inserted
+	 */
+	static final int MIN_ENTRIES = 8;
+
+	private BTreeKeyCodec() {
+	}
+
+	/**
+	 * @return true if a B+ tree on the fields keyFields of td has a string
+	 * key, and so may be stored in the compressed format
+	 */
+	static boolean hasStringKey(TupleDesc td, int[] keyFields) {
+		for (int k : keyFields)
+			if (td.getFieldType(k) == Type.STRING_TYPE)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return the largest number of bytes a key on the fields keyFields of td
+	 * is encoded into
+	 */
+	static int getMaxEncodedSize(TupleDesc td, int[] keyFields) {
+		int size = 0;
+		for (int k : keyFields) {
+			if (td.getFieldType(k) == Type.STRING_TYPE)
+				size += 2 * Type.STRING_LEN + 2;
+			else
+				size += td.getFieldType(k).getLen();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the bytes of key, a field of the key type or a CompositeField
+	 * of them, that compare in the order of the keys
+	 */
+	static byte[] encode(Field key) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		if (key instanceof CompositeField) {
+			CompositeField c = (CompositeField) key;
+			for (int i = 0; i < c.numFields(); i++)
+				encode(c.getField(i), out);
+		}
+		else {
+			encode(key, out);
+		}
+		return out.toByteArray();
+	}
+
+	private static void encode(Field f, ByteArrayOutputStream out) {
+		if (f.getType() == Type.INT_TYPE) {
+			int v = ((IntField) f).getValue() ^ Integer.MIN_VALUE;
+			out.write(v >>> 24);
+			out.write(v >>> 16);
+			out.write(v >>> 8);
+			out.write(v);
+			return;
+		}
+		// 和StringField.serialize一样，只保留每个字符的低字节
+		String s = ((StringField) f).getValue();
+		for (int i = 0; i < s.length() && i < Type.STRING_LEN; i++) {
+			int b = s.charAt(i) & 0xFF;
+			out.write(b);
+			if (b == 0)
+				out.write(0xFF);
+		}
+		out.write(0);
+		out.write(0);
+	}
+
+	/**
+	 * @return the fields of the key on the fields keyFields of td encoded
+	 * into b, most significant first
+	 */
+	static Field[] decode(byte[] b, TupleDesc td, int[] keyFields) {
+		Field[] fields = new Field[keyFields.length];
+		int pos = 0;
+		for (int i = 0; i < fields.length; i++) {
+			if (td.getFieldType(keyFields[i]) == Type.INT_TYPE) {
+				int v = (b[pos] & 0xFF) << 24 | (b[pos + 1] & 0xFF) << 16
+						| (b[pos + 2] & 0xFF) << 8 | (b[pos + 3] & 0xFF);
+				fields[i] = new IntField(v ^ Integer.MIN_VALUE);
+				pos += 4;
+				continue;
+			}
+			ByteArrayOutputStream s = new ByteArrayOutputStream();
+			while (true) {
+				int c = b[pos++] & 0xFF;
+				if (c == 0 && (b[pos++] & 0xFF) == 0)
+					break;
+				s.write(c);
+			}
+			// 每个字节就是一个字符的低字节
+			fields[i] = new StringField(new String(s.toByteArray(), StandardCharsets.ISO_8859_1),
+					Type.STRING_LEN);
+		}
+		return fields;
+	}
+
+	/**
+	 * @return the key of a B+ tree made of fields: the field itself for one
+	 * field, or a CompositeField of all of them
+	 */
+	static Field toKey(Field[] fields) {
+		return fields.length == 1 ? fields[0] : new CompositeField(fields);
+	}
+
+	/**
+	 * @return the length of the longest common prefix of a and b
+	 */
+	static int sharedPrefix(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < n && a[i] == b[i])
+			i++;
+		return i;
+	}
+
+	/**
+	 * @return the number of bytes the encoded key takes on a page after the
+	 * encoded key prev, or as the first key of the page if prev is null
+	 */
+	static int getCodedSize(byte[] prev, byte[] key) {
+		return LENGTH_SIZE + key.length - (prev == null ? 0 : sharedPrefix(prev, key));
+	}
+
+	/**
+	 * Write the encoded key after the encoded key prev, or as the first key
+	 * of a page if prev is null
+	 */
+	static void write(DataOutputStream dos, byte[] prev, byte[] key) throws IOException {
+		int shared = prev == null ? 0 : sharedPrefix(prev, key);
+		dos.writeShort(shared);
+		dos.writeShort(key.length - shared);
+		dos.write(key, shared, key.length - shared);
+	}
+
+	/**
+	 * Read an encoded key written by {@link #write} after the encoded key prev
+	 */
+	static byte[] read(DataInputStream dis, byte[] prev) throws IOException {
+		int shared = dis.readUnsignedShort();
+		int rest = dis.readUnsignedShort();
+		byte[] key = new byte[shared + rest];
+		if (shared > 0)
+			System.arraycopy(prev, 0, key, 0, shared);
+		dis.readFully(key, shared, rest);
+		return key;
+	}
+
+	/**
+	 * Suffix truncation: the key to separate the keys up to left from the
+	 * keys from right on, with left less than or equal to right. If the
+	 * first field on which they differ is a string, it is cut to its
+	 * shortest prefix still greater than that field of left, which keeps the
+	 * separator in (left, right]; otherwise the separator is right itself.
+	 */
+	static Field separator(Field left, Field right) {
+		Field[] l = left instanceof CompositeField ? fields((CompositeField) left) : new Field[] {left};
+		Field[] r = right instanceof CompositeField ? fields((CompositeField) right) : new Field[] {right};
+		for (int i = 0; i < r.length && i < l.length; i++) {
+			if (l[i].equals(r[i]))
+				continue;
+			if (r[i].getType() != Type.STRING_TYPE)
+				return right;
+			String a = ((StringField) l[i]).getValue();
+			String b = ((StringField) r[i]).getValue();
+			int n = 0;
+			while (n < a.length() && n < b.length() && a.charAt(n) == b.charAt(n))
+				n++;
+			if (n + 1 >= b.length())
+				return right;
+			r[i] = new StringField(b.substring(0, n + 1), Type.STRING_LEN);
+			return toKey(r);
+		}
+		return right;
+	}
+
+	private static Field[] fields(CompositeField c) {
+		Field[] fields = new Field[c.numFields()];
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = c.getField(i);
+		return fields;
+	}
+}
@@ -15,19 +15,25 @@ public class BTreeLeafPage extends BTreePage {
 	private final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
+	private final boolean compressed;
+	private final byte encodedKeys[][]; // 压缩格式下每个元组的key的编码
 	
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
+		checkRep(new int[] {fieldid}, lowerBound, upperBound, checkoccupancy, depth);
+	}
+
+	public void checkRep(int[] fieldids, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
 
 		Iterator<Tuple> it = this.iterator();
 		while (it.hasNext()) {
 			Tuple t = it.next();
-			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, t.getField(fieldid)));
-			prev = t.getField(fieldid);
+			assert(null == prev || prev.compare(Predicate.Op.LESS_THAN_OR_EQ, getKey(t, fieldids)));
+			prev = getKey(t, fieldids);
 			assert(t.getRecordId().getPageId().equals(this.getId()));
 		}
 
@@ -36,7 +42,7 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		if (checkoccupancy && depth > 0) {
-			assert(getNumTuples() >= getMaxTuples()/2);
+			assert(getNumEmptySlots() <= getMaxTuples() - getMaxTuples()/2);
 		}
 	}
 
@@ -62,8 +68,23 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
-		this.numSlots = getMaxTuples();
+		this(id, data, new int[] {key});
+	}
+
+	/**
+	 * Create a BTreeLeafPage of a B+ tree keyed on several fields, whose
+	 * tuples are sorted on the {@link CompositeField} of their values.
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 * 
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param keyFields - the fields which the index is keyed on, most significant first
+	 */
+	public BTreeLeafPage(BTreePageId id, byte[] data, int[] keyFields) throws IOException {
+		super(id, keyFields);
+		this.compressed = isCompressed(td, keyFields);
+		this.numSlots = compressed ? getTupleSlots(getCompressedMinTupleSize(td, keyFields))
+				: getMaxTuples();
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent and sibling pointers
@@ -94,10 +115,14 @@ public class BTreeLeafPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		tuples = new Tuple[numSlots];
+		encodedKeys = compressed ? new byte[numSlots][] : null;
 		try{
 			// allocate and read the actual records of this page
-			for (int i=0; i<tuples.length; i++)
-				tuples[i] = readNextTuple(dis,i);
+			if (compressed)
+				readCompressedTuples(dis);
+			else
+				for (int i=0; i<tuples.length; i++)
+					tuples[i] = readNextTuple(dis,i);
 		}catch(NoSuchElementException e){
 			e.printStackTrace();
 		}
@@ -108,20 +133,84 @@ public class BTreeLeafPage extends BTreePage {
 
 	/** 
 	 * Retrieve the maximum number of tuples this page can hold.
+	 * A compressed page holds at least this many tuples of the longest keys,
+	 * and more of shorter ones: its free space is counted in tuples of the
+	 * longest keys, see {@link #getNumEmptySlots()}.
 	 */
 	public int getMaxTuples() {        
-		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+		if (compressed)
+			return getCompressedMaxTuples(td, keyFields);
+		return getTupleSlots(td.getSize());
+	}
+
+	/**
+	 * @return the number of tuples of tupleSize bytes a page can hold
+	 */
+	private static int getTupleSlots(int tupleSize) {
+		int bitsPerTupleIncludingHeader = tupleSize * 8 + 1;
 		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
 		int extraBits = 3 * INDEX_SIZE * 8; 
 		int tuplesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader; //round down
 		return tuplesPerPage;
 	}
 
+	/**
+	 * @return the smallest number of bytes a tuple takes on a compressed page,
+	 * when it has the same key as the tuple before it
+	 */
+	private static int getCompressedMinTupleSize(TupleDesc td, int[] keyFields) {
+		return BTreeKeyCodec.LENGTH_SIZE + td.getSize() - getKeySize(td, keyFields);
+	}
+
+	/**
+	 * @return the largest number of bytes a tuple takes on a compressed page
+	 * of a B+ tree on the fields keyFields of td, the unit its free space is
+	 * counted in
+	 */
+	static int getCompressedTupleSize(TupleDesc td, int[] keyFields) {
+		return getCompressedMinTupleSize(td, keyFields) + BTreeKeyCodec.getMaxEncodedSize(td, keyFields);
+	}
+
+	/**
+	 * @return the number of tuples of the longest keys a compressed page of a
+	 * B+ tree on the fields keyFields of td holds
+	 */
+	static int getCompressedMaxTuples(TupleDesc td, int[] keyFields) {
+		int slots = getTupleSlots(getCompressedMinTupleSize(td, keyFields));
+		int headerSize = (slots + 7) / 8;
+		return (BufferPool.getPageSize() - 3 * INDEX_SIZE - headerSize) / getCompressedTupleSize(td, keyFields);
+	}
+
+	/**
+	 * @return true if the leaf pages of a B+ tree on the fields keyFields of
+	 * td are stored in the compressed format: each tuple with its key prefix
+	 * compressed, used for string keys when the page size allows
+	 * @see BTreeKeyCodec
+	 */
+	static boolean isCompressed(TupleDesc td, int[] keyFields) {
+		return BTreeKeyCodec.hasStringKey(td, keyFields)
+				&& getCompressedMaxTuples(td, keyFields) >= BTreeKeyCodec.MIN_ENTRIES;
+	}
+
+	/**
+	 * @return true if this page is stored in the compressed format
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * @return the number of tuple slots of this page
+	 */
+	int getNumSlots() {
+		return numSlots;
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
 	 */
 	private int getHeaderSize() {        
-		int tuplesPerPage = getMaxTuples();
+		int tuplesPerPage = numSlots;
 		int hb = (tuplesPerPage / 8);
 		if (hb * 8 < tuplesPerPage) hb++;
 
@@ -137,7 +226,7 @@ public class BTreeLeafPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -153,6 +242,62 @@ public class BTreeLeafPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * @return true if field i of the tuples is one of the key fields
+	 */
+	private boolean isKeyField(int i) {
+		for (int k : keyFields)
+			if (k == i)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Read the tuples of the used slots of a compressed page, in slot order:
+	 * each is its front coded key followed by its other fields.
+	 */
+	private void readCompressedTuples(DataInputStream dis) throws NoSuchElementException {
+		byte[] prev = null;
+		try {
+			for (int i=0; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				prev = BTreeKeyCodec.read(dis, prev);
+				encodedKeys[i] = prev;
+				Field[] key = BTreeKeyCodec.decode(prev, td, keyFields);
+				Tuple t = new Tuple(td);
+				t.setRecordId(new RecordId(pid, i));
+				for (int k=0; k<keyFields.length; k++)
+					t.setField(keyFields[k], key[k]);
+				for (int j=0; j<td.numFields(); j++)
+					if (!isKeyField(j))
+						t.setField(j, td.getFieldType(j).parse(dis));
+				tuples[i] = t;
+			}
+		} catch (IOException e) {
+			throw new NoSuchElementException("error reading compressed tuple");
+		} catch (java.text.ParseException e) {
+			e.printStackTrace();
+			throw new NoSuchElementException("parsing error!");
+		}
+	}
+
+	/**
+	 * Write the tuples of the used slots of a compressed page, in slot order.
+	 */
+	private void writeCompressedTuples(DataOutputStream dos) throws IOException {
+		byte[] prev = null;
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			BTreeKeyCodec.write(dos, prev, encodedKeys[i]);
+			prev = encodedKeys[i];
+			for (int j=0; j<td.numFields(); j++)
+				if (!isKeyField(j))
+					tuples[i].getField(j).serialize(dos);
+		}
+	}
+
 	/**
 	 * Read tuples from the source file.
 	 */
@@ -233,6 +378,17 @@ public class BTreeLeafPage extends BTreePage {
 			}
 		}
 
+		if (compressed) {
+			try {
+				writeCompressedTuples(dos);
+				dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the tuples
 		for (int i=0; i<tuples.length; i++) {
 
@@ -324,10 +480,10 @@ public class BTreeLeafPage extends BTreePage {
 
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
+		Field key = getKey(t, keyFields);
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				if(getKey(tuples[i], keyFields).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
 					lessOrEqKey = i;
 				else
 					break;	
@@ -356,6 +512,8 @@ public class BTreeLeafPage extends BTreePage {
 		RecordId rid = new RecordId(pid, goodSlot);
 		t.setRecordId(rid);
 		tuples[goodSlot] = t;
+		if (compressed)
+			encodedKeys[goodSlot] = BTreeKeyCodec.encode(key);
 	}
 
 	/**
@@ -368,6 +526,8 @@ public class BTreeLeafPage extends BTreePage {
 			RecordId rid = new RecordId(pid, to);
 			tuples[to] = tuples[from];
 			tuples[to].setRecordId(rid);
+			if (compressed)
+				encodedKeys[to] = encodedKeys[from];
 			markSlotUsed(from, false);
 		}
 	}
@@ -438,18 +598,44 @@ public class BTreeLeafPage extends BTreePage {
 	 * Returns the number of tuples currently stored on this page
 	 */
 	public int getNumTuples() {
-		return numSlots - getNumEmptySlots();
+		int cnt = 0;
+		for(int i=0; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. On a compressed page,
+	 * the number of tuples of the longest keys that fit in its free space.
 	 */
 	public int getNumEmptySlots() {
 		int cnt = 0;
 		for(int i=0; i<numSlots; i++)
 			if(!isSlotUsed(i))
 				cnt++;
-		return cnt;
+		if (!compressed)
+			return cnt;
+		// 已用的字节向上取整成最长元组的个数
+		int unit = getCompressedTupleSize(td, keyFields);
+		int usedUnits = (getUsedBytes() + unit - 1) / unit;
+		return Math.max(0, Math.min(cnt, getMaxTuples() - usedUnits));
+	}
+
+	/**
+	 * @return the number of bytes the tuples of this compressed page take
+	 */
+	private int getUsedBytes() {
+		int nonKeySize = td.getSize() - getKeySize(td, keyFields);
+		int used = 0;
+		byte[] prev = null;
+		for(int i=0; i<numSlots; i++) {
+			if(isSlotUsed(i)) {
+				used += BTreeKeyCodec.getCodedSize(prev, encodedKeys[i]) + nonKeySize;
+				prev = encodedKeys[i];
+			}
+		}
+		return used;
 	}
 
 	/**
@@ -575,7 +761,7 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 
 	public BTreeLeafPageReverseIterator(BTreeLeafPage p) {
 		this.p = p;
-		this.curTuple = p.getMaxTuples() - 1;
+		this.curTuple = p.getNumSlots() - 1;
 	}
 
 	public boolean hasNext() {
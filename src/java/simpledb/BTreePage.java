@@ -18,7 +18,8 @@ public abstract class BTreePage implements Page {
 
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
-	protected final int keyField;
+	protected final int[] keyFields;
+	protected final int keyField; // keyFields[0]
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -49,11 +50,77 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) throws IOException {
+		this(id, new int[] {key});
+	}
+
+	/**
+	 * Create a BTreePage of a B+ tree keyed on several fields, whose keys are
+	 * {@link CompositeField}s of the values of keys in that order.
+	 * @see #BTreePage(BTreePageId, int)
+	 * 
+	 * @param id - the id of this page
+	 * @param keys - the fields which the index is keyed on, most significant first
+	 */
+	public BTreePage(BTreePageId id, int[] keys) throws IOException {
 		this.pid = id;
-		this.keyField = key;
+		this.keyFields = keys.clone();
+		this.keyField = keys[0];
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the key of tuple t in a B+ tree keyed on keyFields: the field
+	 * itself for one field, or a CompositeField of all of them
+	 */
+	static Field getKey(Tuple t, int[] keyFields) {
+		if (keyFields.length == 1)
+			return t.getField(keyFields[0]);
+		Field[] fields = new Field[keyFields.length];
+		for (int i=0; i<fields.length; i++)
+			fields[i] = t.getField(keyFields[i]);
+		return new CompositeField(fields);
+	}
+
+	/**
+	 * @return the number of bytes a key of a B+ tree on the fields keyFields
+	 * of td takes on a page
+	 */
+	static int getKeySize(TupleDesc td, int[] keyFields) {
+		int size = 0;
+		for (int k : keyFields)
+			size += td.getFieldType(k).getLen();
+		return size;
+	}
+
+	/**
+	 * Read a key of a B+ tree on the fields keyFields of td, as written by
+	 * {@link Field#serialize}
+	 */
+	static Field parseKey(DataInputStream dis, TupleDesc td, int[] keyFields)
+			throws java.text.ParseException {
+		if (keyFields.length == 1)
+			return td.getFieldType(keyFields[0]).parse(dis);
+		Field[] fields = new Field[keyFields.length];
+		for (int i=0; i<fields.length; i++)
+			fields[i] = td.getFieldType(keyFields[i]).parse(dis);
+		return new CompositeField(fields);
+	}
+
+	/**
+	 * @return true if f can be stored as a key on this page: a field of the
+	 * type of the key field, or a CompositeField of the types of all of them
+	 */
+	protected boolean isKey(Field f) {
+		if (keyFields.length == 1)
+			return f.getType().equals(td.getFieldType(keyField));
+		if (!(f instanceof CompositeField) || ((CompositeField) f).numFields() != keyFields.length)
+			return false;
+		for (int i=0; i<keyFields.length; i++)
+			if (!((CompositeField) f).getField(i).getType().equals(td.getFieldType(keyFields[i])))
+				return false;
+		return true;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -17,6 +17,7 @@ public class BTreeReverseScan implements OpIterator {
 	private IndexPredicate ipred = null;
 	private transient DbFileIterator it;
 	private String tablename;
+	private int tableid;
 	private String alias;
 
 	/**
@@ -53,6 +54,13 @@ public class BTreeReverseScan implements OpIterator {
 		return this.tablename;
 	}
 
+	/**
+	 * @return the id of the table this operator scans
+	 * */
+	public int getTableId() {
+		return this.tableid;
+	}
+
 	/**
 	 * @return Return the alias of the table this operator scans. 
 	 * */
@@ -61,6 +69,14 @@ public class BTreeReverseScan implements OpIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the index predicate the scan is restricted to, or null if it
+	 *         returns all tuples
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -76,6 +92,7 @@ public class BTreeReverseScan implements OpIterator {
 	public void reset(int tableid, String tableAlias) {
 		this.isOpen=false;
 		this.alias = tableAlias;
+		this.tableid = tableid;
 		this.tablename = Database.getCatalog().getTableName(tableid);
 		// TODO: implement reverseIterator & reverseIndexIterator
 		if(ipred == null) {
@@ -521,7 +521,7 @@ public class BTreeUtility {
 					Tuple t = BTreeUtility.getBTreeTuple(item, 2);
 					Database.getBufferPool().insertTuple(tid, bf.getId(), t);
 
-					IndexPredicate ipred = new IndexPredicate(Op.EQUALS, t.getField(bf.keyField()));
+					IndexPredicate ipred = new IndexPredicate(Op.EQUALS, bf.getKey(t));
 					DbFileIterator it = bf.indexIterator(tid, ipred);
 					it.open();
 					c = 0;
@@ -284,7 +284,8 @@ public class BufferPool {
     	}
     	//release any state the BufferPool keeps regarding the transaction
     	lockManager.releaseAllLocks(tid);
-
+    	// 改动多的表在后台重新统计，这时它们的页已经写回磁盘
+    	TableStats.reanalyzeStale();
     }
 
     /**
@@ -296,7 +297,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
-     * that future requests see up-to-date pages. 
+     * that future requests see up-to-date pages. The entry of the tuple is
+     * added to every {@link SecondaryIndex} on the table the same way.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -323,6 +325,9 @@ public class BufferPool {
 //			pageOrder.remove(page.getId());// 最近进行了调用，LRU原则对他进行更新
 //			pageOrder.offer(page.getId());
     	}
+    	for(SecondaryIndex index:Database.getCatalog().getIndexes(tableId))// 二级索引跟着更新
+    		markDirty(tid, index.insertEntry(tid, t));
+    	TableStats.tupleInserted(tableId, t);// 统计信息跟着更新
     }
 
     /**
@@ -333,7 +338,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
-     * that future requests see up-to-date pages. 
+     * that future requests see up-to-date pages. The entry of the tuple is
+     * removed from every {@link SecondaryIndex} on its table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -354,6 +360,20 @@ public class BufferPool {
 //			pageOrder.remove(page.getId());// 最近进行了调用，LRU原则对他进行更新
 //			pageOrder.offer(page.getId());
         }
+        for(SecondaryIndex index:Database.getCatalog().getIndexes(f.getId()))
+        	markDirty(tid, index.deleteEntry(tid, t));
+        TableStats.tupleDeleted(f.getId(), t);
+    }
+
+    /**
+     * Mark the pages of an index modified by tid as dirty and put them in the
+     * cache, like the pages of the table in {@link #insertTuple}.
+     */
+    private void markDirty(TransactionId tid, ArrayList<Page> dirtied) {
+    	for(Page page:dirtied) {
+    		page.markDirty(true, tid);
+    		pages.put(page.getId(), page);
+    	}
     }
 
     /**
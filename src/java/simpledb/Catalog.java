@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import simpledb.Catalog.Table;
 
@@ -41,6 +42,10 @@ public class Catalog {
 	
 	//用map存放catalog里所有table
 	private ConcurrentHashMap<Integer,Table> tables;//每个DbFile都有一个单独的id
+	private volatile String schemaFile=null;//loadSchema读的文件，统计信息存在它旁边
+	//二级索引，按表的id存放；索引的文件不是表，单独记下来给BufferPool读页用
+	private ConcurrentHashMap<Integer,List<SecondaryIndex>> indexes;
+	private ConcurrentHashMap<Integer,DbFile> indexFiles;
 	
     /**
      * Constructor.
@@ -49,6 +54,8 @@ public class Catalog {
     public Catalog() {
         // some code goes here
     	tables=new ConcurrentHashMap<>();
+    	indexes=new ConcurrentHashMap<>();
+    	indexFiles=new ConcurrentHashMap<>();
     }
 
     /**
@@ -108,7 +115,7 @@ public class Catalog {
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
-        return tables.get(tableid).dbFile.getTupleDesc();
+        return getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
@@ -119,7 +126,35 @@ public class Catalog {
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
-        return tables.get(tableid).dbFile;
+        Table t=tables.get(tableid);
+        if(t!=null)
+        	return t.dbFile;
+        DbFile index=indexFiles.get(tableid);
+        if(index==null)
+        	throw new NoSuchElementException("not found");
+        return index;
+    }
+
+    /**
+     * Add a secondary index to the catalog. Its file can then be found by
+     * {@link #getDatabaseFile}, so that the BufferPool can read its pages, but
+     * it is not a table: it is not listed by {@link #tableIdIterator}. Adding
+     * the same index again has no effect.
+     * @param index the index; its table must already be in the catalog
+     */
+    public void addIndex(SecondaryIndex index) {
+    	indexFiles.put(index.getFile().getId(), index.getFile());
+    	((CopyOnWriteArrayList<SecondaryIndex>) indexes.computeIfAbsent(index.getTableId(),
+    			k -> new CopyOnWriteArrayList<SecondaryIndex>())).addIfAbsent(index);
+    }
+
+    /**
+     * @return the secondary indexes on the specified table, possibly none
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+    	List<SecondaryIndex> l=indexes.get(tableid);
+    	return l==null ? Collections.<SecondaryIndex>emptyList() : l;
     }
 
     public String getPrimaryKey(int tableid) {
@@ -141,13 +176,28 @@ public class Catalog {
     public void clear() {
         // some code goes here
     	tables.clear();
+    	indexes.clear();
+    	indexFiles.clear();
     }
     
+    /**
+     * @return the schema file last read by {@link #loadSchema}, or null if the
+     *         tables were added by hand
+     */
+    public String getSchemaFile() {
+    	return schemaFile;
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form name (field type [pk] [index], ...); a field
+     * annotated with index gets a {@link SecondaryIndex}, stored in
+     * name.field.idx next to the table and built from the table if that file
+     * does not exist yet.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
+        schemaFile = catalogFile;
         String line = "";
         String baseFolder=new File(new File(catalogFile).getAbsolutePath()).getParent();//基文件夹
         try {
@@ -162,6 +212,7 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");//再切
                     names.add(els2[0].trim());
@@ -173,11 +224,13 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {//还有一段，声明是主键
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {//后面的是注解：主键pk，二级索引index
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -188,7 +241,21 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : indexed) {
+                    //索引存在name.field.idx里，没有或者表的文件变了就从表重建
+                    File idx = new File(baseFolder+"/"+name + "." + namesAr[field] + ".idx");
+                    if (SecondaryIndex.isCurrent(idx, tabHf))
+                        addIndex(new SecondaryIndex(idx, tabHf, field));
+                    else {
+                        SecondaryIndex.build(idx, tabHf, field);
+                        SecondaryIndex.writeFingerprint(idx, tabHf);
+                    }
+                    System.out.println("Added index : " + name + "." + namesAr[field]);
+                }
             }
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
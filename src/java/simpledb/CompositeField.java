@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that stores the values of several fields, the key of a
+ * B+ tree keyed on more than one field. Composite fields are ordered
+ * lexicographically, and only on the fields both sides have: a shorter
+ * composite field is a prefix and is equal to every longer one that starts
+ * with it, so an {@link IndexPredicate} on (a) selects the keys (a, b, ...)
+ * whose first field satisfies it.
+ *
+ * @see BTreeFile#BTreeFile(java.io.File, int[], TupleDesc)
+ */
+public class CompositeField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field[] fields;
+
+    /**
+     * Constructor.
+     *
+     * @param fields The values of this field, most significant first; at
+     *            least one.
+     */
+    public CompositeField(Field... fields) {
+        if (fields.length == 0)
+            throw new IllegalArgumentException("a composite field needs at least one field");
+        this.fields = fields.clone();
+    }
+
+    /** @return the number of fields stored in this field */
+    public int numFields() {
+        return fields.length;
+    }
+
+    /** @return the i-th field stored in this field */
+    public Field getField(int i) {
+        return fields[i];
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(fields[i]);
+        }
+        return sb.append(")").toString();
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(fields);
+    }
+
+    public boolean equals(Object field) {
+        return field instanceof CompositeField
+                && Arrays.equals(fields, ((CompositeField) field).fields);
+    }
+
+    /** Writes the fields one after the other, each in its own format. */
+    public void serialize(DataOutputStream dos) throws IOException {
+        for (Field f : fields)
+            f.serialize(dos);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, field by field
+     * on the fields both have. A field that is not a CompositeField is
+     * compared as a composite field of one field.
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        int c = compareTo(val);
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return c == 0;
+        case NOT_EQUALS:
+            return c != 0;
+        case GREATER_THAN:
+            return c > 0;
+        case GREATER_THAN_OR_EQ:
+            return c >= 0;
+        case LESS_THAN:
+            return c < 0;
+        case LESS_THAN_OR_EQ:
+            return c <= 0;
+        }
+        return false;
+    }
+
+    /**
+     * @return a negative number, zero or a positive number as this field is
+     *         less than, equal to (or a prefix of, or prefixed by) or greater
+     *         than val
+     */
+    private int compareTo(Field val) {
+        Field[] other = val instanceof CompositeField ? ((CompositeField) val).fields
+                : new Field[] { val };
+        int n = Math.min(fields.length, other.length);
+        for (int i = 0; i < n; i++) {
+            if (fields[i].compare(Predicate.Op.LESS_THAN, other[i]))
+                return -1;
+            if (fields[i].compare(Predicate.Op.GREATER_THAN, other[i]))
+                return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * A composite field is not a value of one Type; this is the Type of its
+     * first field, so that code ordering fields by type still sees the most
+     * significant one.
+     */
+    public Type getType() {
+        return fields[0].getType();
+    }
+}
@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compressed histogram over a single int field: the most common values are
+ * kept with their frequencies, and the remaining values are summarized by an
+ * {@link EquiDepthHistogram}. On skewed data, where a few values make up most
+ * of the column, the frequent values are estimated exactly instead of being
+ * smeared over the buckets they fall into.
+ * <p>
+ * A value is kept as a common value only if it is more frequent than the
+ * average bucket of the equi-depth part.
+ */
+public class CompressedHistogram implements Histogram {
+
+    private final int[] mcv;// 常见值，升序
+    private final double[] mcvFreq;// 每个常见值占的比例
+    private final double[] mcvBelow;// mcvBelow[i] = mcvFreq[0..i)之和
+    private final EquiDepthHistogram rest;// 其余的值，没有则为null
+    private final double restFreq;// 其余的值占的比例
+
+    private CompressedHistogram(int[] mcv, double[] mcvFreq, EquiDepthHistogram rest,
+            double restFreq) {
+        // 常见值按值排好序，比较时二分查找
+        Integer[] order = new Integer[mcv.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(mcv[a], mcv[b]));
+        this.mcv = new int[mcv.length];
+        this.mcvFreq = new double[mcv.length];
+        this.mcvBelow = new double[mcv.length + 1];
+        for (int i = 0; i < order.length; i++) {
+            this.mcv[i] = mcv[order[i]];
+            this.mcvFreq[i] = mcvFreq[order[i]];
+            this.mcvBelow[i + 1] = mcvBelow[i] + this.mcvFreq[i];
+        }
+        this.rest = rest;
+        this.restFreq = rest == null ? 0 : restFreq;
+    }
+
+    /**
+     * Build the histogram of values.
+     *
+     * @param buckets the number of buckets of the equi-depth part
+     * @param maxCommon the maximum number of common values to keep
+     * @param values the values, in any order
+     */
+    public static CompressedHistogram build(int buckets, int maxCommon, int[] values) {
+        HashMap<Integer, Integer> freq = new HashMap<Integer, Integer>();
+        for (int v : values)
+            freq.merge(v, 1, Integer::sum);
+        Integer[] byCount = freq.keySet().toArray(new Integer[0]);
+        Arrays.sort(byCount, (a, b) -> freq.get(b) - freq.get(a));
+        int k = 0;
+        while (k < Math.min(maxCommon, byCount.length)
+                && freq.get(byCount[k]) > (double) values.length / buckets)
+            k++;
+        int[] mcv = new int[k];
+        double[] mcvFreq = new double[k];
+        for (int i = 0; i < k; i++) {
+            mcv[i] = byCount[i];
+            mcvFreq[i] = (double) freq.get(byCount[i]) / values.length;
+        }
+        for (int v : mcv)
+            freq.remove(v);
+        int[] others = new int[values.length];
+        int n = 0;
+        for (int v : values)
+            if (freq.containsKey(v))
+                others[n++] = v;
+        EquiDepthHistogram rest = n == 0 ? null
+                : new EquiDepthHistogram(buckets, Arrays.copyOf(others, n));
+        return new CompressedHistogram(mcv, mcvFreq, rest, (double) n / Math.max(1, values.length));
+    }
+
+    /**
+     * Build the histogram from summaries gathered in one pass over the
+     * values: a fine-grained histogram of all values, and the counts of the
+     * most frequent ones. The common values are taken out of the buckets of
+     * the fine histogram they fall into, and what remains is regrouped into
+     * equi-depth buckets.
+     *
+     * @param buckets the number of buckets of the equi-depth part
+     * @param maxCommon the maximum number of common values to keep
+     * @param fine a histogram of the values with many more than buckets buckets
+     * @param frequent the most frequent values, counted over the same values
+     */
+    public static CompressedHistogram build(int buckets, int maxCommon, IntHistogram fine,
+            FrequentValues frequent) {
+        double n = fine.numValues();
+        int[] top = frequent.top(maxCommon);
+        int k = 0;
+        while (k < top.length && frequent.count(top[k]) > n / buckets)
+            k++;
+        int[] mcv = Arrays.copyOf(top, k);
+        double[] mcvFreq = new double[k];
+        int nb = fine.numBuckets();
+        double[] l = new double[nb], h = new double[nb], mass = new double[nb];
+        for (int b = 0; b < nb; b++) {
+            l[b] = fine.bucketLo(b);
+            h[b] = Math.max(l[b], fine.bucketHi(b));
+            mass[b] = fine.bucketCount(b);
+        }
+        Map<Integer, Integer> bucketOf = new HashMap<Integer, Integer>();
+        for (int b = 0; b < nb; b++)
+            if (mass[b] > 0)
+                for (int i = 0; i < k; i++)
+                    if (mcv[i] >= l[b] && mcv[i] < h[b])
+                        bucketOf.put(i, b);
+        double restMass = n;
+        for (int i = 0; i < k; i++) {
+            long c = frequent.count(mcv[i]);
+            mcvFreq[i] = c / n;
+            Integer b = bucketOf.get(i);
+            if (b != null) {
+                double taken = Math.min(c, mass[b]);
+                mass[b] -= taken;
+                restMass -= taken;
+            }
+        }
+        EquiDepthHistogram rest = restMass < 0.5 ? null : new EquiDepthHistogram(buckets, l, h, mass);
+        return new CompressedHistogram(mcv, mcvFreq, rest, restMass / Math.max(1, n));
+    }
+
+    /** @return the number of common values kept */
+    public int numCommonValues() {
+        return mcv.length;
+    }
+
+    /** @return the fraction of values that are common values below x */
+    private double commonBelow(long x) {
+        int i = x > Integer.MAX_VALUE ? mcv.length : Arrays.binarySearch(mcv, (int) x);
+        if (i < 0)
+            i = -i - 1;// 没找到时是第一个大于x的位置
+        return mcvBelow[i];
+    }
+
+    private double restBelow(Predicate.Op op, int v) {
+        if (rest == null)
+            return 0;
+        return restFreq * rest.estimateSelectivity(op, v);
+    }
+
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        double lt = commonBelow(v) + restBelow(Predicate.Op.LESS_THAN, v);
+        double le = commonBelow((long) v + 1) + restBelow(Predicate.Op.LESS_THAN_OR_EQ, v);
+        double total = mcvBelow[mcv.length] + restFreq;
+        if (total == 0)
+            return 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return le - lt;
+        case NOT_EQUALS:
+            return total - (le - lt);
+        case LESS_THAN:
+            return lt;
+        case LESS_THAN_OR_EQ:
+            return le;
+        case GREATER_THAN:
+            return total - le;
+        case GREATER_THAN_OR_EQ:
+            return total - lt;
+        default:
+            throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    /**
+     * Estimate the selectivity of op v knowing that the column has distinct
+     * distinct values. An equality on a value that is not a common value,
+     * but falls among the other values, is given an equal share of them,
+     * 1/(distinct - common values), rather than the share of the bucket it
+     * falls into.
+     *
+     * @param distinct the number of distinct values of the column
+     */
+    public double estimateSelectivity(Predicate.Op op, int v, long distinct) {
+        boolean equality = op == Predicate.Op.EQUALS || op == Predicate.Op.LIKE
+                || op == Predicate.Op.NOT_EQUALS;
+        if (!equality || rest == null || distinct <= mcv.length
+                || Arrays.binarySearch(mcv, v) >= 0)
+            return estimateSelectivity(op, v);
+        double eq = restBelow(Predicate.Op.EQUALS, v);
+        if (eq > 0)// 不在任何桶里的值还是0
+            eq = restFreq / (distinct - mcv.length);
+        return op == Predicate.Op.NOT_EQUALS ? mcvBelow[mcv.length] + restFreq - eq : eq;
+    }
+
+    public double avgSelectivity() {
+        double sum = 0;
+        for (double f : mcvFreq)
+            sum += f * f;
+        if (rest != null)
+            sum += restFreq * restFreq * rest.avgSelectivity();
+        return sum;
+    }
+
+    /**
+     * Write this histogram to out, so that {@link #readFrom} can rebuild it.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mcv.length);
+        for (int i = 0; i < mcv.length; i++) {
+            out.writeInt(mcv[i]);
+            out.writeDouble(mcvFreq[i]);
+        }
+        out.writeBoolean(rest != null);
+        if (rest != null) {
+            out.writeDouble(restFreq);
+            rest.writeTo(out);
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #writeTo}.
+     */
+    public static CompressedHistogram readFrom(DataInputStream in) throws IOException {
+        int k = in.readInt();
+        int[] mcv = new int[k];
+        double[] mcvFreq = new double[k];
+        for (int i = 0; i < k; i++) {
+            mcv[i] = in.readInt();
+            mcvFreq[i] = in.readDouble();
+        }
+        if (!in.readBoolean())
+            return new CompressedHistogram(mcv, mcvFreq, null, 0);
+        double restFreq = in.readDouble();
+        return new CompressedHistogram(mcv, mcvFreq, EquiDepthHistogram.readFrom(in), restFreq);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CompressedHistogram(common:");
+        for (int i = 0; i < mcv.length; i++)
+            sb.append(' ').append(mcv[i]).append('=').append(mcvFreq[i]);
+        return sb.append(", rest ").append(restFreq).append(": ").append(rest).append(')').toString();
+    }
+}
@@ -29,6 +29,23 @@ public interface DbFileIterator{
     public Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Appends the next tuples to batch until it is full or the iterator is
+     * exhausted. Files should override this to copy values straight out of
+     * their pages instead of going through next.
+     *
+     * @return the number of tuples added to batch
+     */
+    public default int fillBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        int n = 0;
+        while (!batch.isFull() && hasNext()) {
+            batch.addTuple(next());
+            n++;
+        }
+        return n;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An equi-depth histogram over a single int field: every bucket holds about
+ * the same number of values, so that dense ranges of values get narrow
+ * buckets and sparse ranges wide ones. As in {@link IntHistogram}, each
+ * value v covers the interval [v, v+1) and the values of a bucket are taken
+ * to be spread uniformly over its interval. A value more frequent than a
+ * bucket is spread over several consecutive buckets.
+ * <p>
+ * The histogram is built once, from the values themselves or from a finer
+ * histogram, and cannot be updated afterwards.
+ */
+public class EquiDepthHistogram implements Histogram {
+
+    private final double[] lo;// 每个桶的区间[lo, hi)
+    private final double[] hi;
+    private final double[] counts;
+    private final double ntups;
+
+    private EquiDepthHistogram(double[] lo, double[] hi, double[] counts) {
+        this.lo = lo;
+        this.hi = hi;
+        this.counts = counts;
+        double n = 0;
+        for (double c : counts)
+            n += c;
+        this.ntups = n;
+    }
+
+    /**
+     * Build the histogram of values.
+     *
+     * @param buckets the number of buckets to split the values into
+     * @param values the values, in any order
+     */
+    public EquiDepthHistogram(int buckets, int[] values) {
+        this(buckets, sortedPieces(values));
+    }
+
+    private EquiDepthHistogram(int buckets, double[][] pieces) {
+        this(buckets, pieces[0], pieces[1], pieces[2]);
+    }
+
+    /**
+     * Build a histogram from pieces of mass spread uniformly over intervals.
+     * The intervals must be in increasing order and must not overlap.
+     *
+     * @param buckets the number of buckets to split the mass into
+     * @param pieceLo the start of each interval
+     * @param pieceHi the end of each interval
+     * @param mass the number of values in each interval
+     */
+    EquiDepthHistogram(int buckets, double[] pieceLo, double[] pieceHi, double[] mass) {
+        if (buckets < 1)
+            throw new IllegalArgumentException("need at least one bucket");
+        double total = 0;
+        for (double m : mass)
+            total += m;
+        double depth = total / buckets;
+        double[] bl = new double[buckets], bh = new double[buckets], bc = new double[buckets];
+        int b = 0;
+        boolean open = false;// 当前桶是否已经有值
+        for (int i = 0; i < mass.length; i++) {
+            double l = pieceLo[i], h = pieceHi[i], m = mass[i];
+            while (m > 0) {
+                if (!open) {
+                    bl[b] = l;
+                    open = true;
+                }
+                double room = depth - bc[b];
+                if (b < buckets - 1 && m > room * (1 + 1e-9)) {
+                    // 这一段放不下：按比例切开，前一部分填满当前桶
+                    double cut = l + (h - l) * room / m;
+                    bc[b] = depth;
+                    bh[b] = cut;
+                    b++;
+                    open = false;
+                    m -= room;
+                    l = cut;
+                    continue;
+                }
+                bc[b] += m;
+                bh[b] = h;
+                if (b < buckets - 1 && bc[b] >= depth * (1 - 1e-9)) {
+                    b++;
+                    open = false;
+                }
+                break;
+            }
+        }
+        int used = open ? b + 1 : b;
+        this.lo = Arrays.copyOf(bl, used);
+        this.hi = Arrays.copyOf(bh, used);
+        this.counts = Arrays.copyOf(bc, used);
+        this.ntups = total;
+    }
+
+    /** @return one piece [v, v+1) per distinct value v, weighted by its count */
+    private static double[][] sortedPieces(int[] values) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++)
+            if (i == 0 || sorted[i] != sorted[i - 1])
+                distinct++;
+        double[] l = new double[distinct], h = new double[distinct], m = new double[distinct];
+        int d = -1;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                d++;
+                l[d] = sorted[i];
+                h[d] = (double) sorted[i] + 1;
+            }
+            m[d]++;
+        }
+        return new double[][] { l, h, m };
+    }
+
+    /** @return the number of buckets */
+    public int numBuckets() {
+        return counts.length;
+    }
+
+    /** @return the number of values summarized by this histogram */
+    public double numValues() {
+        return ntups;
+    }
+
+    /** @return the estimated number of values below x */
+    double countBelow(double x) {
+        double below = 0;
+        for (int b = 0; b < counts.length && lo[b] < x; b++) {
+            if (hi[b] <= x)
+                below += counts[b];
+            else
+                below += counts[b] * (x - lo[b]) / (hi[b] - lo[b]);
+        }
+        return below;
+    }
+
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (ntups == 0)
+            return 0;
+        double lt = countBelow(v) / ntups;
+        double le = countBelow((double) v + 1) / ntups;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return le - lt;
+        case NOT_EQUALS:
+            return 1 - (le - lt);
+        case LESS_THAN:
+            return lt;
+        case LESS_THAN_OR_EQ:
+            return le;
+        case GREATER_THAN:
+            return 1 - le;
+        case GREATER_THAN_OR_EQ:
+            return 1 - lt;
+        default:
+            throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    public double avgSelectivity() {
+        if (ntups == 0)
+            return 0;
+        double sum = 0;
+        for (int b = 0; b < counts.length; b++) {
+            double p = counts[b] / ntups;
+            sum += p * p / Math.max(1, Math.ceil(hi[b]) - Math.ceil(lo[b]));
+        }
+        return sum;
+    }
+
+    /**
+     * Write this histogram to out, so that {@link #readFrom} can rebuild it.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(counts.length);
+        for (int b = 0; b < counts.length; b++) {
+            out.writeDouble(lo[b]);
+            out.writeDouble(hi[b]);
+            out.writeDouble(counts[b]);
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #writeTo}.
+     */
+    public static EquiDepthHistogram readFrom(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        double[] l = new double[n], h = new double[n], c = new double[n];
+        for (int b = 0; b < n; b++) {
+            l[b] = in.readDouble();
+            h[b] = in.readDouble();
+            c[b] = in.readDouble();
+        }
+        return new EquiDepthHistogram(l, h, c);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("EquiDepthHistogram(");
+        for (int b = 0; b < counts.length; b++)
+            sb.append(b == 0 ? "" : " ").append('[').append(lo[b]).append(", ")
+                    .append(hi[b]).append(")=").append(Math.round(counts[b]));
+        return sb.append(')').toString();
+    }
+}
@@ -77,6 +77,21 @@ public class Filter extends Operator {
         return null;
     }
 
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException,
+            DbException {
+        // 整批过滤后原地压缩，全被过滤掉的批次直接跳过
+        TupleBatch batch;
+        while((batch=child.nextBatch())!=null) {
+        	int[] sel=new int[batch.numRows()];
+        	int n=p.filter(batch, sel);
+        	if(n>0) {
+        		batch.retain(sel, n);
+        		return batch;
+        	}
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
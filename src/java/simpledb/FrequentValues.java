@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * FrequentValues finds the most common values of a stream of ints in
+ * bounded space, with the Misra-Gries summary: it keeps at most capacity
+ * counters, and when a value without a counter arrives while all of them are
+ * in use, every counter is decremented instead. The count kept for a value
+ * is never above its true count and at most n/(capacity+1) below it, so every
+ * value that makes up more than 1/(capacity+1) of the stream has a counter.
+ * <p>
+ * Two summaries of disjoint streams can be merged, so that each thread of a
+ * parallel scan can keep its own.
+ */
+public class FrequentValues {
+
+    private final int capacity;
+    private int[] keys;
+    private long[] counts;
+    private int size = 0;
+    private long n = 0;
+    private int[] slots;// 开放寻址的下标：值所在的位置，-1表示空
+    private int mask;
+
+    /**
+     * @param capacity the number of counters to keep
+     */
+    public FrequentValues(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("need at least one counter");
+        this.capacity = capacity;
+        this.keys = new int[capacity];
+        this.counts = new long[capacity];
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) * 2;
+        this.slots = new int[tableSize];
+        this.mask = tableSize - 1;
+        Arrays.fill(slots, -1);
+    }
+
+    /** @return the number of values added */
+    public long numValues() {
+        return n;
+    }
+
+    private static int hash(int k) {
+        int h = k * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Add one occurrence of v. */
+    public void addValue(int v) {
+        n++;
+        int i = hash(v) & mask;
+        for (; slots[i] != -1; i = (i + 1) & mask) {
+            if (keys[slots[i]] == v) {
+                counts[slots[i]]++;
+                return;
+            }
+        }
+        if (size < capacity) {
+            keys[size] = v;
+            counts[size] = 1;
+            slots[i] = size++;
+            return;
+        }
+        // 计数器用完了：所有计数减一（新值的这一次也抵消掉），去掉减到0的
+        subtract(1);
+    }
+
+    /** Subtract d from every counter and drop the counters that reach 0. */
+    private void subtract(long d) {
+        int kept = 0;
+        for (int j = 0; j < size; j++) {
+            if (counts[j] > d) {
+                keys[kept] = keys[j];
+                counts[kept++] = counts[j] - d;
+            }
+        }
+        size = kept;
+        reindex();
+    }
+
+    private void reindex() {
+        Arrays.fill(slots, -1);
+        for (int j = 0; j < size; j++) {
+            int i = hash(keys[j]) & mask;
+            while (slots[i] != -1)
+                i = (i + 1) & mask;
+            slots[i] = j;
+        }
+    }
+
+    /**
+     * Add the counters of a summary of other values to this one. The result
+     * has the same error bound as a summary of both streams.
+     */
+    public void merge(FrequentValues other) {
+        if (other.capacity != capacity)
+            throw new IllegalArgumentException("summaries have different capacities");
+        int[] k = Arrays.copyOf(keys, size + other.size);
+        long[] c = Arrays.copyOf(counts, size + other.size);
+        int total = size;
+        for (int j = 0; j < other.size; j++) {
+            int mine = find(other.keys[j]);
+            if (mine >= 0) {
+                c[mine] += other.counts[j];
+            } else {
+                k[total] = other.keys[j];
+                c[total++] = other.counts[j];
+            }
+        }
+        long d = 0;
+        if (total > capacity) {
+            // 只留capacity个：所有计数减去第capacity+1大的计数
+            long[] sorted = Arrays.copyOf(c, total);
+            Arrays.sort(sorted);
+            d = sorted[total - capacity - 1];
+        }
+        keys = Arrays.copyOf(k, Math.max(capacity, total));
+        counts = Arrays.copyOf(c, Math.max(capacity, total));
+        size = total;
+        n += other.n;
+        if (d > 0) {
+            subtract(d);
+        } else {
+            reindex();
+        }
+        if (keys.length > capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+    }
+
+    /** @return the index of v's counter, or -1 */
+    private int find(int v) {
+        for (int i = hash(v) & mask; slots[i] != -1; i = (i + 1) & mask)
+            if (keys[slots[i]] == v)
+                return slots[i];
+        return -1;
+    }
+
+    /** @return the counted occurrences of v, a lower bound of its true count */
+    public long count(int v) {
+        int j = find(v);
+        return j < 0 ? 0 : counts[j];
+    }
+
+    /**
+     * @return up to k values with the highest counts, most frequent first
+     */
+    public int[] top(int k) {
+        Integer[] order = new Integer[size];
+        for (int j = 0; j < size; j++)
+            order[j] = j;
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        int[] top = new int[Math.min(k, size)];
+        for (int j = 0; j < top.length; j++)
+            top[j] = keys[order[j]];
+        return top;
+    }
+}
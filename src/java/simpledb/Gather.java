@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gather runs a scan pipeline on several threads and collects their output.
+ * The pipeline (a chain of {@link Filter} and {@link Project} over a
+ * {@link SeqScan} of a HeapFile) is copied once per thread with
+ * {@link MorselQueue#split}; each thread runs its copy over morsels of the
+ * table and hands the batches it produces to the consumer through a bounded
+ * queue. The output contains the same tuples as the pipeline, but not in
+ * page order.
+ * <p>
+ * A pipeline that cannot be split is run as is on the calling thread.
+ */
+public class Gather extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Batches each thread may produce ahead of the consumer */
+    public static final int BATCHES_PER_THREAD = 2;
+
+    /** Marks the end of one thread's output in the queue */
+    private static final TupleBatch END = new TupleBatch(
+            new TupleDesc(new Type[] { Type.INT_TYPE }), 1);
+
+    private OpIterator child;
+    private final int parallelism;
+
+    transient private ExecutorService pool = null;
+    transient private BlockingQueue<TupleBatch> queue = null;
+    transient private volatile Throwable failure = null;
+    transient private int running = 0;// 还没结束的worker个数，0表示串行执行child
+    transient private TupleBatch current = null;
+    transient private int pos = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the pipeline to run
+     * @param parallelism
+     *            the number of threads to run it on
+     */
+    public Gather(OpIterator child, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        this.child = child;
+        this.parallelism = parallelism;
+    }
+
+    /** @return the number of threads the pipeline is run on */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        start();
+        super.open();
+    }
+
+    /** Start the workers, if the child can be split. */
+    private void start() {
+        current = null;
+        pos = 0;
+        failure = null;
+        OpIterator[] pipelines = parallelism > 1 ? MorselQueue.split(child, parallelism) : null;
+        if (pipelines == null) {
+            running = 0;
+            return;
+        }
+        queue = new ArrayBlockingQueue<TupleBatch>(BATCHES_PER_THREAD * parallelism);
+        pool = Executors.newFixedThreadPool(parallelism);
+        running = parallelism;
+        for (final OpIterator p : pipelines) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        p.open();
+                        TupleBatch batch;
+                        while ((batch = p.nextBatch()) != null)
+                            queue.put(batch);
+                    } catch (InterruptedException e) {
+                        return;// close()取消了
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        p.close();
+                    }
+                    try {
+                        queue.put(END);
+                    } catch (InterruptedException e) {
+                        // cancelled, nobody is waiting for the end
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Stop the workers, if any, and wait for them to finish so that none of
+     * them reads another page once the transaction may have ended.
+     */
+    private void stop() {
+        if (pool != null) {
+            pool.shutdownNow();// 打断阻塞在put上的worker
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pool = null;
+        queue = null;
+        running = 0;
+    }
+
+    /**
+     * @return the next batch produced by any worker, or null once all of
+     *         them are done
+     */
+    private TupleBatch take() throws DbException, TransactionAbortedException {
+        if (pool == null)
+            return child.nextBatch();
+        while (running > 0) {
+            TupleBatch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while gathering");
+            }
+            if (failure != null)
+                rethrow(failure);
+            if (batch != END)
+                return batch;
+            running--;
+        }
+        return null;
+    }
+
+    private void rethrow(Throwable cause) throws DbException,
+            TransactionAbortedException {
+        stop();
+        if (cause instanceof DbException)
+            throw (DbException) cause;
+        if (cause instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) cause;
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+        throw new DbException("scan worker failed: " + cause);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (current == null || pos >= current.numRows()) {
+            current = take();
+            pos = 0;
+            if (current == null)
+                return null;
+        }
+        return current.getTuple(pos++);
+    }
+
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException {
+        if (current != null && pos < current.numRows()) {
+            // 先把逐个取剩下的那部分交出去
+            TupleBatch rest = current;
+            int[] sel = new int[rest.numRows() - pos];
+            for (int i = 0; i < sel.length; i++)
+                sel[i] = pos + i;
+            rest.retain(sel, sel.length);
+            current = null;
+            return rest;
+        }
+        current = null;
+        return take();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        child.rewind();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+        child.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+}
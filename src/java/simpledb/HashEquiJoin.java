@@ -12,7 +12,6 @@ public class HashEquiJoin extends Operator {
     private OpIterator child1, child2;
     private TupleDesc comboTD;
     transient private Tuple t1 = null;
-    transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -26,9 +25,31 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join; this is the
+     *            side that is hashed
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param memoryBudget
+     *            The maximum number of child1 tuples to hold in memory. If
+     *            child1 is larger, both sides are partitioned to disk.
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int memoryBudget) {
+        if (memoryBudget < 1)
+            throw new IllegalArgumentException("memory budget must be positive");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBudget = memoryBudget;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -51,31 +72,257 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** Default number of build tuples held in memory. */
     public final static int MAP_SIZE = 20000;
+    /** Number of partitions each spilled input is split into. */
+    public final static int NUM_PARTITIONS = 16;
+    /**
+     * How many times a partition that is still too large is split again.
+     * Beyond this (e.g. a single very frequent key) the partition is joined
+     * in budget-sized chunks instead.
+     */
+    public final static int MAX_DEPTH = 4;
 
+    private final int memoryBudget;
+
+    /** A pair of spilled partitions with the same hash values. */
+    private static class Partition {
+        final SpillFile build, probe;
+        final int depth;
+
+        Partition(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    transient private ArrayDeque<Partition> partitions = null;
+    transient private Partition current = null;
+    transient private SpillFile.Reader buildReader = null;
+    transient private SpillFile.Reader probeReader = null;
+    transient private boolean done = false;
+    transient private int spilled = 0;
+
+    /** @return the number of partitions written to disk since open */
+    int getSpilledPartitions() {
+        return spilled;
+    }
+
+    private void addToMap(Tuple t) {
+        ArrayList<Tuple> list = map.get(t.getField(pred.getField1()));
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(t.getField(pred.getField1()), list);
+        }
+        list.add(t);
+    }
+
+    /**
+     * Hash up to memoryBudget tuples of child1.
+     * 
+     * @return true if all of child1 fit
+     */
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
+        while (cnt < memoryBudget && child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+            addToMap(t1);
+            cnt++;
+        }
+        return !child1.hasNext();
+    }
+
+    /** Hash the next memoryBudget tuples of the current build partition. */
+    private void loadMap(SpillFile.Reader in) throws DbException {
+        map.clear();
+        for (int cnt = 0; cnt < memoryBudget && in.hasNext(); cnt++)
+            addToMap(in.next());
+    }
+
+    /**
+     * @return the partition of key at the given recursion depth; every depth
+     *         uses a different hash function so that a partition can be split
+     *         again
+     */
+    static int partitionOf(Field key, int depth) {
+        return partitionOf(key.hashCode(), depth);
+    }
+
+    /**
+     * @return the partition of a key with the given hash code, with the hash
+     *         function of level depth
+     */
+    static int partitionOf(int hash, int depth) {
+        int h = hash ^ (depth * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    private Partition[] newPartitions(int depth) throws DbException {
+        Partition[] parts = new Partition[NUM_PARTITIONS];
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = new Partition(new SpillFile(child1.getTupleDesc()),
+                    new SpillFile(child2.getTupleDesc()), depth);
+        spilled += parts.length;
+        return parts;
+    }
+
+    private static void seal(Partition[] parts) throws DbException {
+        for (Partition p : parts) {
+            p.build.seal();
+            p.probe.seal();
+        }
+    }
+
+    /**
+     * Build the hash table from child1. If child1 does not fit in the memory
+     * budget, write both children out as partitions and start on the first
+     * one.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        done = false;
+        if (loadMap()) {
+            // 全部放得下：只需扫描一遍child2
+            partitions = null;
+            return;
+        }
+
+        Partition[] parts = newPartitions(0);
+        int f1 = pred.getField1(), f2 = pred.getField2();
+        for (ArrayList<Tuple> list : map.values())
+            for (Tuple t : list)
+                parts[partitionOf(t.getField(f1), 0)].build.add(t);
+        map.clear();
+        TupleBatch batch;
+        while ((batch = child1.nextBatch()) != null)
+            for (int r = 0; r < batch.numRows(); r++)
+                parts[partitionOf(batch.getField(f1, r), 0)].build.add(batch, r);
+        while ((batch = child2.nextBatch()) != null)
+            for (int r = 0; r < batch.numRows(); r++)
+                parts[partitionOf(batch.getField(f2, r), 0)].probe.add(batch, r);
+        seal(parts);
+
+        partitions = new ArrayDeque<Partition>(Arrays.asList(parts));
+        if (!nextPartition())
+            done = true;
+    }
+
+    /**
+     * Move on to the next pending partition, splitting it again if its build
+     * side still does not fit.
+     * 
+     * @return false if there are no partitions left
+     */
+    private boolean nextPartition() throws DbException {
+        while (!partitions.isEmpty()) {
+            Partition p = partitions.pop();
+            if (p.build.size() == 0 || p.probe.size() == 0) {
+                p.delete();
+                continue;
+            }
+            if (p.build.size() > memoryBudget && p.depth < MAX_DEPTH) {
+                // 还是太大（数据倾斜），换一个hash函数再分一次
+                Partition[] parts = newPartitions(p.depth + 1);
+                SpillFile.Reader in = p.build.reader();
+                Tuple t;
+                while ((t = in.next()) != null)
+                    parts[partitionOf(t.getField(pred.getField1()), p.depth + 1)].build.add(t);
+                in.close();
+                in = p.probe.reader();
+                while ((t = in.next()) != null)
+                    parts[partitionOf(t.getField(pred.getField2()), p.depth + 1)].probe.add(t);
+                in.close();
+                p.delete();
+                seal(parts);
+                for (Partition q : parts)
+                    partitions.push(q);
+                continue;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            current = p;
+            buildReader = p.build.reader();
+            loadMap(buildReader);
+            probeReader = p.probe.reader();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the next batch of probe tuples into probe, moving on to the next
+     * chunk or partition of the build side when the current one is done.
+     * 
+     * @return false if the join is finished
+     */
+    private boolean nextProbeBatch() throws DbException, TransactionAbortedException {
+        probeRow = 0;
+        while (!done) {
+            if (partitions == null) {
+                probe = child2.nextBatch();
+                if (probe != null)
+                    return true;
+                done = true;
+                break;
+            }
+            probe = probeReader.nextBatch(TupleBatch.DEFAULT_SIZE);
+            if (probe != null)
                 return true;
+            probeReader.close();
+            if (buildReader.hasNext()) {
+                // partition could not be split any further: join it chunk by
+                // chunk, rescanning its probe side for each chunk
+                loadMap(buildReader);
+                probeReader = current.probe.reader();
+                continue;
+            }
+            buildReader.close();
+            current.delete();
+            current = null;
+            buildReader = probeReader = null;
+            if (!nextPartition())
+                done = true;
         }
-        return cnt > 0;
+        probe = null;
+        return false;
+    }
 
+    /** Drop the hash table and any spilled partitions. */
+    private void reset() {
+        if (buildReader != null)
+            buildReader.close();
+        if (probeReader != null)
+            probeReader.close();
+        buildReader = probeReader = null;
+        if (current != null)
+            current.delete();
+        current = null;
+        if (partitions != null)
+            for (Partition p : partitions)
+                p.delete();
+        partitions = null;
+        this.t1=null;
+        this.listIt=null;
+        this.probe=null;
+        this.pending=null;
+        this.map.clear();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        spilled = 0;
+        start();
         super.open();
     }
 
@@ -83,18 +330,21 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        reset();
         child1.rewind();
         child2.rewind();
+        start();
     }
 
     transient Iterator<Tuple> listIt = null;
+    transient private TupleBatch probe = null;
+    transient private int probeRow = 0;
+    transient private TupleBatch pending = null;
+    transient private int pendingRow = 0;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -114,49 +364,52 @@ public class HashEquiJoin extends Operator {
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
-    private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
-
-    }
-
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        // tuples are handed out of the current output batch
+        if (pending == null || pendingRow >= pending.numRows()) {
+            pending = fetchNextBatch();
+            pendingRow = 0;
+            if (pending == null)
+                return null;
         }
+        return pending.getTuple(pendingRow++);
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException,
+            DbException {
+        if (pending != null && pendingRow < pending.numRows()) {
+            // finish the batch that fetchNext was handing out
+            TupleBatch rest = pending;
+            int[] sel = new int[rest.numRows() - pendingRow];
+            for (int i = 0; i < sel.length; i++)
+                sel[i] = pendingRow + i;
+            rest.retain(sel, sel.length);
+            pending = null;
+            return rest;
         }
+        pending = null;
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        TupleBatch out = new TupleBatch(comboTD);
+        int td1n = child1.getTupleDesc().numFields();
+        while (!out.isFull()) {
+            if (listIt != null && listIt.hasNext()) {
+                // set fields in combined row; the right side is copied
+                // straight out of the probe batch
+                t1 = listIt.next();
+                int row = out.newRow();
+                for (int i = 0; i < td1n; i++)
+                    out.setField(i, row, t1.getField(i));
+                out.copyRow(td1n, row, probe, probeRow - 1);
+                continue;
+            }
+            listIt = null;
+            if ((probe == null || probeRow >= probe.numRows()) && !nextProbeBatch())
+                break;
+            ArrayList<Tuple> l = map.get(probe.getField(pred.getField2(), probeRow++));
+            if (l != null)
+                listIt = l.iterator();
         }
-
-        return null;
+        return out.isEmpty() ? null : out;
     }
 
     @Override
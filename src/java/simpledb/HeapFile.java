@@ -205,7 +205,16 @@ public class HeapFile implements DbFile {
     	//auxiliary class:(
     	
         // some code goes here
-        return new HeapFileIterator(tid,this);
+        return new HeapFileIterator(tid,this,0,-1);
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages [startPage, endPage) of
+     * this file only, read through the BufferPool like {@link #iterator}.
+     * Used to scan a file in parts, see {@link MorselQueue}.
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(tid,this,startPage,endPage);
     }
     
     private class HeapFileIterator implements DbFileIterator{
@@ -214,18 +223,31 @@ public class HeapFile implements DbFile {
     	private TransactionId tid;
     	private HeapFile file;
     	private Iterator<Tuple> it;
+    	private int start;// 第一页
+    	private int end;// 最后一页之后，-1表示一直到文件末尾
     	
     	
-		public HeapFileIterator(TransactionId tid, HeapFile file) {
+		public HeapFileIterator(TransactionId tid, HeapFile file, int start, int end) {
 			super();
 			this.tid = tid;
 			this.file = file;
+			this.start = start;
+			this.end = end;
+		}
+
+		/** @return the page after the last one to read */
+		private int limit() {
+			return end<0?file.numPages():end;
 		}
 
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
 			// TODO Auto-generated method stub
-			cursor=0;
+			cursor=start;
+			if(end>=0&&start>=end) {// 空的页范围
+				it=null;
+				return;
+			}
 			HeapPageId temp=new HeapPageId(file.getId(),cursor);//tableId有，pageNo有
 			it=((HeapPage)Database.getBufferPool().getPage(tid, temp, Permissions.READ_ONLY)).iterator();
 		}
@@ -236,7 +258,7 @@ public class HeapFile implements DbFile {
 			if(it==null)
 				return false;//没有open
 			if(!it.hasNext()) {//这一页的tuple已经访问完了
-				if(cursor+1>=file.numPages())
+				if(cursor+1>=limit())
 					return false;
 				else {
 					cursor++;//下一页
@@ -259,20 +281,27 @@ public class HeapFile implements DbFile {
 			
 		}
 
+		@Override
+		public int fillBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+			// 整页整页地往batch里拷，不逐个构造tuple
+			int n=0;
+			while(!batch.isFull()&&hasNext())
+				n+=((HeapPage.TupleIterator)it).fill(batch);
+			return n;
+		}
+
 		@Override
 		public void rewind() throws DbException, TransactionAbortedException {
 			//Resets the iterator to the start.
 			// TODO Auto-generated method stub
-			cursor=0;
-			HeapPageId temp=new HeapPageId(file.getId(),cursor);
-			it=((HeapPage)Database.getBufferPool().getPage(tid, temp, Permissions.READ_ONLY)).iterator();
+			open();
 			
 		}
 
 		@Override
 		public void close() {
 			// TODO Auto-generated method stub
-			cursor=0;
+			cursor=start;
 			it=null;
 		}
     	
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.io.*;
 
 /**
@@ -16,9 +17,15 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    // 解码好的tuple，几个线程会同时读同一个缓存页，用原子数组保证读到的是构造完的tuple
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;//一个slot对应一个tuple
 
+    // 从磁盘读进来的原始页面，tuple用到的时候才从这里解码
+    private final byte image[];
+    // 每个字段在一条tuple里的偏移量
+    private final int fieldOffsets[];
+
     byte[] oldData;//保存page之前的样子
     private final Byte oldDataLock=new Byte((byte)0);
     
@@ -46,22 +53,19 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < BufferPool.getPageSize())
+            throw new IOException("page image is shorter than a page");
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        System.arraycopy(data, 0, header, 0, header.length);
+
+        // tuples are decoded lazily from the page image, see getTuple
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
+        image = data;
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
 
         setBeforeImage();
     }
@@ -119,23 +123,86 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the byte offset of slot slotId's tuple in the page image
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-    	
-    	//slotId,tuple在page中的number
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Return the tuple stored in the specified slot, decoding it from the page
+     * image the first time it is asked for.
+     *
+     * @param slotId the slot to read
+     * @return the tuple in slotId, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId))
             return null;
+        Tuple t = tuples.get(slotId);
+        if (t != null)
+            return t;
+        synchronized (this) {// 并发扫描时只解码一次
+            if (tuples.get(slotId) == null)
+                tuples.set(slotId, readTuple(slotId));
+            return tuples.get(slotId);
+        }
+    }
+
+    /**
+     * Read an integer field of the tuple in the specified slot without
+     * materializing the tuple. The slot must be in use and the field must be
+     * of type {@link Type#INT_TYPE}.
+     *
+     * @param slotId the slot to read
+     * @param field the index of the field in the tuple
+     */
+    public int getInt(int slotId, int field) {
+        Tuple t = tuples.get(slotId);
+        if (t != null)
+            return ((IntField) t.getField(field)).getValue();
+        return readInt(slotOffset(slotId) + fieldOffsets[field]);
+    }
+
+    /**
+     * @return the big-endian int stored at off in the page image
+     */
+    private int readInt(int off) {
+        // 直接从原始页面按大端序取4个字节
+        return ((image[off] & 0xff) << 24) | ((image[off + 1] & 0xff) << 16)
+                | ((image[off + 2] & 0xff) << 8) | (image[off + 3] & 0xff);
+    }
+
+    /**
+     * Append the tuple in slotId to batch, copying int fields straight from
+     * the page image so that no Tuple has to be built.
+     */
+    private void readInto(TupleBatch batch, int slotId) {
+        int off = slotOffset(slotId);
+        int row = batch.newRow();
+        batch.setRecordId(row, new RecordId(pid, slotId));
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                batch.setInt(j, row, readInt(off + fieldOffsets[j]));
+                continue;
+            }
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(
+                    image, off + fieldOffsets[j], td.getFieldType(j).getLen()));
+            try {
+                batch.setField(j, row, td.getFieldType(j).parse(dis));
+            } catch (java.text.ParseException e) {
+                e.printStackTrace();
+                throw new NoSuchElementException("parsing error!");
+            }
         }
+    }
+
+    /**
+     * Decode the tuple in slotId from the page image.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        int off = slotOffset(slotId);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(image, off, td.getSize()));
 
         // read fields in the tuple
         //实例化tuple，一点点读取field到tuple中
@@ -183,7 +250,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i=0; i<tuples.length; i++) {
+        for (int i=0; i<tuples.length(); i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -198,9 +265,20 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: copy it straight from the image
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                try {
+                    dos.write(image, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = t.getField(j);
                 try {
                     f.serialize(dos);//写每一个字段
                 
@@ -211,7 +289,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length()); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -254,15 +332,15 @@ public class HeapPage implements Page {
         // not necessary for lab1
     	int tupleNo=t.getRecordId().getTupleNumber();
     	// not on this page or already empty
-    	if(tuples[tupleNo]==null||!isSlotUsed(tupleNo)) {
+    	if(getTuple(tupleNo)==null) {
     		throw new DbException("delete tuple wrong");
     	}
-    	if(!tuples[tupleNo].equals(t)) {// 重写了tuple的equal函数，否则会报错
+    	if(!tuples.get(tupleNo).equals(t)) {// 重写了tuple的equal函数，否则会报错
     		throw new DbException("tuple do not match");
     	}
     	else
     	{
-    		tuples[tupleNo]=null;
+    		tuples.set(tupleNo,null);
     		markSlotUsed(tupleNo,false);// 删除，该slot就没被占用
     	}
     }
@@ -287,7 +365,7 @@ public class HeapPage implements Page {
     			// tuple得设置recordId
     			RecordId temp=new RecordId(pid,i);
     			t.setRecordId(temp);
-    			tuples[i]=t;
+    			tuples.set(i,t);
     			markSlotUsed(i,true);// slot被占用
     			break;
     		}
@@ -364,11 +442,69 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-    	ArrayList<Tuple> temp=new ArrayList<Tuple>();
-    	for(int i=0;i<numSlots;i++) {
-    		if(isSlotUsed(i))temp.add(tuples[i]);//空的slot不加入
+    	return new TupleIterator();
+    }
+
+    /**
+     * Iterator over the used slots of the page as they were when it was
+     * created. Tuples are only decoded when they are returned; {@link #fill}
+     * copies them into a batch without decoding them at all.
+     */
+    class TupleIterator implements Iterator<Tuple> {
+    	// 先记下哪些slot有tuple，真正next的时候再解码
+    	private final int[] used;
+    	private final Tuple[] snapshot;
+    	private int cursor=0;
+
+    	TupleIterator() {
+    		used=new int[numSlots-getNumEmptySlots()];
+    		snapshot=new Tuple[used.length];
+    		int n=0;
+    		for(int i=0;i<numSlots;i++) {
+    			if(isSlotUsed(i)) {//空的slot不加入
+    				snapshot[n]=tuples.get(i);
+    				used[n++]=i;
+    			}
+    		}
+    	}
+
+    	public boolean hasNext() {
+    		return cursor<used.length;
+    	}
+
+    	public Tuple next() {
+    		if(!hasNext())
+    			throw new NoSuchElementException();
+    		int slot=used[cursor];
+    		Tuple t=snapshot[cursor++];
+    		if(t!=null)
+    			return t;
+    		t=getTuple(slot);
+    		// 迭代过程中被删掉的tuple，返回的仍是删除前的样子
+    		return t!=null?t:readTuple(slot);
+    	}
+
+    	/**
+    	 * Append the remaining tuples to batch until it is full.
+    	 *
+    	 * @return the number of tuples added
+    	 */
+    	int fill(TupleBatch batch) {
+    		int n=0;
+    		for(;cursor<used.length&&!batch.isFull();cursor++,n++) {
+    			int slot=used[cursor];
+    			Tuple t=snapshot[cursor]!=null?snapshot[cursor]:tuples.get(slot);
+    			if(t!=null)
+    				batch.addTuple(t);
+    			else
+    				readInto(batch, slot);
+    		}
+    		return n;
+    	}
+
+    	public void remove() {
+    		throw new UnsupportedOperationException();
     	}
-        return temp.iterator();
     }
 
 }
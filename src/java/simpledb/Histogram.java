@@ -0,0 +1,28 @@
+package simpledb;
+
+/**
+ * A Histogram summarizes the distribution of the values of an int column so
+ * that the fraction of them that satisfies a predicate can be estimated
+ * without looking at the values.
+ */
+public interface Histogram {
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
+     * return your estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v);
+
+    /**
+     * @return the expected selectivity of an equality predicate whose
+     *         operand is drawn from the same values, that is the chance that
+     *         two values picked at random are equal
+     */
+    public double avgSelectivity();
+}
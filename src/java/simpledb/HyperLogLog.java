@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * HyperLogLog estimates the number of distinct values in a stream in a fixed
+ * amount of memory. Each value is hashed; the first p bits of the hash pick
+ * one of 2^p registers, and the register keeps the longest run of leading
+ * zeros seen in the remaining bits. The standard error of the estimate is
+ * about 1.04/sqrt(2^p), so 1.6% with the default 4096 registers. Small
+ * counts, where many registers are still empty, are estimated by linear
+ * counting instead and are nearly exact.
+ * <p>
+ * Sketches of the same precision can be merged by keeping the larger of
+ * each pair of registers, which gives the sketch of the union of both
+ * streams, so that each thread of a parallel scan can keep its own.
+ */
+public class HyperLogLog {
+
+    /** Default number of hash bits that select a register */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int p;
+    private final byte[] registers;
+
+    /** Create an empty sketch with 2^{@link #DEFAULT_PRECISION} registers. */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param precision the number of hash bits that select a register, between 4 and 18
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18)
+            throw new IllegalArgumentException("precision must be between 4 and 18");
+        this.p = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /** 64-bit finalizer of MurmurHash3: spreads any change of x over all bits */
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /** Add an int value. */
+    public void addValue(int v) {
+        addHash(mix(v));
+    }
+
+    /** Add a string value. */
+    public void addValue(String s) {
+        long h = 0;
+        for (int i = 0; i < s.length(); i++)
+            h = h * 31 + s.charAt(i);
+        addHash(mix(h ^ s.length()));
+    }
+
+    private void addHash(long h) {
+        int r = (int) (h >>> (64 - p));
+        // 剩下的位里前导0的个数+1；补一个1保证最多64-p+1
+        int rank = Long.numberOfLeadingZeros((h << p) | (1L << (p - 1))) + 1;
+        if (rank > registers[r])
+            registers[r] = (byte) rank;
+    }
+
+    /**
+     * Add the values of another sketch to this one.
+     *
+     * @throws IllegalArgumentException if the sketches have different precisions
+     */
+    public void merge(HyperLogLog other) {
+        if (other.p != p)
+            throw new IllegalArgumentException("sketches have different precisions");
+        for (int i = 0; i < registers.length; i++)
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int empty = 0;
+        for (byte r : registers) {
+            sum += Math.scalb(1.0, -r);
+            if (r == 0)
+                empty++;
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        if (e <= 2.5 * m && empty > 0)
+            e = m * Math.log((double) m / empty);// 小基数时用linear counting
+        return Math.round(e);
+    }
+
+    /** @return the relative standard error of {@link #estimate} */
+    public double relativeError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    /**
+     * Write this sketch to out, so that {@link #readFrom} can rebuild it.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(p);
+        out.write(registers);
+    }
+
+    /**
+     * Read a sketch written by {@link #writeTo}.
+     */
+    public static HyperLogLog readFrom(DataInputStream in) throws IOException {
+        HyperLogLog h = new HyperLogLog(in.readByte());
+        in.readFully(h.registers);
+        return h;
+    }
+}
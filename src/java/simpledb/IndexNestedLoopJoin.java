@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins an outer input with a table stored in a
+ * {@link BTreeFile} keyed on the inner join field. Instead of scanning the
+ * inner table for every outer tuple, it looks the outer join value up in the
+ * B+ tree with {@link BTreeFile#indexIterator}.
+ * <p>
+ * Outer tuples are read a batch at a time and probed in order of their join
+ * value, so that successive probes walk the leaf pages left to right and
+ * equal values are only looked up once. Tuples are therefore returned in
+ * join value order within each batch rather than in outer input order.
+ * <p>
+ * The inner child must be a {@link SeqScan} or {@link BTreeScan} of such a
+ * BTreeFile, optionally under {@link Filter}s; the filters and the index
+ * predicate of the scan are applied to the probed tuples and the scan itself
+ * is never run (see {@link #canProbe}).
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private TupleDesc comboTD;
+    private TransactionId tid;
+    private BTreeFile index;
+    private ArrayList<Predicate> innerFilters;
+    private Predicate.Op probeOp;
+
+    transient private TupleBatch outer = null;
+    transient private int[] order;
+    transient private int orderPos;
+    transient private Tuple cur = null;
+    transient private Field curKey = null;
+    transient private ArrayList<Tuple> matches = new ArrayList<Tuple>();
+    transient private int matchPos;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The inner relation; must satisfy {@link #canProbe}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this.pred = p;
+        if (probeOp(p.getOperator()) == null)
+            throw new IllegalArgumentException("index join does not support "
+                    + p.getOperator());
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return the operator to search the index with for a join predicate
+     *         op: outer.f1 op inner.f2 means inner.f2 probeOp outer.f1. Null
+     *         if the index cannot answer op.
+     */
+    private static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return true if inner is a scan (possibly under filters) of a BTreeFile
+     *         keyed on field, so that it can be probed through the index.
+     */
+    public static boolean canProbe(OpIterator inner, int field) {
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        int tableId;
+        if (inner instanceof SeqScan)
+            tableId = ((SeqScan) inner).getTableId();
+        else if (inner instanceof BTreeScan)
+            tableId = ((BTreeScan) inner).getTableId();
+        else
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // 内表只通过索引访问，不需要打开child2
+        child1.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        reset();
+    }
+
+    private void reset() {
+        outer = null;
+        cur = null;
+        curKey = null;
+        matches = new ArrayList<Tuple>();
+        matchPos = 0;
+    }
+
+    /**
+     * @return the rows of batch ordered by their join value
+     */
+    private int[] sortedRows(TupleBatch batch) {
+        int n = batch.numRows();
+        int[] rows = new int[n];
+        final int f1 = pred.getField1();
+        if (batch.isIntColumn(f1)) {
+            // 键和下标压进一个long里排序
+            int[] col = batch.intColumn(f1);
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++)
+                keys[i] = ((long) col[i] << 32) | i;
+            Arrays.sort(keys);
+            for (int i = 0; i < n; i++)
+                rows[i] = (int) keys[i];
+            return rows;
+        }
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i++)
+            boxed[i] = i;
+        final TupleBatch b = batch;
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            public int compare(Integer a, Integer c) {
+                Field x = b.getField(f1, a), y = b.getField(f1, c);
+                if (x.equals(y))
+                    return 0;
+                return x.compare(Predicate.Op.LESS_THAN, y) ? -1 : 1;
+            }
+        });
+        for (int i = 0; i < n; i++)
+            rows[i] = boxed[i];
+        return rows;
+    }
+
+    /**
+     * Look key up in the index and collect the inner tuples that join with
+     * it and pass the inner filters.
+     */
+    private void probe(Field key) throws DbException, TransactionAbortedException {
+        matches = new ArrayList<Tuple>();
+        DbFileIterator it = index.indexIterator(tid, new IndexPredicate(probeOp, key));
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            boolean pass = true;
+            for (Predicate p : innerFilters)
+                if (!p.filter(t)) {
+                    pass = false;
+                    break;
+                }
+            if (pass)
+                matches.add(t);
+        }
+        it.close();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (cur != null && matchPos < matches.size()) {
+                Tuple t2 = matches.get(matchPos++);
+                int td1n = cur.getTupleDesc().numFields();
+                Tuple t = new Tuple(comboTD);
+                for (int i = 0; i < td1n; i++)
+                    t.setField(i, cur.getField(i));
+                for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+                    t.setField(td1n + i, t2.getField(i));
+                return t;
+            }
+            if (outer == null || orderPos >= outer.numRows()) {
+                outer = child1.nextBatch();
+                if (outer == null)
+                    return null;
+                order = sortedRows(outer);
+                orderPos = 0;
+            }
+            cur = outer.getTuple(order[orderPos++]);
+            Field key = cur.getField(pred.getField1());
+            if (curKey == null || !curKey.equals(key)) {// 相同的值只查一次
+                curKey = key;
+                probe(key);
+            }
+            matchPos = 0;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (!canProbe(children[1], pred.getField2()))
+            throw new IllegalArgumentException(
+                    "inner side is not a scan of a B+ tree keyed on the join field");
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.probeOp = probeOp(pred.getOperator());
+        this.innerFilters = new ArrayList<Predicate>();
+        OpIterator inner = child2;
+        while (inner instanceof Filter) {
+            innerFilters.add(((Filter) inner).getPredicate());
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        int tableId;
+        if (inner instanceof BTreeScan) {
+            // 范围扫描的条件和其他过滤条件一样作用在查到的元组上
+            BTreeScan scan = (BTreeScan) inner;
+            this.tid = scan.getTransactionId();
+            tableId = scan.getTableId();
+            IndexPredicate ipred = scan.getIndexPredicate();
+            if (ipred != null)
+                innerFilters.addAll(ipred.getPredicates(
+                        ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).keyFields()));
+        } else {
+            SeqScan scan = (SeqScan) inner;
+            this.tid = scan.getTransactionId();
+            tableId = scan.getTableId();
+        }
+        this.index = (BTreeFile) Database.getCatalog().getDatabaseFile(tableId);
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -1,9 +1,15 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 
 /**
- * IndexPredicate compares a field which has index on it against a given value
+ * IndexPredicate compares a field which has index on it against a given value.
+ * On a B+ tree keyed on several fields the value may be a
+ * {@link CompositeField} of the first few key fields, or the first key field
+ * alone, and an optional prefix restricts the keys to those starting with the
+ * given values: a range on the second key field within one value of the first
+ * is (GREATER_THAN, (a, lo)) with prefix (a).
  * @see IndexOpIterator
  */
 public class IndexPredicate implements Serializable {
@@ -12,6 +18,7 @@ public class IndexPredicate implements Serializable {
 	
     private Predicate.Op op;
     private Field fieldvalue;
+    private Field prefix;
 
     /**
      * Constructor.
@@ -23,18 +30,58 @@ public class IndexPredicate implements Serializable {
      * @see Predicate
      */
     public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this(op, fvalue, null);
+    }
+
+    /**
+     * Constructor for a predicate on a B+ tree keyed on several fields that
+     * only matches keys starting with prefix.
+     *
+     * @param op The operation to apply (as defined in Predicate.Op)
+     * @param fvalue The value that the predicate compares against.
+     * @param prefix The values of the first key fields the key must have, or
+     *   null to match keys with any prefix; fvalue should start with it.
+     * @see #IndexPredicate(Predicate.Op, Field)
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue, Field prefix) {
         this.op = op;
         this.fieldvalue = fvalue;
+        this.prefix = prefix;
     }
 
     public Field getField() {
         return fieldvalue;
     }
 
+    /** @return the values the key must start with, or null */
+    public Field getPrefix() {
+        return prefix;
+    }
+
     public Predicate.Op getOp() {
         return op;
     }
 
+    /**
+     * @return predicates on the fields of a tuple that it satisfies exactly
+     *   when its key on keyFields satisfies this predicate: an equality on
+     *   each field of a composite value but the last, and this operator on
+     *   that one
+     * @param keyFields the fields of the key, most significant first
+     */
+    public ArrayList<Predicate> getPredicates(int[] keyFields) {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        if (!(fieldvalue instanceof CompositeField)) {
+            preds.add(new Predicate(keyFields[0], op, fieldvalue));
+            return preds;
+        }
+        CompositeField c = (CompositeField) fieldvalue;
+        for (int i = 0; i < c.numFields(); i++)
+            preds.add(new Predicate(keyFields[i], i < c.numFields() - 1 ? Predicate.Op.EQUALS : op,
+                    c.getField(i)));
+        return preds;
+    }
+
     /** Return true if the fieldvalue in the supplied predicate
         is satisfied by this predicate's fieldvalue and
         operator.
@@ -43,7 +90,8 @@ public class IndexPredicate implements Serializable {
     public boolean equals(IndexPredicate ipd) {
         if (ipd == null)
             return false;
-        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue));
+        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue)
+                && (prefix == null ? ipd.prefix == null : prefix.equals(ipd.prefix)));
     }
 
 }
@@ -51,26 +51,40 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(op, value, iVal.value);
+    }
+
+    /**
+     * Compare two primitive int values with the semantics of
+     * {@link #compare(Predicate.Op, Field)}. Used on hot paths to avoid
+     * allocating and dispatching through IntField objects.
+     *
+     * @param op The operator
+     * @param left the value on the left of op
+     * @param right the value on the right of op
+     * @return Whether or not the comparison yields true.
+     */
+    public static boolean compare(Predicate.Op op, int left, int right) {
         switch (op) {
         case EQUALS:
-            return value == iVal.value;
+            return left == right;
         case NOT_EQUALS:
-            return value != iVal.value;
+            return left != right;
 
         case GREATER_THAN:
-            return value > iVal.value;
+            return left > right;
 
         case GREATER_THAN_OR_EQ:
-            return value >= iVal.value;
+            return left >= right;
 
         case LESS_THAN:
-            return value < iVal.value;
+            return left < right;
 
         case LESS_THAN_OR_EQ:
-            return value <= iVal.value;
+            return left <= right;
 
     case LIKE:
-        return value == iVal.value;
+        return left == right;
         }
 
         return false;
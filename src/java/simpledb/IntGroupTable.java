@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntGroupTable numbers distinct int values densely, 0, 1, 2, ... in the
+ * order they are first seen, so that per-group state can be kept in plain
+ * arrays indexed by group number. It is an open-addressing hash table with
+ * linear probing over primitive arrays: looking a value up allocates nothing.
+ */
+public class IntGroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] keys;// 哈希表每个槽里的值
+    private int[] slots;// 每个槽对应的组号，-1表示空槽
+    private int[] groupKeys = new int[16];// 按组号存的值
+    private int size = 0;
+    private int mask;
+
+    public IntGroupTable() {
+        keys = new int[32];
+        slots = new int[32];
+        Arrays.fill(slots, -1);
+        mask = 31;
+    }
+
+    /** @return the number of distinct values seen */
+    public int size() {
+        return size;
+    }
+
+    /** @return the value numbered group */
+    public int keyOf(int group) {
+        return groupKeys[group];
+    }
+
+    private static int hash(int k) {
+        int h = k * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the group number of key, or -1 if it has not been seen
+     */
+    public int find(int key) {
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            if (slots[i] == -1)
+                return -1;
+            if (keys[i] == key)
+                return slots[i];
+        }
+    }
+
+    /**
+     * @return the group number of key, numbering it if it is new
+     */
+    public int add(int key) {
+        int i = hash(key) & mask;
+        for (;; i = (i + 1) & mask) {
+            if (slots[i] == -1)
+                break;
+            if (keys[i] == key)
+                return slots[i];
+        }
+        if (size == groupKeys.length)
+            groupKeys = Arrays.copyOf(groupKeys, size * 2);
+        groupKeys[size] = key;
+        keys[i] = key;
+        slots[i] = size;
+        size++;
+        if (size * 2 > keys.length)
+            grow();
+        return size - 1;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys, oldSlots = slots;
+        keys = new int[oldKeys.length * 2];
+        slots = new int[oldKeys.length * 2];
+        Arrays.fill(slots, -1);
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldSlots[j] == -1)
+                continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (slots[i] != -1)
+                i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            slots[i] = oldSlots[j];
+        }
+    }
+
+    /** Forget all values. */
+    public void clear() {
+        Arrays.fill(slots, -1);
+        size = 0;
+    }
+}
@@ -1,27 +1,74 @@
 package simpledb;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
 /** A class to represent a fixed-width histogram over a single integer-based field.
+ * <p>
+ * Each value v is taken to cover the interval [v, v+1), and the values in a
+ * bucket are assumed to be spread uniformly over the part of the bucket
+ * between the smallest and the largest value seen. Besides the fixed-range
+ * histogram of the specification, a histogram can be created without a
+ * range ({@link #IntHistogram(int)}); it then widens its buckets as values
+ * arrive, so that statistics can be gathered in a single pass over a table
+ * whose bounds are not known in advance. Such histograms can be merged, so
+ * that each thread of a parallel scan can build its own.
  */
-public class IntHistogram {
+public class IntHistogram implements Histogram {
+
+    private final int[] counts;
+    private double lo;// 第一个桶的下界
+    private double width;// 桶宽；可增长的直方图里是2的幂，lo是它的整数倍
+    private final boolean growable;
+    private int min = Integer.MAX_VALUE;// 见过的最小值
+    private int max = Integer.MIN_VALUE;// 见过的最大值
+    private long ntups = 0;
 
     /**
      * Create a new IntHistogram.
-     * 
+     *
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     * 
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
+     *
      * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     * 
+     *
      * @param buckets The number of buckets to split the input value into.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+    	if(buckets<1 || min>max)
+    		throw new IllegalArgumentException("need at least one bucket and min <= max");
+    	long range=(long)max-min+1;
+    	this.counts=new int[(int)Math.min(buckets, range)];// 桶不比一个值窄
+    	this.lo=min;
+    	this.width=(double)range/counts.length;
+    	this.growable=false;
+    }
+
+    /**
+     * Create a new IntHistogram over values whose range is not known in
+     * advance. The buckets start one value wide and double in width whenever
+     * a value falls outside of them.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     */
+    public IntHistogram(int buckets) {
+    	this(buckets, true);
+    }
+
+    private IntHistogram(int buckets, boolean growable) {
+    	if(buckets<1)
+    		throw new IllegalArgumentException("need at least one bucket");
+    	this.counts=new int[buckets];
+    	this.width=1;
+    	this.growable=growable;
     }
 
     /**
@@ -29,44 +76,237 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+    	if(growable) {
+    		if(ntups==0)// 第一个值放在中间，两边都留有余地
+    			lo=(double)v-counts.length/2;
+    		cover(v);
+    	}
+    	counts[bucketOf(v)]++;
+    	if(v<min)
+    		min=v;
+    	if(v>max)
+    		max=v;
+    	ntups++;
+    }
+
+    private int bucketOf(double v) {
+    	int b=(int)Math.floor((v-lo)/width);
+    	return Math.max(0, Math.min(counts.length-1, b));
+    }
+
+    /** Widen the buckets until v falls into one of them. */
+    private void cover(double v) {
+    	while(v<lo)
+    		widen(false);
+    	while(v>=lo+counts.length*width)
+    		widen(true);
+    }
+
+    /**
+     * Double the bucket width, merging pairs of buckets. The new range keeps
+     * the old low end (up) or the old high end (!up), rounded to the new
+     * width, so that every old bucket lies inside a single new one.
+     */
+    private void widen(boolean up) {
+    	double w=width*2;
+    	double newLo=up ? Math.floor(lo/w)*w
+    			: Math.ceil((lo+counts.length*width)/w)*w-counts.length*w;
+    	int[] old=counts.clone();
+    	Arrays.fill(counts, 0);
+    	for(int b=0;b<old.length;b++)
+    		if(old[b]!=0)
+    			counts[(int)((lo+b*width-newLo)/w)]+=old[b];
+    	lo=newLo;
+    	width=w;
+    }
+
+    /**
+     * Add the values of another histogram to this one. Both must have been
+     * created with {@link #IntHistogram(int)} and the same number of buckets,
+     * or with the same buckets, min and max.
+     *
+     * @param other the histogram to merge into this one
+     */
+    public void merge(IntHistogram other) {
+    	if(other.growable!=growable || other.counts.length!=counts.length)
+    		throw new IllegalArgumentException("histograms have different buckets");
+    	if(other.ntups==0)
+    		return;
+    	if(growable) {
+    		if(ntups==0) {
+    			lo=other.lo;
+    			width=other.width;
+    		}
+    		while(width<other.width)
+    			widen(true);
+    		cover(other.min);
+    		cover(other.max);
+    		// 宽度都是2的幂，对方的每个桶都完整地落在这边的某个桶里
+    		for(int b=0;b<counts.length;b++)
+    			if(other.counts[b]!=0)
+    				counts[bucketOf(other.lo+b*other.width)]+=other.counts[b];
+    	} else {
+    		if(other.lo!=lo || other.width!=width)
+    			throw new IllegalArgumentException("histograms have different buckets");
+    		for(int b=0;b<counts.length;b++)
+    			counts[b]+=other.counts[b];
+    	}
+    	min=Math.min(min, other.min);
+    	max=Math.max(max, other.max);
+    	ntups+=other.ntups;
+    }
+
+    /** @return the number of values added to this histogram */
+    public long numValues() {
+    	return ntups;
+    }
+
+    /** @return the smallest value added, or Integer.MAX_VALUE if there is none */
+    public int getMin() {
+    	return min;
+    }
+
+    /** @return the largest value added, or Integer.MIN_VALUE if there is none */
+    public int getMax() {
+    	return max;
+    }
+
+    /** @return the number of buckets */
+    int numBuckets() {
+    	return counts.length;
+    }
+
+    /** @return the number of values in bucket b */
+    int bucketCount(int b) {
+    	return counts[b];
+    }
+
+    /**
+     * @return the part of bucket b that holds values, that is the bucket
+     *         clipped to [min, max+1)
+     */
+    double bucketLo(int b) {
+    	return Math.max(lo+b*width, min);
+    }
+
+    double bucketHi(int b) {
+    	return Math.min(lo+(b+1)*width, (double)max+1);
+    }
+
+    /** @return the estimated number of values below x */
+    private double countBelow(double x) {
+    	if(ntups==0 || x<=min)
+    		return 0;
+    	if(x>=(double)max+1)
+    		return ntups;
+    	int b=bucketOf(x);
+    	double below=0;
+    	for(int i=0;i<b;i++)
+    		below+=counts[i];
+    	double l=bucketLo(b), h=bucketHi(b);
+    	if(h>l)
+    		below+=counts[b]*Math.max(0, Math.min(1, (x-l)/(h-l)));
+    	return below;
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
-
-    	// some code goes here
-        return -1.0;
+    	if(ntups==0)
+    		return 0;
+    	double lt=countBelow(v)/ntups;
+    	double le=countBelow((double)v+1)/ntups;
+    	switch(op) {
+    	case EQUALS:
+    	case LIKE:
+    		return le-lt;
+    	case NOT_EQUALS:
+    		return 1-(le-lt);
+    	case LESS_THAN:
+    		return lt;
+    	case LESS_THAN_OR_EQ:
+    		return le;
+    	case GREATER_THAN:
+    		return 1-le;
+    	case GREATER_THAN_OR_EQ:
+    		return 1-lt;
+    	default:
+    		throw new IllegalArgumentException("unsupported operator "+op);
+    	}
     }
-    
+
     /**
      * @return
      *     the average selectivity of this histogram.
-     *     
+     *
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+    	// 一个随机值等于另一个随机值的概率：每个桶贡献 (c/n)^2/桶里的整数个数
+    	if(ntups==0)
+    		return 0;
+    	double sum=0;
+    	for(int b=0;b<counts.length;b++) {
+    		if(counts[b]==0)
+    			continue;
+    		double p=(double)counts[b]/ntups;
+    		sum+=p*p/Math.max(1, Math.ceil(bucketHi(b))-Math.ceil(bucketLo(b)));
+    	}
+    	return sum;
+    }
+
+    /**
+     * Write this histogram to out, so that {@link #readFrom} can rebuild it.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+    	out.writeBoolean(growable);
+    	out.writeInt(counts.length);
+    	out.writeDouble(lo);
+    	out.writeDouble(width);
+    	out.writeInt(min);
+    	out.writeInt(max);
+    	out.writeLong(ntups);
+    	for(int c:counts)
+    		out.writeInt(c);
+    }
+
+    /**
+     * Read a histogram written by {@link #writeTo}.
+     */
+    public static IntHistogram readFrom(DataInputStream in) throws IOException {
+    	boolean growable=in.readBoolean();
+    	int buckets=in.readInt();
+    	IntHistogram h=new IntHistogram(buckets, growable);
+    	h.lo=in.readDouble();
+    	h.width=in.readDouble();
+    	h.min=in.readInt();
+    	h.max=in.readInt();
+    	h.ntups=in.readLong();
+    	for(int b=0;b<buckets;b++)
+    		h.counts[b]=in.readInt();
+    	return h;
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+    	StringBuilder sb=new StringBuilder("IntHistogram(");
+    	sb.append(ntups).append(" values in [").append(min).append(", ").append(max).append("]:");
+    	for(int b=0;b<counts.length;b++)
+    		if(counts[b]!=0)
+    			sb.append(' ').append((long)(lo+b*width)).append('=').append(counts[b]);
+    	return sb.append(')').toString();
     }
 }
@@ -1,10 +1,8 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
@@ -29,8 +27,14 @@ public class IntegerAggregator implements Aggregator {
 //    // 错了！麻烦了，你最后iterator返回的值还是field！groupValue只是schema :(
 //    private HashMap<Integer,Integer> avgCount=new HashMap<>();// 为了求平均值，记录每个组有多少元素
     
-    private HashMap<Field,Integer> group=new HashMap<>();
-    private HashMap<Field,ArrayList<Integer>> avgCount=new HashMap<>();// 必须得用list去记录每一个值，不然在四舍五入过程中会造成结果错误
+    // 每组的状态放在按组号下标的数组里：acc是MIN/MAX/SUM的值或者和，cnt是行数。
+    // AVG只需要和与行数，不用再记下每一个值
+    private long[] acc=new long[16];
+    private long[] cnt=new long[16];
+    private int numGroups=0;
+    private IntGroupTable intGroups=new IntGroupTable();// int分组列：值->组号
+    private HashMap<Field,Integer> fieldGroups=new HashMap<>();// 其他类型的分组列
+    private ArrayList<Field> groupKeys=new ArrayList<>();// 组号->分组值
     
     /**
      * Aggregate constructor
@@ -42,7 +46,9 @@ public class IntegerAggregator implements Aggregator {
      *            the type of the group by field (e.g., Type.INT_TYPE), or null
      *            if there is no grouping
      * @param afield
-     *            the 0-based index of the aggregate field in the tuple
+     *            the 0-based index of the aggregate field in the tuple. For
+     *            SC_AVG this is the sum field of (sum, count) partials and
+     *            afield+1 the count field.
      * @param what
      *            the aggregation operator
      */
@@ -65,70 +71,210 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
     	// 对新加的一个tuple进行聚合操作，并进行分组
-    	// 先得到gbField和aField两个字段
-    	Field gb;
-    	//int gbValue=-1;
+    	int g;
     	if(this.gbField==Aggregator.NO_GROUPING)
-    		gb=null;
+    		g=groupOf(null);
     	else {
-    		gb=tup.getField(this.gbField);
-    		//gbValue=gbField.getValue();
+    		Field gb=tup.getField(this.gbField);
     		if(gbFieldType!=gb.getType())// 类型不符
         		throw new IllegalArgumentException("wrong type!");
+    		g=gbFieldType==Type.INT_TYPE?intGroupOf(((IntField)gb).getValue()):groupOf(gb);
+    	}
+    	if(this.operator==Op.SC_AVG)
+    		mergePartial(g, tup.getInt(this.aField), tup.getInt(this.aField+1));
+    	else
+    		mergeValue(g, tup.getInt(this.aField));
+    }
+
+    /**
+     * Merge every row of a batch into the aggregate, reading the aggregate
+     * and int group-by fields straight from the batch's int columns.
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+    	int n=batch.numRows();
+    	int[] col=batch.intColumn(this.aField);
+    	// 先算出每一行的组号，再按操作符整列累加
+    	int[] groups=new int[n];
+    	if(this.gbField==Aggregator.NO_GROUPING) {
+    		if(n>0)
+    			Arrays.fill(groups, groupOf(null));
+    	} else if(batch.isIntColumn(this.gbField) && gbFieldType==Type.INT_TYPE) {// int分组列不用构造Field
+    		int[] gcol=batch.intColumn(this.gbField);
+    		for(int i=0;i<n;i++)
+    			groups[i]=intGroupOf(gcol[i]);
+    	} else {
+    		for(int i=0;i<n;i++) {
+    			Field gb=batch.getField(this.gbField, i);
+    			if(gbFieldType!=gb.getType())
+    				throw new IllegalArgumentException("wrong type!");
+    			groups[i]=gbFieldType==Type.INT_TYPE?intGroupOf(((IntField)gb).getValue()):groupOf(gb);
+    		}
     	}
-    	
-    	IntField aField=(IntField) tup.getField(this.aField);
-    	int aValue=aField.getValue();
-    	
-    	// 对新加的这一行先判断是哪一组，再做aggregate
     	switch(this.operator) {
     	case MIN:
-    		if(!group.containsKey(gb))// 该组还没有东西
-    			group.put(gb, aValue);
-    		else// 组里有东西，执行一次aggregate
-    			group.put(gb, Math.min(aValue, group.get(gb)));
+    		for(int i=0;i<n;i++) {
+    			int g=groups[i];
+    			if(cnt[g]++==0 || col[i]<acc[g])
+    				acc[g]=col[i];
+    		}
     		break;
     	case MAX:
-    		if(!group.containsKey(gb))
-    			group.put(gb, aValue);
-    		else
-    			group.put(gb, Math.max(aValue, group.get(gb)));
+    		for(int i=0;i<n;i++) {
+    			int g=groups[i];
+    			if(cnt[g]++==0 || col[i]>acc[g])
+    				acc[g]=col[i];
+    		}
     		break;
     	case SUM:
-    		if(!group.containsKey(gb))
-    			group.put(gb, aValue);
-    		else
-    			group.put(gb, aValue+group.get(gb));
+    	case AVG:
+    	case SUM_COUNT:
+    		for(int i=0;i<n;i++) {
+    			acc[groups[i]]+=col[i];
+    			cnt[groups[i]]++;
+    		}
     		break;
     	case COUNT:
-    		if(!group.containsKey(gb))
-    			group.put(gb, 1);// 第一次添加
-    		else
-    			group.put(gb, 1+group.get(gb));// 加1
+    		for(int i=0;i<n;i++)
+    			cnt[groups[i]]++;
+    		break;
+    	case SC_AVG: {
+    		int[] counts=batch.intColumn(this.aField+1);
+    		for(int i=0;i<n;i++)
+    			mergePartial(groups[i], col[i], counts[i]);
+    		break;
+    	}
+    	default:
+    		throw new IllegalArgumentException("Aggregate wrong!");
+    	}
+    }
+
+    /**
+     * @return the group number of an int group-by value, adding the group if
+     *         it is new
+     */
+    private int intGroupOf(int v) {
+    	int g=intGroups.add(v);
+    	if(g==numGroups)// 新的组
+    		newGroup();
+    	return g;
+    }
+
+    /**
+     * @return the group number of gb (null if there is no grouping), adding
+     *         the group if it is new
+     */
+    private int groupOf(Field gb) {
+    	Integer g=fieldGroups.get(gb);
+    	if(g!=null)
+    		return g;
+    	fieldGroups.put(gb, numGroups);
+    	groupKeys.add(gb);
+    	newGroup();
+    	return numGroups-1;
+    }
+
+    private void newGroup() {
+    	if(numGroups==acc.length) {
+    		acc=Arrays.copyOf(acc, numGroups*2);
+    		cnt=Arrays.copyOf(cnt, numGroups*2);
+    	}
+    	numGroups++;
+    }
+
+    /**
+     * Merge one aggregate value into group g.
+     */
+    private void mergeValue(int g, int aValue) {
+    	// 对新加的这一行先判断是哪一组，再做aggregate
+    	switch(this.operator) {
+    	case MIN:
+    		if(cnt[g]==0 || aValue<acc[g])// 该组还没有东西，或者更小
+    			acc[g]=aValue;
+    		break;
+    	case MAX:
+    		if(cnt[g]==0 || aValue>acc[g])
+    			acc[g]=aValue;
     		break;
+    	case SUM:
     	case AVG:
-    		if(!group.containsKey(gb)) {
-    			group.put(gb, aValue);
-    			// 新建一个数组
-    			ArrayList<Integer> newGroup = new ArrayList();
-    			newGroup.add(aValue);
-    			avgCount.put(gb, newGroup);// 用来记录该组的值
-    		}
-    		else
-    		{
-    			ArrayList <Integer> get=avgCount.get(gb);
-    			get.add(aValue);// 加入新的一行
-    			avgCount.put(gb, get);
-    			
-    			int sum = get.stream().reduce(Integer::sum).orElse(0);// 求和
-    			int avg=sum/get.size();// 求平均值
-    			group.put(gb, avg);
-    		}
+    	case SUM_COUNT:
+    		acc[g]+=aValue;
+    		break;
+    	case COUNT:
     		break;
     	default:
     		throw new IllegalArgumentException("Aggregate wrong!");
     	}
-    }	
+    	cnt[g]++;
+    }
+
+    /**
+     * Merge a partial (sum, count) aggregate, as produced by SUM_COUNT, into
+     * group g.
+     */
+    private void mergePartial(int g, int sum, int count) {
+    	acc[g]+=sum;
+    	cnt[g]+=count;
+    }
+
+    public void merge(Aggregator other) {
+    	if(!(other instanceof IntegerAggregator))
+    		throw new IllegalArgumentException("can only merge an IntegerAggregator");
+    	IntegerAggregator o=(IntegerAggregator)other;
+    	if(o.operator!=operator || o.gbField!=gbField || o.aField!=aField)
+    		throw new IllegalArgumentException("aggregators compute different aggregates");
+    	// 按组合并两边的累加状态
+    	for(int h=0;h<o.numGroups;h++) {
+    		int g=gbFieldType==Type.INT_TYPE?intGroupOf(o.intGroups.keyOf(h)):groupOf(o.groupKeys.get(h));
+    		switch(this.operator) {
+    		case MIN:
+    			if(cnt[g]==0 || o.acc[h]<acc[g])
+    				acc[g]=o.acc[h];
+    			break;
+    		case MAX:
+    			if(cnt[g]==0 || o.acc[h]>acc[g])
+    				acc[g]=o.acc[h];
+    			break;
+    		default:// SUM,AVG,COUNT,SUM_COUNT,SC_AVG都是和与行数
+    			acc[g]+=o.acc[h];
+    			break;
+    		}
+    		cnt[g]+=o.cnt[h];
+    	}
+    }
+
+    public int numGroups() {
+    	return numGroups;
+    }
+
+    public boolean hasGroup(TupleBatch batch, int row) {
+    	if(this.gbField==Aggregator.NO_GROUPING)
+    		return fieldGroups.containsKey(null);
+    	if(gbFieldType==Type.INT_TYPE)
+    		return intGroups.find(((IntField)batch.getField(this.gbField, row)).getValue())>=0;
+    	return fieldGroups.containsKey(batch.getField(this.gbField, row));
+    }
+
+    /**
+     * @return the result of group g; two values (sum, count) for SUM_COUNT
+     */
+    private int[] result(int g) {
+    	switch(this.operator) {
+    	case MIN:
+    	case MAX:
+    	case SUM:
+    		return new int[] {(int)acc[g]};
+    	case COUNT:
+    		return new int[] {(int)cnt[g]};
+    	case AVG:
+    	case SC_AVG:
+    		return new int[] {(int)(acc[g]/cnt[g])};
+    	case SUM_COUNT:
+    		return new int[] {(int)acc[g],(int)cnt[g]};
+    	default:
+    		throw new IllegalArgumentException("Aggregate wrong!");
+    	}
+    }
 
     /**
      * Create a OpIterator over group aggregate results.
@@ -136,7 +282,8 @@ public class IntegerAggregator implements Aggregator {
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor; SUM_COUNT produces two values, the sum and the
+     *         count.
      */
     public OpIterator iterator() {
         // some code goes here
@@ -147,48 +294,61 @@ public class IntegerAggregator implements Aggregator {
     private class IntAggIterator implements OpIterator{
     	// 要返回tuple->tupleDesc
     	private TupleDesc td;
-    	// 在group里面迭代
-    	private	Iterator<HashMap.Entry<Field,Integer>> it;
+    	// 按组号迭代，-1表示没打开
+    	private	int next=-1;
     	
     	public IntAggIterator(){
     		// 构造tupleDesc->typeAr,fieldAr
-    		if(gbField==Aggregator.NO_GROUPING)
-    			td=new TupleDesc(new Type[] {Type.INT_TYPE},new String[] {""});
-    		else 
-    			td=new TupleDesc(new Type[] {gbFieldType,Type.INT_TYPE},new String []{"",""});
+    		int nAgg=operator==Op.SUM_COUNT?2:1;
+    		int off=gbField==Aggregator.NO_GROUPING?0:1;
+    		Type[] types=new Type[off+nAgg];
+    		String[] names=new String[off+nAgg];
+    		if(off==1)
+    			types[0]=gbFieldType;
+    		for(int i=0;i<types.length;i++) {
+    			if(i>=off)
+    				types[i]=Type.INT_TYPE;
+    			names[i]="";
+    		}
+    		td=new TupleDesc(types,names);
     	}
     	
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
 			// TODO Auto-generated method stub
-			it=group.entrySet().iterator();
+			next=0;
 		}
 
 		@Override
 		public boolean hasNext() throws DbException, TransactionAbortedException {
 			// TODO Auto-generated method stub
-			return it.hasNext();
+			if(next<0)
+				throw new IllegalStateException("iterator not open");
+			return next<numGroups;
 		}
 
 		@Override
 		public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
 			// TODO Auto-generated method stub
-			Map.Entry<Field, Integer> temp=it.next();
+			if(!hasNext())
+				throw new NoSuchElementException();
+			int g=next++;
 			Tuple ret=new Tuple(td);
-			//做复杂了，又把gbField包装回了field :(
-			if(gbField==Aggregator.NO_GROUPING)// (aggregateVal)
-				ret.setField(0, new IntField(temp.getValue()));
-			else {// (groupVal,aggregateVal)
-				ret.setField(0, temp.getKey());
-				ret.setField(1, new IntField(temp.getValue()));
+			int off=0;
+			if(gbField!=Aggregator.NO_GROUPING) {// (groupVal,aggregateVal)
+				ret.setField(0, gbFieldType==Type.INT_TYPE?new IntField(intGroups.keyOf(g)):groupKeys.get(g));
+				off=1;
 			}
+			int[] r=result(g);
+			for(int i=0;i<r.length;i++)
+				ret.setField(off+i, new IntField(r[i]));
 			return ret;
 		}
 
 		@Override
 		public void rewind() throws DbException, TransactionAbortedException {
 			// TODO Auto-generated method stub
-			it=group.entrySet().iterator();
+			next=0;
 		}
 
 		@Override
@@ -200,7 +360,7 @@ public class IntegerAggregator implements Aggregator {
 		@Override
 		public void close() {
 			// TODO Auto-generated method stub
-			it=null;
+			next=-1;
 		}
     	
     }
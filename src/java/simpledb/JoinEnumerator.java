@@ -0,0 +1,427 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+/**
+ * JoinEnumerator finds the cheapest order of the joins of a query for
+ * {@link JoinOptimizer#orderJoins}. The tables of the query are the nodes of
+ * a graph whose edges are the joins, and a set of tables is a bitset of at
+ * most 64 of them. Plans are bushy: the two inputs of a join may both be
+ * joins themselves.
+ * <p>
+ * Up to {@link JoinOptimizer#getMaxDpJoins()} joins, the optimal plan is
+ * found by dynamic programming over the pairs of connected sets of tables
+ * that are joined by at least one edge, enumerated as in DPccp (Moerkotte
+ * and Neumann, "Analysis of two existing and one new dynamic programming
+ * algorithm for the generation of optimal bushy join trees without cross
+ * products", VLDB 2006), which considers every such pair exactly once and
+ * no cross product. With more joins the plan is built greedily (GOO, Fegaras
+ * 1998): the two subplans whose join produces the fewest tuples are joined
+ * until one plan is left.
+ * <p>
+ * The best plan of each set of tables is kept in a hash table of primitive
+ * arrays, keyed by the bitset.
+ */
+class JoinEnumerator {
+
+    private final JoinOptimizer jo;
+    private final HashMap<String, TableStats> stats;
+
+    private final int n;// 表的个数
+    private final String[] alias;// 每个表的别名，子查询为null
+    private final long[] adjacent;// 每个表的邻居
+    private final LogicalJoinNode[] edges;
+    private final int[] edgeLeft, edgeRight;// 每个连接的t1、t2是哪个表
+
+    // 各个表集合的最优计划：开放寻址的哈希表
+    private long[] keys;// 表集合，0表示空位
+    private double[] cost;
+    private int[] card;
+    private boolean[] pkey;// 计划里是否有连接用到了主键
+    private long[] left;// 外层输入的表集合，单个表为0
+    private int[] edge;// 最上面的连接
+    private boolean[] swapped;// 连接是否把t1和t2对调了
+    private int size;
+
+    /**
+     * Build the join graph of joins, numbering the tables in breadth-first
+     * order as DPccp requires.
+     *
+     * @throws ParsingException if a table of the joins has no statistics
+     */
+    JoinEnumerator(JoinOptimizer jo, Vector<LogicalJoinNode> joins,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) throws ParsingException {
+        this.jo = jo;
+        this.stats = stats;
+        int m = joins.size();
+        edges = joins.toArray(new LogicalJoinNode[m]);
+
+        // 按出现顺序收集别名，子查询各算一个表
+        ArrayList<String> names = new ArrayList<String>();
+        HashMap<String, Integer> index = new HashMap<String, Integer>();
+        int[] l = new int[m], r = new int[m];
+        for (int e = 0; e < m; e++) {
+            l[e] = intern(edges[e].t1Alias, names, index);
+            r[e] = edges[e].t2Alias == null ? intern(null, names, index)
+                    : intern(edges[e].t2Alias, names, index);
+        }
+        if (names.size() > 64)
+            throw new ParsingException("cannot join more than 64 tables");
+        n = names.size();
+        ArrayList<ArrayList<Integer>> near = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < n; i++)
+            near.add(new ArrayList<Integer>());
+        for (int e = 0; e < m; e++) {
+            near.get(l[e]).add(r[e]);
+            near.get(r[e]).add(l[e]);
+        }
+        int[] number = new int[n];
+        Arrays.fill(number, -1);
+        int next = 0;
+        int[] queue = new int[n];
+        for (int start = 0; start < n; start++) {
+            if (number[start] >= 0)
+                continue;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            number[start] = next++;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int w : near.get(v))
+                    if (number[w] < 0) {
+                        number[w] = next++;
+                        queue[tail++] = w;
+                    }
+            }
+        }
+        alias = new String[n];
+        adjacent = new long[n];
+        for (int i = 0; i < n; i++)
+            alias[number[i]] = names.get(i);
+        edgeLeft = new int[m];
+        edgeRight = new int[m];
+        for (int e = 0; e < m; e++) {
+            edgeLeft[e] = number[l[e]];
+            edgeRight[e] = number[r[e]];
+            adjacent[edgeLeft[e]] |= 1L << edgeRight[e];
+            adjacent[edgeRight[e]] |= 1L << edgeLeft[e];
+        }
+
+        keys = new long[64];
+        cost = new double[64];
+        card = new int[64];
+        pkey = new boolean[64];
+        left = new long[64];
+        edge = new int[64];
+        swapped = new boolean[64];
+        for (int i = 0; i < n; i++) {
+            int s = insert(1L << i);
+            if (alias[i] == null) {// 子查询的代价和基数都算作0，和原来一样
+                cost[s] = 0;
+                continue;
+            }
+            Integer id = jo.p.getTableId(alias[i]);
+            if (id == null)
+                throw new ParsingException("Unknown table " + alias[i]);
+            String table = Database.getCatalog().getTableName(id);
+            TableStats ts = stats.get(table);
+            Double sel = filterSelectivities.get(alias[i]);
+            if (ts == null || sel == null)
+                throw new ParsingException("no statistics for table " + alias[i]);
+            Double scan = jo.p.getScanCost(alias[i]);// 索引扫描的代价
+            cost[s] = scan != null ? scan : ts.estimateScanCost();
+            card[s] = ts.estimateTableCardinality(sel);
+        }
+    }
+
+    private static int intern(String name, ArrayList<String> names, HashMap<String, Integer> index) {
+        if (name == null) {
+            names.add(null);
+            return names.size() - 1;
+        }
+        Integer i = index.get(name);
+        if (i == null) {
+            i = names.size();
+            names.add(name);
+            index.put(name, i);
+        }
+        return i;
+    }
+
+    // ===================== memo table =====================
+
+    private static int hash(long set) {
+        long h = set * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** @return the slot of set, or -1 if it has no plan yet */
+    private int find(long set) {
+        int mask = keys.length - 1;
+        for (int i = hash(set) & mask;; i = (i + 1) & mask) {
+            if (keys[i] == set)
+                return i;
+            if (keys[i] == 0)
+                return -1;
+        }
+    }
+
+    /** @return the slot of set, added with an infinite cost if it was not there */
+    private int insert(long set) {
+        int s = find(set);
+        if (s >= 0)
+            return s;
+        if (2 * (size + 1) > keys.length)
+            grow();
+        int mask = keys.length - 1;
+        int i = hash(set) & mask;
+        while (keys[i] != 0)
+            i = (i + 1) & mask;
+        keys[i] = set;
+        cost[i] = Double.POSITIVE_INFINITY;
+        size++;
+        return i;
+    }
+
+    private void grow() {
+        long[] k = keys, lf = left;
+        double[] c = cost;
+        int[] cd = card, e = edge;
+        boolean[] pk = pkey, sw = swapped;
+        int cap = k.length * 2;
+        keys = new long[cap];
+        cost = new double[cap];
+        card = new int[cap];
+        pkey = new boolean[cap];
+        left = new long[cap];
+        edge = new int[cap];
+        swapped = new boolean[cap];
+        int mask = cap - 1;
+        for (int j = 0; j < k.length; j++) {
+            if (k[j] == 0)
+                continue;
+            int i = hash(k[j]) & mask;
+            while (keys[i] != 0)
+                i = (i + 1) & mask;
+            keys[i] = k[j];
+            cost[i] = c[j];
+            card[i] = cd[j];
+            pkey[i] = pk[j];
+            left[i] = lf[j];
+            edge[i] = e[j];
+            swapped[i] = sw[j];
+        }
+    }
+
+    /** @return the number of sets of tables a plan was found for */
+    int numPlans() {
+        return size;
+    }
+
+    // ===================== enumeration =====================
+
+    private long neighbors(long set) {
+        long nb = 0;
+        for (long s = set; s != 0; s &= s - 1)
+            nb |= adjacent[Long.numberOfTrailingZeros(s)];
+        return nb & ~set;
+    }
+
+    /** Find the optimal plan of every connected set of tables. */
+    void dynamicProgramming() {
+        for (int i = n - 1; i >= 0; i--) {
+            long v = 1L << i;
+            enumerateCmp(v);
+            enumerateCsg(v, (v << 1) - 1, 0);// 不能再加编号不大于i的表
+        }
+    }
+
+    /**
+     * Grow the connected set s with neighbors that are not in x. If s1 is 0,
+     * every set grown is a connected set whose complements are then
+     * enumerated; otherwise every set grown is a complement of s1.
+     */
+    private void enumerateCsg(long s, long x, long s1) {
+        long nb = neighbors(s) & ~x;
+        if (nb == 0)
+            return;
+        for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb) {
+            if (s1 == 0)
+                enumerateCmp(s | sub);
+            else
+                join(s1, s | sub);
+        }
+        for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+            enumerateCsg(s | sub, x | nb, s1);
+    }
+
+    /** Join the connected set s1 to each connected set next to it. */
+    private void enumerateCmp(long s1) {
+        int min = Long.numberOfTrailingZeros(s1);
+        long x = ((1L << min) << 1) - 1 | s1;
+        long nb = neighbors(s1) & ~x;
+        for (int i = 63 - Long.numberOfLeadingZeros(nb); i >= 0 && nb != 0; i--) {
+            long v = 1L << i;
+            if ((nb & v) == 0)
+                continue;
+            join(s1, v);
+            enumerateCsg(v, x | (nb & ((v << 1) - 1)), s1);
+        }
+    }
+
+    /**
+     * Build the plans of the pair of tables in the sets a and b joined by
+     * any edge between them, in either order, and keep the cheapest if it is
+     * cheaper than the best plan of a | b so far.
+     *
+     * @return the slot of a | b, or -1 if a or b has no plan
+     */
+    private int join(long a, long b) {
+        int sa = find(a), sb = find(b);
+        if (sa < 0 || sb < 0)
+            return -1;
+        int s = insert(a | b);
+        sa = find(a);// insert可能扩容
+        sb = find(b);
+        for (int e = 0; e < edges.length; e++) {
+            long l = 1L << edgeLeft[e], r = 1L << edgeRight[e];
+            if ((a & l) != 0 && (b & r) != 0) {
+                consider(s, e, false, sa, sb);
+                if (alias[edgeRight[e]] != null)
+                    consider(s, e, true, sb, sa);
+            } else if ((b & l) != 0 && (a & r) != 0) {
+                consider(s, e, false, sb, sa);
+                if (alias[edgeRight[e]] != null)
+                    consider(s, e, true, sa, sb);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Cost joining the plan of slot outer to the plan of slot inner with
+     * edge e, swapped or not, and keep it in slot s if it is the cheapest.
+     */
+    private void consider(int s, int e, boolean swap, int outer, int inner) {
+        LogicalJoinNode j = swap ? edges[e].swapInnerOuter() : edges[e];
+        boolean sorted1 = isBase(outer) && jo.isIndexOrdered(j.t1Alias, j.f1PureName);
+        boolean sorted2 = isBase(inner) && jo.isIndexOrdered(j.t2Alias, j.f2PureName);
+        double c = jo.estimateJoinCost(j, card[outer], card[inner], cost[outer],
+                cost[inner], sorted1, sorted2);
+        if (c >= cost[s])
+            return;
+        boolean pk1 = isBase(outer) ? jo.isPkey(j.t1Alias, j.f1PureName) : pkey[outer];
+        boolean pk2 = j.t2Alias == null ? false
+                : isBase(inner) ? jo.isPkey(j.t2Alias, j.f2PureName) : pkey[inner];
+        cost[s] = c;
+        card[s] = jo.estimateJoinCardinality(j, card[outer], card[inner], pk1, pk2, stats);
+        pkey[s] = pkey[outer] || pkey[inner] || jo.isPkey(j.t1Alias, j.f1PureName)
+                || (j.t2Alias != null && jo.isPkey(j.t2Alias, j.f2PureName));
+        left[s] = keys[outer];
+        edge[s] = e;
+        swapped[s] = swap;
+    }
+
+    private boolean isBase(int slot) {
+        return Long.bitCount(keys[slot]) == 1;
+    }
+
+    /**
+     * Join greedily: as long as two plans are joined by an edge, join the
+     * two whose join produces the fewest tuples (the cheapest on a tie).
+     */
+    void greedy() {
+        ArrayList<Long> plans = new ArrayList<Long>();
+        for (int i = 0; i < n; i++)
+            plans.add(1L << i);
+        while (true) {
+            int bestA = -1, bestB = -1;
+            double bestCard = 0, bestCost = 0;
+            for (int a = 0; a < plans.size(); a++) {
+                long nb = neighbors(plans.get(a));
+                for (int b = a + 1; b < plans.size(); b++) {
+                    if ((nb & plans.get(b)) == 0)
+                        continue;
+                    int s = join(plans.get(a), plans.get(b));
+                    if (bestA < 0 || card[s] < bestCard
+                            || (card[s] == bestCard && cost[s] < bestCost)) {
+                        bestA = a;
+                        bestB = b;
+                        bestCard = card[s];
+                        bestCost = cost[s];
+                    }
+                }
+            }
+            if (bestA < 0)
+                return;
+            long merged = plans.get(bestA) | plans.get(bestB);
+            plans.remove(bestB);
+            plans.set(bestA, merged);
+        }
+    }
+
+    // ===================== result =====================
+
+    /**
+     * @param pc
+     *            if not null, gets the cost and cardinality of the subplan
+     *            rooted at each join, keyed by the joins up to it
+     * @return the joins of the best plan found, each after the joins of
+     *         both of its inputs, followed by the joins that the plan does
+     *         not need because their tables are joined by another edge
+     */
+    Vector<LogicalJoinNode> plan(PlanCache pc) {
+        Vector<LogicalJoinNode> out = new Vector<LogicalJoinNode>();
+        boolean[] used = new boolean[edges.length];
+        long done = 0;
+        for (int i = 0; i < n; i++) {
+            if ((done & (1L << i)) != 0)
+                continue;
+            long component = 1L << i;// 和表i连通的所有表
+            for (long grown = 0; grown != component;) {
+                grown = component;
+                component |= neighbors(component);
+            }
+            done |= component;
+            emit(component, out, used, pc);
+        }
+        for (int e = 0; e < edges.length; e++)
+            if (!used[e])
+                out.add(edges[e]);
+        return out;
+    }
+
+    /** @return the estimated cost of the best plan of set, or infinity if none */
+    double cost(long set) {
+        int s = find(set);
+        return s < 0 ? Double.POSITIVE_INFINITY : cost[s];
+    }
+
+    private void emit(long set, Vector<LogicalJoinNode> out, boolean[] used, PlanCache pc) {
+        int s = find(set);
+        if (s < 0 || Long.bitCount(set) == 1)
+            return;
+        long l = left[s], r = set & ~l;
+        emit(l, out, used, pc);
+        emit(r, out, used, pc);
+        int e = edge[s];
+        used[e] = true;
+        LogicalJoinNode j = swapped[s] ? edges[e].swapInnerOuter() : edges[e];
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            int sl = find(l), sr = find(r);
+            boolean sorted1 = isBase(sl) && jo.isIndexOrdered(j.t1Alias, j.f1PureName);
+            boolean sorted2 = isBase(sr) && jo.isIndexOrdered(j.t2Alias, j.f2PureName);
+            j = j.withAlgorithm(jo.chooseAlgorithm(j, card[sl], card[sr], cost[sl],
+                    cost[sr], sorted1, sorted2));
+        }
+        out.add(j);
+        if (pc != null)
+            pc.addPlan(new HashSet<LogicalJoinNode>(out), cost[s], card[s],
+                    new Vector<LogicalJoinNode>(out));
+    }
+}
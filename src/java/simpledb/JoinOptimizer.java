@@ -68,7 +68,29 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // 优化器选过算法且可行就用它；否则两边都已按连接列有序的等值连接直接归并，
+        // 其他等值连接用hash join；范围连接排序后归并，其他的theta连接只能嵌套循环
+        LogicalJoinNode.Algorithm a = lj.algorithm;
+        if (a == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP
+                && lj.p != Predicate.Op.NOT_EQUALS && lj.p != Predicate.Op.LIKE
+                && IndexNestedLoopJoin.canProbe(plan2, t2id))
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        else if (a == LogicalJoinNode.Algorithm.HASH && lj.p == Predicate.Op.EQUALS)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else if (a == LogicalJoinNode.Algorithm.SORT_MERGE && SortMergeJoin.supports(lj.p))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else if (a == LogicalJoinNode.Algorithm.NESTED_LOOP)
+            j = new Join(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS
+                && SortMergeJoin.isSortedOn(plan1, t1id)
+                && SortMergeJoin.isSortedOn(plan2, t2id))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS)
+            j = new HashEquiJoin(p, plan1, plan2);
+        else if (SortMergeJoin.supports(lj.p))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p, plan1, plan2);
 
         return j;
 
@@ -102,6 +124,22 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of a join, knowing whether each input already
+     * arrives sorted on its join field (e.g. a scan of a BTreeFile keyed on
+     * it), in which case a sort-merge join does not need to sort it.
+     * 
+     * @param sorted1
+     *            true if the left-hand side is sorted on its join field
+     * @param sorted2
+     *            true if the right-hand side is sorted on its join field
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
@@ -111,10 +149,118 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return -1.0;
+            LogicalJoinNode.Algorithm a = chooseAlgorithm(j, card1, card2,
+                    cost1, cost2, sorted1, sorted2);
+            return algorithmCost(a, j, card1, card2, cost1, cost2, sorted1, sorted2);
         }
     }
 
+    /**
+     * Return the cheapest algorithm for join j given the sizes and costs of
+     * its inputs. sorted2 also means that the right-hand side is a base table
+     * stored in a BTreeFile keyed on the join field, which is what an index
+     * nested-loop join probes.
+     *
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double, boolean, boolean)
+     */
+    LogicalJoinNode.Algorithm chooseAlgorithm(LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2, boolean sorted1,
+            boolean sorted2) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOP;
+        double bestCost = algorithmCost(best, j, card1, card2, cost1, cost2,
+                sorted1, sorted2);
+        for (LogicalJoinNode.Algorithm a : LogicalJoinNode.Algorithm.values()) {
+            double c = algorithmCost(a, j, card1, card2, cost1, cost2, sorted1, sorted2);
+            if (c <= bestCost) {// 代价相同时优先后面的算法(归并保持了有序)
+                best = a;
+                bestCost = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of running join j with algorithm a, or
+     * Double.POSITIVE_INFINITY if a cannot evaluate j.
+     */
+    private double algorithmCost(LogicalJoinNode.Algorithm a, LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2, boolean sorted1,
+            boolean sorted2) {
+        switch (a) {
+        case HASH: {
+            if (j.p != Predicate.Op.EQUALS)
+                return Double.POSITIVE_INFINITY;
+            // each tuple is hashed or probed once. If the outer side does
+            // not fit in MAP_SIZE tuples both sides are partitioned to disk,
+            // which writes and reads them back once more
+            double cost = cost1 + cost2 + card1 + card2;
+            if (card1 > HashEquiJoin.MAP_SIZE)
+                cost += 2 * (cost1 + cost2);
+            return cost;
+        }
+        case SORT_MERGE: {
+            if (!SortMergeJoin.supports(j.p))
+                return Double.POSITIVE_INFINITY;
+            // sort whichever inputs are not in order, then merge them in a
+            // single pass
+            double cost = cost1 + cost2 + card1 + card2;
+            if (!sorted1)
+                cost += sortCost(card1);
+            if (!sorted2)
+                cost += sortCost(card2);
+            return cost;
+        }
+        case INDEX_NESTED_LOOP: {
+            if (!sorted2 || j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE)
+                return Double.POSITIVE_INFINITY;
+            // every outer tuple descends the tree and reads the leaf pages
+            // holding its matches. The outer side is probed in sorted
+            // batches, so the internal pages are only read about once per
+            // batch and otherwise stay in the buffer pool
+            double pages = Math.max(1.0, cost2 / TableStats.IOCOSTPERPAGE);
+            double tuplesPerPage = Math.max(1.0, card2 / pages);
+            double matches = j.p == Predicate.Op.EQUALS ? 1 : 0.3 * card2;
+            double perProbe = (1 + matches / tuplesPerPage)
+                    * TableStats.IOCOSTPERPAGE + matches;
+            int height = ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                    p.getTableId(j.t2Alias))).estimateHeight();
+            double batches = Math.ceil(card1 / (double) TupleBatch.DEFAULT_SIZE);
+            return cost1 + card1 * perProbe + batches * height
+                    * TableStats.IOCOSTPERPAGE;
+        }
+        default:
+            // nested loops: the inner side is scanned once per outer tuple
+            // and the predicate is applied to every pair
+            return cost1 + card1 * cost2 + (double) card1 * card2;
+        }
+    }
+
+    /** @return the number of comparisons needed to sort card tuples */
+    private static double sortCost(int card) {
+        return card < 2 ? card : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Return true if the base table tableAlias is stored in a BTreeFile keyed
+     * on field, so that scanning it returns tuples sorted on field.
+     * 
+     * @param tableAlias
+     *            The alias of the table in the query
+     * @param field
+     *            The pure name of the field
+     */
+    boolean isIndexOrdered(String tableAlias, String field) {
+        if (tableAlias == null)
+            return false;
+        int tableId = p.getTableId(tableAlias);
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(f instanceof BTreeFile))
+            return false;
+        String key = Database.getCatalog().getTupleDesc(tableId)
+                .getFieldName(((BTreeFile) f).keyField());
+        return field.equals(key);
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -147,55 +293,101 @@ public class JoinOptimizer {
         }
     }
 
+    /** Fraction of all pairs of tuples that a range join is assumed to keep */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equality join produces |R||S|/max(ndv(R.f1), ndv(S.f2)) tuples:
+     * every value of the side with fewer distinct values is assumed to find
+     * its matches on the other side. The number of distinct values of a
+     * primary key is the cardinality of its side; other fields take theirs
+     * from the table statistics, capped by the cardinality of their side.
+     * Without statistics, an equality join on a key produces as many tuples
+     * as the other side, and any other equality join as many as its larger
+     * side. Range joins keep {@link #RANGE_JOIN_SELECTIVITY} of all pairs.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double pairs = (double) card1 * card2;
+        double card;
+        switch (joinOp) {
+        case EQUALS:
+        case LIKE:
+        case NOT_EQUALS: {
+            double ndv1 = t1pkey ? card1 : numDistinct(table1Alias, field1PureName, card1, stats, tableAliasToId);
+            double ndv2 = t2pkey ? card2 : numDistinct(table2Alias, field2PureName, card2, stats, tableAliasToId);
+            double equal;
+            if (ndv1 >= 0 && ndv2 >= 0)
+                equal = pairs / Math.max(1, Math.max(ndv1, ndv2));
+            else if (t1pkey)
+                equal = card2;
+            else if (t2pkey)
+                equal = card1;
+            else
+                equal = Math.max(card1, card2);
+            card = joinOp == Predicate.Op.NOT_EQUALS ? pairs - equal : equal;
+            break;
+        }
+        default:
+            card = pairs * RANGE_JOIN_SELECTIVITY;
+            break;
+        }
+        card = Math.min(Math.round(card), Integer.MAX_VALUE);
+        return card <= 0 ? 1 : (int) card;
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * @return the number of distinct values of field in the table of alias,
+     *         at most card, or -1 if there are no statistics for it
      */
-    @SuppressWarnings("unchecked")
-    public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
-        Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+    private static double numDistinct(String alias, String field, int card,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAliasToId.get(alias);
+        if (tableId == null)
+            return -1;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return -1;
+        int index;
+        try {
+            index = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return -1;
         }
+        return Math.min(s.numDistinct(index), card);
+    }
 
-        return els;
+    /** Default number of joins above which {@link #orderJoins} orders them greedily */
+    public static final int DEFAULT_MAX_DP_JOINS = 12;
 
+    private static volatile int maxDpJoins = DEFAULT_MAX_DP_JOINS;
+
+    /**
+     * Set the largest number of joins that {@link #orderJoins} finds the
+     * optimal order of. The cost of finding it grows exponentially with the
+     * number of joins, so larger queries are ordered greedily.
+     */
+    public static void setMaxDpJoins(int joins) {
+        if (joins < 0)
+            throw new IllegalArgumentException("negative number of joins");
+        maxDpJoins = joins;
+    }
+
+    /** @return the largest number of joins whose optimal order is searched for */
+    public static int getMaxDpJoins() {
+        return maxDpJoins;
     }
 
     /**
-     * Compute a logical, reasonably efficient join on the specified tables. See
-     * PS4 for hints on how this should be implemented.
+     * Compute a logical, reasonably efficient join on the specified tables.
+     * Up to {@link #getMaxDpJoins()} joins the plan is the cheapest bushy
+     * plan without cross products; above, it is built greedily. See
+     * {@link JoinEnumerator}.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -207,8 +399,10 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed: each join comes after the joins
+     *         that produce its inputs, its t1 being in its left input and its
+     *         t2 in its right one
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -217,177 +411,22 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for labs 1--3
-
-        // some code goes here
-        //Replace the following
-        return joins;
+        if (joins.isEmpty())
+            return joins;
+        JoinEnumerator e = new JoinEnumerator(this, joins, stats, filterSelectivities);
+        if (joins.size() <= maxDpJoins)
+            e.dynamicProgramming();
+        else
+            e.greedy();
+        PlanCache pc = explain ? new PlanCache() : null;
+        Vector<LogicalJoinNode> plan = e.plan(pc);
+        if (explain)
+            printJoins(plan, pc, stats, filterSelectivities);
+        return plan;
     }
 
     // ===================== Private Methods =================================
 
-    /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
-     */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
-
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
-            }
-        }
-
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
-        }
-        if (cost1 >= bestCostSoFar)
-            return null;
-
-        CostCard cc = new CostCard();
-
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
-    }
-
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
-        }
-        return false;
-    }
-
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -397,27 +436,13 @@ public class JoinOptimizer {
      * @param field
      *            The pure name of the field
      */
-    private boolean isPkey(String tableAlias, String field) {
+    boolean isPkey(String tableAlias, String field) {
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -44,7 +44,10 @@ public class JoinPredicate implements Serializable {
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
-        return t1.getField(numOfField1).compare(op, t2.getField(numOfField2));
+        Field f1=t1.getField(numOfField1);
+        if(f1 instanceof IntField)// int字段直接比较原始值
+        	return IntField.compare(op, ((IntField)f1).getValue(), t2.getInt(numOfField2));
+        return f1.compare(op, t2.getField(numOfField2));
     }
     
     public int getField1()
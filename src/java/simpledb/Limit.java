@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that returns only the first few tuples of its child.
+ * It stops reading the child as soon as the limit is reached, so the scans
+ * below it only read as far as they have to.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+    private int count;
+
+    /**
+     * Constructor.
+     * 
+     * @param limit
+     *            The maximum number of tuples to return
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, OpIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /** @return the maximum number of tuples this operator returns */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        count = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        count = 0;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (count >= limit || !child.hasNext())
+            return null;
+        count++;
+        return child.next();
+    }
+
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException,
+            DbException {
+        if (count >= limit)
+            return null;
+        TupleBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        batch.truncate(limit - count);
+        count += batch.numRows();
+        return batch;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+}
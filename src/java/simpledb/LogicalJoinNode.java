@@ -23,6 +23,17 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Physical join algorithms the optimizer can choose between. */
+    public enum Algorithm {
+        NESTED_LOOP, HASH, SORT_MERGE, INDEX_NESTED_LOOP
+    }
+
+    /**
+     * The algorithm chosen for this join by {@link JoinOptimizer}, or null if
+     * the join has not been costed.
+     */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -44,6 +55,13 @@ public class LogicalJoinNode {
         this.f2QuantifiedName = t2Alias+"."+this.f2PureName;
     }
     
+    /** Return a copy of this LogicalJoinNode to be run with algorithm a. */
+    public LogicalJoinNode withAlgorithm(Algorithm a) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j2.algorithm = a;
+        return j2;
+    }
+
     /** Return a new LogicalJoinNode with the inner and outer (t1.f1
      * and t2.f2) tables swapped. */
     public LogicalJoinNode swapInnerOuter() {
@@ -1,4 +1,7 @@
 package simpledb;
+import java.util.List;
+import java.util.Set;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
@@ -12,9 +15,8 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, a list of aggregates and a list
+ * of group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -27,14 +29,17 @@ public class LogicalPlan {
     private Vector<LogicalFilterNode> filters;
     private HashMap<String, OpIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
+    private HashMap<String,Double> scanCosts;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -45,6 +50,7 @@ public class LogicalPlan {
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String, OpIterator>();
         tableMap = new HashMap<String,Integer>();
+        scanCosts = new HashMap<String,Double>();
 
         selectList = new Vector<LogicalSelectListNode>();
         this.query = "";
@@ -186,36 +192,75 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
+        if (gfield != null)
+            addGroupBy(gfield);
+        addAggregate(op, afield);
+    }
+
+    /** Add an aggregate over the field to the query.  All aggregates of a query are
+        computed in a single pass; adding the same aggregate twice computes it once.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
         afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
         hasAgg = true;
+        if (aggIndex(op, afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field.  Calling this several times groups on all of the fields.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /** @return the position of the aggregate op(afield) among the aggregates, or -1 */
+    private int aggIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++)
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(afield))
+                return i;
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Calling this
+        several times sorts on several fields, the first one added being the most significant.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAscs.add(asc);
         hasOrderBy = true;
     }
 
+    /** Only return the first n tuples of the result (SQL LIMIT n).  With an ORDER BY these are
+        the first n in that order.
+        @param n the maximum number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void setLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,8 +316,237 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Choose how to read the base table of table: with the sequential scan
+     * already in subplanMap or by searching an index with some of preds,
+     * whichever s estimates to be cheapest. A table stored in a BTreeFile
+     * can be searched on its key; a HeapFile on the key of any of its
+     * {@link SecondaryIndex}es. A key of several fields is searched with
+     * equalities on its first fields and at most one range on the next (see
+     * {@link #matchKey}). An index that covers every field of table the
+     * query reads is read alone, by an index-only scan, even with no
+     * predicate on its key. The predicates answered by the index are removed
+     * from preds, and the others are rewritten in terms of the fields of the
+     * returned scan; the estimated cost of the chosen scan is kept for
+     * {@link #getScanCost}.
+     *
+     * @param preds the filters over table, in terms of its fields
+     * @param s the statistics of the table
+     * @param order if not null, the scan must return tuples in ascending
+     *   (true) or descending (false) order of the key of a BTreeFile
+     */
+    private OpIterator accessPath(TransactionId t, LogicalScanNode table,
+            Vector<Predicate> preds, TableStats s, Boolean order) {
+        OpIterator seq = subplanMap.get(table.alias);
+        if (s == null)
+            return seq;
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        BTreeFile bf = f instanceof BTreeFile ? (BTreeFile) f : null;
+        // 要求有序时只能走索引，整个扫描一遍也比排序便宜
+        double bestCost = order != null ? s.estimateIndexScanCost(bf.estimateHeight(), 1.0)
+                : s.estimateScanCost();
+        KeyMatch best = null;
+        SecondaryIndex bestIndex = null;
+        boolean indexOnly = false;
+        if (bf != null) {
+            KeyMatch m = matchKey(bf.keyFields(), preds, s);
+            if (m != null) {
+                double cost = s.estimateIndexScanCost(bf.estimateHeight(), m.selectivity);
+                if (cost < bestCost) {
+                    best = m;
+                    bestCost = cost;
+                }
+            }
+        }
+        if (order == null) {
+            Set<String> read = referencedFields(table.alias);
+            for (SecondaryIndex index : Database.getCatalog().getIndexes(table.t)) {
+                KeyMatch m = matchKey(index.getFields(), preds, s);
+                boolean covering = read != null && covers(index, seq.getTupleDesc(), read);
+                double cost;
+                if (covering)
+                    cost = s.estimateIndexOnlyScanCost(index.estimateHeight(), index.numPages(),
+                            m == null ? 1.0 : m.selectivity);
+                else if (m != null)
+                    cost = s.estimateSecondaryIndexScanCost(index.estimateHeight(),
+                            index.numPages(), m.selectivity);
+                else
+                    continue;
+                if (cost < bestCost) {
+                    best = m;
+                    bestIndex = index;
+                    indexOnly = covering;
+                    bestCost = cost;
+                }
+            }
+        }
+        scanCosts.put(table.alias, bestCost);
+        if (best == null && bestIndex == null && order == null)
+            return seq;
+        IndexPredicate ipred = null;
+        if (best != null) {
+            for (Predicate p : best.used)
+                preds.remove(p);
+            ipred = best.ipred;
+        }
+        if (bestIndex != null && indexOnly) {
+            OpIterator scan = new SecondaryIndexScan(t, bestIndex, table.alias, ipred, true);
+            // 剩下的条件改用仅索引扫描输出的列号
+            for (int i = 0; i < preds.size(); i++) {
+                Predicate p = preds.get(i);
+                String name = seq.getTupleDesc().getFieldName(p.getField());
+                preds.set(i, new Predicate(scan.getTupleDesc().fieldNameToIndex(name), p.getOp(),
+                        p.getOperand()));
+            }
+            return scan;
+        }
+        if (bestIndex != null)
+            return new SecondaryIndexScan(t, bestIndex, table.alias, ipred);
+        if (order != null && !order)
+            return new BTreeReverseScan(t, table.t, table.alias, ipred);
+        return new BTreeScan(t, table.t, table.alias, ipred);
+    }
+
+    /** A search of a B+ tree on its key that answers some filters of a table */
+    static class KeyMatch {
+        /** the predicate on the key */
+        final IndexPredicate ipred;
+        /** the filters it answers */
+        final List<Predicate> used;
+        /** the estimated selectivity of the filters */
+        final double selectivity;
+
+        KeyMatch(IndexPredicate ipred, List<Predicate> used, double selectivity) {
+            this.ipred = ipred;
+            this.used = used;
+            this.selectivity = selectivity;
+        }
+    }
+
+    /**
+     * Match preds against a key made of keyFields: an equality on each of
+     * the first key fields that has one, then the most selective range, or
+     * equality, on the next key field. A range within equalities on the first
+     * fields becomes a predicate on their {@link CompositeField} restricted to
+     * those values by its prefix.
+     *
+     * @param keyFields the fields of the key, most significant first
+     * @param preds the filters over the table, in terms of its fields
+     * @param s the statistics of the table
+     * @return the search, or null if no predicate is on the first key field
+     */
+    static KeyMatch matchKey(int[] keyFields, List<Predicate> preds, TableStats s) {
+        ArrayList<Field> values = new ArrayList<Field>();
+        ArrayList<Predicate> used = new ArrayList<Predicate>();
+        double selectivity = 1.0;
+        for (int key : keyFields) {
+            Predicate eq = null, range = null;
+            double eqSel = 1.0, rangeSel = 1.0;
+            for (Predicate p : preds) {
+                if (p.getField() != key || !isIndexable(p.getOp()))
+                    continue;
+                double sel = s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+                if (p.getOp() == Predicate.Op.EQUALS && (eq == null || sel < eqSel)) {
+                    eq = p;
+                    eqSel = sel;
+                } else if (p.getOp() != Predicate.Op.EQUALS && (range == null || sel < rangeSel)) {
+                    range = p;
+                    rangeSel = sel;
+                }
+            }
+            if (eq != null) {
+                values.add(eq.getOperand());
+                used.add(eq);
+                selectivity *= eqSel;
+                continue;
+            }
+            if (range == null)
+                break;
+            Field prefix = composite(values);
+            values.add(range.getOperand());
+            used.add(range);
+            return new KeyMatch(new IndexPredicate(range.getOp(), composite(values), prefix), used,
+                    selectivity * rangeSel);
+        }
+        if (values.isEmpty())
+            return null;
+        return new KeyMatch(new IndexPredicate(Predicate.Op.EQUALS, composite(values)), used,
+                selectivity);
+    }
+
+    /** @return the only value of values, a CompositeField of them, or null if there are none */
+    private static Field composite(List<Field> values) {
+        if (values.isEmpty())
+            return null;
+        if (values.size() == 1)
+            return values.get(0);
+        return new CompositeField(values.toArray(new Field[values.size()]));
+    }
+
+    /**
+     * @return true if index stores all the fields named in read of its table,
+     *   whose fields are named as in td
+     */
+    private static boolean covers(SecondaryIndex index, TupleDesc td, Set<String> read) {
+        for (String name : read)
+            if (!index.covers(td.fieldNameToIndex(name)))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the qualified names of the fields of the table aliased as
+     *   alias that the query reads anywhere, or null if it reads all of them
+     *   (with a *)
+     */
+    private Set<String> referencedFields(String alias) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        names.addAll(aggFields);
+        names.addAll(groupByFields);
+        names.addAll(oByFields);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        HashSet<String> read = new HashSet<String>();
+        for (String name : names) {
+            if (name == null)
+                continue;// 子查询连接没有右边的列
+            if (name.endsWith("*")) {
+                if (name.equals("*") || name.startsWith("null.") || name.startsWith(alias + "."))
+                    return null;
+            } else if (name.startsWith(alias + ".")) {
+                read.add(name);
+            }
+        }
+        return read;
+    }
+
+    /** @return true if a B+ tree search can answer a predicate with operator op */
+    static boolean isIndexable(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * @return the estimated cost of reading the base table aliased as alias
+     *   with the access path chosen by {@link #physicalPlan}, or null if no
+     *   physical plan has been built
+     */
+    Double getScanCost(String alias) {
+        return scanCosts.get(alias);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   Tables are read through an index, the B+ tree of a BTreeFile or a {@link SecondaryIndex},
+     *   when a filter on the indexed field makes it cheaper than a sequential scan (see
+     *   {@link #accessPath}).
      *  @param t The transaction that the returned OpIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -306,6 +580,7 @@ public class LogicalPlan {
 
         }
 
+        HashMap<String,Vector<Predicate>> tableFilters = new HashMap<String,Vector<Predicate>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,7 +609,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            Vector<Predicate> preds = tableFilters.get(lf.tableAlias);
+            if (preds == null) {
+                preds = new Vector<Predicate>();
+                tableFilters.put(lf.tableAlias, preds);
+            }
+            preds.add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,6 +623,30 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // 单表查询只按B+树的键排序时，由索引扫描直接给出顺序，不用再排序
+        boolean orderedByScan = false;
+        for (LogicalScanNode table : tables) {
+            Boolean order = null;
+            if (tables.size() == 1 && joins.isEmpty() && !hasAgg && oByFields.size() == 1) {
+                DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+                if (f instanceof BTreeFile && oByFields.get(0).equals(subplanMap.get(table.alias)
+                        .getTupleDesc().getFieldName(((BTreeFile) f).keyField()))) {
+                    order = oByAscs.get(0);
+                }
+            }
+            Vector<Predicate> preds = tableFilters.get(table.alias);
+            if (preds == null)
+                preds = new Vector<Predicate>();
+            OpIterator scan = accessPath(t, table, preds,
+                    statsMap.get(Database.getCatalog().getTableName(table.t)), order);
+            // 没有统计信息时仍是顺序扫描，还得排序
+            if (order != null && (scan instanceof BTreeScan || scan instanceof BTreeReverseScan))
+                orderedByScan = true;
+            for (Predicate p : preds)
+                scan = new Filter(p, scan);
+            subplanMap.put(table.alias, scan);
+        }
         
         if (!joins.isEmpty()) {
             JoinOptimizer jo = new JoinOptimizer(this,joins);
@@ -415,7 +719,11 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                // Aggregate的输出是所有分组列，然后每个聚合一列
+                int agg = aggIndex(si.aggOp, si.fname);
+                if (agg < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -427,16 +735,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -463,10 +772,16 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggFields.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    aops[i] = getAggOp(aggOps.get(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                aggNode = new Aggregate(node, afields, aops, gfields);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -475,8 +790,21 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (hasOrderBy && !orderedByScan) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                ascs[i] = oByAscs.get(i);
+            }
+            // 有LIMIT时只需保留前k个，不必整体排序
+            if (limit >= 0)
+                node = new TopK(fields, ascs, limit, node);
+            else
+                node = new OrderBy(fields, ascs, node);
+        } else if (limit >= 0) {
+            // 放在Project下面，取够了就不再往下读
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
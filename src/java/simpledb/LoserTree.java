@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LoserTree merges k sorted streams of tuples into one sorted stream. Each
+ * internal node of the tree remembers the loser of the comparison made
+ * there, so replacing the smallest tuple only replays the path from its leaf
+ * to the root: log2(k) comparisons per output tuple, against about twice
+ * that for a binary heap.
+ * <p>
+ * Ties are broken by source index, so merging runs in the order they were
+ * produced keeps the merge stable.
+ */
+class LoserTree {
+
+    /**
+     * A sorted stream of tuples.
+     */
+    interface Source {
+        /** @return the next tuple of the stream, or null at the end */
+        Tuple next() throws DbException, TransactionAbortedException;
+    }
+
+    private final Source[] sources;
+    private final Tuple[] heads;// 每个source当前的第一个tuple，null表示已读完
+    private final int[] tree;// tree[0]是胜者，tree[1..k-1]是各内部节点的败者
+    private final Comparator<Tuple> cmp;
+    private final int k;
+
+    /**
+     * Build a loser tree over sources, reading the first tuple of each.
+     *
+     * @param sources the streams to merge, each sorted according to cmp
+     * @param cmp the order of the streams
+     */
+    public LoserTree(List<? extends Source> sources, Comparator<Tuple> cmp)
+            throws DbException, TransactionAbortedException {
+        this.k = sources.size();
+        this.sources = sources.toArray(new Source[k]);
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(k, 1)];
+        this.cmp = cmp;
+        for (int i = 0; i < k; i++)
+            heads[i] = this.sources[i].next();
+        // 叶子i在位置k+i，节点n的孩子是2n和2n+1
+        tree[0] = k == 0 ? -1 : (k == 1 ? 0 : build(1));
+    }
+
+    /** Fill in the losers below node n and return the winner there. */
+    private int build(int n) {
+        if (n >= k)
+            return n - k;
+        int a = build(2 * n), b = build(2 * n + 1);
+        if (beats(a, b)) {
+            tree[n] = b;
+            return a;
+        }
+        tree[n] = a;
+        return b;
+    }
+
+    /** @return true if the head of source a comes before the head of b */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null)
+            return false;
+        if (heads[b] == null)
+            return true;
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * @return the smallest remaining tuple over all sources, or null if they
+     *         are all exhausted
+     */
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (k == 0)
+            return null;
+        int w = tree[0];
+        Tuple t = heads[w];
+        if (t == null)
+            return null;
+        heads[w] = sources[w].next();
+        // 沿叶子到根的路径重赛
+        for (int n = (w + k) / 2; n > 0; n /= 2) {
+            if (beats(tree[n], w)) {
+                int tmp = tree[n];
+                tree[n] = w;
+                w = tmp;
+            }
+        }
+        tree[0] = w;
+        return t;
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MorselQueue hands out the pages of a HeapFile in morsels, small ranges of
+ * consecutive pages, to the threads of a parallel scan. Each thread asks for
+ * its next morsel when it has finished the previous one, so fast threads
+ * simply take more morsels and no thread is left with a long tail of work.
+ * <p>
+ * A scan built on a MorselQueue reads pages through
+ * {@link BufferPool#getPage} with the scan's transaction, exactly like
+ * {@link SeqScan}, so every page is read under that transaction's shared
+ * lock whichever thread reads it. The number of pages is fixed when the
+ * queue is created; pages appended to the file afterwards are not scanned.
+ */
+public class MorselQueue {
+
+    /** Default number of pages in a morsel */
+    public static final int DEFAULT_MORSEL_PAGES = 16;
+
+    private final HeapFile file;
+    private final int numPages;
+    private final int morselPages;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    /**
+     * Create a queue over all current pages of file, in morsels of
+     * {@link #DEFAULT_MORSEL_PAGES} pages.
+     */
+    public MorselQueue(HeapFile file) {
+        this(file, DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * Create a queue over all current pages of file.
+     *
+     * @param morselPages the number of pages in a morsel
+     */
+    public MorselQueue(HeapFile file, int morselPages) {
+        if (morselPages < 1)
+            throw new IllegalArgumentException("a morsel needs at least one page");
+        this.file = file;
+        this.numPages = file.numPages();
+        this.morselPages = morselPages;
+    }
+
+    /** @return the file this queue hands out pages of */
+    public HeapFile getFile() {
+        return file;
+    }
+
+    /**
+     * Take the next morsel. Safe to call from any number of threads; every
+     * page is handed out exactly once.
+     *
+     * @return the first page of the morsel, which ends before
+     *         min(start + morselPages, numPages), or -1 if all pages have
+     *         been handed out
+     */
+    public int claim() {
+        if (next.get() >= numPages)
+            return -1;
+        int start = next.getAndAdd(morselPages);
+        return start < numPages ? start : -1;
+    }
+
+    /**
+     * @return an iterator over the tuples of the morsels that it claims from
+     *         this queue, one morsel after the other. It cannot be rewound.
+     */
+    public DbFileIterator iterator(final TransactionId tid) {
+        return new DbFileIterator() {
+            private DbFileIterator morsel = null;// 当前这个morsel的迭代器，null表示已经领完
+
+            public void open() throws DbException, TransactionAbortedException {
+                nextMorsel();
+            }
+
+            /** Claim morsels until one has tuples or there are none left. */
+            private boolean nextMorsel() throws DbException, TransactionAbortedException {
+                int start;
+                while ((start = claim()) >= 0) {
+                    morsel = file.iterator(tid, start, Math.min(start + morselPages, numPages));
+                    morsel.open();
+                    if (morsel.hasNext())
+                        return true;
+                }
+                morsel = null;
+                return false;
+            }
+
+            public boolean hasNext() throws DbException, TransactionAbortedException {
+                if (morsel == null)
+                    return false;
+                return morsel.hasNext() || nextMorsel();
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException,
+                    NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return morsel.next();
+            }
+
+            public int fillBatch(TupleBatch batch) throws DbException,
+                    TransactionAbortedException {
+                int n = 0;
+                while (!batch.isFull() && hasNext())
+                    n += morsel.fillBatch(batch);
+                return n;
+            }
+
+            public void rewind() throws DbException {
+                throw new DbException("a morsel scan cannot be rewound");
+            }
+
+            public void close() {
+                morsel = null;
+            }
+        };
+    }
+
+    /**
+     * Make n copies of a scan pipeline that together read its input once:
+     * the SeqScan at the bottom of plan is replaced in each copy by a scan of
+     * the morsels of one shared MorselQueue. Each copy can then be run by a
+     * different thread. Only chains of {@link Filter} and {@link Project}
+     * over a SeqScan of a HeapFile can be split this way.
+     *
+     * @return the copies, or null if plan cannot be split
+     */
+    public static OpIterator[] split(OpIterator plan, int n) {
+        OpIterator leaf = plan;
+        while (leaf instanceof Filter || leaf instanceof Project)
+            leaf = ((Operator) leaf).getChildren()[0];
+        if (!(leaf instanceof SeqScan))
+            return null;
+        SeqScan scan = (SeqScan) leaf;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof HeapFile) || scan.getMorselQueue() != null)
+            return null;
+        MorselQueue queue = new MorselQueue((HeapFile) file);
+        OpIterator[] copies = new OpIterator[n];
+        for (int i = 0; i < n; i++)
+            copies[i] = copy(plan, queue);
+        return copies;
+    }
+
+    private static OpIterator copy(OpIterator op, MorselQueue queue) {
+        if (op instanceof Filter) {
+            Filter f = (Filter) op;
+            return new Filter(f.getPredicate(), copy(f.getChildren()[0], queue));
+        }
+        if (op instanceof Project) {
+            Project p = (Project) op;
+            TupleDesc td = p.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++)
+                types[i] = td.getFieldType(i);
+            return new Project(p.getFieldList(), types, copy(p.getChildren()[0], queue));
+        }
+        SeqScan s = (SeqScan) op;
+        return new SeqScan(s.getTransactionId(), s.getTableId(), s.getAlias(), queue);
+    }
+}
@@ -0,0 +1,279 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * MultiAggregator computes several aggregates at once over groups formed by
+ * any number of group-by fields, so that a query with many aggregate
+ * expressions needs a single pass over its input. Each result tuple holds
+ * the group-by values, in the order of the group-by fields, followed by one
+ * int per aggregate.
+ * <p>
+ * Int fields support MIN, MAX, SUM, AVG and COUNT; string fields only COUNT.
+ * The partial-aggregate operators SUM_COUNT and SC_AVG are only supported by
+ * the single-aggregate {@link IntegerAggregator}.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] gbFields;
+    private final Type[] gbFieldTypes;
+    private final int[] aFields;
+    private final Op[] ops;
+
+    // 每个聚合一行状态，按组号下标；行数对所有聚合都一样，只存一份
+    private long[][] acc;
+    private long[] cnt = new long[16];
+    private int numGroups = 0;
+    private IntGroupTable intGroups = new IntGroupTable();// 只有一个int分组列时：值->组号
+    private HashMap<List<Field>, Integer> keyGroups = new HashMap<List<Field>, Integer>();
+    private ArrayList<List<Field>> groupKeys = new ArrayList<List<Field>>();// 组号->分组值
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple; empty
+     *            if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param what
+     *            the aggregation operator of each of afields
+     * @throws IllegalArgumentException
+     *             if an operator is not supported on its field
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] what) {
+        if (gbfields.length != gbfieldtypes.length)
+            throw new IllegalArgumentException("need one type per group-by field");
+        if (afields.length == 0 || afields.length != what.length
+                || afields.length != afieldtypes.length)
+            throw new IllegalArgumentException("need one type and operator per aggregate field");
+        for (int i = 0; i < what.length; i++) {
+            if (what[i] == Op.SUM_COUNT || what[i] == Op.SC_AVG)
+                throw new IllegalArgumentException(what[i] + " needs an IntegerAggregator");
+            if (afieldtypes[i] != Type.INT_TYPE && what[i] != Op.COUNT)
+                throw new IllegalArgumentException("only COUNT is supported on " + afieldtypes[i]);
+        }
+        this.gbFields = gbfields.clone();
+        this.gbFieldTypes = gbfieldtypes.clone();
+        this.aFields = afields.clone();
+        this.ops = what.clone();
+        this.acc = new long[ops.length][16];
+    }
+
+    private boolean intKey() {
+        return gbFields.length == 1 && gbFieldTypes[0] == Type.INT_TYPE;
+    }
+
+    /** @return the group-by values of row */
+    private List<Field> keyOf(TupleBatch batch, int row) {
+        Field[] key = new Field[gbFields.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = batch.getField(gbFields[i], row);
+            if (key[i].getType() != gbFieldTypes[i])
+                throw new IllegalArgumentException("wrong type!");
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * @return the group number of row, adding the group if it is new
+     */
+    private int groupOf(TupleBatch batch, int row) {
+        if (intKey() && batch.isIntColumn(gbFields[0]))
+            return intGroupOf(batch.getInt(gbFields[0], row));
+        if (intKey())
+            return intGroupOf(((IntField) keyOf(batch, row).get(0)).getValue());
+        List<Field> key = keyOf(batch, row);
+        Integer g = keyGroups.get(key);
+        if (g != null)
+            return g;
+        keyGroups.put(key, numGroups);
+        groupKeys.add(key);
+        newGroup();
+        return numGroups - 1;
+    }
+
+    private int intGroupOf(int v) {
+        int g = intGroups.add(v);
+        if (g == numGroups)
+            newGroup();
+        return g;
+    }
+
+    private void newGroup() {
+        if (numGroups == cnt.length) {
+            cnt = Arrays.copyOf(cnt, numGroups * 2);
+            for (int j = 0; j < acc.length; j++)
+                acc[j] = Arrays.copyOf(acc[j], numGroups * 2);
+        }
+        // MIN/MAX从极值开始，同一批里的新组不用特判第一行
+        for (int j = 0; j < ops.length; j++) {
+            if (ops[j] == Op.MIN)
+                acc[j][numGroups] = Long.MAX_VALUE;
+            else if (ops[j] == Op.MAX)
+                acc[j][numGroups] = Long.MIN_VALUE;
+        }
+        numGroups++;
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        TupleBatch batch = new TupleBatch(tup.getTupleDesc(), 1);
+        batch.addTuple(tup);
+        mergeBatchIntoGroup(batch);
+    }
+
+    /**
+     * Merge every row of a batch into the aggregate: the group of each row is
+     * looked up once, then each aggregate runs over its column.
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int n = batch.numRows();
+        int[] groups = new int[n];
+        for (int i = 0; i < n; i++)
+            groups[i] = groupOf(batch, i);
+        for (int j = 0; j < ops.length; j++) {
+            if (ops[j] == Op.COUNT)
+                continue;
+            long[] a = acc[j];
+            int[] col = batch.intColumn(aFields[j]);
+            switch (ops[j]) {
+            case MIN:
+                for (int i = 0; i < n; i++)
+                    if (col[i] < a[groups[i]])
+                        a[groups[i]] = col[i];
+                break;
+            case MAX:
+                for (int i = 0; i < n; i++)
+                    if (col[i] > a[groups[i]])
+                        a[groups[i]] = col[i];
+                break;
+            default:// SUM,AVG
+                for (int i = 0; i < n; i++)
+                    a[groups[i]] += col[i];
+                break;
+            }
+        }
+        for (int i = 0; i < n; i++)
+            cnt[groups[i]]++;
+    }
+
+    public void merge(Aggregator other) {
+        if (!(other instanceof MultiAggregator))
+            throw new IllegalArgumentException("can only merge a MultiAggregator");
+        MultiAggregator o = (MultiAggregator) other;
+        if (!Arrays.equals(o.gbFields, gbFields) || !Arrays.equals(o.aFields, aFields)
+                || !Arrays.equals(o.ops, ops))
+            throw new IllegalArgumentException("aggregators compute different aggregates");
+        for (int h = 0; h < o.numGroups; h++) {
+            int g;
+            if (intKey()) {
+                g = intGroupOf(o.intGroups.keyOf(h));
+            } else {
+                List<Field> key = o.groupKeys.get(h);
+                Integer found = keyGroups.get(key);
+                if (found == null) {
+                    keyGroups.put(key, numGroups);
+                    groupKeys.add(key);
+                    newGroup();
+                    found = numGroups - 1;
+                }
+                g = found;
+            }
+            for (int j = 0; j < ops.length; j++) {
+                if (ops[j] == Op.MIN)
+                    acc[j][g] = Math.min(acc[j][g], o.acc[j][h]);
+                else if (ops[j] == Op.MAX)
+                    acc[j][g] = Math.max(acc[j][g], o.acc[j][h]);
+                else
+                    acc[j][g] += o.acc[j][h];
+            }
+            cnt[g] += o.cnt[h];
+        }
+    }
+
+    public int numGroups() {
+        return numGroups;
+    }
+
+    public boolean hasGroup(TupleBatch batch, int row) {
+        if (intKey())
+            return intGroups.find(((IntField) batch.getField(gbFields[0], row)).getValue()) >= 0;
+        return keyGroups.containsKey(keyOf(batch, row));
+    }
+
+    /** @return the value of aggregate j for group g */
+    private int result(int j, int g) {
+        switch (ops[j]) {
+        case COUNT:
+            return (int) cnt[g];
+        case AVG:
+            return (int) (acc[j][g] / cnt[g]);
+        default:
+            return (int) acc[j][g];
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group-by values followed by
+     *         the value of each aggregate
+     */
+    public OpIterator iterator() {
+        Type[] types = new Type[gbFields.length + ops.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = i < gbFields.length ? gbFieldTypes[i] : Type.INT_TYPE;
+            names[i] = "";
+        }
+        final TupleDesc td = new TupleDesc(types, names);
+        return new OpIterator() {
+            private static final long serialVersionUID = 1L;
+            private int next = -1;// -1表示没打开
+
+            public void open() {
+                next = 0;
+            }
+
+            public boolean hasNext() {
+                if (next < 0)
+                    throw new IllegalStateException("iterator not open");
+                return next < numGroups;
+            }
+
+            public Tuple next() throws NoSuchElementException {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int g = next++;
+                Tuple t = new Tuple(td);
+                int off = gbFields.length;
+                if (intKey())
+                    t.setField(0, new IntField(intGroups.keyOf(g)));
+                else
+                    for (int i = 0; i < off; i++)
+                        t.setField(i, groupKeys.get(g).get(i));
+                for (int j = 0; j < ops.length; j++)
+                    t.setField(off + j, new IntField(result(j, g)));
+                return t;
+            }
+
+            public void rewind() {
+                next = 0;
+            }
+
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            public void close() {
+                next = -1;
+            }
+        };
+    }
+}
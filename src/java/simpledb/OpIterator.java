@@ -34,6 +34,21 @@ public interface OpIterator extends Serializable{
    */
   public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns up to {@link TupleBatch#DEFAULT_SIZE} of the next tuples as a
+   * column-oriented batch. Operators that process many tuples should
+   * override this to avoid the per-tuple overhead of hasNext/next; the
+   * default implementation adapts the tuple-at-a-time interface. Calls to
+   * nextBatch may be freely mixed with calls to next.
+   *
+   * @return the next batch of tuples, or null if there are no more tuples.
+   *         A returned batch is never empty.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    return TupleBatch.fromIterator(this, TupleBatch.DEFAULT_SIZE);
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
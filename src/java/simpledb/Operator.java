@@ -36,6 +36,46 @@ public abstract class Operator implements OpIterator {
         return result;
     }
 
+    public TupleBatch nextBatch() throws DbException,
+            TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        if (next == null)
+            return fetchNextBatch();
+
+        // hasNext已经预取了一个tuple，这一批先把它放进去，剩下的逐个取
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        batch.addTuple(next);
+        next = null;
+        Tuple t;
+        while (!batch.isFull() && (t = fetchNext()) != null)
+            batch.addTuple(t);
+        return batch;
+    }
+
+    /**
+     * Returns the next batch of tuples in the iterator, or null if the
+     * iteration is finished. Operator uses this method to implement
+     * <code>nextBatch</code>. The default implementation collects tuples from
+     * <code>fetchNext</code>; subclasses can override it to process whole
+     * batches at a time, and must then keep it consistent with
+     * <code>fetchNext</code> since callers may use both.
+     * 
+     * @return the next non-empty batch of tuples, or null if the iteration is
+     *         finished.
+     */
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch batch = null;
+        Tuple t;
+        while ((batch == null || !batch.isFull()) && (t = fetchNext()) != null) {
+            if (batch == null)
+                batch = new TupleBatch(getTupleDesc());
+            batch.addTuple(t);
+        }
+        return batch;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -3,18 +3,42 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or more
+ * fields, each ascending or descending.
+ * <p>
+ * Tuples are sorted in memory, on several threads (see {@link ParallelSort}),
+ * as long as the input fits in the memory budget. Larger inputs are sorted
+ * externally: every time the budget fills up, the buffered tuples are sorted
+ * and written to a {@link SpillFile} as a sorted run, and the runs are then
+ * merged with a {@link LoserTree}. If there are more runs than can be merged
+ * at once, groups of runs are first merged into longer runs.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of tuples an OrderBy keeps in memory */
+    public static final int DEFAULT_MEMORY_BUDGET = 100000;
+
+    /** Maximum number of runs merged in a single pass */
+    static final int MAX_FAN_IN = 64;
+
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
+    private int[] orderByFields;
+    private boolean[] ascs;
     private int orderByField;
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int memoryBudget;
+    private final TupleComparator comparator;
+
+    transient private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    transient private ArrayList<SpillFile.Reader> readers = new ArrayList<SpillFile.Reader>();
+    transient private LoserTree merge = null;
+    transient private int spilledRuns = 0;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,18 +51,65 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields, with the default
+     * memory budget.
+     * 
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param ascs
+     *            for each of orderbyFields, true if it is sorted ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, OpIterator child) {
+        this(orderbyFields, ascs, child, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     * 
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param ascs
+     *            for each of orderbyFields, true if it is sorted ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBudget
+     *            the number of tuples to keep in memory before spilling a
+     *            sorted run to disk.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] ascs, OpIterator child,
+            int memoryBudget) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length)
+            throw new IllegalArgumentException("need one sort direction per field");
+        if (memoryBudget < 1)
+            throw new IllegalArgumentException("memory budget must be positive");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.orderByField = orderbyFields[0];
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.asc = ascs[0];
+        this.memoryBudget = memoryBudget;
+        this.comparator = new TupleComparator(this.orderByFields, this.ascs);
     }
     
+    /**
+     * @return true if the most significant sort field is sorted ascending
+     */
     public boolean isASC()
     {
 	return this.asc;
     }
     
+    /**
+     * @return the most significant sort field
+     */
     public int getOrderByField()
     {
         return this.orderByField;
@@ -48,28 +119,180 @@ public class OrderBy extends Operator {
     {
 	return this.orderByFieldName;
     }
+
+    /**
+     * @return all sort fields, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return the sort direction of each of {@link #getOrderByFields()}
+     */
+    public boolean[] getAscs() {
+        return ascs.clone();
+    }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs written to disk by the last open()
+     */
+    int getSpilledRuns() {
+        return spilledRuns;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
+        childTups.clear();
+        deleteRuns();
+        spilledRuns = 0;
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            for (int i = 0; i < batch.numRows(); i++) {
+                childTups.add(batch.getTuple(i));
+                if (childTups.size() >= memoryBudget)
+                    spillRun();
+            }
+        }
+        sortInMemory();
+        if (!runs.isEmpty()) {
+            // 最后一段留在内存里，和磁盘上的run一起归并
+            mergeDown();
+            startMerge();
+        }
         it = childTups.iterator();
         super.open();
     }
 
+    /**
+     * Sort childTups. This is used both for inputs that fit in memory and for
+     * each run of an external sort.
+     */
+    private void sortInMemory() {
+        int n = childTups.size();
+        if (orderByFields.length == 1 && td.getFieldType(orderByField) == Type.INT_TYPE) {
+            // int键：把键和下标压进一个long里排序，省掉比较器
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                int v = childTups.get(i).getInt(orderByField);
+                int k = asc ? v : ~v;
+                keys[i] = ((long) k << 32) | i;
+            }
+            ParallelSort.sort(keys, n);
+            Tuple[] sorted = new Tuple[n];
+            for (int i = 0; i < n; i++)
+                sorted[i] = childTups.get((int) keys[i]);
+            childTups.clear();
+            childTups.addAll(Arrays.asList(sorted));
+        } else {
+            Tuple[] sorted = childTups.toArray(new Tuple[n]);
+            ParallelSort.sort(sorted, comparator);
+            childTups.clear();
+            childTups.addAll(Arrays.asList(sorted));
+        }
+    }
+
+    /**
+     * Sort the buffered tuples and write them to disk as a new run.
+     */
+    private void spillRun() throws DbException {
+        sortInMemory();
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        run.seal();
+        runs.add(run);
+        spilledRuns++;
+        childTups.clear();
+    }
+
+    /**
+     * Merge groups of runs into longer runs until the remaining runs and the
+     * tuples still in memory can be merged in a single pass.
+     */
+    private void mergeDown() throws DbException, TransactionAbortedException {
+        while (runs.size() + 1 > MAX_FAN_IN) {
+            List<SpillFile> group = new ArrayList<SpillFile>(runs.subList(0, MAX_FAN_IN));
+            runs.subList(0, MAX_FAN_IN).clear();
+            ArrayList<SpillFile.Reader> groupReaders = new ArrayList<SpillFile.Reader>();
+            ArrayList<LoserTree.Source> sources = new ArrayList<LoserTree.Source>();
+            for (SpillFile f : group) {
+                SpillFile.Reader r = f.reader();
+                groupReaders.add(r);
+                sources.add(source(r));
+            }
+            LoserTree tree = new LoserTree(sources, comparator);
+            SpillFile merged = new SpillFile(td);
+            Tuple t;
+            while ((t = tree.next()) != null)
+                merged.add(t);
+            merged.seal();
+            for (SpillFile.Reader r : groupReaders)
+                r.close();
+            for (SpillFile f : group)
+                f.delete();
+            // 放回被合并的那些run的位置，相等的元组才能保持输入顺序
+            runs.add(0, merged);
+        }
+    }
+
+    /**
+     * Open a reader on every run and start merging them with the tuples in
+     * memory.
+     */
+    private void startMerge() throws DbException, TransactionAbortedException {
+        closeReaders();
+        ArrayList<LoserTree.Source> sources = new ArrayList<LoserTree.Source>();
+        for (SpillFile f : runs) {
+            SpillFile.Reader r = f.reader();
+            readers.add(r);
+            sources.add(source(r));
+        }
+        final Iterator<Tuple> mem = childTups.iterator();
+        sources.add(new LoserTree.Source() {
+            public Tuple next() {
+                return mem.hasNext() ? mem.next() : null;
+            }
+        });
+        merge = new LoserTree(sources, comparator);
+    }
+
+    private static LoserTree.Source source(final SpillFile.Reader r) {
+        return new LoserTree.Source() {
+            public Tuple next() throws DbException {
+                return r.next();
+            }
+        };
+    }
+
+    private void closeReaders() {
+        for (SpillFile.Reader r : readers)
+            r.close();
+        readers.clear();
+        merge = null;
+    }
+
+    private void deleteRuns() {
+        closeReaders();
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
+    }
+
     public void close() {
         super.close();
         it = null;
+        deleteRuns();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        if (!runs.isEmpty())
+            startMerge();
         it = childTups.iterator();
     }
 
@@ -82,6 +305,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null)
+            return merge.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -101,23 +326,45 @@ public class OrderBy extends Operator {
 }
 
 class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    int[] fields;
+    boolean[] ascs;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * Compare tuples on fields in turn, the first one being the most
+     * significant; ascs[i] gives the direction of fields[i].
+     */
+    public TupleComparator(int[] fields, boolean[] ascs) {
+        this.fields = fields;
+        this.ascs = ascs;
     }
 
     public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c = compareField(o1, o2, fields[i]);
+            if (c != 0)
+                return ascs[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    private static int compareField(Tuple o1, Tuple o2, int field) {
         Field t1 = (o1).getField(field);
         Field t2 = (o2).getField(field);
+        if (t1 instanceof IntField) {
+            // int keys: a single primitive comparison instead of two
+            // virtual Field.compare calls
+            return Integer.compare(((IntField) t1).getValue(), o2.getInt(field));
+        }
         if (t1.compare(Predicate.Op.EQUALS, t2))
             return 0;
         if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
+            return 1;
         else
-            return asc ? -1 : 1;
+            return -1;
     }
     
 }
@@ -0,0 +1,258 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelSort sorts arrays with a fork/join merge sort: the array is split
+ * into chunks that are sorted in parallel, and sorted halves are merged by
+ * splitting the merge itself into independent parts that run in parallel.
+ * Arrays of fewer than {@link #SEQUENTIAL_THRESHOLD} elements, and all
+ * arrays when the parallelism is 1, are sorted on the calling thread.
+ * <p>
+ * Sorting objects is stable, like {@link Arrays#sort(Object[], Comparator)}.
+ */
+public class ParallelSort {
+
+    /** Chunks of at most this many elements are sorted sequentially */
+    public static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+    private static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Set the number of threads used for sorting. 1 disables parallel
+     * sorting.
+     */
+    public static synchronized void setParallelism(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        if (pool != ForkJoinPool.commonPool())
+            pool.shutdown();
+        pool = threads == ForkJoinPool.getCommonPoolParallelism() ? ForkJoinPool
+                .commonPool() : new ForkJoinPool(threads);
+    }
+
+    /** @return the number of threads used for sorting */
+    public static synchronized int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    private static synchronized ForkJoinPool pool() {
+        return pool;
+    }
+
+    /**
+     * Sort a[0, n) in ascending order.
+     */
+    public static void sort(long[] a, int n) {
+        ForkJoinPool p = pool();
+        if (n < 2 * SEQUENTIAL_THRESHOLD || p.getParallelism() == 1) {
+            Arrays.sort(a, 0, n);
+            return;
+        }
+        p.invoke(new LongSorter(a, new long[n], 0, n));
+    }
+
+    /**
+     * Sort a according to cmp. The sort is stable.
+     */
+    public static <T> void sort(T[] a, Comparator<? super T> cmp) {
+        ForkJoinPool p = pool();
+        if (a.length < 2 * SEQUENTIAL_THRESHOLD || p.getParallelism() == 1) {
+            Arrays.sort(a, cmp);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        T[] tmp = (T[]) new Object[a.length];
+        p.invoke(new Sorter<T>(a, tmp, 0, a.length, cmp));
+    }
+
+    /**
+     * Sort a[lo, hi), using tmp[lo, hi) as scratch space.
+     */
+    private static class Sorter<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final T[] a, tmp;
+        final int lo, hi;
+        final Comparator<? super T> cmp;
+
+        Sorter(T[] a, T[] tmp, int lo, int hi, Comparator<? super T> cmp) {
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+            this.cmp = cmp;
+        }
+
+        protected void compute() {
+            if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+                Arrays.sort(a, lo, hi, cmp);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Sorter<T>(a, tmp, lo, mid, cmp),
+                    new Sorter<T>(a, tmp, mid, hi, cmp));
+            // 两半归并到tmp，再拷回来
+            new Merger<T>(a, lo, mid, mid, hi, tmp, lo, cmp).compute();
+            System.arraycopy(tmp, lo, a, lo, hi - lo);
+        }
+    }
+
+    /**
+     * Merge the sorted runs src[lo1, hi1) and src[lo2, hi2) into dst
+     * starting at d. Equal elements of the first run come first.
+     */
+    private static class Merger<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final T[] src, dst;
+        final int lo1, hi1, lo2, hi2, d;
+        final Comparator<? super T> cmp;
+
+        Merger(T[] src, int lo1, int hi1, int lo2, int hi2, T[] dst, int d,
+                Comparator<? super T> cmp) {
+            this.src = src;
+            this.lo1 = lo1;
+            this.hi1 = hi1;
+            this.lo2 = lo2;
+            this.hi2 = hi2;
+            this.dst = dst;
+            this.d = d;
+            this.cmp = cmp;
+        }
+
+        protected void compute() {
+            int n1 = hi1 - lo1, n2 = hi2 - lo2;
+            if (n1 + n2 <= SEQUENTIAL_THRESHOLD) {
+                int i = lo1, j = lo2, k = d;
+                while (i < hi1 && j < hi2)
+                    dst[k++] = cmp.compare(src[j], src[i]) < 0 ? src[j++] : src[i++];
+                while (i < hi1)
+                    dst[k++] = src[i++];
+                while (j < hi2)
+                    dst[k++] = src[j++];
+                return;
+            }
+            // 在较长的一段取中点，在另一段二分找切分位置，两边独立归并
+            int m1, m2;
+            if (n1 >= n2) {
+                m1 = (lo1 + hi1) >>> 1;
+                m2 = lowerBound(src[m1], lo2, hi2);
+            } else {
+                m2 = (lo2 + hi2) >>> 1;
+                m1 = upperBound(src[m2], lo1, hi1);
+            }
+            int dm = d + (m1 - lo1) + (m2 - lo2);
+            invokeAll(new Merger<T>(src, lo1, m1, lo2, m2, dst, d, cmp),
+                    new Merger<T>(src, m1, hi1, m2, hi2, dst, dm, cmp));
+        }
+
+        /** @return the first index in [lo, hi) whose element is not less than x */
+        private int lowerBound(T x, int lo, int hi) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cmp.compare(src[mid], x) < 0)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        /** @return the first index in [lo, hi) whose element is greater than x */
+        private int upperBound(T x, int lo, int hi) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cmp.compare(src[mid], x) <= 0)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Sort a[lo, hi), using tmp[lo, hi) as scratch space.
+     */
+    private static class LongSorter extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final long[] a, tmp;
+        final int lo, hi;
+
+        LongSorter(long[] a, long[] tmp, int lo, int hi) {
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+                Arrays.sort(a, lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new LongSorter(a, tmp, lo, mid), new LongSorter(a, tmp, mid, hi));
+            new LongMerger(a, lo, mid, mid, hi, tmp, lo).compute();
+            System.arraycopy(tmp, lo, a, lo, hi - lo);
+        }
+    }
+
+    /**
+     * Merge the sorted runs src[lo1, hi1) and src[lo2, hi2) into dst
+     * starting at d.
+     */
+    private static class LongMerger extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final long[] src, dst;
+        final int lo1, hi1, lo2, hi2, d;
+
+        LongMerger(long[] src, int lo1, int hi1, int lo2, int hi2, long[] dst, int d) {
+            this.src = src;
+            this.lo1 = lo1;
+            this.hi1 = hi1;
+            this.lo2 = lo2;
+            this.hi2 = hi2;
+            this.dst = dst;
+            this.d = d;
+        }
+
+        protected void compute() {
+            int n1 = hi1 - lo1, n2 = hi2 - lo2;
+            if (n1 + n2 <= SEQUENTIAL_THRESHOLD) {
+                int i = lo1, j = lo2, k = d;
+                while (i < hi1 && j < hi2)
+                    dst[k++] = src[j] < src[i] ? src[j++] : src[i++];
+                while (i < hi1)
+                    dst[k++] = src[i++];
+                while (j < hi2)
+                    dst[k++] = src[j++];
+                return;
+            }
+            int m1, m2;
+            if (n1 >= n2) {
+                m1 = (lo1 + hi1) >>> 1;
+                m2 = bound(src[m1], lo2, hi2);
+            } else {
+                m2 = (lo2 + hi2) >>> 1;
+                m1 = bound(src[m2], lo1, hi1);
+            }
+            int dm = d + (m1 - lo1) + (m2 - lo2);
+            invokeAll(new LongMerger(src, lo1, m1, lo2, m2, dst, d),
+                    new LongMerger(src, m1, hi1, m2, hi2, dst, dm));
+        }
+
+        /** @return the first index in [lo, hi) whose element is not less than x */
+        private int bound(long x, int lo, int hi) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (src[mid] < x)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+}
@@ -48,6 +48,9 @@ public class Predicate implements Serializable {
     private int numOfField;//在tuple中的位置
     private Op opForCom;//比较的符号
     private Field operand;//要在tuple中进行比较的字段的值
+    // operand是IntField时直接拿int比，不走Field.compare
+    private final boolean isIntOperand;
+    private final int intOperand;
     
     /**
      * Constructor.
@@ -64,6 +67,8 @@ public class Predicate implements Serializable {
     	this.numOfField=field;
     	this.opForCom=op;
     	this.operand=operand;
+    	this.isIntOperand=operand instanceof IntField;
+    	this.intOperand=isIntOperand?((IntField)operand).getValue():0;
     }
 
     /**
@@ -105,9 +110,57 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
+        if(isIntOperand)
+        	return IntField.compare(opForCom, t.getInt(numOfField), intOperand);
         return t.getField(numOfField).compare(opForCom, operand);//用t去比较operand，交换会出错？可能number不对？
     }
 
+    /**
+     * Apply this predicate to a primitive int value of the predicate's field.
+     * Only valid when the operand is an {@link IntField}.
+     *
+     * @param v
+     *            the value of field {@link #getField()} of some tuple
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(int v) {
+        return IntField.compare(opForCom, v, intOperand);
+    }
+
+    /**
+     * Apply this predicate to every row of a batch.
+     *
+     * @param batch
+     *            the rows to compare against
+     * @param sel
+     *            filled in with the indexes of the rows that pass, in
+     *            increasing order; must have room for batch.numRows() entries
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] sel) {
+        int n=0;
+        if(isIntOperand&&batch.isIntColumn(numOfField)) {
+        	// 直接在int列上比较，不构造field
+        	int[] col=batch.intColumn(numOfField);
+        	for(int i=0;i<batch.numRows();i++)
+        		if(IntField.compare(opForCom, col[i], intOperand))
+        			sel[n++]=i;
+        	return n;
+        }
+        for(int i=0;i<batch.numRows();i++)
+        	if(batch.getField(numOfField, i).compare(opForCom, operand))
+        		sel[n++]=i;
+        return n;
+    }
+
+    /**
+     * @return true if the operand is an {@link IntField}, so that
+     *         {@link #filter(int)} can be used.
+     */
+    public boolean isIntPredicate() {
+        return isIntOperand;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
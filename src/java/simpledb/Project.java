@@ -41,6 +41,11 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /** @return the ids of the child's fields that are projected out */
+    public ArrayList<Integer> getFieldList() {
+        return new ArrayList<Integer>(outFieldIds);
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -80,6 +85,17 @@ public class Project extends Operator {
         return null;
     }
 
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException,
+            DbException {
+        TupleBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        int[] cols = new int[outFieldIds.size()];
+        for (int i = 0; i < cols.length; i++)
+            cols[i] = outFieldIds.get(i);
+        return batch.project(cols, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
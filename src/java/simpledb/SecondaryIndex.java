@@ -0,0 +1,444 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A secondary index on one or more fields of a table stored in a
+ * {@link HeapFile}. It is a B+ tree, kept in its own {@link BTreeFile}, whose
+ * tuples are entries (key fields..., included fields..., page number, slot
+ * number) pointing at the tuples of the table; the tree is keyed on the key
+ * fields followed by the page and slot numbers, so every entry has a key of
+ * its own, and it can be searched with an {@link IndexPredicate} on the key
+ * fields like any BTreeFile. Included fields are only stored in the entries: an index
+ * covering all the fields a query reads answers it with an
+ * {@link #indexOnlyIterator index-only scan}, without reading the table.
+ * <p>
+ * Indexes are registered with {@link Catalog#addIndex}, which lets the
+ * BufferPool read their pages, and are kept up to date by
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple} under the
+ * same transaction as the change to the table.
+ */
+public class SecondaryIndex {
+
+    /**
+     * Number of entries read from the index before the tuples they point to
+     * are fetched, in page order
+     */
+    public static final int FETCH_BATCH = 4096;
+
+    /** Suffix of the file, next to the file of an index, that records what the index was built from */
+    static final String FINGERPRINT_SUFFIX = ".fp";
+
+    private final int tableid;
+    private final int[] fields;
+    private final int[] included;
+    private final BTreeFile file;
+    private final TupleDesc coveredDesc;
+
+    /**
+     * Open an existing index.
+     *
+     * @param f the file holding the B+ tree of the index
+     * @param table the indexed table
+     * @param field the index of the indexed field
+     */
+    public SecondaryIndex(File f, HeapFile table, int field) {
+        this(f, table, new int[] { field }, new int[0]);
+    }
+
+    /**
+     * Open an existing index on several fields, possibly covering others.
+     *
+     * @param f the file holding the B+ tree of the index
+     * @param table the indexed table
+     * @param fields the indexes of the key fields, most significant first
+     * @param included the indexes of other fields stored in the entries
+     */
+    public SecondaryIndex(File f, HeapFile table, int[] fields, int[] included) {
+        this.tableid = table.getId();
+        this.fields = fields.clone();
+        this.included = included.clone();
+        TupleDesc td = table.getTupleDesc();
+        int n = fields.length + included.length;
+        Type[] types = new Type[n + 2];
+        String[] names = new String[n + 2];
+        int[] keys = new int[fields.length + 2];
+        for (int i = 0; i < n; i++) {
+            int field = i < fields.length ? fields[i] : included[i - fields.length];
+            types[i] = td.getFieldType(field);
+            names[i] = td.getFieldName(field);
+        }
+        for (int i = 0; i < fields.length; i++)
+            keys[i] = i;
+        // 页号和槽号也是键的一部分，每个条目的键都不同，删除时能直接找到
+        keys[fields.length] = n;
+        keys[fields.length + 1] = n + 1;
+        types[n] = types[n + 1] = Type.INT_TYPE;
+        names[n] = "page";
+        names[n + 1] = "slot";
+        this.file = new BTreeFile(f, keys, new TupleDesc(types, names));
+        // 索引里存的列按表里的顺序排，作为仅索引扫描的输出
+        ArrayList<Type> ctypes = new ArrayList<Type>();
+        ArrayList<String> cnames = new ArrayList<String>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (covers(i)) {
+                ctypes.add(td.getFieldType(i));
+                cnames.add(td.getFieldName(i));
+            }
+        }
+        this.coveredDesc = new TupleDesc(ctypes.toArray(new Type[0]), cnames.toArray(new String[0]));
+    }
+
+    /**
+     * Build an index on field of a table from the contents of the table on
+     * disk, replacing whatever f held, and add it to the catalog, which must
+     * be able to find the file before its pages are written. The pages of the
+     * table are read straight from its file, so changes of running
+     * transactions are not indexed; build indexes before the table is
+     * modified, as {@link Catalog#loadSchema} does.
+     *
+     * @param f the file to write the B+ tree of the index to
+     * @param table the indexed table
+     * @param field the index of the indexed field
+     * @return the index
+     */
+    public static SecondaryIndex build(File f, HeapFile table, int field) throws IOException, DbException {
+        return build(f, table, new int[] { field }, new int[0]);
+    }
+
+    /**
+     * Build an index on several fields of a table, possibly covering others.
+     * @see #build(File, HeapFile, int)
+     *
+     * @param fields the indexes of the key fields, most significant first
+     * @param included the indexes of other fields stored in the entries
+     */
+    public static SecondaryIndex build(File f, HeapFile table, int[] fields, int[] included)
+            throws IOException, DbException {
+        new FileOutputStream(f).close();// 清空文件
+        final SecondaryIndex index = new SecondaryIndex(f, table, fields, included);
+        Database.getCatalog().addIndex(index);
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        for (int i = 0; i < table.numPages(); i++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), i));
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext())
+                entries.add(index.entry(it.next()));
+        }
+        Collections.sort(entries, new BTreeFileEncoder.TupleComparator(index.file.keyFields()));
+        TupleDesc td = index.file.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = td.getFieldType(i);
+        BTreeFileEncoder.bulkLoad(index.file, entries, BufferPool.getPageSize(), types,
+                index.file.keyFields());
+        return index;
+    }
+
+    /**
+     * Record, in a file next to f, the length and modification time of the
+     * data file of table, which the index in f was just built from.
+     *
+     * @see #isCurrent(File, HeapFile)
+     */
+    static void writeFingerprint(File f, HeapFile table) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(fingerprintFile(f)));
+        try {
+            out.writeLong(table.getFile().length());
+            out.writeLong(table.getFile().lastModified());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return true if the index in f was built from the current contents of
+     *         table: its data file has the length and modification time
+     *         recorded by {@link #writeFingerprint}
+     */
+    static boolean isCurrent(File f, HeapFile table) {
+        File fp = fingerprintFile(f);
+        if (f.length() == 0 || !fp.exists())
+            return false;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(fp));
+            try {
+                return in.readLong() == table.getFile().length()
+                        && in.readLong() == table.getFile().lastModified();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static File fingerprintFile(File f) {
+        return new File(f.getPath() + FINGERPRINT_SUFFIX);
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the index of the indexed field, the first if there are several */
+    public int getField() {
+        return fields[0];
+    }
+
+    /** @return the indexes of the key fields, most significant first */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /** @return the indexes of the fields stored in the entries besides the key */
+    public int[] getIncluded() {
+        return included.clone();
+    }
+
+    /** @return true if the entries store field, as a key field or an included one */
+    public boolean covers(int field) {
+        for (int f : fields)
+            if (f == field)
+                return true;
+        for (int f : included)
+            if (f == field)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return the schema of the tuples of an index-only scan: the fields the
+     *         index covers, in the order of the table
+     */
+    public TupleDesc getCoveredDesc() {
+        return coveredDesc;
+    }
+
+    /** @return the BTreeFile holding the entries of the index */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /** @return the number of pages of the index */
+    public int numPages() {
+        return file.numPages();
+    }
+
+    /** @see BTreeFile#estimateHeight */
+    public int estimateHeight() {
+        return file.estimateHeight();
+    }
+
+    /** @return the entry of the index pointing at t, which must be stored in the table */
+    private Tuple entry(Tuple t) {
+        Tuple e = new Tuple(file.getTupleDesc());
+        RecordId rid = t.getRecordId();
+        for (int i = 0; i < fields.length; i++)
+            e.setField(i, t.getField(fields[i]));
+        for (int i = 0; i < included.length; i++)
+            e.setField(fields.length + i, t.getField(included[i]));
+        e.setField(fields.length + included.length, new IntField(rid.getPageId().getPageNumber()));
+        e.setField(fields.length + included.length + 1, new IntField(rid.getTupleNumber()));
+        return e;
+    }
+
+    /** @return the position in the entries of field, which this index covers */
+    private int position(int field) {
+        for (int i = 0; i < fields.length; i++)
+            if (fields[i] == field)
+                return i;
+        for (int i = 0; i < included.length; i++)
+            if (included[i] == field)
+                return fields.length + i;
+        throw new NoSuchElementException("field " + field + " is not covered by " + this);
+    }
+
+    private int page(Tuple entry) {
+        return ((IntField) entry.getField(fields.length + included.length)).getValue();
+    }
+
+    private int slot(Tuple entry) {
+        return ((IntField) entry.getField(fields.length + included.length + 1)).getValue();
+    }
+
+    /**
+     * Add the entry of t, which has just been inserted into the table.
+     *
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return file.insertTuple(tid, entry(t));
+    }
+
+    /**
+     * Remove the entry of t, which has just been deleted from the table.
+     *
+     * @return the pages of the index that were modified
+     * @throws DbException if the index has no entry for t
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        // 键里有页号和槽号，只会找到t的这一个条目
+        DbFileIterator it = file.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, file.getKey(entry(t))));
+        it.open();
+        Tuple found = it.hasNext() ? it.next() : null;
+        it.close();
+        if (found == null)
+            throw new DbException("no index entry for " + t.getRecordId());
+        return file.deleteTuple(tid, found);
+    }
+
+    /**
+     * Get an iterator over the tuples of the table whose indexed field
+     * satisfies ipred. Entries are read from the index {@link #FETCH_BATCH}
+     * at a time and the tuples they point to are fetched in page order, so
+     * each page of the table is read at most once per batch; tuples are
+     * therefore not returned in key order. Each fetched tuple is checked
+     * against ipred again, so an entry that does not match the table any
+     * more is skipped. Read locks are taken on the pages of both the index
+     * and the table.
+     */
+    public DbFileIterator iterator(TransactionId tid, IndexPredicate ipred) {
+        return new SecondaryIndexIterator(tid, ipred);
+    }
+
+    /**
+     * Get an iterator over the fields this index covers of the tuples of the
+     * table whose key satisfies ipred, read from the entries alone, in key
+     * order. The tuples have the schema {@link #getCoveredDesc} and the
+     * record ids of the tuples of the table. Only read locks on the pages of
+     * the index are taken.
+     *
+     * @param ipred the predicate on the key, or null for all the tuples
+     */
+    public DbFileIterator indexOnlyIterator(TransactionId tid, IndexPredicate ipred) {
+        final DbFileIterator entries = ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+        final TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        // 输出的每一列在条目里的位置
+        final int[] from = new int[coveredDesc.numFields()];
+        for (int i = 0, j = 0; i < td.numFields(); i++) {
+            if (covers(i))
+                from[j++] = position(i);
+        }
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                entries.open();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!entries.hasNext())
+                    return null;
+                Tuple e = entries.next();
+                Tuple t = new Tuple(coveredDesc);
+                for (int i = 0; i < from.length; i++)
+                    t.setField(i, e.getField(from[i]));
+                t.setRecordId(new RecordId(new HeapPageId(tableid, page(e)), slot(e)));
+                return t;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                entries.close();
+            }
+        };
+    }
+
+    private class SecondaryIndexIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private final DbFileIterator entries;
+        private long[] rids = new long[0];// 页号和槽号压进一个long，排序后就是页的顺序
+        private int n, pos;
+
+        SecondaryIndexIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+            this.entries = file.indexIterator(tid, ipred);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            entries.open();
+            n = pos = 0;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (pos < n) {
+                    long rid = rids[pos++];
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(tableid, (int) (rid >>> 32)), Permissions.READ_ONLY);
+                    Tuple t = page.getTuple((int) rid);
+                    if (t != null && matches(t))
+                        return t;
+                    continue;
+                }
+                if (!entries.hasNext())
+                    return null;
+                if (rids.length == 0)
+                    rids = new long[FETCH_BATCH];
+                n = pos = 0;
+                while (n < FETCH_BATCH && entries.hasNext()) {
+                    Tuple e = entries.next();
+                    rids[n++] = ((long) page(e) << 32) | slot(e);
+                }
+                Arrays.sort(rids, 0, n);
+            }
+        }
+
+        /** @return true if the key fields of t, a tuple of the table, satisfy ipred */
+        private boolean matches(Tuple t) {
+            Field[] key = new Field[fields.length];
+            for (int i = 0; i < key.length; i++)
+                key[i] = t.getField(fields[i]);
+            Field k = key.length == 1 ? key[0] : new CompositeField(key);
+            return k.compare(ipred.getOp(), ipred.getField())
+                    && (ipred.getPrefix() == null || k.compare(Predicate.Op.EQUALS, ipred.getPrefix()));
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            entries.close();
+            n = pos = 0;
+        }
+    }
+
+    public String toString() {
+        TupleDesc td = file.getTupleDesc();
+        StringBuilder sb = new StringBuilder("SecondaryIndex(" + Database.getCatalog().getTableName(tableid) + ".");
+        for (int i = 0; i < fields.length + included.length; i++) {
+            if (i == fields.length)
+                sb.append(" include ");
+            else if (i > 0)
+                sb.append(",");
+            sb.append(td.getFieldName(i));
+        }
+        return sb.append(")").toString();
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SecondaryIndexScan reads the tuples of a heap table whose indexed field
+ * satisfies an index predicate, by searching a {@link SecondaryIndex} on the
+ * field and fetching the tuples its entries point to. Tuples are returned in
+ * no particular order. An index-only scan reads the entries alone and returns
+ * only the fields the index covers, in key order.
+ */
+public class SecondaryIndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final IndexPredicate ipred;
+    private final String alias;
+    private final boolean indexOnly;
+    private final TupleDesc td;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a scan of the tuples of the table of index that satisfy ipred,
+     * as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to search
+     * @param tableAlias
+     *            the alias of the table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName
+     * @param ipred
+     *            The predicate on the indexed field to match.
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred) {
+        this(tid, index, tableAlias, ipred, false);
+    }
+
+    /**
+     * Creates a scan of the tuples of the table of index that satisfy ipred.
+     *
+     * @param indexOnly
+     *            if true, read the entries of the index alone: the returned
+     *            tupleDesc has only the fields the index covers, and ipred
+     *            may be null to return all the tuples
+     * @see #SecondaryIndexScan(TransactionId, SecondaryIndex, String, IndexPredicate)
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+            IndexPredicate ipred, boolean indexOnly) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.alias = tableAlias;
+        this.indexOnly = indexOnly;
+        TupleDesc base = indexOnly ? index.getCoveredDesc()
+                : Database.getCatalog().getTupleDesc(index.getTableId());
+        Type[] types = new Type[base.numFields()];
+        String[] names = new String[base.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = base.getFieldType(i);
+            names[i] = tableAlias + "." + base.getFieldName(i);
+        }
+        this.td = new TupleDesc(types, names);
+        this.it = indexOnly ? index.indexOnlyIterator(tid, ipred) : index.iterator(tid, ipred);
+    }
+
+    /**
+     * @return the table name of the table the operator scans, as in the
+     *         catalog of the database
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return index.getTableId();
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return alias;
+    }
+
+    /** @return the index this operator searches */
+    public SecondaryIndex getIndex() {
+        return index;
+    }
+
+    /** @return the predicate on the indexed field, null for a full index-only scan */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /** @return true if this scan reads the entries of the index alone */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException,
+            DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -23,6 +23,7 @@ public class SeqScan implements OpIterator {
     //非叶节点，上层迭代器！
     //只需要拿回一个文件迭代器就行，其余的交给下面做！
     DbFileIterator itrator;
+    private MorselQueue morsels;// 不为null时只扫描从这里领到的页
     
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -62,6 +63,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the transaction this operator scans on behalf of
+     * */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     * */
+    public int getTableId() {
+        return tableId;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -96,11 +111,38 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a scan of the pages this scan claims from a MorselQueue over
+     * the table. Several such scans sharing a queue together read the table
+     * once, each from its own thread; see {@link MorselQueue#split}. A morsel
+     * scan cannot be rewound.
+     *
+     * @param morsels
+     *            the queue to take pages from; its file must be the table's
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, MorselQueue morsels) {
+        this(tid, tableid, tableAlias);
+        if (morsels.getFile().getId() != tableid)
+            throw new IllegalArgumentException("morsels of another table");
+        this.morsels = morsels;
+    }
+
+    /**
+     * @return the queue this scan takes its pages from, or null if it scans
+     *         the whole table
+     */
+    public MorselQueue getMorselQueue() {
+        return morsels;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
 //    	cursor=0;
 //   	HeapPageId temp=new HeapPageId(tableId,cursor);//读table的cursor页
-    	itrator=Database.getCatalog().getDatabaseFile(tableId).iterator(tid);//DbFile.iterator()
+    	if(morsels!=null)
+    		itrator=morsels.iterator(tid);
+    	else
+    		itrator=Database.getCatalog().getDatabaseFile(tableId).iterator(tid);//DbFile.iterator()
     	itrator.open();
     }
 
@@ -150,6 +192,14 @@ public class SeqScan implements OpIterator {
         return itrator.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	if(itrator==null)
+    		throw new IllegalStateException("unopen");
+    	TupleBatch batch=new TupleBatch(getTupleDesc());
+    	itrator.fillBatch(batch);// 由file直接从page里填
+    	return batch.isEmpty()?null:batch;
+    }
+
     public void close() {
         // some code goes here
     	//itrator.close();// joinTest报错
@@ -0,0 +1,247 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs that are sorted in ascending order on their
+ * join fields. It supports equality and the range predicates (&lt;, &lt;=,
+ * &gt;, &gt;=). Inputs that are already in order (see {@link #isSortedOn})
+ * are merged directly; any other input is sorted with an {@link OrderBy}
+ * first.
+ * <p>
+ * The right input is read once. Only the part of it that can still match
+ * later left tuples is buffered: for equality this is the current run of
+ * equal keys, for &lt; and &lt;= the suffix above the current left key, and
+ * for &gt; and &gt;= the prefix below it.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate pred;
+    private OpIterator child1, child2;
+    private OpIterator left, right;// 排好序的输入
+    private TupleDesc comboTD;
+
+    transient private ArrayList<Tuple> buf = new ArrayList<Tuple>();
+    transient private int lo, hi, pos;
+    transient private Tuple cur = null;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be one for which {@link #supports} is true
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join does not support "
+                    + p.getOperator());
+        this.pred = p;
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return true if a SortMergeJoin can evaluate predicates with op
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return true if it returns its tuples in ascending order of field. This
+     *         is the case for scans of a {@link BTreeFile} keyed on field,
+     *         an ascending {@link OrderBy} on field, a {@link Filter} over
+     *         such an input and a SortMergeJoin on its left field.
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy ob = (OrderBy) it;
+            return ob.isASC() && ob.getOrderByField() == field;
+        } else if (it instanceof BTreeScan) {
+            return keyFieldOf(((BTreeScan) it).getTableId()) == field;
+        } else if (it instanceof SeqScan) {
+            // BTreeFile的iterator本身就是按key顺序的
+            return keyFieldOf(((SeqScan) it).getTableId()) == field;
+        } else if (it instanceof Filter) {
+            return isSortedOn(((Filter) it).getChildren()[0], field);
+        } else if (it instanceof SortMergeJoin) {
+            return ((SortMergeJoin) it).pred.getField1() == field;
+        }
+        return false;
+    }
+
+    /**
+     * @return the key field of table tableId if it is stored in a
+     *         {@link BTreeFile}, or -1
+     */
+    static int keyFieldOf(int tableId) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        return f instanceof BTreeFile ? ((BTreeFile) f).keyField() : -1;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left.open();
+        right.open();
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        left.close();
+        right.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        reset();
+    }
+
+    private void reset() {
+        buf = new ArrayList<Tuple>();
+        lo = hi = pos = 0;
+        cur = null;
+    }
+
+    /**
+     * Make sure buf holds at least i+1 tuples, reading more of the right
+     * input if needed.
+     *
+     * @return false if the right input has fewer tuples
+     */
+    private boolean fill(int i) throws DbException, TransactionAbortedException {
+        while (buf.size() <= i && right.hasNext())
+            buf.add(right.next());
+        return buf.size() > i;
+    }
+
+    /** @return the join key of buffered right tuple i */
+    private Field key(int i) {
+        return buf.get(i).getField(pred.getField2());
+    }
+
+    /**
+     * Move lo and hi so that buf[lo, hi) are exactly the right tuples that
+     * match the left key k. Both only ever move forward because the left keys
+     * arrive in ascending order.
+     */
+    private void advance(Field k) throws DbException, TransactionAbortedException {
+        switch (pred.getOperator()) {
+        case EQUALS:
+            while (fill(lo) && key(lo).compare(Predicate.Op.LESS_THAN, k))
+                lo++;
+            hi = Math.max(hi, lo);
+            while (fill(hi) && key(hi).compare(Predicate.Op.LESS_THAN_OR_EQ, k))
+                hi++;
+            break;
+        case LESS_THAN:// k < r：匹配的是后缀
+            while (fill(lo) && key(lo).compare(Predicate.Op.LESS_THAN_OR_EQ, k))
+                lo++;
+            while (fill(buf.size()))
+                ;
+            hi = buf.size();
+            break;
+        case LESS_THAN_OR_EQ:
+            while (fill(lo) && key(lo).compare(Predicate.Op.LESS_THAN, k))
+                lo++;
+            while (fill(buf.size()))
+                ;
+            hi = buf.size();
+            break;
+        case GREATER_THAN:// k > r：匹配的是前缀
+            while (fill(hi) && key(hi).compare(Predicate.Op.LESS_THAN, k))
+                hi++;
+            break;
+        case GREATER_THAN_OR_EQ:
+            while (fill(hi) && key(hi).compare(Predicate.Op.LESS_THAN_OR_EQ, k))
+                hi++;
+            break;
+        default:
+            throw new IllegalStateException();
+        }
+        // 前面的tuple以后不会再匹配了，丢掉
+        if (lo >= 1024 && lo * 2 >= buf.size()) {
+            buf.subList(0, lo).clear();
+            hi -= lo;
+            lo = 0;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples are returned in the order of the left input,
+     * and for each left tuple in the order of the right input.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (cur != null && pos < hi) {
+                Tuple t2 = buf.get(pos++);
+                int td1n = cur.getTupleDesc().numFields();
+                Tuple t = new Tuple(comboTD);
+                for (int i = 0; i < td1n; i++)
+                    t.setField(i, cur.getField(i));
+                for (int i = 0; i < t2.getTupleDesc().numFields(); i++)
+                    t.setField(td1n + i, t2.getField(i));
+                return t;
+            }
+            if (!left.hasNext())
+                return null;
+            cur = left.next();
+            advance(cur.getField(pred.getField1()));
+            pos = lo;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        // 没排好序的输入先排序
+        this.left = isSortedOn(child1, pred.getField1()) ? child1
+                : new OrderBy(pred.getField1(), true, child1);
+        this.right = isSortedOn(child2, pred.getField2()) ? child2
+                : new OrderBy(pred.getField2(), true, child2);
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
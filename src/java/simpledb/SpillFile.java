@@ -0,0 +1,232 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SpillFile is an append-only temporary file of tuples, used by operators
+ * that have to move intermediate results out of memory. Tuples are written
+ * in a compact form (ints as 4 bytes, strings length-prefixed rather than
+ * padded to {@link Type#STRING_LEN}) and are read back in the order they
+ * were added. RecordIds are not preserved.
+ * <p>
+ * A SpillFile is written first and read afterwards: {@link #seal()} or the
+ * first call to {@link #reader()} ends the writing phase. The file can then be read any
+ * number of times until {@link #delete()} is called. The file on disk is only
+ * created when the first tuple is added, so a SpillFile that stays empty
+ * costs nothing.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private File file;// 第一次写的时候才创建
+    private DataOutputStream out;
+    private boolean sealed;
+    private int size;
+
+    /**
+     * Create a new, empty spill file. The file itself is created in the
+     * default temporary directory when the first tuple is added.
+     *
+     * @param td the schema of the tuples that will be written
+     */
+    public SpillFile(TupleDesc td) {
+        this.td = td;
+    }
+
+    /**
+     * @return the stream to append tuples to, creating the file if this is
+     *         the first tuple
+     * @throws IllegalStateException if the file is already being read
+     */
+    private DataOutputStream out() throws DbException {
+        if (sealed)
+            throw new IllegalStateException("spill file already sealed");
+        if (out == null) {
+            try {
+                file = File.createTempFile("simpledb", ".spill");
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file), 1 << 16));
+            } catch (IOException e) {
+                throw new DbException("could not create spill file: " + e.getMessage());
+            }
+        }
+        return out;
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written to this file */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of bytes written to this file so far */
+    public long bytes() {
+        if (out != null)
+            return out.size();
+        return file != null ? file.length() : 0;
+    }
+
+    /**
+     * Append a tuple to the file.
+     *
+     * @throws IllegalStateException if the file is already being read
+     */
+    public void add(Tuple t) throws DbException {
+        DataOutputStream out = out();
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    out.writeInt(((IntField) t.getField(i)).getValue());
+                else
+                    out.writeUTF(((StringField) t.getField(i)).getValue());
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * Append one row of a batch to the file.
+     *
+     * @throws IllegalStateException if the file is already being read
+     */
+    public void add(TupleBatch batch, int row) throws DbException {
+        DataOutputStream out = out();
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (batch.isIntColumn(i))
+                    out.writeInt(batch.getInt(i, row));
+                else
+                    out.writeUTF(((StringField) batch.getField(i, row)).getValue());
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * End the writing phase and release the file handle used for writing.
+     * No more tuples can be added afterwards.
+     */
+    public void seal() throws DbException {
+        sealed = true;
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * Seal the file and open a reader positioned at the first tuple.
+     */
+    public Reader reader() throws DbException {
+        seal();
+        if (file == null)// 什么都没写过
+            return new Reader(new DataInputStream(new ByteArrayInputStream(new byte[0])));
+        try {
+            return new Reader(new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 1 << 16)));
+        } catch (IOException e) {
+            throw new DbException("could not read spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove the file from disk. The SpillFile must not be used afterwards.
+     */
+    public void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file is going away anyway
+        }
+        out = null;
+        sealed = true;
+        if (file != null)
+            file.delete();
+    }
+
+    /**
+     * Sequential reader over the tuples of a sealed SpillFile.
+     */
+    public class Reader {
+        private final DataInputStream in;
+        private int remaining;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+            this.remaining = size;
+        }
+
+        /** @return true if there are more tuples to read */
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * @return the next tuple of the file, or null if there are no more
+         */
+        public Tuple next() throws DbException {
+            if (remaining == 0)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE)
+                        t.setField(i, new IntField(in.readInt()));
+                    else
+                        t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            remaining--;
+            return t;
+        }
+
+        /**
+         * @return a batch of up to max of the next tuples of the file, or
+         *         null if there are no more
+         */
+        public TupleBatch nextBatch(int max) throws DbException {
+            if (remaining == 0)
+                return null;
+            TupleBatch batch = new TupleBatch(td, max);
+            try {
+                while (!batch.isFull() && remaining > 0) {
+                    int row = batch.newRow();
+                    for (int i = 0; i < td.numFields(); i++) {
+                        if (batch.isIntColumn(i))
+                            batch.setInt(i, row, in.readInt());
+                        else
+                            batch.setField(i, row, new StringField(in.readUTF(), Type.STRING_LEN));
+                    }
+                    remaining--;
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            return batch;
+        }
+
+        /** Release the file handle held by this reader. */
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do, we only read
+            }
+        }
+    }
+}
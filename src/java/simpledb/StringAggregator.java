@@ -59,6 +59,25 @@ public class StringAggregator implements Aggregator {
     	
     }
 
+    public void merge(Aggregator other) {
+    	if(!(other instanceof StringAggregator))
+    		throw new IllegalArgumentException("can only merge a StringAggregator");
+    	StringAggregator o=(StringAggregator)other;
+    	if(o.gbField!=gbField || o.aField!=aField)
+    		throw new IllegalArgumentException("aggregators over different fields");
+    	// 只有count，直接相加
+    	for(Map.Entry<Field,Integer> e:o.group.entrySet())
+    		group.merge(e.getKey(), e.getValue(), Integer::sum);
+    }
+
+    public int numGroups() {
+    	return group.size();
+    }
+
+    public boolean hasGroup(TupleBatch batch, int row) {
+    	return group.containsKey(gbField==Aggregator.NO_GROUPING?null:batch.getField(gbField, row));
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
@@ -3,9 +3,14 @@ package simpledb;
 /**
  * A class to represent a fixed-width histogram over a single String-based
  * field.
+ * <p>
+ * It can also wrap any other {@link Histogram} built over the strings
+ * converted with {@link #stringToInt}, such as a {@link CompressedHistogram};
+ * values cannot be added to such a histogram.
  */
 public class StringHistogram {
-    final IntHistogram hist;
+    final Histogram hist;
+    private final IntHistogram counts;// 可以加值的直方图，包装别的直方图时为null
 
     /**
      * Create a new StringHistogram with a specified number of buckets.
@@ -17,14 +22,27 @@ public class StringHistogram {
      *            the number of buckets
      */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        counts = new IntHistogram(buckets, minVal(), maxVal());
+        hist = counts;
+    }
+
+    /**
+     * Create a StringHistogram over an existing histogram of strings
+     * converted with {@link #stringToInt}.
+     *
+     * @param hist
+     *            the histogram to estimate selectivities with
+     */
+    public StringHistogram(Histogram hist) {
+        this.hist = hist;
+        this.counts = null;
     }
 
     /**
      * Convert a string to an integer, with the property that if the return
      * value(s1) < return value(s2), then s1 < s2
      */
-    private int stringToInt(String s) {
+    static int stringToInt(String s) {
         int i;
         int v = 0;
         for (i = 3; i >= 0; i--) {
@@ -50,19 +68,21 @@ public class StringHistogram {
     }
 
     /** @return the maximum value indexed by the histogram */
-    int maxVal() {
+    static int maxVal() {
         return stringToInt("zzzz");
     }
 
     /** @return the minimum value indexed by the histogram */
-    int minVal() {
+    static int minVal() {
         return stringToInt("");
     }
 
     /** Add a new value to thte histogram */
     public void addValue(String s) {
+        if (counts == null)
+            throw new IllegalStateException("cannot add values to a wrapped histogram");
         int val = stringToInt(s);
-        hist.addValue(val);
+        counts.addValue(val);
     }
 
     /**
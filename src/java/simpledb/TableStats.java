@@ -1,15 +1,49 @@
 package simpledb;
 
+import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
- * query. 
- * 
+ * query.
+ *
  * This class is not needed in implementing lab1 and lab2.
+ * <p>
+ * The statistics of a table (the number of tuples and, for every column, a
+ * histogram, its min and max and its number of distinct values) are gathered
+ * in a single pass over the table. The pages of a HeapFile are handed out to
+ * several threads through a {@link MorselQueue}; each thread collects the
+ * statistics of the pages it reads and the partial statistics are merged at
+ * the end. {@link #computeStatistics()} saves the statistics of all tables
+ * next to the catalog file, and reuses them on the next start for the tables
+ * whose data file has not changed since.
+ * <p>
+ * The statistics follow the tuples inserted and deleted through the
+ * {@link BufferPool}: the tuple counts, min and max and distinct-value
+ * sketches are updated in place, and the changed values are kept in small
+ * histograms next to the one computed by the scan. Once more than
+ * {@link #REANALYZE_FRACTION} of a table has changed, its statistics are
+ * computed again in the background, from the committed pages on disk, when
+ * the next transaction completes.
+ * <p>
+ * A HeapFile of more than {@link #setSamplePages sample pages} is not read
+ * in full: a random subset of its pages is read straight from disk, and the
+ * statistics are extrapolated from the tuples of these pages. The number of
+ * tuples and the number of distinct values of each column then come with
+ * bounds, see {@link #minTotalTuples()} and {@link #minDistinct(int)}.
  */
 public class TableStats {
 
@@ -17,6 +51,40 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /** Threads that scan a HeapFile when its statistics are computed */
+    static final int STATS_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Suffix of the file, next to the catalog file, that statistics are saved in */
+    static final String STATS_SUFFIX = ".stats";
+
+    // 统计文件的格式版本，格式变了就加一，旧文件会被忽略
+    private static final int STATS_VERSION = 2;
+
+    /** Default number of pages read from a HeapFile whose statistics are sampled */
+    public static final int DEFAULT_SAMPLE_PAGES = 2048;
+
+    private static volatile int samplePages = DEFAULT_SAMPLE_PAGES;
+
+    /** Number of standard errors on either side of a sampled estimate that its bounds are */
+    static final double CONFIDENCE_Z = 1.96;
+
+    /** Fraction of the tuples of a table that may change before its statistics are recomputed */
+    static final double REANALYZE_FRACTION = 0.2;
+
+    /** Changes to a table that never trigger a recomputation, however small the table */
+    static final int REANALYZE_MIN_CHANGES = 1000;
+
+    // 要重新统计的表，等下一个事务结束时再交给后台线程
+    private static final Set<Integer> staleTables = ConcurrentHashMap.newKeySet();
+
+    private static final ExecutorService analyzer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "TableStats-analyzer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
@@ -24,7 +92,7 @@ public class TableStats {
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
     }
-    
+
     public static void setStatsMap(HashMap<String,TableStats> s)
     {
         try {
@@ -47,16 +115,180 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Set the number of pages read to compute the statistics of a HeapFile.
+     * Larger files are sampled, smaller ones are read in full.
+     *
+     * @param pages the number of pages to sample, or 0 to always read
+     *            every page
+     */
+    public static void setSamplePages(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("negative number of sample pages");
+        samplePages = pages;
+    }
+
+    /** @return the number of pages read to compute the statistics of a HeapFile */
+    public static int getSamplePages() {
+        return samplePages;
+    }
+
+    /**
+     * Called by the BufferPool after t was inserted into table tableId.
+     */
+    static void tupleInserted(int tableId, Tuple t) {
+        TableStats s = getTableStats(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return;
+        s.addTuple(t);
+        if (s.isStale())
+            staleTables.add(tableId);
+    }
+
+    /**
+     * Called by the BufferPool after t was deleted from table tableId.
+     */
+    static void tupleDeleted(int tableId, Tuple t) {
+        TableStats s = getTableStats(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return;
+        s.removeTuple(t);
+        if (s.isStale())
+            staleTables.add(tableId);
+    }
+
+    /**
+     * Recompute in the background the statistics of the tables that changed
+     * too much. Called by the BufferPool whenever a transaction completes,
+     * so that the pages the transaction changed are on disk already. The new
+     * statistics replace the old ones only if nobody replaced them meanwhile.
+     */
+    static void reanalyzeStale() {
+        if (staleTables.isEmpty())
+            return;
+        for (Iterator<Integer> it = staleTables.iterator(); it.hasNext();) {
+            final int tableid = it.next();
+            it.remove();
+            final String name;
+            final TableStats old;
+            try {
+                name = Database.getCatalog().getTableName(tableid);
+                old = getTableStats(name);
+            } catch (RuntimeException e) {
+                continue;// 表已经不在catalog里了
+            }
+            if (old == null || !old.startReanalysis())
+                continue;
+            analyzer.execute(new Runnable() {
+                public void run() {
+                    try {
+                        TableStats fresh = new TableStats(tableid, old.ioCostPerPage, 1, true);
+                        if (!statsMap.replace(name, old, fresh))
+                            old.endReanalysis();
+                    } catch (RuntimeException e) {
+                        System.out.println("Could not recompute statistics of " + name + ": " + e.getMessage());
+                        old.endReanalysis();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Wait until the statistics being recomputed in the background are done.
+     */
+    static void awaitReanalysis() throws InterruptedException {
+        try {
+            analyzer.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Compute the statistics of every table in the catalog. If the catalog
+     * was read from a schema file, statistics saved by an earlier call are
+     * reused for the tables whose data file is unchanged, and the statistics
+     * of all tables are saved again if any had to be computed.
+     */
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        Catalog catalog = Database.getCatalog();
+        Iterator<Integer> tableIt = catalog.tableIdIterator();
+        File saved = catalog.getSchemaFile() == null ? null
+                : new File(catalog.getSchemaFile() + STATS_SUFFIX);
+        Map<String, TableStats> old = new HashMap<String, TableStats>();
+        if (saved != null && saved.exists()) {
+            try {
+                old = readStatistics(saved);
+            } catch (IOException e) {
+                System.out.println("Ignoring unreadable statistics in " + saved + ": " + e.getMessage());
+            }
+        }
 
         System.out.println("Computing table stats.");
+        Map<String, TableStats> all = new HashMap<String, TableStats>();
+        int computed = 0;
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = catalog.getTableName(tableid);
+            TableStats s = old.get(name);
+            if (s == null || !s.isCurrent(catalog.getDatabaseFile(tableid))) {
+                s = new TableStats(tableid, IOCOSTPERPAGE);
+                computed++;
+            }
+            setTableStats(name, s);
+            all.put(name, s);
+        }
+        if (saved != null && computed > 0) {
+            try {
+                writeStatistics(saved, all);
+            } catch (IOException e) {
+                System.out.println("Could not save statistics to " + saved + ": " + e.getMessage());
+            }
+        }
+        System.out.println("Done (" + computed + " of " + all.size() + " tables scanned).");
+    }
+
+    /**
+     * Save the statistics of several tables to file.
+     */
+    static void writeStatistics(File file, Map<String, TableStats> stats) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(STATS_VERSION);
+            out.writeInt(stats.size());
+            for (Map.Entry<String, TableStats> e : stats.entrySet()) {
+                out.writeUTF(e.getKey());
+                e.getValue().writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read statistics saved by {@link #writeStatistics}.
+     *
+     * @return the statistics of each table, by table name
+     */
+    static Map<String, TableStats> readStatistics(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int version = in.readInt();
+            if (version != STATS_VERSION)
+                throw new IOException("statistics of version " + version + ", expected " + STATS_VERSION);
+            Map<String, TableStats> stats = new HashMap<String, TableStats>();
+            for (int n = in.readInt(); n > 0; n--) {
+                String name = in.readUTF();
+                stats.put(name, new TableStats(in));
+            }
+            return stats;
+        } finally {
+            in.close();
         }
-        System.out.println("Done.");
     }
 
     /**
@@ -66,10 +298,223 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /** Buckets of the histograms a column is summarized by while it is scanned */
+    static final int NUM_FINE_BINS = 4096;
+
+    /** Most common values kept per column, and counted while it is scanned */
+    static final int NUM_COMMON_VALUES = NUM_HIST_BINS;
+
+    /**
+     * Statistics of one column. While the table is being scanned it holds a
+     * fine histogram and the most frequent values, which are turned into a
+     * compressed histogram when the scan is over. The distinct values are
+     * counted with a HyperLogLog sketch, which is kept so that inserted
+     * tuples can be added to it. The values inserted and deleted afterwards
+     * are kept in two histograms of their own, and selectivities are the
+     * sum of the three. String columns are summarized through
+     * {@link StringHistogram#stringToInt}.
+     * <p>
+     * When the table is sampled, the distinct values of the whole table are
+     * estimated from how often each value was seen in the sample, and the
+     * sketch holds the sampled values only.
+     */
+    private static class ColumnStats {
+        final Type type;
+        IntHistogram values;
+        FrequentValues frequent;
+        final HyperLogLog ndv;
+        CompressedHistogram hist;
+        long histCount;// hist统计的值的个数
+        IntHistogram added, removed;// 统计之后插入、删除的值，用到时才建
+        int min, max;
+        long count;
+        long sampledDistinct = -1, distinctLow, distinctHigh;// 抽样估计的ndv及其上下界，-1表示没有抽样
+        private long distinct = -1;// ndv的估计，-1表示要重新算
+
+        ColumnStats(Type type) {
+            this.type = type;
+            values = new IntHistogram(NUM_FINE_BINS);
+            frequent = new FrequentValues(4 * NUM_COMMON_VALUES);
+            ndv = new HyperLogLog();
+        }
+
+        ColumnStats(DataInputStream in) throws IOException {
+            type = in.readBoolean() ? Type.INT_TYPE : Type.STRING_TYPE;
+            min = in.readInt();
+            max = in.readInt();
+            count = in.readLong();
+            histCount = in.readLong();
+            sampledDistinct = in.readLong();
+            distinctLow = in.readLong();
+            distinctHigh = in.readLong();
+            ndv = HyperLogLog.readFrom(in);
+            hist = CompressedHistogram.readFrom(in);
+            if (in.readBoolean())
+                added = IntHistogram.readFrom(in);
+            if (in.readBoolean())
+                removed = IntHistogram.readFrom(in);
+        }
+
+        private void add(int v) {
+            values.addValue(v);
+            frequent.addValue(v);
+        }
+
+        void add(TupleBatch batch, int col) {
+            int n = batch.numRows();
+            if (type == Type.INT_TYPE && batch.isIntColumn(col)) {
+                int[] vals = batch.intColumn(col);
+                for (int i = 0; i < n; i++) {
+                    add(vals[i]);
+                    ndv.addValue(vals[i]);
+                }
+            } else if (type == Type.INT_TYPE) {
+                for (int i = 0; i < n; i++) {
+                    int v = ((IntField) batch.getField(col, i)).getValue();
+                    add(v);
+                    ndv.addValue(v);
+                }
+            } else {
+                for (int i = 0; i < n; i++) {
+                    String s = ((StringField) batch.getField(col, i)).getValue();
+                    add(StringHistogram.stringToInt(s));
+                    ndv.addValue(s);
+                }
+            }
+        }
+
+        void merge(ColumnStats other) {
+            values.merge(other.values);
+            frequent.merge(other.frequent);
+            ndv.merge(other.ndv);
+        }
+
+        /**
+         * End of the scan: keep the summaries only.
+         *
+         * @param scale the number of tuples of the table each tuple read
+         *            stands for
+         */
+        void finish(double scale) {
+            min = values.getMin();
+            max = values.getMax();
+            count = Math.round(values.numValues() * scale);
+            histCount = count;
+            hist = CompressedHistogram.build(NUM_HIST_BINS, NUM_COMMON_VALUES, values, frequent);
+            values = null;
+            frequent = null;
+        }
+
+        /** Add the value of an inserted tuple. */
+        void insert(Field f) {
+            int v = histValue(f);
+            if (type == Type.INT_TYPE)
+                ndv.addValue(v);
+            else
+                ndv.addValue(((StringField) f).getValue());
+            if (added == null)
+                added = new IntHistogram(NUM_HIST_BINS);
+            added.addValue(v);
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            count++;
+            distinct = -1;
+        }
+
+        /**
+         * Take out the value of a deleted tuple. The sketch and the min and
+         * max cannot forget it, but the distinct values are capped by count.
+         */
+        void remove(Field f) {
+            if (removed == null)
+                removed = new IntHistogram(NUM_HIST_BINS);
+            removed.addValue(histValue(f));
+            count--;
+            distinct = -1;
+        }
+
+        /** @return the estimated fraction of the values v that satisfy op v */
+        double selectivity(Predicate.Op op, int v) {
+            if (count <= 0)
+                return 0;
+            double n = hist.estimateSelectivity(op, v, distinct()) * histCount;
+            if (added != null)
+                n += added.estimateSelectivity(op, v) * added.numValues();
+            if (removed != null)
+                n -= removed.estimateSelectivity(op, v) * removed.numValues();
+            return Math.max(0, Math.min(1, n / count));
+        }
+
+        /** @return the estimated number of distinct values, at most count */
+        long distinct() {
+            if (distinct < 0) {
+                long d = ndv.estimate();
+                if (sampledDistinct >= 0)// 插入的新值可能让sketch超过抽样的估计
+                    d = Math.max(d, sampledDistinct);
+                distinct = Math.max(0, Math.min(d, count));
+            }
+            return distinct;
+        }
+
+        /** @return a lower bound of the number of distinct values */
+        long minDistinct() {
+            if (sampledDistinct >= 0)
+                return Math.min(distinctLow, distinct());
+            return Math.round(distinct() * Math.max(0, 1 - CONFIDENCE_Z * ndv.relativeError()));
+        }
+
+        /** @return an upper bound of the number of distinct values */
+        long maxDistinct() {
+            if (sampledDistinct >= 0)// 可能超过count：count只是元组数的估计
+                return Math.max(distinctHigh, distinct());
+            return Math.min(Math.round(distinct() * (1 + CONFIDENCE_Z * ndv.relativeError())),
+                    Math.max(0, count));
+        }
+
+        /** @return v as the histogram sees it */
+        int histValue(Field f) {
+            if (type == Type.INT_TYPE)
+                return ((IntField) f).getValue();
+            return StringHistogram.stringToInt(((StringField) f).getValue());
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeBoolean(type == Type.INT_TYPE);
+            out.writeInt(min);
+            out.writeInt(max);
+            out.writeLong(count);
+            out.writeLong(histCount);
+            out.writeLong(sampledDistinct);
+            out.writeLong(distinctLow);
+            out.writeLong(distinctHigh);
+            ndv.writeTo(out);
+            hist.writeTo(out);
+            out.writeBoolean(added != null);
+            if (added != null)
+                added.writeTo(out);
+            out.writeBoolean(removed != null);
+            if (removed != null)
+                removed.writeTo(out);
+        }
+    }
+
+    private final int ioCostPerPage;
+    private final int numPages;
+    private int ntups;// 包括统计之后插入、删除的元组
+    private final ColumnStats[] columns;
+    private final int analyzedTuples;// 统计时的元组数
+    private int changes;// 统计之后插入、删除的元组数
+    private boolean reanalyzing;
+    private int sampledPages;// 抽样读的页数，0表示读了所有的页
+    private int tuplesLow, tuplesHigh;// 统计时元组数的上下界
+    // 统计时数据文件的长度和修改时间，用来判断存下来的统计信息是否过期
+    private final long fileLength;
+    private final long fileModified;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
-     * 
+     *
      * @param tableid
      *            The table over which to compute statistics
      * @param ioCostPerPage
@@ -77,45 +522,409 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this(tableid, ioCostPerPage, STATS_THREADS);
+    }
+
+    /**
+     * Create a new TableStats object, scanning the table with the given
+     * number of threads.
+     *
+     * @param tableid
+     *            The table over which to compute statistics
+     * @param ioCostPerPage
+     *            The cost per page of IO.
+     * @param parallelism
+     *            The number of threads that scan a HeapFile; other files
+     *            are scanned by the calling thread
+     */
+    public TableStats(int tableid, int ioCostPerPage, int parallelism) {
+        this(tableid, ioCostPerPage, parallelism, false);
+    }
+
+    /**
+     * @param committed
+     *            if true, a HeapFile is read straight from disk, without
+     *            going through the BufferPool or taking any lock, so that
+     *            only committed tuples are counted. A HeapFile of more than
+     *            {@link #getSamplePages()} pages is always sampled that way.
+     */
+    private TableStats(int tableid, int ioCostPerPage, int parallelism, boolean committed) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        File data = dataFile(file);
+        this.ioCostPerPage = ioCostPerPage;
+        this.fileLength = data == null ? -1 : data.length();
+        this.fileModified = data == null ? -1 : data.lastModified();
+        if (file instanceof HeapFile)
+            this.numPages = ((HeapFile) file).numPages();
+        else if (file instanceof BTreeFile)
+            this.numPages = ((BTreeFile) file).numPages();
+        else
+            this.numPages = (int) Math.max(0, fileLength / BufferPool.getPageSize());
+        int sample = samplePages;
+        if (file instanceof HeapFile && sample > 0 && numPages > sample) {
+            this.columns = scanSample((HeapFile) file, sample);
+            this.analyzedTuples = ntups;
+            return;
+        }
+        try {
+            if (committed && file instanceof HeapFile)
+                this.columns = scanCommitted((HeapFile) file);
+            else
+                this.columns = collect(file, parallelism);
+        } catch (DbException e) {
+            throw new RuntimeException("could not compute statistics: " + e.getMessage(), e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException("could not compute statistics: " + e.getMessage(), e);
+        }
+        for (ColumnStats c : columns)
+            c.finish(1);
+        this.ntups = columns.length == 0 ? 0 : (int) columns[0].count;
+        this.tuplesLow = ntups;
+        this.tuplesHigh = ntups;
+        this.analyzedTuples = ntups;
+    }
+
+    /** Read statistics written by {@link #writeTo}. */
+    private TableStats(DataInputStream in) throws IOException {
+        ioCostPerPage = in.readInt();
+        numPages = in.readInt();
+        ntups = in.readInt();
+        sampledPages = in.readInt();
+        tuplesLow = in.readInt();
+        tuplesHigh = in.readInt();
+        fileLength = in.readLong();
+        fileModified = in.readLong();
+        columns = new ColumnStats[in.readInt()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = new ColumnStats(in);
+        analyzedTuples = ntups;
+    }
+
+    private synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(ioCostPerPage);
+        out.writeInt(numPages);
+        out.writeInt(ntups);
+        out.writeInt(sampledPages);
+        out.writeInt(tuplesLow);
+        out.writeInt(tuplesHigh);
+        out.writeLong(fileLength);
+        out.writeLong(fileModified);
+        out.writeInt(columns.length);
+        for (ColumnStats c : columns)
+            c.writeTo(out);
+    }
+
+    /** @return the file the tuples of file are stored in, or null if unknown */
+    private static File dataFile(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).getFile();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).getFile();
+        return null;
+    }
+
+    /**
+     * @return true if these statistics were computed from the current
+     *         contents of file
+     */
+    boolean isCurrent(DbFile file) {
+        File data = dataFile(file);
+        return data != null && fileLength == data.length()
+                && fileModified == data.lastModified()
+                && columns.length == file.getTupleDesc().numFields();
+    }
+
+    /**
+     * Scan file once, with parallelism threads if it is a HeapFile, under a
+     * transaction of its own.
+     *
+     * @return the statistics of each column
+     */
+    private static ColumnStats[] collect(DbFile file, int parallelism) throws DbException,
+            TransactionAbortedException {
+        final TupleDesc td = file.getTupleDesc();
+        final TransactionId tid = new TransactionId();
+        ExecutorService pool = null;
+        try {
+            if (parallelism <= 1 || !(file instanceof HeapFile))
+                return scan(file.iterator(tid), td);
+            final MorselQueue morsels = new MorselQueue((HeapFile) file);
+            pool = Executors.newFixedThreadPool(parallelism);
+            ArrayList<Future<ColumnStats[]>> partials = new ArrayList<Future<ColumnStats[]>>();
+            for (int i = 0; i < parallelism; i++) {
+                partials.add(pool.submit(new Callable<ColumnStats[]>() {
+                    public ColumnStats[] call() throws Exception {
+                        return scan(morsels.iterator(tid), td);
+                    }
+                }));
+            }
+            ColumnStats[] cols = null;
+            for (Future<ColumnStats[]> f : partials) {
+                ColumnStats[] part = f.get();
+                if (cols == null) {
+                    cols = part;
+                    continue;
+                }
+                for (int i = 0; i < cols.length; i++)
+                    cols[i].merge(part[i]);
+            }
+            return cols;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while computing statistics");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("statistics worker failed: " + cause);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+                try {// 等worker都停下再结束事务
+                    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                throw new DbException("could not end statistics transaction: " + e.getMessage());
+            }
+        }
+    }
+
+    /** @return the statistics of the tuples of it, read in batches */
+    private static ColumnStats[] scan(DbFileIterator it, TupleDesc td) throws DbException,
+            TransactionAbortedException {
+        ColumnStats[] cols = newColumns(td);
+        TupleBatch batch = new TupleBatch(td);
+        it.open();
+        try {
+            while (it.fillBatch(batch) > 0)
+                addBatch(cols, batch);
+        } finally {
+            it.close();
+        }
+        return cols;
+    }
+
+    /**
+     * @return the statistics of the tuples of the pages of file as they are
+     *         on disk, which are the committed ones
+     */
+    private static ColumnStats[] scanCommitted(HeapFile file) {
+        TupleDesc td = file.getTupleDesc();
+        ColumnStats[] cols = newColumns(td);
+        TupleBatch batch = new TupleBatch(td);
+        int pages = file.numPages();
+        for (int p = 0; p < pages; p++) {
+            HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), p));
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext();) {
+                batch.addTuple(it.next());
+                if (batch.isFull())
+                    addBatch(cols, batch);
+            }
+        }
+        addBatch(cols, batch);
+        return cols;
+    }
+
+    /**
+     * Read samples pages of file, chosen at random, straight from disk and
+     * extrapolate the statistics of the whole file from their tuples. Sets
+     * the number of tuples and its bounds.
+     * <p>
+     * The last page, which is usually only partly full, is always read. The
+     * number of tuples is the tuples of the last page plus the average number
+     * of tuples of the other sampled pages times the number of other pages,
+     * give or take {@link #CONFIDENCE_Z} standard errors. The number of
+     * distinct values of a column is estimated with the GEE estimator of
+     * Charikar et al.: of the d values seen in the sample, the f1 values seen
+     * once stand for sqrt(N/n) values each and the others for themselves,
+     * where N/n is the ratio of the tuples of the table to the tuples
+     * sampled. The table has at least d distinct values, and at most
+     * d - f1 + f1 N/n, with N the upper bound of the number of tuples,
+     * unless the sample missed many values that are rare everywhere.
+     *
+     * @return the statistics of each column
+     */
+    private ColumnStats[] scanSample(HeapFile file, int samples) {
+        samples = Math.max(2, samples);// 最后一页之外至少还要一页
+        TupleDesc td = file.getTupleDesc();
+        ColumnStats[] cols = newColumns(td);
+        ArrayList<HashMap<Field, Integer>> seen = new ArrayList<HashMap<Field, Integer>>();
+        for (int i = 0; i < cols.length; i++)
+            seen.add(new HashMap<Field, Integer>());
+        TupleBatch batch = new TupleBatch(td);
+        Random random = new Random();
+        int pages = file.numPages();
+        long tuples = 0, lastTuples = 0;
+        double sumSquares = 0;
+        int chosen = 0;
+        for (int p = 0; p < pages; p++) {
+            boolean last = p == pages - 1;
+            // 除最后一页外，以(还要选的页数)/(剩下的页数)的概率选这一页，选出的页均匀随机且有序
+            if (!last && random.nextInt(pages - 1 - p) >= samples - 1 - chosen)
+                continue;
+            HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), p));
+            int onPage = 0;
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext();) {
+                Tuple t = it.next();
+                for (int i = 0; i < cols.length; i++)
+                    seen.get(i).merge(t.getField(i), 1, Integer::sum);
+                batch.addTuple(t);
+                if (batch.isFull())
+                    addBatch(cols, batch);
+                onPage++;
+            }
+            if (last) {
+                lastTuples = onPage;
+                continue;
+            }
+            chosen++;
+            tuples += onPage;
+            sumSquares += (double) onPage * onPage;
+        }
+        addBatch(cols, batch);
+
+        int others = pages - 1;
+        double mean = (double) tuples / chosen;
+        double variance = chosen < 2 ? 0 : (sumSquares - chosen * mean * mean) / (chosen - 1);
+        double error = others * Math.sqrt(Math.max(0, variance) / chosen * (1 - (double) chosen / others));
+        double total = mean * others + lastTuples;
+        double read = tuples + lastTuples;
+        double scale = read == 0 ? 0 : total / read;
+        double highScale = read == 0 ? 0 : (total + CONFIDENCE_Z * error) / read;
+        for (int i = 0; i < cols.length; i++) {
+            cols[i].finish(scale);
+            long d = seen.get(i).size(), f1 = 0;
+            for (int c : seen.get(i).values())
+                if (c == 1)
+                    f1++;
+            cols[i].sampledDistinct = Math.round(d - f1 + Math.sqrt(Math.max(1, scale)) * f1);
+            cols[i].distinctLow = d;
+            cols[i].distinctHigh = Math.round(d - f1 + Math.max(1, highScale) * f1);
+        }
+        this.sampledPages = chosen + 1;
+        this.ntups = (int) Math.round(total);
+        this.tuplesLow = (int) Math.max(read, Math.round(total - CONFIDENCE_Z * error));
+        this.tuplesHigh = (int) Math.round(total + CONFIDENCE_Z * error);
+        return cols;
+    }
+
+    private static ColumnStats[] newColumns(TupleDesc td) {
+        ColumnStats[] cols = new ColumnStats[td.numFields()];
+        for (int i = 0; i < cols.length; i++)
+            cols[i] = new ColumnStats(td.getFieldType(i));
+        return cols;
+    }
+
+    /** Add the tuples of batch to cols and empty it. */
+    private static void addBatch(ColumnStats[] cols, TupleBatch batch) {
+        for (int i = 0; i < cols.length; i++)
+            cols[i].add(batch, i);
+        batch.truncate(0);
     }
 
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
      * and that no pages are in the buffer pool.
-     * 
+     *
      * Also, assume that your hard drive can only read entire pages at once, so
      * if the last page of the table only has one tuple on it, it's just as
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
-     * 
+     *
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of a table stored in a
+     * BTreeFile that satisfy a predicate on its key through the index: one
+     * descent from the root, then the leaf pages holding the matching tuples,
+     * which are contiguous in key order.
+     *
+     * @param height
+     *            the number of pages read by a descent, see
+     *            {@link BTreeFile#estimateHeight}
+     * @param selectivity
+     *            the selectivity of the predicate on the key
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(int height, double selectivity) {
+        return (height + Math.ceil(selectivity * numPages)) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate on a
+     * field through a {@link SecondaryIndex} on it: one descent, the index
+     * leaf pages holding the matching entries, then the pages holding the
+     * matching tuples. The tuples of each batch of
+     * {@link SecondaryIndex#FETCH_BATCH} entries are fetched in page order,
+     * so a batch reads each page of the table at most once: k entries are
+     * expected to hit P(1 - (1 - 1/P)^k) of the P pages of the table.
+     *
+     * @param height
+     *            the number of pages read by a descent of the index
+     * @param indexPages
+     *            the number of pages of the index
+     * @param selectivity
+     *            the selectivity of the predicate on the field
+     * @return The estimated cost of the index scan.
+     */
+    public synchronized double estimateSecondaryIndexScanCost(int height, int indexPages,
+            double selectivity) {
+        double matches = selectivity * ntups;
+        double batches = Math.floor(matches / SecondaryIndex.FETCH_BATCH);
+        double fetched = batches * pagesHit(SecondaryIndex.FETCH_BATCH)
+                + pagesHit(matches - batches * SecondaryIndex.FETCH_BATCH);
+        return (height + Math.ceil(selectivity * indexPages) + fetched) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of an index-only scan: reading the entries of a
+     * covering {@link SecondaryIndex} that satisfy a predicate on its key,
+     * without fetching the tuples of the table.
+     *
+     * @param height
+     *            the number of pages read by a descent of the index
+     * @param indexPages
+     *            the number of pages of the index
+     * @param selectivity
+     *            the selectivity of the predicate on the key, 1.0 for none
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexOnlyScanCost(int height, int indexPages, double selectivity) {
+        return (height + Math.ceil(selectivity * indexPages)) * ioCostPerPage;
+    }
+
+    /** @return the expected number of distinct pages holding k random tuples */
+    private double pagesHit(double k) {
+        if (numPages == 0)
+            return 0;
+        return numPages * (1 - Math.pow(1 - 1.0 / numPages, k));
     }
 
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
-     * 
+     *
      * @param selectivityFactor
      *            The selectivity of any predicates over the table
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
+        return (int) Math.round(ntups * selectivityFactor);
     }
 
     /**
@@ -128,15 +937,29 @@ public class TableStats {
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
      * */
-    public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
+        long d = columns[field].distinct();
+        if (d == 0)
+            return 1.0;
+        double eq = 1.0 / d;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        case LESS_THAN:
+        case GREATER_THAN:
+            return (1 - eq) / 2;// 一半不相等的值在常量的这一边
+        default:
+            return (1 + eq) / 2;
+        }
     }
 
     /**
      * Estimate the selectivity of predicate <tt>field op constant</tt> on the
      * table.
-     * 
+     *
      * @param field
      *            The field over which the predicate ranges
      * @param op
@@ -146,17 +969,148 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        ColumnStats c = columns[field];
+        return c.selectivity(op, c.histValue(constant));
+    }
+
+    /**
+     * Estimate the selectivity of an index predicate on a key made of
+     * keyFields, as the product of the selectivities of
+     * {@link IndexPredicate#getPredicates}; the fields are assumed
+     * independent.
+     *
+     * @param keyFields
+     *            The fields of the key, most significant first
+     * @param ipred
+     *            The predicate on the key
+     * @return The estimated selectivity of the predicate
+     */
+    public synchronized double estimateSelectivity(int[] keyFields, IndexPredicate ipred) {
+        double sel = 1.0;
+        for (Predicate p : ipred.getPredicates(keyFields))
+            sel *= estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        return sel;
+    }
+
+    /**
+     * @return the estimated number of distinct values of field
+     */
+    public synchronized int numDistinct(int field) {
+        return (int) columns[field].distinct();
+    }
+
+    /**
+     * @return the smallest value of the int field, or Integer.MAX_VALUE if
+     *         the table is empty
+     */
+    public synchronized int minValue(int field) {
+        return intColumn(field).min;
+    }
+
+    /**
+     * @return the largest value of the int field, or Integer.MIN_VALUE if
+     *         the table is empty
+     */
+    public synchronized int maxValue(int field) {
+        return intColumn(field).max;
+    }
+
+    private ColumnStats intColumn(int field) {
+        if (columns[field].type != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + field + " is not an int field");
+        return columns[field];
+    }
+
+    /**
+     * @return the estimated number of distinct values of field at least,
+     *         with 95% confidence
+     */
+    public synchronized int minDistinct(int field) {
+        return (int) columns[field].minDistinct();
+    }
+
+    /**
+     * @return the estimated number of distinct values of field at most,
+     *         with 95% confidence
+     */
+    public synchronized int maxDistinct(int field) {
+        return (int) columns[field].maxDistinct();
     }
 
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
-        // some code goes here
-        return 0;
+    public synchronized int totalTuples() {
+        return ntups;
+    }
+
+    /**
+     * @return the number of tuples in this table at least, with 95%
+     *         confidence; the exact number unless the table was sampled
+     */
+    public synchronized int minTotalTuples() {
+        return Math.max(0, tuplesLow + ntups - analyzedTuples);
+    }
+
+    /**
+     * @return the number of tuples in this table at most, with 95%
+     *         confidence; the exact number unless the table was sampled
+     */
+    public synchronized int maxTotalTuples() {
+        return Math.max(0, tuplesHigh + ntups - analyzedTuples);
+    }
+
+    /**
+     * @return the number of pages read to compute these statistics if the
+     *         table was sampled, or 0 if every page was read
+     */
+    public synchronized int sampledPages() {
+        return sampledPages;
+    }
+
+    /**
+     * Account for a tuple inserted into the table: it is counted, and its
+     * values are added to the histograms, the distinct-value sketches and
+     * the min and max of each column.
+     */
+    public synchronized void addTuple(Tuple t) {
+        for (int i = 0; i < columns.length; i++)
+            columns[i].insert(t.getField(i));
+        ntups++;
+        changes++;
+    }
+
+    /**
+     * Account for a tuple deleted from the table: it is no longer counted,
+     * and its values are taken out of the histograms.
+     */
+    public synchronized void removeTuple(Tuple t) {
+        for (int i = 0; i < columns.length; i++)
+            columns[i].remove(t.getField(i));
+        ntups = Math.max(0, ntups - 1);
+        changes++;
+    }
+
+    /**
+     * @return true if so many tuples were inserted or deleted since these
+     *         statistics were computed that they should be computed again
+     */
+    synchronized boolean isStale() {
+        return !reanalyzing
+                && changes >= Math.max(REANALYZE_MIN_CHANGES, REANALYZE_FRACTION * analyzedTuples);
+    }
+
+    /** @return false if these statistics are being recomputed already */
+    private synchronized boolean startReanalysis() {
+        if (reanalyzing)
+            return false;
+        reanalyzing = true;
+        return true;
+    }
+
+    private synchronized void endReanalysis() {
+        reanalyzing = false;
     }
 
 }
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopK implements ORDER BY ... LIMIT k: it returns the first k tuples of its
+ * child in the order an {@link OrderBy} on the same fields would, without
+ * sorting the whole input.
+ * <p>
+ * The k best tuples seen so far are kept in a bounded max-heap whose top is
+ * the worst of them, so each input tuple costs at most O(log k) and memory
+ * stays O(k). Once the heap is full, a tuple that does not beat its top is
+ * dropped after a single comparison; for a single int sort field this
+ * comparison is made on the batch column without building the tuple.
+ */
+public class TopK extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int k;
+    private final TupleComparator comparator;
+    private ArrayList<Tuple> result = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+
+    /**
+     * A heap entry: a tuple and its position in the input, which breaks ties
+     * so that equal tuples come out in input order like in {@link OrderBy}.
+     */
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param orderbyFields
+     *            the fields to sort on, most significant first.
+     * @param ascs
+     *            for each of orderbyFields, true if it is sorted ascending.
+     * @param k
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopK(int[] orderbyFields, boolean[] ascs, int k, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != ascs.length)
+            throw new IllegalArgumentException("need one sort direction per field");
+        if (k < 0)
+            throw new IllegalArgumentException("negative limit " + k);
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = ascs.clone();
+        this.k = k;
+        this.child = child;
+        this.comparator = new TupleComparator(this.orderByFields, this.ascs);
+    }
+
+    /** @return the sort fields, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return the sort direction of each of {@link #getOrderByFields()} */
+    public boolean[] getAscs() {
+        return ascs.clone();
+    }
+
+    /** @return the maximum number of tuples this operator returns */
+    public int getLimit() {
+        return k;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        result.clear();
+        if (k > 0)
+            collect();
+        it = result.iterator();
+        super.open();
+    }
+
+    /**
+     * Read the whole child and keep its k first tuples, sorted, in result.
+     */
+    private void collect() throws DbException, TransactionAbortedException {
+        // 堆顶是目前k个里最差的那个
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(k, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return -order(a, b);
+            }
+        });
+        int f = orderByFields[0];
+        boolean intKey = orderByFields.length == 1
+                && child.getTupleDesc().getFieldType(f) == Type.INT_TYPE;
+        long seq = 0;
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            for (int i = 0; i < batch.numRows(); i++, seq++) {
+                if (heap.size() < k) {
+                    heap.add(new Entry(batch.getTuple(i), seq));
+                    continue;
+                }
+                if (intKey) {
+                    // 只比较int列，进不了前k的行不用构造tuple
+                    int v = batch.getInt(f, i);
+                    int top = heap.peek().t.getInt(f);
+                    if (ascs[0] ? v >= top : v <= top)
+                        continue;
+                } else if (comparator.compare(batch.getTuple(i), heap.peek().t) >= 0) {
+                    continue;
+                }
+                heap.poll();
+                heap.add(new Entry(batch.getTuple(i), seq));
+            }
+        }
+        ArrayList<Entry> sorted = new ArrayList<Entry>(heap);
+        Collections.sort(sorted, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return order(a, b);
+            }
+        });
+        for (Entry e : sorted)
+            result.add(e.t);
+    }
+
+    private int order(Entry a, Entry b) {
+        int c = comparator.compare(a.t, b.t);
+        return c != 0 ? c : Long.compare(a.seq, b.seq);
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = result.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+    }
+
+}
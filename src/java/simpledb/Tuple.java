@@ -84,6 +84,17 @@ public class Tuple implements Serializable {
     	return null;
     }
 
+    /**
+     * @return the value of the ith field as a primitive int. The field must
+     *         be of type {@link Type#INT_TYPE}.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        return ((IntField) fields[i]).getValue();
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
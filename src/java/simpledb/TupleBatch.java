@@ -0,0 +1,325 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of a single schema in
+ * column-oriented form. Columns of type {@link Type#INT_TYPE} are stored as
+ * primitive int arrays so that operators can loop over them without
+ * allocating or dispatching through {@link IntField} objects; all other
+ * columns are stored as arrays of {@link Field}.
+ * <p>
+ * Batches are produced by {@link OpIterator#nextBatch()}. A batch belongs to
+ * the caller once it has been returned.
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] intCols;// int列，非int列为null
+    private final Field[][] fieldCols;// 其他类型的列，int列为null
+    private final RecordId[] rids;
+    private int size;
+
+    /**
+     * Create an empty batch with room for {@link #DEFAULT_SIZE} rows.
+     *
+     * @param td the schema of the rows in this batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows in this batch
+     * @param capacity the maximum number of rows in this batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.intCols = new int[td.numFields()][];
+        this.fieldCols = new Field[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intCols[i] = new int[capacity];
+            else
+                fieldCols[i] = new Field[capacity];
+        }
+        this.rids = new RecordId[capacity];
+        this.size = 0;
+    }
+
+    /** Build a batch that shares the given columns; used by {@link #project}. */
+    private TupleBatch(TupleDesc td, int capacity, int[][] intCols,
+            Field[][] fieldCols, RecordId[] rids, int size) {
+        this.td = td;
+        this.capacity = capacity;
+        this.intCols = intCols;
+        this.fieldCols = fieldCols;
+        this.rids = rids;
+        this.size = size;
+    }
+
+    /**
+     * Pull up to max tuples out of a tuple-at-a-time iterator into a new
+     * batch. This is the adapter used by operators that do not implement
+     * {@link OpIterator#nextBatch()} themselves.
+     *
+     * @param it an open iterator
+     * @param max the maximum number of rows to read
+     * @return a batch of the next rows of it, or null if it is exhausted
+     */
+    public static TupleBatch fromIterator(OpIterator it, int max)
+            throws DbException, TransactionAbortedException {
+        if (!it.hasNext())
+            return null;
+        TupleBatch batch = new TupleBatch(it.getTupleDesc(), max);
+        while (!batch.isFull() && it.hasNext())
+            batch.addTuple(it.next());
+        return batch;
+    }
+
+    /** @return the schema of the rows in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in this batch */
+    public int numRows() {
+        return size;
+    }
+
+    /** @return the maximum number of rows this batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return true if no more rows can be added to this batch */
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    /** @return true if this batch has no rows */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true if column i is stored as a primitive int array, see
+     *         {@link #intColumn}
+     */
+    public boolean isIntColumn(int i) {
+        return intCols[i] != null;
+    }
+
+    /**
+     * Direct access to an int column. Only the first {@link #numRows()}
+     * entries are valid.
+     *
+     * @param i the index of a column of type {@link Type#INT_TYPE}
+     */
+    public int[] intColumn(int i) {
+        return intCols[i];
+    }
+
+    /**
+     * @return the value of column col in row row as a primitive int. The
+     *         column must be of type {@link Type#INT_TYPE}.
+     */
+    public int getInt(int col, int row) {
+        return intCols[col][row];
+    }
+
+    /**
+     * @return the value of column col in row row; int columns are boxed into
+     *         a new {@link IntField}.
+     */
+    public Field getField(int col, int row) {
+        if (intCols[col] != null)
+            return new IntField(intCols[col][row]);
+        return fieldCols[col][row];
+    }
+
+    /** @return the RecordId of row row, or null if the row has none */
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /**
+     * Materialize a row of this batch as a Tuple.
+     *
+     * @param row the index of the row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < intCols.length; i++)
+            t.setField(i, getField(i, row));
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Append a row to the batch and return its index. The caller fills the
+     * row in with {@link #setInt}, {@link #setField} and
+     * {@link #setRecordId}.
+     *
+     * @throws IllegalStateException if the batch is full
+     */
+    public int newRow() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        rids[size] = null;
+        return size++;
+    }
+
+    /** Set column col of row row to the int v. */
+    public void setInt(int col, int row, int v) {
+        intCols[col][row] = v;
+    }
+
+    /** Set column col of row row to the field f. */
+    public void setField(int col, int row, Field f) {
+        if (intCols[col] != null)
+            intCols[col][row] = ((IntField) f).getValue();
+        else
+            fieldCols[col][row] = f;
+    }
+
+    /** Set the RecordId of row row. */
+    public void setRecordId(int row, RecordId rid) {
+        rids[row] = rid;
+    }
+
+    /**
+     * Append a tuple to the batch.
+     *
+     * @param t a tuple with the same schema as this batch
+     */
+    public void addTuple(Tuple t) {
+        int row = newRow();
+        for (int i = 0; i < intCols.length; i++)
+            setField(i, row, t.getField(i));
+        rids[row] = t.getRecordId();
+    }
+
+    /**
+     * Append the concatenation of two tuples, as produced by a join. The
+     * schema of this batch must be the merge of the two tuples' schemas.
+     */
+    public void addTuple(Tuple left, Tuple right) {
+        int row = newRow();
+        int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            setField(i, row, left.getField(i));
+        for (int i = n1; i < intCols.length; i++)
+            setField(i, row, right.getField(i - n1));
+    }
+
+    /**
+     * Append a row of another batch, starting at column offset of this
+     * batch. Used to build joined rows without materializing tuples.
+     *
+     * @param offset the first column of this batch to write to
+     * @param row the row of this batch being filled (see {@link #newRow})
+     * @param src the batch to copy from
+     * @param srcRow the row of src to copy
+     */
+    public void copyRow(int offset, int row, TupleBatch src, int srcRow) {
+        for (int i = 0; i < src.intCols.length; i++) {
+            if (src.intCols[i] != null)
+                intCols[offset + i][row] = src.intCols[i][srcRow];
+            else
+                fieldCols[offset + i][row] = src.fieldCols[i][srcRow];
+        }
+    }
+
+    /**
+     * Keep only the given rows, in the given order, compacting the batch in
+     * place.
+     *
+     * @param sel the indexes of the rows to keep, in increasing order
+     * @param n the number of entries of sel to use
+     */
+    public void retain(int[] sel, int n) {
+        for (int c = 0; c < intCols.length; c++) {
+            if (sharesColumn(c))
+                continue;// project出来的重复列只压缩一次
+            if (intCols[c] != null) {
+                int[] col = intCols[c];
+                for (int k = 0; k < n; k++)
+                    col[k] = col[sel[k]];
+            } else {
+                Field[] col = fieldCols[c];
+                for (int k = 0; k < n; k++)
+                    col[k] = col[sel[k]];
+            }
+        }
+        for (int k = 0; k < n; k++)
+            rids[k] = rids[sel[k]];
+        size = n;
+    }
+
+    /**
+     * Drop all rows after the first n.
+     */
+    public void truncate(int n) {
+        if (n < size)
+            size = n;
+    }
+
+    /** @return true if column c is the same array as an earlier column */
+    private boolean sharesColumn(int c) {
+        for (int i = 0; i < c; i++)
+            if ((intCols[c] != null && intCols[i] == intCols[c])
+                    || (fieldCols[c] != null && fieldCols[i] == fieldCols[c]))
+                return true;
+        return false;
+    }
+
+    /**
+     * Project the batch onto a subset of its columns. The returned batch
+     * shares its column arrays with this one, so no data is copied.
+     *
+     * @param cols the indexes of the columns to keep, in output order
+     * @param newTd the schema of the projected rows
+     */
+    public TupleBatch project(int[] cols, TupleDesc newTd) {
+        int[][] ic = new int[cols.length][];
+        Field[][] fc = new Field[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            ic[i] = intCols[cols[i]];
+            fc[i] = fieldCols[cols[i]];
+        }
+        return new TupleBatch(newTd, capacity, ic, fc, rids, size);
+    }
+
+    /**
+     * @return an iterator over the rows of this batch as tuples; the adapter
+     *         from batches back to tuple-at-a-time processing.
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int row = 0;
+
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getTuple(row++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -176,6 +176,171 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Aggregating with several worker threads gives the same groups as
+   * aggregating serially, for every operator
+   */
+  @Test public void parallelAggregate() throws Exception {
+    int rows = 20000;
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = i % 97;
+      data[2 * i + 1] = (i * 31) % 1000 - 500;
+    }
+    Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT,
+        Aggregator.Op.SUM_COUNT };
+    for (Aggregator.Op aop : ops) {
+      for (int gfield : new int[] { 0, Aggregator.NO_GROUPING }) {
+        Aggregate serial = new Aggregate(TestUtil.createTupleList(2, data), 1,
+            gfield, aop);
+        Aggregate parallel = new Aggregate(TestUtil.createTupleList(2, data), 1,
+            gfield, aop, 4);
+        serial.open();
+        parallel.open();
+        int count = 0;
+        while (parallel.hasNext()) {
+          parallel.next();
+          count++;
+        }
+        assertEquals(gfield == 0 ? 97 : 1, count);
+        TestUtil.matchAllTuples(serial, parallel);
+        serial.close();
+        parallel.close();
+      }
+    }
+  }
+
+  /**
+   * @return the tuples of op, as strings, sorted
+   */
+  private static java.util.List<String> sortedResult(OpIterator op) throws Exception {
+    java.util.List<String> result = new java.util.ArrayList<String>();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    java.util.Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * A GROUP BY with far more groups than the memory budget spills partitions
+   * and still produces every group exactly once, also after a rewind
+   */
+  @Test public void spillingAggregate() throws Exception {
+    int rows = 20000;
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = (i * 7919) % 5000;
+      data[2 * i + 1] = i % 1000 - 500;
+    }
+    Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.SUM,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (Aggregator.Op aop : ops) {
+      Aggregate inMemory = new Aggregate(TestUtil.createTupleList(2, data), 1,
+          0, aop);
+      Aggregate spilling = new Aggregate(TestUtil.createTupleList(2, data), 1,
+          0, aop);
+      spilling.setMemoryBudget(50);
+      inMemory.open();
+      spilling.open();
+      java.util.List<String> expected = sortedResult(inMemory);
+      assertEquals(5000, expected.size());
+      assertEquals(expected, sortedResult(spilling));
+      // 5000 groups in budgets of 50 need a second level of partitions
+      assertTrue(spilling.getSpilledPartitions() > HashEquiJoin.NUM_PARTITIONS);
+
+      spilling.rewind();
+      assertEquals(expected, sortedResult(spilling));
+      inMemory.close();
+      spilling.close();
+    }
+  }
+
+  /**
+   * Spilled partitions keep string group-by values intact
+   */
+  @Test public void spillingStringGroups() throws Exception {
+    Object[] tups = new Object[2000];
+    for (int i = 0; i < 1000; i++) {
+      tups[2 * i] = "g" + (i % 300);
+      tups[2 * i + 1] = "v" + i;
+    }
+    Aggregate inMemory = new Aggregate(TestUtil.createTupleList(2, tups), 1,
+        0, Aggregator.Op.COUNT);
+    Aggregate spilling = new Aggregate(TestUtil.createTupleList(2, tups), 1,
+        0, Aggregator.Op.COUNT);
+    spilling.setMemoryBudget(20);
+    inMemory.open();
+    spilling.open();
+    assertEquals(sortedResult(inMemory), sortedResult(spilling));
+    assertTrue(spilling.getSpilledPartitions() > 0);
+    inMemory.close();
+    spilling.close();
+  }
+
+  /**
+   * Several aggregates in one Aggregate give the same values as one
+   * Aggregate per aggregate
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregator.Op[] ops = { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+        Aggregator.Op.MAX };
+    Aggregate all = new Aggregate(scan1, new int[] { 1, 1, 1 }, ops,
+        new int[] { 0 });
+    assertEquals(4, all.getTupleDesc().numFields());
+    all.open();
+    int groups = 0;
+    while (all.hasNext()) {
+      Tuple t = all.next();
+      groups++;
+      for (int i = 0; i < ops.length; i++) {
+        Aggregate one = new Aggregate(TestUtil.createTupleList(width1,
+            new int[] { 1, 2, 1, 4, 1, 6, 3, 2, 3, 4, 3, 6, 5, 7 }), 1, 0, ops[i]);
+        one.open();
+        boolean found = false;
+        while (one.hasNext()) {
+          Tuple o = one.next();
+          if (o.getField(0).equals(t.getField(0))) {
+            assertEquals(o.getField(1), t.getField(1 + i));
+            found = true;
+          }
+        }
+        assertTrue(found);
+        one.close();
+      }
+    }
+    assertEquals(3, groups);
+    all.close();
+  }
+
+  /**
+   * Grouping on two columns, also when the groups spill
+   */
+  @Test public void compositeGroups() throws Exception {
+    int rows = 6000;
+    int[] data = new int[rows * 3];
+    for (int i = 0; i < rows; i++) {
+      data[3 * i] = i % 40;
+      data[3 * i + 1] = i % 37;
+      data[3 * i + 2] = i;
+    }
+    Aggregator.Op[] ops = { Aggregator.Op.COUNT, Aggregator.Op.MIN };
+    Aggregate inMemory = new Aggregate(TestUtil.createTupleList(3, data),
+        new int[] { 2, 2 }, ops, new int[] { 0, 1 });
+    Aggregate spilling = new Aggregate(TestUtil.createTupleList(3, data),
+        new int[] { 2, 2 }, ops, new int[] { 0, 1 });
+    spilling.setMemoryBudget(100);
+    inMemory.open();
+    spilling.open();
+    java.util.List<String> expected = sortedResult(inMemory);
+    // 40 and 37 are coprime: every (i % 40, i % 37) pair of 1480 occurs
+    assertEquals(1480, expected.size());
+    assertEquals(expected, sortedResult(spilling));
+    assertTrue(spilling.getSpilledPartitions() > 0);
+    inMemory.close();
+    spilling.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,200 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests of a B+ tree keyed on two fields, (c0, c1), of three-field tuples.
+ */
+public class BTreeCompositeKeyTest extends SimpleDbTestBase {
+	private static final int[] KEY = {0, 1};
+	private static final int PREFIXES = 20;
+	private static final int ROWS = 20000;
+	private static final int IO_COST = 1000;
+
+	private BTreeFile f;
+	private TransactionId tid;
+	private ArrayList<Tuple> tuples;
+
+	/**
+	 * Bulk load a tree of ROWS random tuples whose first field takes
+	 * PREFIXES values, under an internal root page.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		File file = File.createTempFile("composite", ".dat");
+		file.deleteOnExit();
+		f = new BTreeFile(file, KEY, Utility.getTupleDesc(3, "c"));
+		tuples = new ArrayList<Tuple>();
+		Random r = new Random(49);
+		for (int i = 0; i < ROWS; i++)
+			tuples.add(tuple(r.nextInt(PREFIXES), r.nextInt(1000), i));
+		Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(KEY));
+		Database.getCatalog().addTable(f, "composite");
+		BTreeFileEncoder.bulkLoad(f, tuples, BufferPool.getPageSize(),
+				new Type[] {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE}, KEY);
+		assertTrue(f.estimateHeight() > 1);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private Tuple tuple(int a, int b, int c) {
+		Tuple t = new Tuple(f.getTupleDesc());
+		t.setField(0, new IntField(a));
+		t.setField(1, new IntField(b));
+		t.setField(2, new IntField(c));
+		return t;
+	}
+
+	private static int value(Tuple t, int field) {
+		return ((IntField) t.getField(field)).getValue();
+	}
+
+	/** @return the third fields of the tuples of it, in the order it returns them */
+	private static List<Integer> read(DbFileIterator it) throws Exception {
+		List<Integer> result = new ArrayList<Integer>();
+		it.open();
+		while (it.hasNext())
+			result.add(value(it.next(), 2));
+		it.close();
+		return result;
+	}
+
+	/** @return the third fields of the tuples with c0 == a and c1 op b, in key order */
+	private List<Integer> expected(int a, Op op, int b) {
+		List<Integer> result = new ArrayList<Integer>();
+		for (Tuple t : tuples)
+			if (value(t, 0) == a && new IntField(value(t, 1)).compare(op, new IntField(b)))
+				result.add(value(t, 2));
+		return result;
+	}
+
+	private static CompositeField key(int a, int b) {
+		return new CompositeField(new IntField(a), new IntField(b));
+	}
+
+	/**
+	 * Keys are compared on both fields, and the key of a tuple is a
+	 * CompositeField of them
+	 */
+	@Test
+	public void getKey() throws Exception {
+		assertArrayEquals(KEY, f.keyFields());
+		assertEquals(0, f.keyField());
+		assertEquals(key(3, 4), f.getKey(tuple(3, 4, 5)));
+		assertTrue(key(3, 4).compare(Op.LESS_THAN, key(3, 5)));
+		assertTrue(key(3, 4).compare(Op.GREATER_THAN, key(2, 900)));
+		// 较短的键是前缀，和以它开头的键相等
+		assertTrue(key(3, 4).compare(Op.EQUALS, new IntField(3)));
+		assertTrue(key(3, 4).compare(Op.GREATER_THAN, new IntField(2)));
+	}
+
+	/**
+	 * A search on the first field alone returns every tuple with that value,
+	 * in key order
+	 */
+	@Test
+	public void prefixSearch() throws Exception {
+		assertEquals(expected(7, Op.GREATER_THAN_OR_EQ, 0),
+				read(f.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(7)))));
+		List<Integer> below = new ArrayList<Integer>();
+		for (int a = 0; a < 3; a++)
+			below.addAll(expected(a, Op.GREATER_THAN_OR_EQ, 0));
+		assertEquals(below,
+				read(f.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(3)))));
+	}
+
+	/**
+	 * A search on both fields returns the tuples with that key
+	 */
+	@Test
+	public void equalsSearch() throws Exception {
+		int b = value(tuples.get(ROWS / 2), 1), a = value(tuples.get(ROWS / 2), 0);
+		List<Integer> found = read(f.indexIterator(tid, new IndexPredicate(Op.EQUALS, key(a, b))));
+		assertFalse(found.isEmpty());
+		assertEquals(expected(a, Op.EQUALS, b), found);
+	}
+
+	/**
+	 * A range on the second field within a prefix stops at the end of the
+	 * prefix, in both directions
+	 */
+	@Test
+	public void rangeWithinPrefix() throws Exception {
+		for (Op op : new Op[] {Op.LESS_THAN, Op.LESS_THAN_OR_EQ, Op.GREATER_THAN, Op.GREATER_THAN_OR_EQ}) {
+			IndexPredicate ipred = new IndexPredicate(op, key(7, 500), new IntField(7));
+			List<Integer> forward = expected(7, op, 500);
+			assertEquals(forward, read(f.indexIterator(tid, ipred)));
+
+			List<Integer> reverse = read(f.reverseIndexIterator(tid, ipred));
+			Collections.reverse(reverse);
+			assertEquals(forward, reverse);
+		}
+	}
+
+	/**
+	 * Tuples inserted and deleted through the BufferPool keep the tree
+	 * ordered on the whole key
+	 */
+	@Test
+	public void insertDelete() throws Exception {
+		for (int i = 0; i < 1000; i++)
+			Database.getBufferPool().insertTuple(tid, f.getId(), tuple(7, 500, ROWS + i));
+		BTreeChecker.checkRep(f, tid, new HashMap<PageId, Page>(), false);
+		IndexPredicate ipred = new IndexPredicate(Op.EQUALS, key(7, 500));
+		assertEquals(expected(7, Op.EQUALS, 500).size() + 1000, read(f.indexIterator(tid, ipred)).size());
+
+		DbFileIterator it = f.indexIterator(tid, ipred);
+		it.open();
+		ArrayList<Tuple> found = new ArrayList<Tuple>();
+		while (it.hasNext())
+			found.add(it.next());
+		it.close();
+		for (Tuple t : found)
+			Database.getBufferPool().deleteTuple(tid, t);
+		BTreeChecker.checkRep(f, tid, new HashMap<PageId, Page>(), false);
+		assertTrue(read(f.indexIterator(tid, ipred)).isEmpty());
+		assertEquals(expected(7, Op.LESS_THAN, 500), read(f.indexIterator(tid,
+				new IndexPredicate(Op.LESS_THAN, key(7, 500), new IntField(7)))));
+	}
+
+	/**
+	 * The planner searches the tree with an equality on the first field and
+	 * a range on the second
+	 */
+	@Test
+	public void plan() throws Exception {
+		TableStats.setTableStats("composite", new TableStats(f.getId(), IO_COST));
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+				"SELECT * FROM composite WHERE composite.c0 = 7 AND composite.c1 > 900;");
+		OpIterator p = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+		while (p instanceof Operator)
+			p = ((Operator) p).getChildren()[0];
+		assertTrue(p instanceof BTreeScan);
+		IndexPredicate ipred = ((BTreeScan) p).getIndexPredicate();
+		assertEquals(Op.GREATER_THAN, ipred.getOp());
+		assertEquals(key(7, 900), ipred.getField());
+		assertEquals(new IntField(7), ipred.getPrefix());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeCompositeKeyTest.class);
+	}
+}
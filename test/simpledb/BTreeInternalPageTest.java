@@ -166,6 +166,37 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.reverseIterator() over a page with
+	 * unused slots between its entries
+	 */
+	@Test public void testReverseIteratorAfterDelete() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		ArrayList<BTreeEntry> entries = new ArrayList<BTreeEntry>();
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+		// 删掉中间几个entry，在页面里留下空槽
+		for (int i = entries.size() - 3; i > 0; i -= 4)
+			page.deleteKeyAndRightChild(entries.remove(i));
+
+		ArrayList<BTreeEntry> remaining = new ArrayList<BTreeEntry>();
+		it = page.iterator();
+		while (it.hasNext())
+			remaining.add(it.next());
+		assertEquals(entries.size(), remaining.size());
+
+		it = page.reverseIterator();
+		for (int row = remaining.size() - 1; row >= 0; row--) {
+			assertTrue(it.hasNext());
+			BTreeEntry e = it.next();
+			assertEquals(remaining.get(row).getKey(), e.getKey());
+			assertEquals(remaining.get(row).getLeftChild(), e.getLeftChild());
+			assertEquals(remaining.get(row).getRightChild(), e.getRightChild());
+		}
+		assertFalse(it.hasNext());
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.getNumEmptySlots()
 	 */
@@ -0,0 +1,262 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+/**
+ * Tests of a B+ tree keyed on a string field, whose pages are stored in the
+ * compressed format.
+ */
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+	private static final int[] KEY = {0};
+	private static final int ROWS = 20000;
+
+	private BTreeFile f;
+	private TransactionId tid;
+	private ArrayList<Tuple> tuples;
+	private Random r;
+
+	/**
+	 * Bulk load a tree of ROWS tuples (key, i), with keys sharing long
+	 * prefixes, as keys of real data often do.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		r = new Random(50);
+		File file = File.createTempFile("strkey", ".dat");
+		file.deleteOnExit();
+		f = new BTreeFile(file, KEY, new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE},
+				new String[] {"name", "id"}));
+		Database.getCatalog().addTable(f, "strkey");
+		tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < ROWS; i++)
+			tuples.add(tuple(randomKey(), i));
+		Collections.sort(tuples, new BTreeFileEncoder.TupleComparator(KEY));
+		BTreeFileEncoder.bulkLoad(f, tuples, BufferPool.getPageSize(),
+				new Type[] {Type.STRING_TYPE, Type.INT_TYPE}, KEY);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private String randomKey() {
+		return "customer/" + (char) ('a' + r.nextInt(4)) + "/" + r.nextInt(100000);
+	}
+
+	private Tuple tuple(String key, int id) {
+		Tuple t = new Tuple(f.getTupleDesc());
+		t.setField(0, new StringField(key, Type.STRING_LEN));
+		t.setField(1, new IntField(id));
+		return t;
+	}
+
+	private static StringField key(String s) {
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	/** @return the keys and ids of the tuples of it, in the order it returns them */
+	private static List<String> read(DbFileIterator it) throws Exception {
+		List<String> result = new ArrayList<String>();
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			result.add(t.getField(0) + "#" + t.getField(1));
+		}
+		it.close();
+		return result;
+	}
+
+	/** @return the keys and ids of the tuples whose key satisfies op value, in key order */
+	private List<String> expected(Op op, String value) {
+		List<String> result = new ArrayList<String>();
+		for (Tuple t : tuples)
+			if (t.getField(0).compare(op, key(value)))
+				result.add(t.getField(0) + "#" + t.getField(1));
+		return result;
+	}
+
+	/** @return the keys of the tuples of it, in the order it returns them */
+	private static List<String> keys(DbFileIterator it) throws Exception {
+		List<String> result = new ArrayList<String>();
+		for (String s : read(it))
+			result.add(s.substring(0, s.indexOf('#')));
+		return result;
+	}
+
+	private BTreePage root() throws Exception {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+				BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+		return (BTreePage) Database.getBufferPool().getPage(tid, rootPtr.getRootId(), Permissions.READ_ONLY);
+	}
+
+	/**
+	 * The encoding of keys compares in the order of the keys, including
+	 * strings holding 0 bytes and strings prefixing others
+	 */
+	@Test
+	public void encodingOrder() {
+		String[] s = {"", "\0", "\0\0", "\0a", "a", "a\0", "a\0b", "a\1", "ab", "b", "ÿ"};
+		for (String a : s) {
+			for (String b : s) {
+				byte[] x = BTreeKeyCodec.encode(key(a)), y = BTreeKeyCodec.encode(key(b));
+				int c = 0;
+				for (int i = 0; c == 0 && i < Math.min(x.length, y.length); i++)
+					c = (x[i] & 0xFF) - (y[i] & 0xFF);
+				if (c == 0)
+					c = x.length - y.length;
+				assertEquals(a + " " + b, Integer.signum(a.compareTo(b)), Integer.signum(c));
+			}
+			Field[] decoded = BTreeKeyCodec.decode(BTreeKeyCodec.encode(key(a)), f.getTupleDesc(), KEY);
+			assertEquals(key(a), decoded[0]);
+		}
+		CompositeField c = new CompositeField(key("ab"), new IntField(-5));
+		assertEquals(c, BTreeKeyCodec.toKey(BTreeKeyCodec.decode(BTreeKeyCodec.encode(c),
+				new TupleDesc(new Type[] {Type.STRING_TYPE, Type.INT_TYPE}), new int[] {0, 1})));
+	}
+
+	/**
+	 * A separator is the shortest prefix of the right key greater than the
+	 * left key, and the right key when it cannot be cut
+	 */
+	@Test
+	public void separator() {
+		assertEquals(key("apr"), BTreeKeyCodec.separator(key("apple"), key("apricot")));
+		assertEquals(key("b"), BTreeKeyCodec.separator(key("a"), key("banana")));
+		assertEquals(key("ab"), BTreeKeyCodec.separator(key("a"), key("ab")));
+		assertEquals(key("same"), BTreeKeyCodec.separator(key("same"), key("same")));
+		assertEquals(new IntField(7), BTreeKeyCodec.separator(new IntField(3), new IntField(7)));
+		assertEquals(new CompositeField(new IntField(1), key("c"), new IntField(0)),
+				BTreeKeyCodec.separator(new CompositeField(new IntField(1), key("b"), new IntField(9)),
+						new CompositeField(new IntField(1), key("cat"), new IntField(0))));
+	}
+
+	/**
+	 * Pages hold many more string keys than the fixed format allows, so the
+	 * tree is shorter: a root above the leaves, where fixed pages of at most
+	 * 30 tuples or entries need another level
+	 */
+	@Test
+	public void fanout() throws Exception {
+		BTreePage root = root();
+		assertTrue(root instanceof BTreeInternalPage);
+		BTreeInternalPage page = (BTreeInternalPage) root;
+		assertTrue(page.isCompressed());
+		int fixedEntries = (BufferPool.getPageSize() * 8 - 73) / ((Type.STRING_TYPE.getLen() + 4) * 8 + 1);
+		int fixedTuples = (BufferPool.getPageSize() * 8 - 96) / (f.getTupleDesc().getSize() * 8 + 1);
+		assertTrue(ROWS > fixedTuples * (fixedEntries + 1));
+		assertTrue(page.getNumEntries() > fixedEntries);
+
+		BTreeEntry e = page.iterator().next();
+		assertEquals(BTreePageId.LEAF, e.getLeftChild().pgcateg());
+		BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+				e.getLeftChild(), Permissions.READ_ONLY);
+		assertTrue(leaf.isCompressed());
+		assertTrue(leaf.getNumTuples() > 3 * fixedTuples);
+		// 分隔键截短到能区分两页的最短前缀
+		int truncated = 0;
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext()) {
+			e = it.next();
+			BTreeLeafPage right = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+					e.getRightChild(), Permissions.READ_ONLY);
+			String first = ((StringField) right.iterator().next().getField(0)).getValue();
+			String sep = ((StringField) e.getKey()).getValue();
+			assertTrue(first.startsWith(sep));
+			if (sep.length() < first.length())
+				truncated++;
+		}
+		assertTrue(truncated > page.getNumEntries() / 2);
+	}
+
+	/**
+	 * Searches return exactly the tuples whose key matches, forwards and in
+	 * reverse, also after the pages are written out and read back
+	 */
+	@Test
+	public void search() throws Exception {
+		String k = ((StringField) tuples.get(ROWS / 3).getField(0)).getValue();
+		for (int pass = 0; pass < 2; pass++) {
+			for (Op op : new Op[] {Op.EQUALS, Op.LESS_THAN, Op.GREATER_THAN_OR_EQ}) {
+				IndexPredicate ipred = new IndexPredicate(op, key(k));
+				assertEquals(sortedCopy(expected(op, k)), sortedCopy(read(f.indexIterator(tid, ipred))));
+				List<String> reverse = keys(f.reverseIndexIterator(tid, ipred));
+				Collections.reverse(reverse);
+				assertEquals(keys(f.indexIterator(tid, ipred)), reverse);
+			}
+			assertEquals(sortedCopy(expected(Op.GREATER_THAN_OR_EQ, "")), sortedCopy(read(f.iterator(tid))));
+			Database.getBufferPool().transactionComplete(tid);
+			Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+			tid = new TransactionId();
+		}
+	}
+
+	private static List<String> sortedCopy(List<String> l) {
+		List<String> result = new ArrayList<String>(l);
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Random inserts and deletes through the BufferPool split, redistribute
+	 * and merge compressed pages while keeping the tree consistent
+	 */
+	@Test
+	public void insertDelete() throws Exception {
+		Database.resetBufferPool(5000);
+		for (int i = 0; i < 6000; i++) {
+			String k = i % 3 == 0 ? randomKey() + "/" + "x".repeat(r.nextInt(100)) : randomKey();
+			Tuple t = tuple(k, ROWS + i);
+			tuples.add(t);
+			Database.getBufferPool().insertTuple(tid, f.getId(), tuple(k, ROWS + i));
+		}
+		BTreeChecker.checkRep(f, tid, new HashMap<PageId, Page>(), false);
+		assertEquals(ROWS + 6000, read(f.iterator(tid)).size());
+
+		// 删掉大部分元组，触发借和合并
+		DbFileIterator it = f.iterator(tid);
+		it.open();
+		ArrayList<Tuple> found = new ArrayList<Tuple>();
+		while (it.hasNext())
+			found.add(it.next());
+		it.close();
+		Collections.shuffle(found, r);
+		Set<String> deleted = new HashSet<String>();
+		for (Tuple t : found.subList(0, found.size() * 9 / 10)) {
+			deleted.add(t.getField(0) + "#" + t.getField(1));
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		BTreeChecker.checkRep(f, tid, new HashMap<PageId, Page>(), false);
+
+		List<String> remaining = new ArrayList<String>();
+		for (Tuple t : tuples)
+			if (!deleted.contains(t.getField(0) + "#" + t.getField(1)))
+				remaining.add(t.getField(0) + "#" + t.getField(1));
+		assertEquals(sortedCopy(remaining), sortedCopy(read(f.iterator(tid))));
+
+		Database.getBufferPool().transactionComplete(tid);
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		tid = new TransactionId();
+		BTreeChecker.checkRep(f, tid, new HashMap<PageId, Page>(), false);
+		assertEquals(sortedCopy(remaining), sortedCopy(read(f.iterator(tid))));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeStringKeyTest.class);
+	}
+}
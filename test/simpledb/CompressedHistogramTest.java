@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import simpledb.Predicate.Op;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHistogramTest {
+
+  static int[] zipf;
+
+  /**
+   * 100000 zipfian customer ids in [1, 10000]: id 1 alone is about a tenth
+   * of the values
+   */
+  @BeforeClass public static void createSkewedValues() {
+    int ids = 10000;
+    double[] cdf = new double[ids];
+    double sum = 0;
+    for (int i = 0; i < ids; i++) {
+      sum += 1.0 / Math.pow(i + 1, 1.1);
+      cdf[i] = sum;
+    }
+    Random r = new Random(42);
+    zipf = new int[100000];
+    for (int i = 0; i < zipf.length; i++) {
+      int at = Arrays.binarySearch(cdf, r.nextDouble() * sum);
+      zipf[i] = (at < 0 ? -at - 1 : at) + 1;
+    }
+  }
+
+  private static double actual(int[] values, Op op, int v) {
+    int n = 0;
+    for (int x : values)
+      if (new IntField(x).compare(op, new IntField(v)))
+        n++;
+    return (double) n / values.length;
+  }
+
+  /** @return the worst error of h on equality and range predicates over ids 1..50 */
+  private static double worstError(Histogram h) {
+    double worst = 0;
+    for (int v = 1; v <= 50; v++)
+      for (Op op : new Op[] { Op.EQUALS, Op.LESS_THAN, Op.GREATER_THAN_OR_EQ })
+        worst = Math.max(worst, Math.abs(h.estimateSelectivity(op, v) - actual(zipf, op, v)));
+    return worst;
+  }
+
+  /**
+   * Equi-depth buckets split the values evenly, whatever their spread
+   */
+  @Test public void equiDepth() {
+    int[] values = new int[1000];
+    for (int i = 0; i < values.length; i++)
+      values[i] = i < 500 ? i : 1000 * i;// half dense, half very sparse
+    EquiDepthHistogram h = new EquiDepthHistogram(10, values);
+    assertEquals(10, h.numBuckets());
+    assertEquals(0.25, h.estimateSelectivity(Op.LESS_THAN, 250), 0.01);
+    assertEquals(0.75, h.estimateSelectivity(Op.LESS_THAN, 750000), 0.02);
+    assertEquals(0.001, h.estimateSelectivity(Op.EQUALS, 42), 0.0005);
+    assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 999000), 0.0);
+  }
+
+  /**
+   * A value more frequent than a bucket is spread over several buckets
+   * and still estimated exactly
+   */
+  @Test public void heavyValue() {
+    int[] values = new int[100];
+    for (int i = 0; i < values.length; i++)
+      values[i] = i < 40 ? 7 : i;
+    EquiDepthHistogram h = new EquiDepthHistogram(10, values);
+    assertEquals(0.4, h.estimateSelectivity(Op.EQUALS, 7), 1e-9);
+    assertEquals(0.4, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 7), 1e-9);
+  }
+
+  /**
+   * On zipfian data the compressed histogram is far more accurate than
+   * fixed-width buckets with as many buckets
+   */
+  @Test public void skewedAccuracy() {
+    IntHistogram fixed = new IntHistogram(100, 1, 10000);
+    for (int v : zipf)
+      fixed.addValue(v);
+    CompressedHistogram compressed = CompressedHistogram.build(100, 100, zipf);
+
+    double fixedError = worstError(fixed);
+    double compressedError = worstError(compressed);
+    assertTrue(fixedError > 0.05);
+    assertTrue(compressedError < 0.005);
+    assertTrue(compressed.numCommonValues() > 0);
+    assertEquals(actual(zipf, Op.EQUALS, 1), compressed.estimateSelectivity(Op.EQUALS, 1), 1e-9);
+  }
+
+  /**
+   * Building from one-pass summaries, merged from two halves of the values,
+   * is about as accurate as building from the values
+   */
+  @Test public void fromSummaries() {
+    IntHistogram fine = new IntHistogram(4096);
+    FrequentValues frequent = new FrequentValues(400);
+    IntHistogram fine2 = new IntHistogram(4096);
+    FrequentValues frequent2 = new FrequentValues(400);
+    for (int i = 0; i < zipf.length; i++) {
+      (i % 2 == 0 ? fine : fine2).addValue(zipf[i]);
+      (i % 2 == 0 ? frequent : frequent2).addValue(zipf[i]);
+    }
+    fine.merge(fine2);
+    frequent.merge(frequent2);
+    assertEquals(zipf.length, frequent.numValues());
+
+    CompressedHistogram h = CompressedHistogram.build(100, 100, fine, frequent);
+    assertTrue(worstError(h) < 0.01);
+  }
+
+  /**
+   * Misra-Gries counts are lower bounds within n/(capacity+1)
+   */
+  @Test public void frequentValueCounts() {
+    FrequentValues f = new FrequentValues(50);
+    for (int v : zipf)
+      f.addValue(v);
+    int[] counts = new int[10001];
+    for (int v : zipf)
+      counts[v]++;
+    for (int v = 1; v <= 10000; v++) {
+      assertTrue(f.count(v) <= counts[v]);
+      assertTrue(f.count(v) >= counts[v] - zipf.length / 51);
+    }
+    assertEquals(1, f.top(1)[0]);
+  }
+
+  /**
+   * A histogram read back gives the same estimates
+   */
+  @Test public void writeAndRead() throws IOException {
+    CompressedHistogram h = CompressedHistogram.build(20, 10, zipf);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    h.writeTo(new DataOutputStream(bytes));
+    CompressedHistogram read = CompressedHistogram.readFrom(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    for (int v = 0; v < 200; v += 7)
+      assertEquals(h.estimateSelectivity(Op.LESS_THAN_OR_EQ, v),
+          read.estimateSelectivity(Op.LESS_THAN_OR_EQ, v), 1e-12);
+    assertEquals(h.avgSelectivity(), read.avgSelectivity(), 1e-12);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompressedHistogramTest.class);
+  }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class GatherTest extends SimpleDbTestBase {
+
+  private static List<String> drainTuples(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<String>();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    Collections.sort(result);
+    return result;
+  }
+
+  private static OpIterator pipeline(TransactionId tid, HeapFile hf) {
+    Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(300));
+    ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+    return new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new Filter(p, new SeqScan(tid, hf.getId(), "t")));
+  }
+
+  /**
+   * Gathering a filtered, projected scan from four threads returns the same
+   * tuples as running it serially, by batch or by tuple and after a rewind
+   */
+  @Test public void gatherScan() throws Exception {
+    TransactionId tid = new TransactionId();
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, null);
+    List<String> expected = MorselQueueTest.drain(pipeline(tid, hf));
+
+    Gather g = new Gather(pipeline(tid, hf), 4);
+    assertEquals(expected, MorselQueueTest.drain(g));
+
+    g.open();
+    g.next();
+    g.rewind();
+    assertEquals(expected, drainTuples(g));
+    g.close();
+  }
+
+  /**
+   * A child that cannot be split is run on the calling thread
+   */
+  @Test public void serialFallback() throws Exception {
+    Gather g = new Gather(TestUtil.createTupleList(1, new int[] { 3, 1, 2 }), 4);
+    g.open();
+    assertEquals(Arrays.asList("1", "2", "3"), trim(drainTuples(g)));
+    g.close();
+  }
+
+  private static List<String> trim(List<String> l) {
+    List<String> result = new ArrayList<String>();
+    for (String s : l)
+      result.add(s.trim());
+    return result;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GatherTest.class);
+  }
+}
@@ -120,6 +120,26 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getTuple() and HeapPage.getInt()
+     */
+    @Test public void getTupleAndInt() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < EXAMPLE_VALUES.length; ++i) {
+            // read straight from the page image before the tuple is decoded
+            assertEquals(EXAMPLE_VALUES[i][1], page.getInt(i, 1));
+            Tuple tup = page.getTuple(i);
+            assertEquals(i, tup.getRecordId().getTupleNumber());
+            assertEquals(EXAMPLE_VALUES[i][0], ((IntField) tup.getField(0)).getValue());
+            assertEquals(EXAMPLE_VALUES[i][0], page.getInt(i, 0));
+        }
+        assertEquals(null, page.getTuple(EXAMPLE_VALUES.length));
+
+        // an undecoded page must serialize back to the same bytes
+        assertTrue(Arrays.equals(EXAMPLE_DATA, new HeapPage(pid, EXAMPLE_DATA).getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
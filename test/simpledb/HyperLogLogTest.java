@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.io.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class HyperLogLogTest extends SimpleDbTestBase {
+
+  /**
+   * Large counts are within a few standard errors (1.6%) of the truth
+   */
+  @Test public void largeCount() {
+    HyperLogLog h = new HyperLogLog();
+    for (int i = 0; i < 1000000; i++)
+      h.addValue(i * 7919);// 1M distinct values, each added once
+    for (int i = 0; i < 1000000; i += 3)
+      h.addValue(i * 7919);// duplicates do not count
+    assertEquals(1000000, h.estimate(), 50000);
+  }
+
+  /**
+   * Small counts are estimated by linear counting, nearly exactly
+   */
+  @Test public void smallCount() {
+    HyperLogLog h = new HyperLogLog();
+    assertEquals(0, h.estimate());
+    for (int r = 0; r < 10; r++)
+      for (int i = -50; i < 50; i++)
+        h.addValue(i);
+    assertEquals(100, h.estimate(), 3);
+  }
+
+  /**
+   * Merging sketches of overlapping streams counts their union
+   */
+  @Test public void merge() {
+    HyperLogLog left = new HyperLogLog();
+    HyperLogLog right = new HyperLogLog();
+    HyperLogLog all = new HyperLogLog();
+    for (int i = 0; i < 60000; i++) {
+      left.addValue("key" + i);
+      all.addValue("key" + i);
+    }
+    for (int i = 40000; i < 100000; i++) {
+      right.addValue("key" + i);
+      all.addValue("key" + i);
+    }
+    left.merge(right);
+    assertEquals(all.estimate(), left.estimate());
+    assertEquals(100000, left.estimate(), 5000);
+  }
+
+  /**
+   * Sketches of different precisions cannot be merged
+   */
+  @Test(expected = IllegalArgumentException.class) public void mergePrecisions() {
+    new HyperLogLog(10).merge(new HyperLogLog(12));
+  }
+
+  /**
+   * A sketch read back has the same estimate and can still be updated
+   */
+  @Test public void writeAndRead() throws IOException {
+    HyperLogLog h = new HyperLogLog(8);
+    for (int i = 0; i < 5000; i++)
+      h.addValue(i);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    h.writeTo(new DataOutputStream(bytes));
+    HyperLogLog read = HyperLogLog.readFrom(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(h.estimate(), read.estimate());
+    for (int i = 5000; i < 10000; i++)
+      read.addValue(i);
+    assertEquals(10000, read.estimate(), 1500);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HyperLogLogTest.class);
+  }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+  BTreeFile bf;
+  OpIterator outer;
+
+  /**
+   * Initialize each unit test: a B+ tree keyed on its first field with many
+   * duplicate keys, and an outer input with repeated and missing values
+   */
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    bf = BTreeUtility.createRandomBTreeFile(2, 2000, 100, null, null, 0);
+    Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+    outer = TestUtil.createTupleList(2,
+        new int[] { 50, 1,
+                    3, 2,
+                    50, 3,
+                    -5, 4,
+                    99, 5,
+                    150, 6 });
+  }
+
+  private List<String> run(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    op.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Join with IndexNestedLoopJoin and with the nested-loop Join and compare
+   * the results, ignoring order
+   */
+  private void checkAgainstNestedLoops(Predicate.Op op, OpIterator inner,
+      OpIterator innerCopy) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    List<String> actual = run(new IndexNestedLoopJoin(pred, outer, inner));
+    List<String> expected = run(new Join(pred, outer, innerCopy));
+    assertEquals(expected, actual);
+  }
+
+  @Test public void eqJoin() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.EQUALS,
+        new SeqScan(tid, bf.getId(), "b"), new SeqScan(tid, bf.getId(), "b"));
+  }
+
+  @Test public void rangeJoins() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops)
+      checkAgainstNestedLoops(op, new SeqScan(tid, bf.getId(), "b"),
+          new SeqScan(tid, bf.getId(), "b"));
+  }
+
+  /**
+   * Filters over the inner scan are applied to the tuples found in the index
+   */
+  @Test public void innerFilter() throws Exception {
+    Predicate f = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30000));
+    checkAgainstNestedLoops(Predicate.Op.EQUALS,
+        new Filter(f, new SeqScan(tid, bf.getId(), "b")),
+        new Filter(f, new SeqScan(tid, bf.getId(), "b")));
+  }
+
+  /**
+   * An index scan of the inner table can be probed too; its index predicate
+   * is applied to the tuples found like a filter
+   */
+  @Test public void innerIndexScan() throws Exception {
+    IndexPredicate ipred = new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(60));
+    assertTrue(IndexNestedLoopJoin.canProbe(new BTreeScan(tid, bf.getId(), "b", ipred), 0));
+    checkAgainstNestedLoops(Predicate.Op.EQUALS,
+        new BTreeScan(tid, bf.getId(), "b", ipred),
+        new BTreeScan(tid, bf.getId(), "b", ipred));
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, outer,
+        new SeqScan(tid, bf.getId(), "b"));
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      count++;
+    }
+    op.rewind();
+    while (op.hasNext()) {
+      op.next();
+      count--;
+    }
+    assertEquals(0, count);
+    op.close();
+  }
+
+  /**
+   * Only scans of a B+ tree keyed on the inner join field can be probed
+   */
+  @Test public void canProbe() throws Exception {
+    assertTrue(IndexNestedLoopJoin.canProbe(new SeqScan(tid, bf.getId(), "b"), 0));
+    assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, bf.getId(), "b"), 1));
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, hf.getId(), "h"), 0));
+    assertFalse(IndexNestedLoopJoin.canProbe(outer, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notEqualsUnsupported() {
+    new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        outer, new SeqScan(tid, bf.getId(), "b"));
+  }
+
+  /**
+   * BTreeFile.estimateHeight() grows slowly with the size of the file
+   */
+  @Test public void estimateHeight() throws Exception {
+    int h = bf.estimateHeight();
+    assertTrue(h >= 1 && h <= 3);
+    BTreeFile big = BTreeUtility.createRandomBTreeFile(2, 50000, null, null, 0);
+    assertTrue(big.estimateHeight() >= h);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -174,4 +174,47 @@ public class IntHistogramTest {
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 3) < 0.001);
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 8) > 0.01);
 	}
+	
+	/**
+	 * A histogram created without a range widens its buckets to hold values
+	 * far apart, and still gives sensible estimates.
+	 */
+	@Test public void growableRangeTest() {
+		IntHistogram h = new IntHistogram(10);
+		for (int c = 0; c < 1000; c++) {
+			h.addValue(c * 1000);
+			h.addValue(-c);
+		}
+		
+		Assert.assertEquals(-999, h.getMin());
+		Assert.assertEquals(999000, h.getMax());
+		Assert.assertTrue(h.estimateSelectivity(Op.LESS_THAN, -1000) < 0.001);
+		Assert.assertTrue(h.estimateSelectivity(Op.GREATER_THAN, 999000) < 0.001);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 0), 0.1);
+		Assert.assertEquals(0.75, h.estimateSelectivity(Op.LESS_THAN, 500000), 0.1);
+	}
+	
+	/**
+	 * Merging histograms built over parts of the values gives the histogram
+	 * of all of them.
+	 */
+	@Test public void mergeTest() {
+		IntHistogram all = new IntHistogram(16);
+		IntHistogram left = new IntHistogram(16);
+		IntHistogram right = new IntHistogram(16);
+		for (int c = 0; c < 4096; c++) {
+			int v = (c * 23) % 1001 - 500;
+			all.addValue(v);
+			(c % 2 == 0 ? left : right).addValue(v);
+		}
+		left.merge(right);
+		
+		Assert.assertEquals(4096, left.numValues());
+		Assert.assertEquals(all.getMin(), left.getMin());
+		Assert.assertEquals(all.getMax(), left.getMax());
+		for (int v = -600; v <= 600; v += 50) {
+			Assert.assertEquals(all.estimateSelectivity(Op.LESS_THAN, v),
+					left.estimateSelectivity(Op.LESS_THAN, v), 0.05);
+		}
+	}
 }
@@ -126,6 +126,67 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test SUM_COUNT partials and merging them with SC_AVG
+   */
+  @Test public void mergeSumCountScAvg() throws Exception {
+    scan1.open();
+    IntegerAggregator partial = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+    while (scan1.hasNext())
+      partial.mergeTupleIntoGroup(scan1.next());
+    OpIterator it = partial.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new int[] { 1, 12, 3,
+                    3, 12, 3,
+                    5, 7, 1 }), it);
+
+    // two copies of the partials average to the same values
+    IntegerAggregator avgAgg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+    for (int copy = 0; copy < 2; copy++) {
+      it.rewind();
+      avgAgg.mergeBatchIntoGroup(TupleBatch.fromIterator(it, 10));
+    }
+    OpIterator avgIt = avgAgg.iterator();
+    avgIt.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 4, 3, 4, 5, 7 }), avgIt);
+  }
+
+  /**
+   * Merging batches gives the same groups as merging tuples, also when the
+   * group-by field is a string
+   */
+  @Test public void mergeBatchStringGroups() throws Exception {
+    Object[] data = new Object[400];
+    for (int i = 0; i < 200; i++) {
+      data[2 * i] = "g" + (i % 7);
+      data[2 * i + 1] = i;
+    }
+    IntegerAggregator byTuple = new IntegerAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator byBatch = new IntegerAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.AVG);
+    OpIterator scan = TestUtil.createTupleList(2, data);
+    scan.open();
+    while (scan.hasNext())
+      byTuple.mergeTupleIntoGroup(scan.next());
+    scan.rewind();
+    TupleBatch batch;
+    while ((batch = TupleBatch.fromIterator(scan, 64)) != null)
+      byBatch.mergeBatchIntoGroup(batch);
+    OpIterator expected = byTuple.iterator();
+    OpIterator actual = byBatch.iterator();
+    expected.open();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+    int count = 0;
+    actual.rewind();
+    while (actual.hasNext()) {
+      actual.next();
+      count++;
+    }
+    assertEquals(7, count);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
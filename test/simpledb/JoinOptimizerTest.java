@@ -3,8 +3,10 @@ package simpledb;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Random;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -621,4 +623,268 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Check that plan can be executed in order: every join must either start
+     * a new group of tables or connect two different groups, as
+     * LogicalPlan.physicalPlan merges them.
+     */
+    private static void assertValidPlan(Vector<LogicalJoinNode> plan) {
+        HashMap<String, Integer> group = new HashMap<String, Integer>();
+        int next = 0;
+        for (LogicalJoinNode j : plan) {
+            Integer g1 = group.get(j.t1Alias), g2 = group.get(j.t2Alias);
+            Assert.assertTrue("join " + j + " is inside one group",
+                    g1 == null || g2 == null || !g1.equals(g2));
+            int g = g1 != null ? g1 : g2 != null ? g2 : next++;
+            group.put(j.t1Alias, g);
+            group.put(j.t2Alias, g);
+            if (g1 != null && g2 != null)
+                for (String t : group.keySet())
+                    if (group.get(t).equals(g2))
+                        group.put(t, g1);
+        }
+    }
+
+    /**
+     * Above the dynamic programming limit, joins are ordered greedily; the
+     * plan of a long chain must still be valid and fast to find
+     */
+    @Test(timeout = 60000)
+    public void greedyOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        final int IO_COST = 103;
+        final int TABLES = 21;
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        StringBuilder from = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+
+        // 一条20个连接的链，表的大小各不相同
+        for (int i = 0; i < TABLES; i++) {
+            String name = "chain" + i;
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 + 50 * (i % 7),
+                    20 + 10 * (i % 5), null, null, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), IO_COST));
+            filterSelectivities.put(name, 1.0);
+            from.append(i == 0 ? "" : ",").append(name);
+            if (i > 0) {
+                String prev = "chain" + (i - 1);
+                nodes.add(new LogicalJoinNode(prev, name, "c0", "c1",
+                        Predicate.Op.EQUALS));
+                where.append(i == 1 ? "" : " AND ").append(prev)
+                        .append(".c0 = ").append(name).append(".c1");
+            }
+        }
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), "SELECT * FROM " + from + " WHERE "
+                        + where + ";"), nodes);
+
+        // 链上的动态规划很快，20个连接也可以不用贪心
+        int limit = JoinOptimizer.getMaxDpJoins();
+        Vector<LogicalJoinNode> dp, greedy;
+        try {
+            JoinOptimizer.setMaxDpJoins(TABLES);
+            dp = j.orderJoins(stats, filterSelectivities, false);
+            JoinOptimizer.setMaxDpJoins(4);
+            greedy = j.orderJoins(stats, filterSelectivities, false);
+        } finally {
+            JoinOptimizer.setMaxDpJoins(limit);
+        }
+        Assert.assertEquals(nodes.size(), dp.size());
+        assertValidPlan(dp);
+        Assert.assertEquals(nodes.size(), greedy.size());
+        assertValidPlan(greedy);
+    }
+
+    /**
+     * Add a table of two columns, c0 and c1, with rows random values below
+     * max, and its statistics
+     */
+    private static void addTable(String name, int rows, int max,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) throws IOException,
+            DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, max, null,
+                null, "c");
+        Database.getCatalog().addTable(f, name);
+        stats.put(name, new TableStats(f.getId(), 103));
+        filterSelectivities.put(name, 1.0);
+    }
+
+    /** @return an optimizer for the query joining tables with joins */
+    private static JoinOptimizer optimizer(ArrayList<String> tables,
+            Vector<LogicalJoinNode> joins) throws ParsingException {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ");
+        for (int i = 0; i < tables.size(); i++)
+            sql.append(i == 0 ? "" : ",").append(tables.get(i));
+        for (int i = 0; i < joins.size(); i++) {
+            LogicalJoinNode j = joins.get(i);
+            sql.append(i == 0 ? " WHERE " : " AND ").append(j.t1Alias)
+                    .append(".").append(j.f1PureName).append(" = ")
+                    .append(j.t2Alias).append(".").append(j.f2PureName);
+        }
+        return new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), sql + ";"), joins);
+    }
+
+    /**
+     * @return the cost of the cheapest plan of all the tables, found by
+     *         trying every split of every set of tables into two parts
+     *         joined by an edge, with the cost model of JoinEnumerator
+     */
+    private static double exhaustiveCost(JoinOptimizer jo,
+            ArrayList<String> tables, Vector<LogicalJoinNode> joins,
+            HashMap<String, TableStats> stats) {
+        int n = tables.size();
+        double[] cost = new double[1 << n];
+        int[] card = new int[1 << n];
+        boolean[] pkey = new boolean[1 << n];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < n; i++) {
+            TableStats ts = stats.get(tables.get(i));
+            cost[1 << i] = ts.estimateScanCost();
+            card[1 << i] = ts.estimateTableCardinality(1.0);
+        }
+        // 子集的编号都比它自己小，按编号从小到大算
+        for (int set = 1; set < 1 << n; set++) {
+            if (Integer.bitCount(set) < 2)
+                continue;
+            for (int a = (set - 1) & set; a != 0; a = (a - 1) & set) {
+                int b = set & ~a;
+                if (cost[a] == Double.POSITIVE_INFINITY
+                        || cost[b] == Double.POSITIVE_INFINITY)
+                    continue;
+                for (LogicalJoinNode e : joins) {
+                    if ((a & 1 << tables.indexOf(e.t1Alias)) == 0
+                            || (b & 1 << tables.indexOf(e.t2Alias)) == 0)
+                        continue;// 另一个方向在a、b对调时考虑
+                    for (int swap = 0; swap < 2; swap++) {
+                        LogicalJoinNode j = swap == 0 ? e : e.swapInnerOuter();
+                        int outer = swap == 0 ? a : b, inner = swap == 0 ? b : a;
+                        boolean sorted1 = Integer.bitCount(outer) == 1
+                                && jo.isIndexOrdered(j.t1Alias, j.f1PureName);
+                        boolean sorted2 = Integer.bitCount(inner) == 1
+                                && jo.isIndexOrdered(j.t2Alias, j.f2PureName);
+                        double c = jo.estimateJoinCost(j, card[outer], card[inner],
+                                cost[outer], cost[inner], sorted1, sorted2);
+                        if (c >= cost[set])
+                            continue;
+                        boolean pk1 = Integer.bitCount(outer) == 1
+                                ? jo.isPkey(j.t1Alias, j.f1PureName) : pkey[outer];
+                        boolean pk2 = Integer.bitCount(inner) == 1
+                                ? jo.isPkey(j.t2Alias, j.f2PureName) : pkey[inner];
+                        cost[set] = c;
+                        card[set] = jo.estimateJoinCardinality(j, card[outer],
+                                card[inner], pk1, pk2, stats);
+                        pkey[set] = pkey[outer] || pkey[inner]
+                                || jo.isPkey(j.t1Alias, j.f1PureName)
+                                || jo.isPkey(j.t2Alias, j.f2PureName);
+                    }
+                }
+            }
+        }
+        return cost[(1 << n) - 1];
+    }
+
+    /**
+     * The dynamic programming finds the cheapest plan of chains, cycles,
+     * stars and cliques of tables of random sizes, as trying every split of
+     * every set of tables does
+     */
+    @Test(timeout = 60000)
+    public void dynamicProgrammingIsOptimalTest() throws IOException,
+            DbException, TransactionAbortedException, ParsingException {
+        Random r = new Random(46);
+        String[] shapes = { "chain", "cycle", "star", "clique" };
+        for (int round = 0; round < 8; round++) {
+            String shape = shapes[round % shapes.length];
+            int n = shape.equals("clique") ? 4 : 5;
+            HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+            HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+            ArrayList<String> tables = new ArrayList<String>();
+            for (int i = 0; i < n; i++) {
+                String name = shape + round + "t" + i;
+                addTable(name, 50 + r.nextInt(2000), 5 + r.nextInt(500), stats,
+                        filterSelectivities);
+                tables.add(name);
+            }
+            Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+            for (int i = 0; i < n; i++)
+                for (int k = i + 1; k < n; k++) {
+                    boolean edge = shape.equals("clique")
+                            || (shape.equals("star") ? i == 0 : k == i + 1)
+                            || (shape.equals("cycle") && i == 0 && k == n - 1);
+                    if (edge)
+                        nodes.add(new LogicalJoinNode(tables.get(i), tables.get(k),
+                                "c" + r.nextInt(2), "c" + r.nextInt(2),
+                                Predicate.Op.EQUALS));
+                }
+            JoinOptimizer jo = optimizer(tables, nodes);
+            JoinEnumerator e = new JoinEnumerator(jo, nodes, stats, filterSelectivities);
+            e.dynamicProgramming();
+            double expected = exhaustiveCost(jo, tables, nodes, stats);
+            Assert.assertEquals(shape, expected, e.cost((1L << n) - 1), expected * 1e-9);
+            // 环和团里多出来的连接排在最后，不属于连接树
+            Vector<LogicalJoinNode> plan = e.plan(null);
+            Assert.assertEquals(nodes.size(), plan.size());
+            assertValidPlan(new Vector<LogicalJoinNode>(plan.subList(0, n - 1)));
+        }
+    }
+
+    /**
+     * In a chain of two selective joins linked by an expanding one, the
+     * cheapest plan joins each pair first and then joins the two results: a
+     * bushy plan
+     */
+    @Test
+    public void bushyPlanTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        ArrayList<String> tables = new ArrayList<String>();
+        // c0各不相同；bb、bc的c1只有10个不同的值，它们的连接会膨胀
+        for (String name : new String[] { "ba", "bb", "bc", "bd" }) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            for (int i = 0; i < 1000; i++) {
+                ArrayList<Integer> t = new ArrayList<Integer>();
+                t.add(i);
+                t.add(i % 10);
+                tuples.add(t);
+            }
+            HeapFile f = createDuplicateHeapFile(tuples, 2, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), 103));
+            filterSelectivities.put(name, 1.0);
+            tables.add(name);
+        }
+        LogicalJoinNode ab = new LogicalJoinNode("ba", "bb", "c0", "c0", Predicate.Op.EQUALS);
+        LogicalJoinNode bc = new LogicalJoinNode("bb", "bc", "c1", "c1", Predicate.Op.EQUALS);
+        LogicalJoinNode cd = new LogicalJoinNode("bc", "bd", "c0", "c0", Predicate.Op.EQUALS);
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        nodes.add(ab);
+        nodes.add(bc);
+        nodes.add(cd);
+        JoinOptimizer jo = optimizer(tables, nodes);
+        JoinEnumerator e = new JoinEnumerator(jo, nodes, stats, filterSelectivities);
+        e.dynamicProgramming();
+
+        Vector<LogicalJoinNode> plan = e.plan(null);
+        Assert.assertEquals(3, plan.size());
+        Assert.assertEquals(bc, plan.get(2).t1Alias.equals("bb") ? plan.get(2)
+                : plan.get(2).swapInnerOuter());
+        assertValidPlan(plan);
+
+        // (ba join bb) join (bc join bd)
+        double scan = stats.get("ba").estimateScanCost();
+        int card = stats.get("ba").estimateTableCardinality(1.0);
+        double pair = jo.estimateJoinCost(ab, card, card, scan, scan);
+        int pairCard = jo.estimateJoinCardinality(ab, card, card, false, false, stats);
+        double bushy = jo.estimateJoinCost(bc, pairCard, pairCard, pair, pair);
+        Assert.assertEquals(bushy, e.cost(15), bushy * 1e-9);
+        Assert.assertEquals(exhaustiveCost(jo, tables, nodes, stats), e.cost(15), bushy * 1e-9);
+    }
 }
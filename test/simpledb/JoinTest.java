@@ -3,6 +3,9 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +108,77 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for HashEquiJoin.rewind() part way through an outer side that
+   * does not fit in a single hash table chunk
+   */
+  @Test public void hashEquiJoinRewind() throws Exception {
+    int n = HashEquiJoin.MAP_SIZE + 10;
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, new TestUtil.MockScan(0, n, 1),
+        new TestUtil.MockScan(0, n, 1));
+    op.open();
+    assertNotNull(op.next());
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(1));
+      count++;
+    }
+    assertEquals(n, count);
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin with a build side ten times its memory
+   * budget, so that both sides are partitioned to disk
+   */
+  @Test public void hashEquiJoinSpill() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, new TestUtil.MockScan(0, 1000, 2),
+        new TestUtil.MockScan(-500, 500, 1), 100);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      assertTrue(t.getInt(0) < 500);
+      count++;
+    }
+    assertEquals(500, count);
+    assertTrue(op.getSpilledPartitions() > 0);
+
+    // a rewind partitions both sides again
+    op.rewind();
+    count = 0;
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null)
+      count += batch.numRows();
+    assertEquals(500, count);
+    op.close();
+  }
+
+  /**
+   * Unit test for HashEquiJoin when every build tuple has the same key, so
+   * that repartitioning cannot shrink the partition
+   */
+  @Test public void hashEquiJoinSkew() throws Exception {
+    int[] build = new int[300];
+    Arrays.fill(build, 7);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(1, build),
+        TestUtil.createTupleList(1, new int[] { 7, 8, 7 }), 50);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(600, count);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
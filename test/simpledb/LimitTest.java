@@ -0,0 +1,73 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  /**
+   * Limit returns the first tuples of its child, tuple at a time and in
+   * batches
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(5, new TestUtil.MockScan(0, 100, 1));
+    op.open();
+    int count = 0;
+    while (op.hasNext())
+      assertEquals(count++, op.next().getInt(0));
+    assertEquals(5, count);
+
+    op.rewind();
+    TupleBatch batch = op.nextBatch();
+    assertEquals(5, batch.numRows());
+    assertEquals(4, batch.getInt(0, 4));
+    assertEquals(null, op.nextBatch());
+    op.close();
+  }
+
+  /**
+   * Limit stops pulling from a scan once it has enough tuples
+   */
+  @Test public void stopsEarly() throws Exception {
+    final int[] pulled = { 0 };
+    OpIterator child = new TestUtil.MockScan(0, 1000000, 1) {
+      private static final long serialVersionUID = 1L;
+
+      public Tuple next() throws DbException, TransactionAbortedException {
+        pulled[0]++;
+        return super.next();
+      }
+    };
+    Limit op = new Limit(10, child);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.close();
+    assertTrue(pulled[0] <= 10);
+  }
+
+  /**
+   * Parser.stripLimit removes a trailing LIMIT clause that Zql cannot parse
+   */
+  @Test public void parseLimit() throws Exception {
+    Parser p = new Parser();
+    assertEquals("SELECT * FROM t ORDER BY t.a;",
+        p.stripLimit("SELECT * FROM t ORDER BY t.a LIMIT 10;"));
+    assertEquals("select * from t", p.stripLimit("select * from t limit 3"));
+    assertEquals("SELECT * FROM t WHERE t.s = 'x limit 2';",
+        p.stripLimit("SELECT * FROM t WHERE t.s = 'x limit 2';"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
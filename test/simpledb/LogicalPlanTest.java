@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogicalPlanTest extends SimpleDbTestBase {
+
+  private static final int IO_COST = 1000;
+
+  TransactionId tid;
+  ArrayList<ArrayList<Integer>> tuples;
+
+  /**
+   * Initialize each unit test: a table of a few hundred pages stored in a
+   * B+ tree keyed on c0, with columns named c0 and c1
+   */
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 50000, 10000, null,
+        tuples, 0);
+    BTreeFile named = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(named, "idx");
+    TableStats.setTableStats("idx", new TableStats(named.getId(), IO_COST));
+  }
+
+  private OpIterator plan(String sql) throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+  }
+
+  /** @return the operator at the bottom of the leftmost path of plan */
+  private static OpIterator leaf(OpIterator plan) {
+    while (plan instanceof Operator)
+      plan = ((Operator) plan).getChildren()[0];
+    return plan;
+  }
+
+  private static boolean contains(OpIterator plan, Class<?> c) {
+    for (; plan != null; plan = plan instanceof Operator ? ((Operator) plan).getChildren()[0] : null)
+      if (c.isInstance(plan))
+        return true;
+    return false;
+  }
+
+  private static List<Integer> column(OpIterator plan, int field) throws Exception {
+    List<Integer> result = new ArrayList<Integer>();
+    plan.open();
+    while (plan.hasNext())
+      result.add(((IntField) plan.next().getField(field)).getValue());
+    plan.close();
+    return result;
+  }
+
+  /**
+   * A selective predicate on the key is answered by searching the B+ tree
+   */
+  @Test public void pointQuery() throws Exception {
+    OpIterator p = plan("SELECT * FROM idx WHERE idx.c0 = 77;");
+    assertTrue(leaf(p) instanceof BTreeScan);
+    assertEquals(Predicate.Op.EQUALS, ((BTreeScan) leaf(p)).getIndexPredicate().getOp());
+    assertFalse(contains(p, Filter.class));
+
+    int expected = 0;
+    for (ArrayList<Integer> t : tuples)
+      if (t.get(0) == 77)
+        expected++;
+    List<Integer> keys = column(p, 0);
+    assertEquals(expected, keys.size());
+    for (int k : keys)
+      assertEquals(77, k);
+  }
+
+  /**
+   * A range on the key uses the index, and other filters are applied on
+   * top of the index scan
+   */
+  @Test public void rangeQuery() throws Exception {
+    OpIterator p = plan("SELECT * FROM idx WHERE idx.c0 < 500 AND idx.c1 > 5000;");
+    assertTrue(leaf(p) instanceof BTreeScan);
+    assertTrue(contains(p, Filter.class));
+
+    int expected = 0;
+    for (ArrayList<Integer> t : tuples)
+      if (t.get(0) < 500 && t.get(1) > 5000)
+        expected++;
+    assertEquals(expected, column(p, 0).size());
+  }
+
+  /**
+   * A predicate that matches nearly every tuple, or one on a field that is
+   * not the key, is cheaper to evaluate over a sequential scan
+   */
+  @Test public void sequentialScan() throws Exception {
+    assertTrue(leaf(plan("SELECT * FROM idx WHERE idx.c0 >= 0;")) instanceof SeqScan);
+    assertTrue(leaf(plan("SELECT * FROM idx WHERE idx.c1 = 77;")) instanceof SeqScan);
+  }
+
+  /**
+   * Ordering a single table by its key reads the B+ tree in that order
+   * instead of sorting
+   */
+  @Test public void orderByKey() throws Exception {
+    OpIterator p = plan("SELECT * FROM idx WHERE idx.c0 < 9000 ORDER BY idx.c0 DESC LIMIT 20;");
+    assertTrue(leaf(p) instanceof BTreeReverseScan);
+    assertFalse(contains(p, TopK.class));
+
+    List<Integer> all = new ArrayList<Integer>();
+    for (ArrayList<Integer> t : tuples)
+      if (t.get(0) < 9000)
+        all.add(t.get(0));
+    Collections.sort(all, Collections.reverseOrder());
+    assertEquals(all.subList(0, 20), column(p, 0));
+
+    p = plan("SELECT * FROM idx ORDER BY idx.c0;");
+    assertTrue(leaf(p) instanceof BTreeScan);
+    assertFalse(contains(p, OrderBy.class));
+    List<Integer> keys = column(p, 0);
+    assertEquals(tuples.size(), keys.size());
+    for (int i = 1; i < keys.size(); i++)
+      assertTrue(keys.get(i - 1) <= keys.get(i));
+  }
+
+  /**
+   * A table with no statistics is read by a sequential scan, whose tuples
+   * are still sorted
+   */
+  @Test public void orderByKeyWithoutStats() throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM idx ORDER BY idx.c0 DESC;");
+    OpIterator p = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+    assertTrue(leaf(p) instanceof SeqScan);
+    assertTrue(contains(p, OrderBy.class));
+
+    List<Integer> all = new ArrayList<Integer>();
+    for (ArrayList<Integer> t : tuples)
+      all.add(t.get(0));
+    Collections.sort(all, Collections.reverseOrder());
+    assertEquals(all, column(p, 0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogicalPlanTest.class);
+  }
+}
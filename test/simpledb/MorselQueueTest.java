@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MorselQueueTest extends SimpleDbTestBase {
+
+  TransactionId tid;
+  HeapFile hf;
+
+  /**
+   * Initialize each unit test: a table spanning a few dozen pages
+   */
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    hf = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, null);
+    assertTrue(hf.numPages() > 20);
+  }
+
+  static List<String> drain(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<String>();
+    op.open();
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null)
+      for (int i = 0; i < batch.numRows(); i++)
+        result.add(batch.getTuple(i).toString());
+    op.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Threads claiming morsels concurrently get every page exactly once
+   */
+  @Test public void claimFromThreads() throws Exception {
+    final MorselQueue queue = new MorselQueue(hf, 3);
+    final List<Integer> starts = Collections.synchronizedList(new ArrayList<Integer>());
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          int start;
+          while ((start = queue.claim()) >= 0)
+            starts.add(start);
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t : threads)
+      t.join();
+    Collections.sort(starts);
+    assertEquals((hf.numPages() + 2) / 3, starts.size());
+    for (int i = 0; i < starts.size(); i++)
+      assertEquals(3 * i, (int) starts.get(i));
+  }
+
+  /**
+   * The copies of a split pipeline together produce what the pipeline does
+   */
+  @Test public void splitPipeline() throws Exception {
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500));
+    OpIterator plan = new Filter(p, new SeqScan(tid, hf.getId(), "t"));
+    OpIterator[] copies = MorselQueue.split(plan, 4);
+    assertEquals(4, copies.length);
+    List<String> actual = new ArrayList<String>();
+    for (OpIterator c : copies)
+      actual.addAll(drain(c));
+    Collections.sort(actual);
+    List<String> expected = drain(new Filter(p, new SeqScan(tid, hf.getId(), "t")));
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Only scan pipelines over a HeapFile can be split
+   */
+  @Test public void splitOther() throws Exception {
+    assertNull(MorselQueue.split(TestUtil.createTupleList(1, new int[] { 1, 2 }), 2));
+  }
+
+  /**
+   * A parallel Aggregate over a scan runs one pipeline per worker and gets
+   * the serial result
+   */
+  @Test public void parallelAggregateOverScan() throws Exception {
+    Aggregate serial = new Aggregate(new SeqScan(tid, hf.getId(), "t"),
+        new int[] { 1, 2 }, new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT },
+        new int[] { 0 });
+    Aggregate parallel = new Aggregate(new SeqScan(tid, hf.getId(), "t"),
+        new int[] { 1, 2 }, new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT },
+        new int[] { 0 });
+    parallel.setParallelism(4);
+    assertEquals(drain(serial), drain(parallel));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MorselQueueTest.class);
+  }
+}
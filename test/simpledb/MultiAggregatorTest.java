@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class MultiAggregatorTest extends SimpleDbTestBase {
+
+  int width1 = 3;
+  OpIterator scan1;
+  Aggregator.Op[] ops = { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+      Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG };
+  Type[] intTypes = { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+      Type.INT_TYPE, Type.INT_TYPE };
+
+  /**
+   * Initialize each unit test: two group columns and a value column
+   */
+  @Before public void createTupleList() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 1, 2,
+                    1, 1, 4,
+                    1, 2, 6,
+                    3, 1, 2,
+                    3, 1, -4,
+                    3, 1, 9,
+                    1, 2, 7 });
+  }
+
+  private MultiAggregator newAggregator() {
+    return new MultiAggregator(new int[] { 0, 1 },
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new int[] { 2, 2, 2, 2, 2 }, intTypes, ops);
+  }
+
+  /**
+   * (a, b) groups with COUNT, SUM, MIN, MAX and AVG over the third column
+   */
+  private OpIterator expected() {
+    return TestUtil.createTupleList(7,
+        new int[] { 1, 1, 2, 6, 2, 4, 3,
+                    1, 2, 2, 13, 6, 7, 6,
+                    3, 1, 3, 7, -4, 9, 2 });
+  }
+
+  /**
+   * Test MultiAggregator.mergeBatchIntoGroup() over composite groups
+   */
+  @Test public void mergeComposite() throws Exception {
+    scan1.open();
+    MultiAggregator agg = newAggregator();
+    TupleBatch batch;
+    while ((batch = scan1.nextBatch()) != null)
+      agg.mergeBatchIntoGroup(batch);
+    assertEquals(3, agg.numGroups());
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(expected(), it);
+  }
+
+  /**
+   * Test MultiAggregator.merge() of partial aggregates built tuple by tuple
+   */
+  @Test public void mergePartials() throws Exception {
+    scan1.open();
+    MultiAggregator left = newAggregator();
+    MultiAggregator right = newAggregator();
+    for (int i = 0; scan1.hasNext(); i++)
+      (i < 4 ? left : right).mergeTupleIntoGroup(scan1.next());
+    left.merge(right);
+    OpIterator it = left.iterator();
+    it.open();
+    TestUtil.matchAllTuples(expected(), it);
+  }
+
+  /**
+   * Without group-by fields there is a single group
+   */
+  @Test public void noGrouping() throws Exception {
+    scan1.open();
+    MultiAggregator agg = new MultiAggregator(new int[0], new Type[0],
+        new int[] { 2, 0 }, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MAX });
+    agg.mergeBatchIntoGroup(scan1.nextBatch());
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2, new int[] { 26, 3 }), it);
+  }
+
+  /**
+   * Only COUNT can be computed over a string field
+   */
+  @Test(expected = IllegalArgumentException.class) public void sumOfStrings() {
+    new MultiAggregator(new int[] { 0 }, new Type[] { Type.INT_TYPE },
+        new int[] { 1 }, new Type[] { Type.STRING_TYPE },
+        new Aggregator.Op[] { Aggregator.Op.SUM });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MultiAggregatorTest.class);
+  }
+}
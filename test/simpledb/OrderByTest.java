@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  int rows = 2000;
+  int[] data;
+
+  /**
+   * Initialize each unit test: two columns with many duplicates in the first
+   */
+  @Before public void createData() {
+    Random r = new Random(42);
+    data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = r.nextInt(20);
+      data[2 * i + 1] = r.nextInt(1000) - 500;
+    }
+  }
+
+  /**
+   * Sort data on column 0 ascending, then column 1 descending
+   */
+  private List<String> expected() {
+    List<int[]> tups = new ArrayList<int[]>();
+    for (int i = 0; i < rows; i++)
+      tups.add(new int[] { data[2 * i], data[2 * i + 1] });
+    Collections.sort(tups, new Comparator<int[]>() {
+      public int compare(int[] a, int[] b) {
+        if (a[0] != b[0])
+          return Integer.compare(a[0], b[0]);
+        return Integer.compare(b[1], a[1]);
+      }
+    });
+    List<String> result = new ArrayList<String>();
+    for (int[] t : tups)
+      result.add(t[0] + "\t" + t[1]);
+    return result;
+  }
+
+  private List<String> drain(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<String>();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      result.add(t.getField(0) + "\t" + t.getField(1));
+    }
+    return result;
+  }
+
+  private OrderBy orderBy(int memoryBudget) {
+    return new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+        TestUtil.createTupleList(2, data), memoryBudget);
+  }
+
+  /**
+   * Multi-column sort with mixed directions, entirely in memory
+   */
+  @Test public void multiColumnInMemory() throws Exception {
+    OrderBy op = orderBy(OrderBy.DEFAULT_MEMORY_BUDGET);
+    op.open();
+    assertEquals(expected(), drain(op));
+    assertEquals(0, op.getSpilledRuns());
+    op.close();
+  }
+
+  /**
+   * An input ten times the memory budget is sorted in runs and merged
+   */
+  @Test public void externalSort() throws Exception {
+    OrderBy op = orderBy(rows / 10);
+    op.open();
+    assertEquals(expected(), drain(op));
+    assertTrue(op.getSpilledRuns() >= 9);
+
+    // rewinding merges the runs again
+    op.rewind();
+    assertEquals(expected(), drain(op));
+    op.close();
+  }
+
+  /**
+   * More runs than can be merged at once need an intermediate merge pass
+   */
+  @Test public void multiPassMerge() throws Exception {
+    OrderBy op = orderBy(10);
+    op.open();
+    assertTrue(op.getSpilledRuns() > OrderBy.MAX_FAN_IN);
+    assertEquals(expected(), drain(op));
+    op.close();
+  }
+
+  /**
+   * Tuples with equal keys come out in input order, even when the runs are
+   * merged in several passes
+   */
+  @Test public void multiPassMergeStable() throws Exception {
+    int[] tups = new int[rows * 2];
+    List<String> expected = new ArrayList<String>();
+    for (int k = 0; k < 20; k++)
+      for (int i = 0; i < rows; i++)
+        if (data[2 * i] == k)
+          expected.add(k + "\t" + i);
+    for (int i = 0; i < rows; i++) {
+      tups[2 * i] = data[2 * i];
+      tups[2 * i + 1] = i;
+    }
+    OrderBy op = new OrderBy(new int[] { 0 }, new boolean[] { true },
+        TestUtil.createTupleList(2, tups), 10);
+    op.open();
+    assertTrue(op.getSpilledRuns() > OrderBy.MAX_FAN_IN);
+    assertEquals(expected, drain(op));
+    op.close();
+  }
+
+  /**
+   * Spilled runs keep string fields intact
+   */
+  @Test public void externalSortStrings() throws Exception {
+    Object[] tups = new Object[200];
+    for (int i = 0; i < 100; i++) {
+      tups[2 * i] = "s" + (i * 37 % 100);
+      tups[2 * i + 1] = i;
+    }
+    OrderBy op = new OrderBy(new int[] { 0 }, new boolean[] { false },
+        TestUtil.createTupleList(2, tups), 7);
+    op.open();
+    String prev = null;
+    int count = 0;
+    while (op.hasNext()) {
+      String s = ((StringField) op.next().getField(0)).getValue();
+      if (prev != null)
+        assertTrue(prev.compareTo(s) >= 0);
+      prev = s;
+      count++;
+    }
+    assertEquals(100, count);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
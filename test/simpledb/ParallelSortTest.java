@@ -0,0 +1,92 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ParallelSortTest extends SimpleDbTestBase {
+
+  private final int savedParallelism = ParallelSort.getParallelism();
+
+  @After public void restoreParallelism() {
+    ParallelSort.setParallelism(savedParallelism);
+  }
+
+  /**
+   * Sorting longs on several threads gives the same result as Arrays.sort
+   */
+  @Test public void sortLongs() {
+    ParallelSort.setParallelism(4);
+    Random r = new Random(1);
+    int n = 20 * ParallelSort.SEQUENTIAL_THRESHOLD + 17;
+    long[] a = new long[n + 5];
+    for (int i = 0; i < a.length; i++)
+      a[i] = r.nextInt(1000);
+    long[] expected = a.clone();
+    Arrays.sort(expected, 0, n);
+    ParallelSort.sort(a, n);
+    assertArrayEquals(expected, a);
+  }
+
+  /**
+   * Sorting objects on several threads is stable
+   */
+  @Test public void sortStable() {
+    ParallelSort.setParallelism(4);
+    Random r = new Random(2);
+    int n = 20 * ParallelSort.SEQUENTIAL_THRESHOLD + 3;
+    int[][] a = new int[n][];
+    for (int i = 0; i < n; i++)
+      a[i] = new int[] { r.nextInt(100), i };
+    Comparator<int[]> byKey = new Comparator<int[]>() {
+      public int compare(int[] x, int[] y) {
+        return Integer.compare(x[0], y[0]);
+      }
+    };
+    ParallelSort.sort(a, byKey);
+    for (int i = 1; i < n; i++) {
+      int c = byKey.compare(a[i - 1], a[i]);
+      assertEquals(true, c < 0 || (c == 0 && a[i - 1][1] < a[i][1]));
+    }
+  }
+
+  /**
+   * OrderBy gives the same result sorting on one thread and on several
+   */
+  @Test public void orderByParallel() throws Exception {
+    int rows = 5 * ParallelSort.SEQUENTIAL_THRESHOLD;
+    int[] data = new int[rows * 2];
+    Random r = new Random(3);
+    for (int i = 0; i < data.length; i++)
+      data[i] = r.nextInt(500);
+    List<List<String>> results = new ArrayList<List<String>>();
+    for (int threads : new int[] { 1, 4 }) {
+      ParallelSort.setParallelism(threads);
+      OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, true },
+          TestUtil.createTupleList(2, data));
+      List<String> result = new ArrayList<String>();
+      op.open();
+      while (op.hasNext())
+        result.add(op.next().toString());
+      op.close();
+      results.add(result);
+    }
+    assertEquals(rows, results.get(0).size());
+    assertEquals(results.get(0), results.get(1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ParallelSortTest.class);
+  }
+}
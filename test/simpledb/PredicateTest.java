@@ -55,6 +55,23 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for Predicate.filter(int), the primitive fast path
+   */
+  @Test public void filterInt() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(0, op, TestUtil.getField(0));
+      assertTrue(p.isIntPredicate());
+      for (int v = -1; v <= 1; v++) {
+        boolean expected = new IntField(v).compare(op, TestUtil.getField(0));
+        assertTrue(expected == p.filter(v));
+        assertTrue(expected == p.filter(Utility.getHeapTuple(v)));
+      }
+    }
+    assertFalse(new Predicate(0, Predicate.Op.EQUALS,
+        new StringField("a", Type.STRING_LEN)).isIntPredicate());
+  }
+
   /**
    * JUnit suite target
    */
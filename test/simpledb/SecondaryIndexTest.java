@@ -0,0 +1,256 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+  private static final int IO_COST = 1000;
+
+  TransactionId tid;
+  ArrayList<ArrayList<Integer>> tuples;
+  HeapFile hf;
+  SecondaryIndex index;
+
+  /**
+   * Initialize each unit test: a heap table named "heap" with columns c0
+   * and c1, and an index on c1
+   */
+  @Before public void setUp() throws Exception {
+    tid = new TransactionId();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    hf = SystemTestUtil.createRandomHeapFile(2, 20000, 10000, null, tuples, "c");
+    Database.getCatalog().addTable(hf, "heap");
+    File f = File.createTempFile("heap", ".idx");
+    f.deleteOnExit();
+    index = SecondaryIndex.build(f, hf, 1);
+    TableStats.setTableStats("heap", new TableStats(hf.getId(), IO_COST));
+  }
+
+  private static List<Integer> sorted(DbFileIterator it, int field) throws Exception {
+    List<Integer> result = new ArrayList<Integer>();
+    it.open();
+    while (it.hasNext())
+      result.add(((IntField) it.next().getField(field)).getValue());
+    it.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  private List<Integer> expected(Predicate.Op op, int value) {
+    List<Integer> result = new ArrayList<Integer>();
+    for (ArrayList<Integer> t : tuples)
+      if (new IntField(t.get(1)).compare(op, new IntField(value)))
+        result.add(t.get(0));
+    Collections.sort(result);
+    return result;
+  }
+
+  private OpIterator plan(String sql) throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+  }
+
+  /** @return the operator at the bottom of the leftmost path of plan */
+  private static OpIterator leaf(OpIterator plan) {
+    while (plan instanceof Operator)
+      plan = ((Operator) plan).getChildren()[0];
+    return plan;
+  }
+
+  /**
+   * Searching the index returns exactly the tuples of the table whose
+   * indexed field matches
+   */
+  @Test public void lookup() throws Exception {
+    assertEquals(expected(Predicate.Op.EQUALS, 77),
+        sorted(index.iterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(77))), 0));
+    assertEquals(expected(Predicate.Op.LESS_THAN, 1500),
+        sorted(index.iterator(tid, new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(1500))), 0));
+  }
+
+  /**
+   * Tuples inserted and deleted through the BufferPool are added to and
+   * removed from the index
+   */
+  @Test public void maintain() throws Exception {
+    IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(123456));
+    Tuple t = new Tuple(hf.getTupleDesc());
+    t.setField(0, new IntField(-1));
+    t.setField(1, new IntField(123456));
+    Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+    assertEquals(Arrays.asList(-1), sorted(index.iterator(tid, ipred), 0));
+
+    DbFileIterator it = index.iterator(tid, ipred);
+    it.open();
+    Tuple found = it.next();
+    it.close();
+    Database.getBufferPool().deleteTuple(tid, found);
+    assertTrue(sorted(index.iterator(tid, ipred), 0).isEmpty());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The planner searches the index for a selective predicate on the
+   * indexed field, and scans the table otherwise
+   */
+  @Test public void plans() throws Exception {
+    OpIterator p = plan("SELECT * FROM heap WHERE heap.c1 = 77;");
+    assertTrue(leaf(p) instanceof SecondaryIndexScan);
+    assertEquals(index, ((SecondaryIndexScan) leaf(p)).getIndex());
+    List<Integer> keys = new ArrayList<Integer>();
+    p.open();
+    while (p.hasNext())
+      keys.add(((IntField) p.next().getField(0)).getValue());
+    p.close();
+    Collections.sort(keys);
+    assertEquals(expected(Predicate.Op.EQUALS, 77), keys);
+
+    assertTrue(leaf(plan("SELECT * FROM heap WHERE heap.c1 >= 0;")) instanceof SeqScan);
+    assertTrue(leaf(plan("SELECT * FROM heap WHERE heap.c0 = 77;")) instanceof SeqScan);
+  }
+
+  /**
+   * An index on c1 that includes c0 answers queries reading only these
+   * fields from its entries alone
+   */
+  @Test public void indexOnly() throws Exception {
+    File f = File.createTempFile("heap", ".idx");
+    f.deleteOnExit();
+    SecondaryIndex covering = SecondaryIndex.build(f, hf, new int[] { 1 }, new int[] { 0 });
+    assertTrue(covering.covers(0) && covering.covers(1));
+    assertEquals(hf.getTupleDesc(), covering.getCoveredDesc());
+
+    OpIterator p = plan("SELECT heap.c0 FROM heap WHERE heap.c1 < 1500;");
+    assertTrue(leaf(p) instanceof SecondaryIndexScan);
+    SecondaryIndexScan scan = (SecondaryIndexScan) leaf(p);
+    assertEquals(covering, scan.getIndex());
+    assertTrue(scan.isIndexOnly());
+    List<Integer> keys = new ArrayList<Integer>();
+    p.open();
+    while (p.hasNext())
+      keys.add(((IntField) p.next().getField(0)).getValue());
+    p.close();
+    Collections.sort(keys);
+    assertEquals(expected(Predicate.Op.LESS_THAN, 1500), keys);
+
+    // SELECT * 要读整个元组，不只读索引
+    OpIterator all = leaf(plan("SELECT * FROM heap WHERE heap.c1 = 77;"));
+    assertFalse(all instanceof SecondaryIndexScan && ((SecondaryIndexScan) all).isIndexOnly());
+  }
+
+  /**
+   * A field annotated with index in a schema file gets an index, built
+   * from the table the first time
+   */
+  @Test public void loadSchema() throws Exception {
+    File dir = hf.getFile().getParentFile();
+    String name = "s" + UUID.randomUUID().toString().replace("-", "");
+    File dat = new File(dir, name + ".dat");
+    File idx = new File(dir, name + ".b.idx");
+    File schema = new File(dir, name + ".txt");
+    dat.deleteOnExit();
+    idx.deleteOnExit();
+    schema.deleteOnExit();
+    HeapFileEncoder.convert(tuples, dat, BufferPool.getPageSize(), 2);
+    FileWriter w = new FileWriter(schema);
+    w.write(name + " (a int pk, b int index)\n");
+    w.close();
+
+    Database.getCatalog().loadSchema(schema.getAbsolutePath());
+    int id = Database.getCatalog().getTableId(name);
+    List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(id);
+    assertEquals(1, indexes.size());
+    assertEquals(1, indexes.get(0).getField());
+    assertEquals("a", Database.getCatalog().getPrimaryKey(id));
+    assertTrue(idx.length() > 0);
+    assertFalse(Database.getCatalog().getIndexes(hf.getId()).contains(indexes.get(0)));
+    assertEquals(expected(Predicate.Op.EQUALS, 77), sorted(indexes.get(0).iterator(tid,
+        new IndexPredicate(Predicate.Op.EQUALS, new IntField(77))), 0));
+  }
+
+  /**
+   * An index file left from an older version of the table is rebuilt
+   * rather than reused when the schema is loaded again
+   */
+  @Test public void loadSchemaStale() throws Exception {
+    File dir = hf.getFile().getParentFile();
+    String name = "s" + UUID.randomUUID().toString().replace("-", "");
+    File dat = new File(dir, name + ".dat");
+    File idx = new File(dir, name + ".b.idx");
+    File schema = new File(dir, name + ".txt");
+    dat.deleteOnExit();
+    idx.deleteOnExit();
+    new File(idx.getPath() + SecondaryIndex.FINGERPRINT_SUFFIX).deleteOnExit();
+    schema.deleteOnExit();
+    HeapFileEncoder.convert(tuples, dat, BufferPool.getPageSize(), 2);
+    FileWriter w = new FileWriter(schema);
+    w.write(name + " (a int pk, b int index)\n");
+    w.close();
+    Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+    // 表换成别的数据，旧的索引文件还在
+    tuples = new ArrayList<ArrayList<Integer>>();
+    SystemTestUtil.createRandomHeapFile(2, 500, 100, null, tuples, "c");
+    HeapFileEncoder.convert(tuples, dat, BufferPool.getPageSize(), 2);
+    Database.reset();
+    Database.getCatalog().loadSchema(schema.getAbsolutePath());
+    List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(Database.getCatalog().getTableId(name));
+    assertEquals(1, indexes.size());
+    for (int v = 0; v < 100; v += 7)
+      assertEquals(expected(Predicate.Op.EQUALS, v), sorted(indexes.get(0).iterator(tid,
+          new IndexPredicate(Predicate.Op.EQUALS, new IntField(v))), 0));
+  }
+
+  /**
+   * Deleting tuples that share a key removes exactly their own entries
+   */
+  @Test public void deleteDuplicates() throws Exception {
+    IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(-5));
+    for (int i = 0; i < 300; i++) {
+      Tuple t = new Tuple(hf.getTupleDesc());
+      t.setField(0, new IntField(i));
+      t.setField(1, new IntField(-5));
+      Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+    }
+    List<Tuple> found = new ArrayList<Tuple>();
+    DbFileIterator it = index.iterator(tid, ipred);
+    it.open();
+    while (it.hasNext())
+      found.add(it.next());
+    it.close();
+    assertEquals(300, found.size());
+
+    List<Integer> left = new ArrayList<Integer>();
+    for (Tuple t : found) {
+      int v = ((IntField) t.getField(0)).getValue();
+      if (v % 2 == 0)
+        Database.getBufferPool().deleteTuple(tid, t);
+      else
+        left.add(v);
+    }
+    Collections.sort(left);
+    assertEquals(left, sorted(index.iterator(tid, ipred), 0));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SecondaryIndexTest.class);
+  }
+}
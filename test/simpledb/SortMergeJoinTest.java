@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test; neither input is sorted on its first field
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    1, 2,
+                    7, 8,
+                    3, 4,
+                    3, 9 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    3, 4, 5,
+                    1, 2, 3,
+                    5, 6, 7,
+                    2, 3, 4,
+                    3, 0, 0 });
+  }
+
+  /**
+   * Join with SortMergeJoin and with the nested-loop Join and compare the
+   * results, ignoring order
+   */
+  private void checkAgainstNestedLoops(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, scan1, scan2);
+    smj.open();
+    List<String> actual = new ArrayList<String>();
+    while (smj.hasNext())
+      actual.add(smj.next().toString());
+    smj.close();
+
+    Join nl = new Join(pred, scan1, scan2);
+    nl.open();
+    List<String> expected = new ArrayList<String>();
+    while (nl.hasNext())
+      expected.add(nl.next().toString());
+    nl.close();
+
+    Collections.sort(actual);
+    Collections.sort(expected);
+    assertEquals(expected, actual);
+  }
+
+  @Test public void eqJoin() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.EQUALS);
+  }
+
+  @Test public void rangeJoins() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN);
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN_OR_EQ);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN);
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(6, count);
+    op.rewind();
+    while (op.hasNext()) {
+      op.next();
+      count--;
+    }
+    assertEquals(0, count);
+    op.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notEqualsUnsupported() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.isSortedOn() over scans of a BTreeFile and
+   * a HeapFile
+   */
+  @Test public void isSortedOn() throws Exception {
+    TransactionId tid = new TransactionId();
+    BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 500, null, null, 1);
+    Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 500, null, null);
+    Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+    SeqScan bscan = new SeqScan(tid, bf.getId(), "b");
+    assertTrue(SortMergeJoin.isSortedOn(bscan, 1));
+    assertFalse(SortMergeJoin.isSortedOn(bscan, 0));
+    assertTrue(SortMergeJoin.isSortedOn(new BTreeScan(tid, bf.getId(), "b", null), 1));
+    SeqScan hscan = new SeqScan(tid, hf.getId(), "h");
+    assertFalse(SortMergeJoin.isSortedOn(hscan, 0));
+    assertTrue(SortMergeJoin.isSortedOn(new OrderBy(0, true, hscan), 0));
+    assertFalse(SortMergeJoin.isSortedOn(new OrderBy(0, false, hscan), 0));
+
+    // a merge over the index order must match the hash join
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, bscan, new OrderBy(0, true, hscan));
+    HashEquiJoin hj = new HashEquiJoin(pred, new SeqScan(tid, bf.getId(), "b"),
+        new SeqScan(tid, hf.getId(), "h"));
+    smj.open();
+    hj.open();
+    int count = 0;
+    while (smj.hasNext()) {
+      Tuple t = smj.next();
+      assertEquals(t.getField(1), t.getField(2));
+      count++;
+    }
+    while (hj.hasNext()) {
+      hj.next();
+      count--;
+    }
+    assertEquals(0, count);
+    smj.close();
+    hj.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
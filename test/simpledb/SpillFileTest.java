@@ -0,0 +1,81 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SpillFileTest extends SimpleDbTestBase {
+
+  private static final TupleDesc TD = new TupleDesc(
+      new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "a", "b" });
+
+  private static Tuple tuple(int a, String b) {
+    Tuple t = new Tuple(TD);
+    t.setField(0, new IntField(a));
+    t.setField(1, new StringField(b, Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * A spill file nothing was written to reads back empty, and never wrote
+   * anything to disk
+   */
+  @Test public void empty() throws Exception {
+    SpillFile f = new SpillFile(TD);
+    f.seal();
+    assertEquals(0, f.bytes());
+    SpillFile.Reader r = f.reader();
+    assertFalse(r.hasNext());
+    assertNull(r.next());
+    assertNull(r.nextBatch(10));
+    r.close();
+    f.delete();
+  }
+
+  /**
+   * Tuples are read back in the order they were added, as many times as
+   * asked for
+   */
+  @Test public void readBack() throws Exception {
+    SpillFile f = new SpillFile(TD);
+    for (int i = 0; i < 100; i++)
+      f.add(tuple(i, "s" + i));
+    assertEquals(100, f.size());
+    for (int pass = 0; pass < 2; pass++) {
+      SpillFile.Reader r = f.reader();
+      for (int i = 0; i < 100; i++)
+        assertEquals(tuple(i, "s" + i), r.next());
+      assertFalse(r.hasNext());
+      r.close();
+    }
+    assertTrue(f.bytes() > 0);
+    f.delete();
+  }
+
+  /**
+   * No tuples can be added once the file is being read
+   */
+  @Test(expected = IllegalStateException.class) public void addAfterSeal() throws Exception {
+    SpillFile f = new SpillFile(TD);
+    f.reader().close();
+    try {
+      f.add(tuple(1, "x"));
+    } finally {
+      f.delete();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SpillFileTest.class);
+  }
+}
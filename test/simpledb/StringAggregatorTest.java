@@ -53,6 +53,24 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator.merge() of two partial counts
+   */
+  @Test public void mergePartials() throws Exception {
+    scan1.open();
+    StringAggregator a = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    StringAggregator b = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    for (int i = 0; i < 4; i++)
+      a.mergeTupleIntoGroup(scan1.next());
+    while (scan1.hasNext())
+      b.mergeTupleIntoGroup(scan1.next());
+    a.merge(b);
+    OpIterator it = a.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 3, 3, 3, 5, 1 }), it);
+  }
+
   /**
    * Test StringAggregator.iterator() for OpIterator behaviour
    */
@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.IOException;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -151,4 +153,182 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+	
+	/**
+	 * Statistics gathered by several threads over morsels of the table match
+	 * those of a single-threaded scan.
+	 */
+	@Test public void parallelCollectionTest() {
+		TableStats serial = new TableStats(this.tableId, IO_COST, 1);
+		TableStats parallel = new TableStats(this.tableId, IO_COST, 4);
+		
+		Assert.assertEquals(10200, parallel.totalTuples());
+		Assert.assertEquals(serial.estimateScanCost(), parallel.estimateScanCost(), 0.0);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(serial.numDistinct(col), parallel.numDistinct(col));
+			Assert.assertEquals(32, parallel.numDistinct(col), 1);
+			Assert.assertEquals(serial.minValue(col), parallel.minValue(col));
+			Assert.assertEquals(serial.maxValue(col), parallel.maxValue(col));
+			for (int v = -1; v <= 33; v += 3) {
+				Assert.assertEquals(serial.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(v)),
+						parallel.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(v)), 1e-9);
+			}
+		}
+	}
+	
+	/**
+	 * Saved statistics read back give the same estimates, and are only
+	 * reused while the data file is unchanged.
+	 */
+	@Test public void persistedStatisticsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		File saved = File.createTempFile("tablestats", ".stats");
+		saved.deleteOnExit();
+		HashMap<String, TableStats> all = new HashMap<String, TableStats>();
+		all.put(tableName, s);
+		TableStats.writeStatistics(saved, all);
+		
+		TableStats read = TableStats.readStatistics(saved).get(tableName);
+		Assert.assertEquals(s.totalTuples(), read.totalTuples());
+		Assert.assertEquals(s.estimateScanCost(), read.estimateScanCost(), 0.0);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(s.numDistinct(col), read.numDistinct(col));
+			Assert.assertEquals(s.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(16)),
+					read.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(16)), 1e-9);
+		}
+		Assert.assertTrue(read.isCurrent(f));
+		
+		// appending a page makes the saved statistics stale
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 1000; i++)
+			Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(i, 10));
+		Database.getBufferPool().transactionComplete(tid);
+		Database.getBufferPool().flushAllPages();
+		Assert.assertFalse(read.isCurrent(f));
+	}
+	
+	/**
+	 * Tuples inserted after the statistics were computed are counted, and
+	 * their values added to the distinct-value estimates.
+	 */
+	@Test public void insertUpdatesStatisticsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(tableName, s);
+		Assert.assertEquals(32, s.numDistinct(0), 1);
+		
+		ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+		for (int i = 0; i < 100; i++)
+			inserted.add(Utility.getHeapTuple(1000 + i, 10));
+		TransactionId tid = new TransactionId();
+		Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(10), inserted), tableId);
+		insert.open();
+		insert.next();
+		insert.close();
+		Database.getBufferPool().transactionComplete(tid);
+		
+		Assert.assertEquals(10300, s.totalTuples());
+		Assert.assertEquals(132, s.numDistinct(0), 3);
+		Assert.assertEquals(1099, s.maxValue(0));
+	}
+	
+	/**
+	 * Values inserted and then deleted through the BufferPool move the
+	 * selectivity estimates both ways.
+	 */
+	@Test public void deleteUpdatesStatisticsTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(tableName, s);
+		IntField big = new IntField(1000);
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, big), 0.0);
+		
+		TransactionId tid = new TransactionId();
+		ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+		for (int i = 0; i < 100; i++) {
+			Tuple t = Utility.getHeapTuple(1000, 10);
+			Database.getBufferPool().insertTuple(tid, tableId, t);
+			inserted.add(t);
+		}
+		Assert.assertEquals(100.0 / 10300, s.estimateSelectivity(0, Predicate.Op.EQUALS, big), 0.001);
+		Assert.assertEquals(100.0 / 10300, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(500)), 0.001);
+		
+		for (Tuple t : inserted)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(10200, s.totalTuples());
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, big), 0.001);
+		Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(16)), 0.05);
+	}
+	
+	/**
+	 * Once a fifth of the table has changed, its statistics are computed
+	 * again in the background after the transaction commits.
+	 */
+	@Test public void reanalysisTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(tableName, s);
+		
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 2100; i++)
+			Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(32 + i % 32, 10));
+		Assert.assertSame(s, TableStats.getTableStats(tableName));
+		Database.getBufferPool().transactionComplete(tid);
+		TableStats.awaitReanalysis();
+		
+		TableStats fresh = TableStats.getTableStats(tableName);
+		Assert.assertNotSame(s, fresh);
+		Assert.assertEquals(12300, fresh.totalTuples());
+		Assert.assertEquals(64, fresh.numDistinct(0), 2);
+		Assert.assertEquals(2100.0 / 12300,
+				fresh.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(32)), 0.01);
+		Assert.assertFalse(fresh.isStale());
+	}
+	
+	/**
+	 * A table larger than the sample is sampled, and its estimates are
+	 * close and within their bounds; a smaller one is read in full.
+	 */
+	@Test public void sampledStatisticsTest() throws Exception {
+		int pages = f.numPages();
+		try {
+			TableStats.setSamplePages(pages);
+			TableStats full = new TableStats(this.tableId, IO_COST);
+			Assert.assertEquals(0, full.sampledPages());
+			Assert.assertEquals(10200, full.minTotalTuples());
+			Assert.assertEquals(10200, full.maxTotalTuples());
+			
+			TableStats.setSamplePages(pages / 4);
+			TableStats s = new TableStats(this.tableId, IO_COST);
+			Assert.assertEquals(pages / 4, s.sampledPages());
+			Assert.assertEquals(10200, s.totalTuples(), 500);
+			Assert.assertTrue(s.minTotalTuples() <= 10200 && 10200 <= s.maxTotalTuples());
+			// 32个值在样本里都出现了很多次，估计是准确的
+			Assert.assertEquals(32, s.numDistinct(0));
+			Assert.assertEquals(32, s.minDistinct(0));
+			Assert.assertEquals(32, s.maxDistinct(0));
+			Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(16)), 0.05);
+			Assert.assertEquals(s.estimateScanCost(), full.estimateScanCost(), 0.0);
+		} finally {
+			TableStats.setSamplePages(TableStats.DEFAULT_SAMPLE_PAGES);
+		}
+	}
+	
+	/**
+	 * Values that are nearly all distinct are mostly seen once in a sample,
+	 * and the estimate of their number is scaled up accordingly.
+	 */
+	@Test public void sampledDistinctValuesTest() throws Exception {
+		HeapFile unique = SystemTestUtil.createRandomHeapFile(2, 40000, 1 << 30, null, new ArrayList<ArrayList<Integer>>());
+		Database.getCatalog().addTable(unique, SystemTestUtil.getUUID());
+		try {
+			TableStats.setSamplePages(unique.numPages() / 10);
+			TableStats s = new TableStats(unique.getId(), IO_COST);
+			Assert.assertTrue(s.sampledPages() > 0);
+			Assert.assertTrue(s.minDistinct(0) <= 40000 && 40000 <= s.maxDistinct(0));
+			// GEE放大sqrt(N/n)倍，真实值在它的sqrt(N/n)倍以内
+			Assert.assertTrue(s.numDistinct(0) > 40000 / 4);
+			Assert.assertTrue(s.numDistinct(0) > 2 * s.minDistinct(0));
+		} finally {
+			TableStats.setSamplePages(TableStats.DEFAULT_SAMPLE_PAGES);
+		}
+	}
 }
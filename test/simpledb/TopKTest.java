@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopKTest extends SimpleDbTestBase {
+
+  int rows = 3000;
+  int[] data;
+
+  /**
+   * Initialize each unit test: two columns with many duplicates in the first
+   */
+  @Before public void createData() {
+    Random r = new Random(7);
+    data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = r.nextInt(50);
+      data[2 * i + 1] = i;
+    }
+  }
+
+  private List<String> drain(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<String>();
+    op.open();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    op.close();
+    return result;
+  }
+
+  /**
+   * TopK must return exactly the prefix of the full sort, including the
+   * order of tuples with equal keys
+   */
+  private void checkAgainstOrderBy(int[] fields, boolean[] ascs, int k)
+      throws Exception {
+    List<String> all = drain(new OrderBy(fields, ascs, TestUtil.createTupleList(2, data)));
+    List<String> top = drain(new TopK(fields, ascs, k, TestUtil.createTupleList(2, data)));
+    assertEquals(all.subList(0, Math.min(k, rows)), top);
+  }
+
+  @Test public void singleIntKey() throws Exception {
+    checkAgainstOrderBy(new int[] { 0 }, new boolean[] { true }, 10);
+    checkAgainstOrderBy(new int[] { 0 }, new boolean[] { false }, 10);
+    checkAgainstOrderBy(new int[] { 0 }, new boolean[] { true }, 1);
+  }
+
+  @Test public void multiColumn() throws Exception {
+    checkAgainstOrderBy(new int[] { 0, 1 }, new boolean[] { false, false }, 100);
+    checkAgainstOrderBy(new int[] { 0, 1 }, new boolean[] { true, false }, 100);
+  }
+
+  @Test public void limitBeyondInput() throws Exception {
+    checkAgainstOrderBy(new int[] { 0 }, new boolean[] { true }, rows + 5);
+  }
+
+  @Test public void limitZero() throws Exception {
+    assertEquals(0, drain(new TopK(new int[] { 0 }, new boolean[] { true }, 0,
+        TestUtil.createTupleList(2, data))).size());
+  }
+
+  /**
+   * Unit test for TopK.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    TopK op = new TopK(new int[] { 1 }, new boolean[] { false }, 3,
+        TestUtil.createTupleList(2, data));
+    op.open();
+    while (op.hasNext())
+      op.next();
+    op.rewind();
+    assertEquals(rows - 1, op.next().getInt(1));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopKTest.class);
+  }
+}
@@ -0,0 +1,171 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // enough rows to span several pages and several batches
+        hf = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, tuples);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Drain op through nextBatch, checking that no batch is empty. */
+    private static List<Tuple> drainBatches(OpIterator op) throws Exception {
+        List<Tuple> out = new ArrayList<Tuple>();
+        TupleBatch batch;
+        while ((batch = op.nextBatch()) != null) {
+            assertTrue(batch.numRows() > 0);
+            assertTrue(batch.numRows() <= TupleBatch.DEFAULT_SIZE);
+            Iterator<Tuple> it = batch.iterator();
+            while (it.hasNext())
+                out.add(it.next());
+        }
+        return out;
+    }
+
+    private static List<Tuple> drainTuples(OpIterator op) throws Exception {
+        List<Tuple> out = new ArrayList<Tuple>();
+        while (op.hasNext())
+            out.add(op.next());
+        return out;
+    }
+
+    private static void assertSameTuples(List<Tuple> expected, List<Tuple> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+    }
+
+    /**
+     * Unit test for TupleBatch.retain() and TupleBatch.project()
+     */
+    @Test
+    public void retainAndProject() {
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2), 4);
+        for (int i = 0; i < 4; i++)
+            batch.addTuple(Utility.getHeapTuple(new int[] { i, 10 * i }));
+        assertTrue(batch.isFull());
+
+        batch.retain(new int[] { 1, 3 }, 2);
+        assertEquals(2, batch.numRows());
+        assertEquals(3, batch.getInt(0, 1));
+        assertEquals(new IntField(30), batch.getField(1, 1));
+
+        TupleBatch proj = batch.project(new int[] { 1, 1 }, Utility.getTupleDesc(2));
+        proj.retain(new int[] { 1 }, 1);
+        assertEquals(1, proj.numRows());
+        assertEquals(30, proj.getInt(0, 0));
+        assertEquals(30, proj.getInt(1, 0));
+    }
+
+    /**
+     * Unit test for SeqScan.nextBatch(), also mixed with calls to next()
+     */
+    @Test
+    public void seqScan() throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId(), "t");
+        scan.open();
+        List<Tuple> expected = drainTuples(scan);
+        assertEquals(tuples.size(), expected.size());
+
+        scan.rewind();
+        assertSameTuples(expected, drainBatches(scan));
+
+        scan.rewind();
+        List<Tuple> mixed = new ArrayList<Tuple>();
+        mixed.add(scan.next());
+        mixed.addAll(drainBatches(scan));
+        assertSameTuples(expected, mixed);
+        scan.close();
+    }
+
+    /**
+     * Unit test for Filter, Project and Aggregate over batches; the results
+     * must match the tuple at a time path.
+     */
+    @Test
+    public void filterProjectAggregate() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        ArrayList<Type> types = new ArrayList<Type>(Arrays.asList(Type.INT_TYPE, Type.INT_TYPE));
+        Predicate pred = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30));
+
+        OpIterator op = new Project(fields, types,
+                new Filter(pred, new SeqScan(tid, hf.getId(), "t")));
+        op.open();
+        List<Tuple> expected = drainTuples(op);
+        op.rewind();
+        assertTrue(op.hasNext());
+        List<Tuple> actual = new ArrayList<Tuple>();
+        actual.add(op.next());
+        actual.addAll(drainBatches(op));
+        assertSameTuples(expected, actual);
+        op.close();
+
+        int sum = 0;
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(1) < 30)
+                sum += t.get(2);
+        Aggregate agg = new Aggregate(op, 0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        agg.open();
+        assertEquals(new IntField(sum), agg.next().getField(0));
+        agg.close();
+    }
+
+    /**
+     * Unit test for HashEquiJoin.nextBatch() and OrderBy over batches
+     */
+    @Test
+    public void joinAndOrderBy() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        OpIterator outer = new Filter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(10)),
+                new SeqScan(tid, hf.getId(), "a"));
+        HashEquiJoin join = new HashEquiJoin(pred, outer, new SeqScan(tid, hf.getId(), "b"));
+        join.open();
+        List<Tuple> expected = drainTuples(join);
+        join.rewind();
+        List<Tuple> actual = new ArrayList<Tuple>();
+        actual.add(join.next());
+        actual.addAll(drainBatches(join));
+        assertEquals(expected.size(), actual.size());
+        join.close();
+
+        OrderBy ob = new OrderBy(4, false, join);
+        ob.open();
+        List<Tuple> sorted = drainBatches(ob);
+        assertEquals(expected.size(), sorted.size());
+        for (int i = 1; i < sorted.size(); i++)
+            assertTrue(sorted.get(i - 1).getInt(4) >= sorted.get(i).getInt(4));
+        ob.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
@@ -25,6 +25,9 @@ public class TupleTest extends SimpleDbTestBase {
         tup.setField(0, new IntField(1));
         tup.setField(1, new IntField(37));
 
+        assertEquals(1, tup.getInt(0));
+        assertEquals(37, tup.getInt(1));
+
         assertEquals(new IntField(1), tup.getField(0));
         assertEquals(new IntField(37), tup.getField(1));
     }